@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client;
+
+import java.util.List;
+
+/**
+ * Builds bucket configurations in the layout the cluster streams them, so
+ * benchmarks can parse them like the client does.
+ */
+public final class BenchmarkConfigs {
+
+  private BenchmarkConfigs() {
+    // Empty
+  }
+
+  /**
+   * Builds the configuration of a couchbase bucket with one replica.
+   *
+   * Vbuckets are spread round-robin over the servers, the replica of each
+   * vbucket lives on the next server.
+   *
+   * @param servers the memcached addresses of the servers.
+   * @param vbuckets the number of vbuckets.
+   * @return the configuration as JSON.
+   */
+  public static String bucket(List<String> servers, int vbuckets) {
+    int[][] map = new int[vbuckets][2];
+    for (int i = 0; i < vbuckets; i++) {
+      map[i][0] = i % servers.size();
+      map[i][1] = servers.size() > 1 ? (i + 1) % servers.size() : -1;
+    }
+    return bucket(servers, map);
+  }
+
+  /**
+   * Builds the configuration of a couchbase bucket with the given vbucket
+   * map.
+   *
+   * @param servers the memcached addresses of the servers.
+   * @param map the index of the master and the replica server per vbucket.
+   * @return the configuration as JSON.
+   */
+  public static String bucket(List<String> servers, int[][] map) {
+    StringBuilder json = new StringBuilder(32 * 1024);
+    json.append("{\"name\":\"default\",\"bucketType\":\"membase\",")
+      .append("\"streamingUri\":\"/pools/default/bucketsStreaming/default\",")
+      .append("\"nodes\":[");
+    for (int i = 0; i < servers.size(); i++) {
+      String host = servers.get(i).substring(0, servers.get(i).indexOf(':'));
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append("{\"status\":\"healthy\",\"hostname\":\"").append(host)
+        .append(":8091\",\"couchApiBase\":\"http://").append(host)
+        .append(":8092/default\",\"ports\":{\"proxy\":11211,")
+        .append("\"direct\":11210}}");
+    }
+    json.append("],\"vBucketServerMap\":{\"hashAlgorithm\":\"CRC\",")
+      .append("\"numReplicas\":1,\"serverList\":[");
+    for (int i = 0; i < servers.size(); i++) {
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append('"').append(servers.get(i)).append('"');
+    }
+    json.append("],\"vBucketMap\":[");
+    for (int i = 0; i < map.length; i++) {
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append('[').append(map[i][0]).append(',').append(map[i][1])
+        .append(']');
+    }
+    json.append("]}}");
+    return json.toString();
+  }
+
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client;
+
+import com.couchbase.client.vbucket.ConfigurationProvider;
+import com.couchbase.client.vbucket.Reconfigurable;
+import com.couchbase.client.vbucket.config.Bucket;
+import com.couchbase.client.vbucket.config.ConfigurationParserJSON;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import net.spy.memcached.AddrUtil;
+import net.spy.memcached.ConnectionObserver;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.StoreType;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures how many operations per second {@link CouchbaseConnection} can
+ * enqueue and complete against a {@link StandInNode}.
+ *
+ * A window bounds the operations in flight, so the benchmark measures the
+ * sustained rate of the pipeline rather than how fast the queues fill up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ConnectionEnqueueBenchmark {
+
+  private static final int KEYS = 1024;
+
+  @Param({"1024"})
+  private int window;
+
+  private StandInNode node;
+  private CouchbaseConnection connection;
+  private BinaryOperationFactory operations;
+  private Semaphore inFlight;
+  private String[] keys;
+  private byte[] value;
+  private int next;
+
+  @Setup
+  public void setup() throws Exception {
+    node = new StandInNode();
+    final Bucket bucket = new ConfigurationParserJSON().parseBucket(
+      BenchmarkConfigs.bucket(Arrays.asList(node.getAddress()), 1024));
+    CouchbaseConnectionFactory factory = new CouchbaseConnectionFactoryMock(
+      Arrays.asList(URI.create("http://127.0.0.1:8091/pools")), "default",
+      "", new StaticConfigurationProvider(bucket));
+    operations = new BinaryOperationFactory();
+    connection = new CouchbaseConnection(factory.getReadBufSize(), factory,
+      AddrUtil.getAddresses(node.getAddress()),
+      Collections.<ConnectionObserver>emptyList(), factory.getFailureMode(),
+      operations);
+
+    inFlight = new Semaphore(window);
+    keys = new String[KEYS];
+    for (int i = 0; i < KEYS; i++) {
+      keys[i] = "user::" + i;
+    }
+    value = new byte[128];
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    inFlight.tryAcquire(window, 10, TimeUnit.SECONDS);
+    connection.shutdown();
+    node.close();
+  }
+
+  @Benchmark
+  public void enqueueSet() throws InterruptedException {
+    inFlight.acquire();
+    String key = keys[next++ & (KEYS - 1)];
+    connection.addOperation(key, operations.store(StoreType.set, key, 0, 0,
+      value, new StoreOperation.Callback() {
+        @Override
+        public void gotData(String key, long cas) {
+        }
+
+        @Override
+        public void receivedStatus(OperationStatus status) {
+        }
+
+        @Override
+        public void complete() {
+          inFlight.release();
+        }
+      }));
+  }
+
+  /**
+   * Serves a fixed bucket configuration.
+   */
+  static class StaticConfigurationProvider implements ConfigurationProvider {
+
+    private final Bucket bucket;
+
+    StaticConfigurationProvider(Bucket bucket) {
+      this.bucket = bucket;
+    }
+
+    @Override
+    public Bucket getBucketConfiguration(String bucketname) {
+      return bucket;
+    }
+
+    @Override
+    public void updateBucket(String bucketname, Bucket newBucket) {
+    }
+
+    @Override
+    public void subscribe(String bucketName, Reconfigurable rec) {
+    }
+
+    @Override
+    public void markForResubscribe(String bucketName, Reconfigurable rec) {
+    }
+
+    @Override
+    public void unsubscribe(String vbucketName, Reconfigurable rec) {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public String getAnonymousAuthBucket() {
+      return "default";
+    }
+
+    @Override
+    public void finishResubscribe() {
+    }
+
+    @Override
+    public Reconfigurable getReconfigurable() {
+      return null;
+    }
+
+    @Override
+    public String getBucket() {
+      return bucket.getName();
+    }
+
+    @Override
+    public void updateBaseListFromConfig(List<URI> baseList) {
+    }
+
+  }
+
+}
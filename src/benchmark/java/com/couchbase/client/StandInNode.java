@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A local stand-in for a memcached node which answers every binary request
+ * with a successful, empty response.
+ *
+ * It does just enough for the client to keep its pipeline moving, so the
+ * cost measured is the client's own.
+ */
+public class StandInNode implements Runnable {
+
+  private static final int HEADER_LENGTH = 24;
+  private static final byte RESPONSE_MAGIC = (byte) 0x81;
+
+  private final ServerSocketChannel server;
+  private final List<SocketChannel> clients =
+    new CopyOnWriteArrayList<SocketChannel>();
+  private volatile boolean running = true;
+
+  /**
+   * Starts listening on an ephemeral port of the loopback interface.
+   *
+   * @throws IOException if the port could not be bound.
+   */
+  public StandInNode() throws IOException {
+    server = ServerSocketChannel.open();
+    server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+    Thread acceptor = new Thread(this, "Couchbase/StandInNode");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * Returns the address the node listens on, like {@code 127.0.0.1:1234}.
+   *
+   * @return the address.
+   */
+  public String getAddress() {
+    return "127.0.0.1:" + server.socket().getLocalPort();
+  }
+
+  @Override
+  public void run() {
+    while (running) {
+      try {
+        final SocketChannel client = server.accept();
+        client.socket().setTcpNoDelay(true);
+        clients.add(client);
+        Thread responder = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            respond(client);
+          }
+        }, "Couchbase/StandInNode " + client.socket().getPort());
+        responder.setDaemon(true);
+        responder.start();
+      } catch (IOException e) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Reads requests from a connection and answers each of them.
+   *
+   * Responses to requests which arrived together are written together, like
+   * a real node does.
+   */
+  private void respond(SocketChannel client) {
+    ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+    ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+    try {
+      while (running && client.read(in) >= 0) {
+        in.flip();
+        while (in.remaining() >= HEADER_LENGTH) {
+          int start = in.position();
+          int bodyLength = in.getInt(start + 8);
+          if (in.remaining() < HEADER_LENGTH + bodyLength) {
+            break;
+          }
+          if (out.remaining() < HEADER_LENGTH) {
+            flush(client, out);
+          }
+          out.put(RESPONSE_MAGIC);
+          out.put(in.get(start + 1));
+          out.putShort((short) 0);
+          out.putInt(0);
+          out.putInt(0);
+          out.putInt(in.getInt(start + 12));
+          out.putLong(1);
+          in.position(start + HEADER_LENGTH + bodyLength);
+        }
+        in.compact();
+        flush(client, out);
+      }
+    } catch (IOException e) {
+      // the client went away
+    }
+  }
+
+  private static void flush(SocketChannel client, ByteBuffer out)
+    throws IOException {
+    out.flip();
+    while (out.hasRemaining()) {
+      client.write(out);
+    }
+    out.clear();
+  }
+
+  /**
+   * Stops accepting connections and closes the open ones.
+   */
+  public void close() {
+    running = false;
+    try {
+      server.close();
+    } catch (IOException e) {
+      // ignored
+    }
+    for (SocketChannel client : clients) {
+      try {
+        client.close();
+      } catch (IOException e) {
+        // ignored
+      }
+    }
+  }
+
+}
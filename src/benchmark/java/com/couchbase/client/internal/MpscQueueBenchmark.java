@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the throughput of the operation input queue with a single
+ * consuming I/O thread and several producers.
+ *
+ * The ArrayBlockingQueue used by default is compared with the
+ * MpscBlockingQueue. The consumer drains in batches like the I/O thread
+ * does when it copies the input queue into the write queue. The score of
+ * the producers is the number of enqueued operations, the number of
+ * producers can be changed with "-tg 1,64".
+ *
+ * Producers give up after a short wait on a full queue, so they do not
+ * block forever once the consumer has finished its iteration.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MpscQueueBenchmark {
+
+  private static final int CAPACITY = 16384;
+  private static final Object ITEM = new Object();
+
+  @Param({"array", "mpsc"})
+  private String queueType;
+
+  private BlockingQueue<Object> queue;
+
+  @Setup
+  public void setup() {
+    if ("array".equals(queueType)) {
+      queue = new ArrayBlockingQueue<Object>(CAPACITY);
+    } else {
+      queue = new MpscBlockingQueue<Object>(CAPACITY);
+    }
+  }
+
+  /**
+   * The batch the consumer drains into.
+   */
+  @State(Scope.Thread)
+  public static class Batch {
+    private final List<Object> items = new ArrayList<Object>(CAPACITY);
+  }
+
+  @Benchmark
+  @Group("transfer")
+  @GroupThreads(8)
+  public boolean produce() throws InterruptedException {
+    return queue.offer(ITEM, 1, TimeUnit.MILLISECONDS);
+  }
+
+  @Benchmark
+  @Group("transfer")
+  @GroupThreads(1)
+  public int consume(Batch batch) {
+    int drained = queue.drainTo(batch.items);
+    if (drained == 0) {
+      Thread.yield();
+    }
+    batch.items.clear();
+    return drained;
+  }
+
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.mock;
+
+import com.couchbase.client.CouchbaseClient;
+import com.couchbase.client.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import net.spy.memcached.internal.OperationFuture;
+
+/**
+ * Drives a {@link CouchbaseClient} against a {@link MockCluster} and prints
+ * the throughput, errors and latencies of every second.
+ *
+ * Every worker thread runs a closed loop of gets and sets on random keys.
+ * The key sequence of each worker is seeded, so two runs with the same
+ * arguments issue the same operations. A scenario changes the cluster while
+ * the load is running, e.g. to measure how long the client needs to follow
+ * a rebalance.
+ *
+ * Arguments are given as name=value pairs, see {@link #DEFAULTS} for the
+ * names and their defaults. The scenario is one of "none", "failover",
+ * "crash" (stop a node and fail it over five seconds later),
+ * "rebalance-in", "rebalance-out" and "slow-node" (100ms on one node).
+ *
+ * This is not run as part of the unit tests, start it through its main
+ * method or the load-generator target of the build.
+ */
+public final class LoadGenerator {
+
+  private static final String[][] DEFAULTS = {
+    {"nodes", "4"},
+    {"vbuckets", "1024"},
+    {"threads", "16"},
+    {"seconds", "30"},
+    {"keys", "10000"},
+    {"valueSize", "256"},
+    {"readRatio", "0.8"},
+    {"latencyMicros", "0"},
+    {"scenario", "none"},
+    {"scenarioAt", "10"},
+    {"seed", "42"},
+  };
+
+  private static final long CRASH_DETECTION_SECONDS = 5;
+
+  private final Map<String, String> options;
+  private final AtomicLong operations = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+  private final AtomicLong totalErrors = new AtomicLong();
+  private final AtomicReference<LatencyHistogram> interval =
+    new AtomicReference<LatencyHistogram>(new LatencyHistogram());
+  private final LatencyHistogram total = new LatencyHistogram();
+  private volatile boolean running = true;
+
+  private LoadGenerator(Map<String, String> options) {
+    this.options = options;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<String, String>();
+    for (String[] option : DEFAULTS) {
+      options.put(option[0], option[1]);
+    }
+    for (String arg : args) {
+      int equals = arg.indexOf('=');
+      if (equals < 0 || !options.containsKey(arg.substring(0, equals))) {
+        throw new IllegalArgumentException("Unknown argument " + arg);
+      }
+      options.put(arg.substring(0, equals), arg.substring(equals + 1));
+    }
+    System.out.println("Options: " + options);
+    new LoadGenerator(options).run();
+    System.exit(0);
+  }
+
+  private void run() throws Exception {
+    MockCluster cluster = new MockCluster(intOption("nodes"),
+      intOption("vbuckets"));
+    cluster.setLatency(intOption("latencyMicros"), TimeUnit.MICROSECONDS);
+    cluster.start();
+    CouchbaseClient client = new CouchbaseClient(cluster.getBootstrapUris(),
+      cluster.getBucketName(), "");
+    try {
+      byte[] value = new byte[intOption("valueSize")];
+      Random random = new Random(intOption("seed"));
+      random.nextBytes(value);
+      preload(client, value);
+
+      int seconds = intOption("seconds");
+      List<Thread> workers = startWorkers(client, value);
+      Thread scenario = startScenario(cluster);
+      long start = System.nanoTime();
+      for (int second = 1; second <= seconds; second++) {
+        long next = start + TimeUnit.SECONDS.toNanos(second);
+        TimeUnit.NANOSECONDS.sleep(Math.max(0, next - System.nanoTime()));
+        report(second, cluster);
+      }
+      running = false;
+      scenario.interrupt();
+      for (Thread worker : workers) {
+        worker.join();
+      }
+
+      System.out.println("Total: " + total.getCount() + " ops ("
+        + total.getCount() / seconds + " ops/s), " + totalErrors.get()
+        + " errors, p50=" + total.getValueAtPercentile(50) + "us p99="
+        + total.getValueAtPercentile(99) + "us p99.9="
+        + total.getValueAtPercentile(99.9) + "us max=" + total.getMax()
+        + "us");
+    } finally {
+      client.shutdown(10, TimeUnit.SECONDS);
+      cluster.stop();
+    }
+  }
+
+  /**
+   * Stores every key once, so reads hit existing documents.
+   */
+  private void preload(CouchbaseClient client, byte[] value)
+    throws Exception {
+    int keys = intOption("keys");
+    List<OperationFuture<Boolean>> pending =
+      new ArrayList<OperationFuture<Boolean>>();
+    for (int i = 0; i < keys; i++) {
+      pending.add(client.set("key-" + i, 0, value));
+      if (pending.size() == 1000 || i == keys - 1) {
+        for (OperationFuture<Boolean> future : pending) {
+          future.get();
+        }
+        pending.clear();
+      }
+    }
+  }
+
+  private List<Thread> startWorkers(final CouchbaseClient client,
+    final byte[] value) {
+    final int keys = intOption("keys");
+    final double readRatio = Double.parseDouble(options.get("readRatio"));
+    int threads = intOption("threads");
+    int seed = intOption("seed");
+    List<Thread> workers = new ArrayList<Thread>(threads);
+    for (int i = 0; i < threads; i++) {
+      final Random random = new Random(seed + i + 1);
+      Thread worker = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          while (running) {
+            String key = "key-" + random.nextInt(keys);
+            boolean read = random.nextDouble() < readRatio;
+            long start = System.nanoTime();
+            boolean success;
+            try {
+              if (read) {
+                success = client.get(key) != null;
+              } else {
+                success = client.set(key, 0, value).get();
+              }
+            } catch (Exception e) {
+              success = false;
+            }
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime()
+              - start);
+            interval.get().record(micros);
+            total.record(micros);
+            operations.incrementAndGet();
+            if (!success) {
+              errors.incrementAndGet();
+              totalErrors.incrementAndGet();
+            }
+          }
+        }
+      }, "LoadGenerator-" + i);
+      worker.start();
+      workers.add(worker);
+    }
+    return workers;
+  }
+
+  /**
+   * Starts the scenario, it changes the cluster at the configured second.
+   */
+  private Thread startScenario(final MockCluster cluster) {
+    final String scenario = options.get("scenario");
+    final int at = intOption("scenarioAt");
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          TimeUnit.SECONDS.sleep(at);
+          List<MockNode> nodes = cluster.getNodes();
+          MockNode last = nodes.get(nodes.size() - 1);
+          long start = System.nanoTime();
+          if ("failover".equals(scenario)) {
+            cluster.failover(last);
+          } else if ("crash".equals(scenario)) {
+            last.stop();
+            TimeUnit.SECONDS.sleep(CRASH_DETECTION_SECONDS);
+            cluster.failover(last);
+          } else if ("rebalance-in".equals(scenario)) {
+            cluster.addNode();
+            cluster.rebalance();
+          } else if ("rebalance-out".equals(scenario)) {
+            cluster.rebalanceOut(last);
+          } else if ("slow-node".equals(scenario)) {
+            last.setLatency(100, TimeUnit.MILLISECONDS);
+          } else if (!"none".equals(scenario)) {
+            throw new IllegalArgumentException("Unknown scenario "
+              + scenario);
+          } else {
+            return;
+          }
+          System.out.println("Scenario " + scenario + " finished after "
+            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+            + "ms");
+        } catch (IOException e) {
+          System.out.println("Scenario " + scenario + " failed: " + e);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }, "LoadGenerator-Scenario");
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
+  private void report(int second, MockCluster cluster) {
+    LatencyHistogram last = interval.getAndSet(new LatencyHistogram());
+    System.out.println(String.format("%4ds %9d ops/s %6d errors  p50=%dus "
+      + "p99=%dus max=%dus  rev=%d", second, operations.getAndSet(0),
+      errors.getAndSet(0), last.getValueAtPercentile(50),
+      last.getValueAtPercentile(99), last.getMax(), cluster.getRevision()));
+  }
+
+  private int intOption(String name) {
+    return Integer.parseInt(options.get(name));
+  }
+
+}
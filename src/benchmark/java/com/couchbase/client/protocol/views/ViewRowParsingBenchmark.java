@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.protocol.views;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures how fast view responses are parsed into rows, for map results
+ * and for reduced results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ViewRowParsingBenchmark {
+
+  @Param({"10", "1000"})
+  private int rows;
+
+  private DocsOperationImpl docsOperation;
+  private ReducedOperationImpl reducedOperation;
+  private String docsResponse;
+  private String reducedResponse;
+
+  @Setup
+  public void setup() {
+    View view = new View("default", "users", "by_name", true, true);
+    docsOperation = new DocsOperationImpl(null, view, null);
+    reducedOperation = new ReducedOperationImpl(null, view, null);
+
+    StringBuilder docs = new StringBuilder();
+    StringBuilder reduced = new StringBuilder();
+    docs.append("{\"total_rows\":").append(rows).append(",\"rows\":[");
+    reduced.append("{\"rows\":[");
+    for (int i = 0; i < rows; i++) {
+      if (i > 0) {
+        docs.append(',');
+        reduced.append(',');
+      }
+      docs.append("{\"id\":\"user::").append(i)
+        .append("\",\"key\":[\"user\",").append(i)
+        .append("],\"value\":{\"name\":\"User ").append(i)
+        .append("\",\"age\":").append(i % 90).append("}}");
+      reduced.append("{\"key\":[\"user\",").append(i)
+        .append("],\"value\":").append(i * 3).append('}');
+    }
+    docs.append("]}");
+    reduced.append("]}");
+    docsResponse = docs.toString();
+    reducedResponse = reduced.toString();
+  }
+
+  @Benchmark
+  public ViewResponse parseDocs() throws Exception {
+    return docsOperation.parseResult(docsResponse);
+  }
+
+  @Benchmark
+  public ViewResponse parseReduced() throws Exception {
+    return reducedOperation.parseResult(reducedResponse);
+  }
+
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.vbucket;
+
+import com.couchbase.client.BenchmarkConfigs;
+import com.couchbase.client.vbucket.config.Bucket;
+import com.couchbase.client.vbucket.config.ConfigurationParserJSON;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.spy.memcached.MemcachedNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures how long it takes to apply the streaming configuration updates
+ * of a rebalance.
+ *
+ * A rebalance of a 1024 vbucket bucket onto the last of 20 nodes is
+ * simulated by moving 4 vbuckets per update, where every update is sent
+ * twice like the server does when other parts of the bucket change. The
+ * full rebuild (parse without reuse, compare, rebuild the node map) is
+ * compared with the incremental path (skip identical payloads, reuse
+ * unchanged vbuckets and only swap the vbucket map). Each invocation
+ * applies the whole sequence of updates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConfigUpdateBenchmark {
+
+  private static final int NODES = 20;
+  private static final int VBUCKETS = 1024;
+  private static final int MOVES_PER_UPDATE = 4;
+
+  private List<String> payloads;
+  private List<MemcachedNode> nodes;
+  private ConfigurationParserJSON parser;
+
+  @Setup
+  public void setup() throws Exception {
+    List<String> servers = new ArrayList<String>();
+    nodes = new ArrayList<MemcachedNode>();
+    for (int i = 0; i < NODES; i++) {
+      servers.add("node" + i + ":11210");
+      MemcachedNodeMockImpl node = new MemcachedNodeMockImpl();
+      node.setSocketAddress(new InetSocketAddress(InetAddress.getByAddress(
+        "node" + i, new byte[] {10, 0, 0, (byte) (i + 1)}), 11210));
+      nodes.add(node);
+    }
+    payloads = rebalancePayloads(servers);
+    parser = new ConfigurationParserJSON();
+  }
+
+  @Benchmark
+  public VBucketNodeLocator fullRebuild() throws Exception {
+    VBucketNodeLocator locator = new VBucketNodeLocator(nodes,
+      parser.parseBucket(payloads.get(0)).getConfig());
+    for (String payload : payloads) {
+      Bucket bucket = parser.parseBucket(payload);
+      locator.updateLocator(nodes, bucket.getConfig());
+    }
+    return locator;
+  }
+
+  @Benchmark
+  public VBucketNodeLocator incrementalUpdate() throws Exception {
+    Bucket current = parser.parseBucket(payloads.get(0));
+    String last = payloads.get(0);
+    VBucketNodeLocator locator = new VBucketNodeLocator(nodes,
+      current.getConfig());
+    for (String payload : payloads) {
+      if (last.hashCode() == payload.hashCode() && last.equals(payload)) {
+        continue;
+      }
+      current = parser.updateBucket(payload, current);
+      last = payload;
+      if (!locator.updateVBucketMap(current.getConfig())) {
+        locator.updateLocator(nodes, current.getConfig());
+      }
+    }
+    return locator;
+  }
+
+  /**
+   * Creates the payloads sent while the last node receives its vbuckets.
+   */
+  private static List<String> rebalancePayloads(List<String> servers) {
+    int[][] map = new int[VBUCKETS][2];
+    for (int i = 0; i < VBUCKETS; i++) {
+      map[i][0] = i % (NODES - 1);
+      map[i][1] = (i + 1) % (NODES - 1);
+    }
+
+    List<String> payloads = new ArrayList<String>();
+    int target = VBUCKETS / NODES;
+    for (int moved = 0; moved <= target; moved += MOVES_PER_UPDATE) {
+      for (int i = 0; i < moved; i++) {
+        map[i * NODES][0] = NODES - 1;
+      }
+      String payload = BenchmarkConfigs.bucket(servers, map);
+      payloads.add(payload);
+      payloads.add(payload);
+    }
+    return payloads;
+  }
+
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.vbucket;
+
+import com.couchbase.client.BenchmarkConfigs;
+import com.couchbase.client.vbucket.config.Config;
+import com.couchbase.client.vbucket.config.ConfigurationParserJSON;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.spy.memcached.MemcachedNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures how fast a key is mapped to its vbucket and to the node serving
+ * it, which happens for every key based operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VBucketBenchmark {
+
+  private static final int KEYS = 1024;
+
+  @Param({"4", "20"})
+  private int nodes;
+
+  private Config config;
+  private VBucketNodeLocator locator;
+  private String[] keys;
+  private int next;
+
+  @Setup
+  public void setup() throws Exception {
+    List<String> servers = new ArrayList<String>();
+    List<MemcachedNode> memcachedNodes = new ArrayList<MemcachedNode>();
+    for (int i = 0; i < nodes; i++) {
+      servers.add("node" + i + ":11210");
+      MemcachedNodeMockImpl node = new MemcachedNodeMockImpl();
+      node.setSocketAddress(new InetSocketAddress(InetAddress.getByAddress(
+        "node" + i, new byte[] {10, 0, 0, (byte) (i + 1)}), 11210));
+      memcachedNodes.add(node);
+    }
+    config = new ConfigurationParserJSON().parseBucket(
+      BenchmarkConfigs.bucket(servers, 1024)).getConfig();
+    locator = new VBucketNodeLocator(memcachedNodes, config);
+
+    keys = new String[KEYS];
+    for (int i = 0; i < KEYS; i++) {
+      keys[i] = "user::" + i;
+    }
+  }
+
+  private String nextKey() {
+    return keys[next++ & (KEYS - 1)];
+  }
+
+  @Benchmark
+  public int getVbucketByKey() {
+    return config.getVbucketByKey(nextKey());
+  }
+
+  @Benchmark
+  public MemcachedNode getPrimary() {
+    return locator.getPrimary(nextKey());
+  }
+
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.vbucket.config;
+
+import com.couchbase.client.BenchmarkConfigs;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.codehaus.jettison.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures how long it takes to parse a streamed bucket configuration.
+ *
+ * Besides the parser used by the client, the single-pass reader is compared
+ * with the jettison based parsing on configs in the layout of Couchbase
+ * Server 2.2, including the per-node statistics the client does not need.
+ * Run with "-prof gc" to compare the allocation per parse as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConfigParsingBenchmark {
+
+  private static final int VBUCKETS = 1024;
+
+  @Param({"4", "20", "50"})
+  private int nodes;
+
+  private ConfigurationParserJSON parser;
+  private DefaultConfigFactory factory;
+  private String payload;
+  private String serverPayload;
+
+  @Setup
+  public void setup() {
+    List<String> servers = new ArrayList<String>();
+    for (int i = 0; i < nodes; i++) {
+      servers.add("node" + i + ":11210");
+    }
+    parser = new ConfigurationParserJSON();
+    factory = new DefaultConfigFactory();
+    payload = BenchmarkConfigs.bucket(servers, VBUCKETS);
+    serverPayload = serverConfig(nodes);
+  }
+
+  @Benchmark
+  public Bucket parseBucket() throws Exception {
+    return parser.parseBucket(payload);
+  }
+
+  @Benchmark
+  public Config readSinglePass() throws Exception {
+    return BucketConfigReader.read(serverPayload).toConfig(null);
+  }
+
+  @Benchmark
+  public Config readWithJettison() throws Exception {
+    return factory.create(new JSONObject(serverPayload));
+  }
+
+  /**
+   * Builds a bucket config like Couchbase Server 2.2 streams it.
+   */
+  private static String serverConfig(int nodes) {
+    StringBuilder json = new StringBuilder(64 * 1024);
+    json.append("{\"name\":\"default\",\"bucketType\":\"membase\",")
+      .append("\"authType\":\"sasl\",\"saslPassword\":\"\",\"proxyPort\":0,")
+      .append("\"uri\":\"/pools/default/buckets/default\",")
+      .append("\"streamingUri\":\"/pools/default/bucketsStreaming/default\",")
+      .append("\"controllers\":{\"flush\":\"/pools/default/buckets/default/")
+      .append("controller/doFlush\"},\"nodes\":[");
+    for (int i = 0; i < nodes; i++) {
+      String host = "192.168.56." + (i + 1);
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append("{\"couchApiBase\":\"http://").append(host)
+        .append(":8092/default\",\"systemStats\":{\"cpu_utilization_rate\":")
+        .append("5.472636815920398,\"swap_total\":805302272,\"swap_used\":")
+        .append("26152960,\"mem_total\":1043816448,\"mem_free\":509423616},")
+        .append("\"interestingStats\":{\"cmd_get\":0.0,")
+        .append("\"couch_docs_actual_disk_size\":13470107,")
+        .append("\"couch_docs_data_size\":13332318,\"curr_items\":662,")
+        .append("\"curr_items_tot\":2510,\"mem_used\":33507384,\"ops\":0.0,")
+        .append("\"vb_replica_curr_items\":1848},\"uptime\":\"25428\",")
+        .append("\"memoryTotal\":1043816448,\"memoryFree\":509423616,")
+        .append("\"replication\":1.0,\"clusterMembership\":\"active\",")
+        .append("\"status\":\"healthy\",\"otpNode\":\"ns_1@").append(host)
+        .append("\",\"hostname\":\"").append(host).append(":8091\",")
+        .append("\"clusterCompatibility\":131072,")
+        .append("\"version\":\"2.2.0-821-rel-enterprise\",")
+        .append("\"os\":\"x86_64-unknown-linux-gnu\",")
+        .append("\"ports\":{\"proxy\":11211,\"direct\":11210}}");
+    }
+    json.append("],\"stats\":{\"uri\":\"/pools/default/buckets/default/")
+      .append("stats\"},\"nodeLocator\":\"vbucket\",\"vBucketServerMap\":{")
+      .append("\"hashAlgorithm\":\"CRC\",\"numReplicas\":1,\"serverList\":[");
+    for (int i = 0; i < nodes; i++) {
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append("\"192.168.56.").append(i + 1).append(":11210\"");
+    }
+    json.append("],\"vBucketMap\":[");
+    for (int i = 0; i < VBUCKETS; i++) {
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append('[').append(i % nodes).append(',')
+        .append((i + 1) % nodes).append(']');
+    }
+    json.append("]},\"replicaNumber\":1,\"basicStats\":{")
+      .append("\"quotaPercentUsed\":3.107131558884557,\"opsPerSec\":0.0,")
+      .append("\"itemCount\":132,\"memUsed\":64770304},")
+      .append("\"bucketCapabilities\":[\"touch\",\"couchapi\"]}");
+    return json.toString();
+  }
+
+}
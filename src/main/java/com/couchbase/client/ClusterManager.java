@@ -25,8 +25,10 @@ package com.couchbase.client;
 import com.couchbase.client.clustermanager.AuthType;
 import com.couchbase.client.clustermanager.BucketType;
 import com.couchbase.client.clustermanager.FlushResponse;
+import com.couchbase.client.internal.ClusterManagerFuture;
 import net.spy.memcached.compat.SpyObject;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
@@ -66,13 +68,28 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A client to perform cluster-wide operations over the HTTP REST API.
+ *
+ * Every operation is available asynchronously and returns a
+ * {@link ClusterManagerFuture}, so that many buckets can be provisioned
+ * concurrently. Each node gets a limited time to answer a request, so a
+ * hanging node does not stall the operation. A read which times out is sent
+ * to the next node, and reads are also hedged: if a node did not answer
+ * after a short delay, the next node is asked as well and the first answer
+ * wins. A write which times out fails instead, because the node may have
+ * applied it already.
  */
 public class ClusterManager extends SpyObject {
 
@@ -103,6 +120,18 @@ public class ClusterManager extends SpyObject {
    */
   public static final int DEFAULT_CONNS_PER_NODE = 5;
 
+  /**
+   * The default time in milliseconds a node gets to answer a request.
+   */
+  public static final int DEFAULT_ATTEMPT_TIMEOUT =
+    (int) TimeUnit.SECONDS.toMillis(60);
+
+  /**
+   * The default delay in milliseconds after which a read is also sent to the
+   * next node if the current one did not answer yet.
+   */
+  public static final int DEFAULT_HEDGE_DELAY = 500;
+
   /**
    * The relative path to the buckets
    */
@@ -129,14 +158,29 @@ public class ClusterManager extends SpyObject {
   private final HttpAsyncRequester requester;
 
   /**
-   * The REST API (admin) username.
+   * The value of the basic authorization header sent with every request.
+   */
+  private final String authorization;
+
+  /**
+   * The time in milliseconds a node gets to answer a request.
    */
-  private final String username;
+  private final int attemptTimeout;
 
   /**
-   * The REST API (admin) password.
+   * The delay in milliseconds after which a read is sent to the next node.
    */
-  private final String password;
+  private final int hedgeDelay;
+
+  /**
+   * Gives up on nodes which do not answer and starts hedged requests.
+   */
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * Notifies the listeners of the returned futures.
+   */
+  private final ExecutorService listenerExecutor;
 
   /**
    * The thread where the {@link #ioReactor} executes in.
@@ -148,6 +192,11 @@ public class ClusterManager extends SpyObject {
    */
   private volatile boolean running;
 
+  /**
+   * The index of the node which answered last, requests start with it.
+   */
+  private volatile int preferredNode;
+
   /**
    * Create a new {@link ClusterManager} instance.
    *
@@ -185,6 +234,34 @@ public class ClusterManager extends SpyObject {
   public ClusterManager(List<URI> nodes, String username, String password,
     int connectionTimeout, int socketTimeout, boolean tcpNoDelay,
     int ioThreadCount, int connectionsPerNode) {
+    this(nodes, username, password, connectionTimeout, socketTimeout,
+      tcpNoDelay, ioThreadCount, connectionsPerNode, DEFAULT_ATTEMPT_TIMEOUT,
+      DEFAULT_HEDGE_DELAY);
+  }
+
+  /**
+   * Create a new {@link ClusterManager} instance.
+   *
+   * Not all nodes in the cluster need to be provided, a subset is enough so
+   * that the {@link ClusterManager} can connect to at least one of them, even
+   * in the case of a node failure.
+   *
+   * @param nodes the list of nodes in the cluster to connect to.
+   * @param username the admin username.
+   * @param password the admin password.
+   * @param connectionTimeout the timeout of the connection once established.
+   * @param socketTimeout the socket timeout of the connection.
+   * @param tcpNoDelay if nagle should be used or not.
+   * @param ioThreadCount the number of IO threads to use.
+   * @param connectionsPerNode the number of connections per node to establish.
+   * @param attemptTimeout the time in milliseconds a node gets to answer.
+   * @param hedgeDelay the delay in milliseconds after which a read is also
+   *   sent to the next node.
+   */
+  public ClusterManager(List<URI> nodes, String username, String password,
+    int connectionTimeout, int socketTimeout, boolean tcpNoDelay,
+    int ioThreadCount, int connectionsPerNode, int attemptTimeout,
+    int hedgeDelay) {
     if (nodes == null || nodes.isEmpty()) {
       throw new IllegalArgumentException("List of nodes is null or empty");
     }
@@ -194,9 +271,17 @@ public class ClusterManager extends SpyObject {
     if (password == null) {
       throw new IllegalArgumentException("Password is null");
     }
+    if (attemptTimeout <= 0) {
+      throw new IllegalArgumentException("Attempt timeout must be positive");
+    }
+    if (hedgeDelay < 0) {
+      throw new IllegalArgumentException("Hedge delay must not be negative");
+    }
 
-    this.username = username;
-    this.password = password;
+    authorization = "Basic "
+      + Base64.encodeBase64String((username + ':' + password).getBytes());
+    this.attemptTimeout = attemptTimeout;
+    this.hedgeDelay = hedgeDelay;
 
     clusterNodes = Collections.synchronizedList(new ArrayList<HttpHost>());
     for (URI node : nodes) {
@@ -225,6 +310,10 @@ public class ClusterManager extends SpyObject {
 
     pool = new BasicNIOConnPool(ioReactor, ConnectionConfig.DEFAULT);
     pool.setDefaultMaxPerRoute(connectionsPerNode);
+    scheduler = Executors.newSingleThreadScheduledExecutor(
+      daemonThreads("Couchbase/ClusterManagerTimer"));
+    listenerExecutor = Executors.newCachedThreadPool(
+      daemonThreads("Couchbase/ClusterManagerListener"));
     initializeReactorThread();
   }
 
@@ -238,8 +327,23 @@ public class ClusterManager extends SpyObject {
    */
   public void createDefaultBucket(BucketType type, int memorySizeMB,
     int replicas, boolean flushEnabled) {
-    createBucket(type, "default", memorySizeMB, AuthType.NONE, replicas, 11212,
-      "", flushEnabled);
+    await(asyncCreateDefaultBucket(type, memorySizeMB, replicas,
+      flushEnabled));
+  }
+
+  /**
+   * Asynchronously creates the default bucket.
+   *
+   * @param type The bucket type to create.
+   * @param memorySizeMB The amount of memory to allocate to this bucket.
+   * @param replicas The number of replicas for this bucket.
+   * @param flushEnabled If flush should be enabled on this bucket.
+   * @return a future which completes once the bucket has been created.
+   */
+  public ClusterManagerFuture<Boolean> asyncCreateDefaultBucket(
+    BucketType type, int memorySizeMB, int replicas, boolean flushEnabled) {
+    return createBucket(type, "default", memorySizeMB, AuthType.NONE,
+      replicas, 11212, "", flushEnabled);
   }
 
   /**
@@ -254,8 +358,27 @@ public class ClusterManager extends SpyObject {
    */
   public void createNamedBucket(BucketType type, String name,
     int memorySizeMB, int replicas, String authPassword, boolean flushEnabled) {
-    createBucket(type, name, memorySizeMB, AuthType.SASL, replicas, 11212,
-      authPassword, flushEnabled);
+    await(asyncCreateNamedBucket(type, name, memorySizeMB, replicas,
+      authPassword, flushEnabled));
+  }
+
+  /**
+   * Asynchronously creates a named bucket with a given password for SASL
+   * authentication.
+   *
+   * @param type The bucket type to create.
+   * @param name The name of the bucket.
+   * @param memorySizeMB The amount of memory to allocate to this bucket.
+   * @param replicas The number of replicas for this bucket.
+   * @param authPassword The password for this bucket.
+   * @param flushEnabled If flush should be enabled on this bucket.
+   * @return a future which completes once the bucket has been created.
+   */
+  public ClusterManagerFuture<Boolean> asyncCreateNamedBucket(BucketType type,
+    String name, int memorySizeMB, int replicas, String authPassword,
+    boolean flushEnabled) {
+    return createBucket(type, name, memorySizeMB, AuthType.SASL, replicas,
+      11212, authPassword, flushEnabled);
   }
 
   /**
@@ -269,8 +392,24 @@ public class ClusterManager extends SpyObject {
    */
   public void createPortBucket(BucketType type, String name, int memorySizeMB,
     int replicas, int port, boolean flush) {
-    createBucket(type, name, memorySizeMB, AuthType.NONE, replicas, port, "",
-      flush);
+    await(asyncCreatePortBucket(type, name, memorySizeMB, replicas, port,
+      flush));
+  }
+
+  /**
+   * Asynchronously creates a bucket which listens on its own port.
+   *
+   * @param type The bucket type to create.
+   * @param name The name of the bucket.
+   * @param memorySizeMB The amount of memory to allocate to this bucket.
+   * @param replicas The number of replicas for this bucket.
+   * @param port The port for this bucket to listen on.
+   * @return a future which completes once the bucket has been created.
+   */
+  public ClusterManagerFuture<Boolean> asyncCreatePortBucket(BucketType type,
+    String name, int memorySizeMB, int replicas, int port, boolean flush) {
+    return createBucket(type, name, memorySizeMB, AuthType.NONE, replicas,
+      port, "", flush);
   }
 
   /**
@@ -279,36 +418,50 @@ public class ClusterManager extends SpyObject {
    * @param name The name of the bucket to delete.
    */
   public void deleteBucket(final String name) {
-    BasicHttpRequest request = new BasicHttpRequest("DELETE", BUCKETS + name);
-    checkForErrorCode(200, sendRequest(request));
+    await(asyncDeleteBucket(name));
+  }
+
+  /**
+   * Asynchronously deletes a bucket.
+   *
+   * @param name The name of the bucket to delete.
+   * @return a future which completes once the bucket has been deleted.
+   */
+  public ClusterManagerFuture<Boolean> asyncDeleteBucket(final String name) {
+    final ClusterManagerFuture<Boolean> future = newFuture(1);
+    sendRequest("DELETE", BUCKETS + name, null,
+      new ResultCallback<Boolean>(future) {
+        @Override
+        void completed(HttpResult result) {
+          checkForErrorCode(200, result);
+          future.set(true);
+        }
+      });
+    return future;
   }
 
   /**
    * Lists all buckets in a Couchbase cluster.
    */
   public List<String> listBuckets() {
-    BasicHttpRequest request = new BasicHttpRequest("GET", BUCKETS);
-    HttpResult result = sendRequest(request);
-    checkForErrorCode(200, result);
+    return await(asyncListBuckets());
+  }
 
-    String json = result.getBody();
-    List<String> names = new ArrayList<String>();
-    if (json != null && !json.isEmpty()) {
-      try {
-        JSONArray base = new JSONArray(json);
-        for (int i = 0; i < base.length(); i++) {
-          JSONObject bucket = base.getJSONObject(i);
-          if (bucket.has("name")) {
-            names.add(bucket.getString("name"));
-          }
+  /**
+   * Asynchronously lists all buckets in a Couchbase cluster.
+   *
+   * @return a future with the names of the buckets.
+   */
+  public ClusterManagerFuture<List<String>> asyncListBuckets() {
+    final ClusterManagerFuture<List<String>> future = newFuture(1);
+    sendRequest("GET", BUCKETS, null,
+      new ResultCallback<List<String>>(future) {
+        @Override
+        void completed(HttpResult result) {
+          future.set(parseBucketNames(result));
         }
-      } catch (JSONException e) {
-        getLogger().error("Unable to interpret list buckets response.");
-        throw new RuntimeException(e);
-      }
-    }
-
-    return names;
+      });
+    return future;
   }
 
   /**
@@ -317,20 +470,34 @@ public class ClusterManager extends SpyObject {
    * @param name The bucket to flush.
    */
   public FlushResponse flushBucket(final String name) {
-    String url = BUCKETS + name + "/controller/doFlush";
-    BasicHttpRequest request = new BasicHttpRequest("POST", url);
-    HttpResult result = sendRequest(request);
-
-    if (result.getErrorCode() == 200) {
-      return FlushResponse.OK;
-    } else if (result.getErrorCode() == 400) {
-      return FlushResponse.NOT_ENABLED;
-    } else {
-      throw new RuntimeException("Http Error: " + result.getErrorCode()
-        + " Reason: " + result.getErrorPhrase() + " Details: "
-        + result.getReason());
-    }
+    return await(asyncFlushBucket(name));
+  }
 
+  /**
+   * Asynchronously deletes all data in a bucket.
+   *
+   * @param name The bucket to flush.
+   * @return a future with the outcome of the flush.
+   */
+  public ClusterManagerFuture<FlushResponse> asyncFlushBucket(
+    final String name) {
+    final ClusterManagerFuture<FlushResponse> future = newFuture(1);
+    String url = BUCKETS + name + "/controller/doFlush";
+    sendRequest("POST", url, null, new ResultCallback<FlushResponse>(future) {
+      @Override
+      void completed(HttpResult result) {
+        if (result.getErrorCode() == 200) {
+          future.set(FlushResponse.OK);
+        } else if (result.getErrorCode() == 400) {
+          future.set(FlushResponse.NOT_ENABLED);
+        } else {
+          throw new RuntimeException("Http Error: " + result.getErrorCode()
+            + " Reason: " + result.getErrorPhrase() + " Details: "
+            + result.getReason());
+        }
+      }
+    });
+    return future;
   }
 
   /**
@@ -347,22 +514,13 @@ public class ClusterManager extends SpyObject {
   public void updateBucket(final String name, final int memorySizeMB,
     final AuthType authType, final int replicas, final int port,
     final String authpassword, final boolean flushEnabled) {
-
-    List<String> buckets = listBuckets();
-    if (buckets.contains(name)) {
-      HttpRequest request = prepareRequest(BUCKETS + name, null, name,
-        memorySizeMB, authType, replicas, port, authpassword, flushEnabled);
-      checkForErrorCode(200, sendRequest(request));
-    } else {
-      throw new RuntimeException("Bucket with given name already does not "
-        + "exist");
-    }
+    await(asyncUpdateBucket(name, memorySizeMB, authType, replicas, port,
+      authpassword, flushEnabled));
   }
 
   /**
-   * Helper method to create a new bucket.
+   * Asynchronously update a bucket with the new settings.
    *
-   * @param type the type of the bucket.
    * @param name The name of the bucket.
    * @param memorySizeMB The amount of memory to allocate to this bucket.
    * @param authType the authentication type to use.
@@ -370,23 +528,36 @@ public class ClusterManager extends SpyObject {
    * @param port The port for this bucket to listen on.
    * @param authpassword the authentication password.
    * @param flushEnabled whether flush is enabled.
+   * @return a future which completes once the bucket has been updated.
    */
-  private void createBucket(final BucketType type, final String name,
+  public ClusterManagerFuture<Boolean> asyncUpdateBucket(final String name,
     final int memorySizeMB, final AuthType authType, final int replicas,
     final int port, final String authpassword, final boolean flushEnabled) {
-
-    List<String> buckets = listBuckets();
-    if(buckets.contains(name)){
-      throw new RuntimeException("Bucket with given name already exists");
-    } else {
-      HttpRequest request = prepareRequest(BUCKETS, type, name, memorySizeMB,
-        authType, replicas, port, authpassword, flushEnabled);
-      checkForErrorCode(202, sendRequest(request));
-    }
+    final ClusterManagerFuture<Boolean> future = newFuture(2);
+    final HttpEntity entity = prepareEntity(null, name, memorySizeMB,
+      authType, replicas, port, authpassword, flushEnabled);
+    sendRequest("GET", BUCKETS, null, new ResultCallback<Boolean>(future) {
+      @Override
+      void completed(HttpResult result) {
+        if (!parseBucketNames(result).contains(name)) {
+          throw new RuntimeException("Bucket with given name already does "
+            + "not exist");
+        }
+        sendRequest("POST", BUCKETS + name, entity,
+          new ResultCallback<Boolean>(future) {
+            @Override
+            void completed(HttpResult result) {
+              checkForErrorCode(200, result);
+              future.set(true);
+            }
+          });
+      }
+    });
+    return future;
   }
 
   /**
-   * Helper method to prepare the request with infos.
+   * Helper method to create a new bucket.
    *
    * @param type the type of the bucket.
    * @param name The name of the bucket.
@@ -396,16 +567,51 @@ public class ClusterManager extends SpyObject {
    * @param port The port for this bucket to listen on.
    * @param authpassword the authentication password.
    * @param flushEnabled whether flush is enabled.
-   *
-   * @return the prepared {@link HttpRequest}.
+   * @return a future which completes once the bucket has been created.
    */
-  private HttpRequest prepareRequest(final String path, final BucketType type,
+  private ClusterManagerFuture<Boolean> createBucket(final BucketType type,
     final String name, final int memorySizeMB, final AuthType authType,
     final int replicas, final int port, final String authpassword,
     final boolean flushEnabled) {
-    BasicHttpEntityEnclosingRequest request =
-      new BasicHttpEntityEnclosingRequest("POST", path);
+    final ClusterManagerFuture<Boolean> future = newFuture(2);
+    final HttpEntity entity = prepareEntity(type, name, memorySizeMB,
+      authType, replicas, port, authpassword, flushEnabled);
+    sendRequest("GET", BUCKETS, null, new ResultCallback<Boolean>(future) {
+      @Override
+      void completed(HttpResult result) {
+        if (parseBucketNames(result).contains(name)) {
+          throw new RuntimeException("Bucket with given name already exists");
+        }
+        sendRequest("POST", BUCKETS, entity,
+          new ResultCallback<Boolean>(future) {
+            @Override
+            void completed(HttpResult result) {
+              checkForErrorCode(202, result);
+              future.set(true);
+            }
+          });
+      }
+    });
+    return future;
+  }
 
+  /**
+   * Helper method to prepare the request body with infos.
+   *
+   * @param type the type of the bucket.
+   * @param name The name of the bucket.
+   * @param memorySizeMB The amount of memory to allocate to this bucket.
+   * @param authType the authentication type to use.
+   * @param replicas The number of replicas for this bucket.
+   * @param port The port for this bucket to listen on.
+   * @param authpassword the authentication password.
+   * @param flushEnabled whether flush is enabled.
+   *
+   * @return the prepared {@link HttpEntity}.
+   */
+  private HttpEntity prepareEntity(final BucketType type, final String name,
+    final int memorySizeMB, final AuthType authType, final int replicas,
+    final int port, final String authpassword, final boolean flushEnabled) {
     StringBuilder sb = new StringBuilder();
     sb.append("name=").append(name)
       .append("&ramQuotaMB=")
@@ -429,8 +635,7 @@ public class ClusterManager extends SpyObject {
     }
 
     try {
-      request.setEntity(new StringEntity(sb.toString()));
-      return request;
+      return new StringEntity(sb.toString());
     } catch (UnsupportedEncodingException e) {
       getLogger().error("Error creating request. Bad arguments");
       throw new RuntimeException(e);
@@ -438,77 +643,88 @@ public class ClusterManager extends SpyObject {
   }
 
   /**
-   * Find a node and send the request.
+   * Extracts the bucket names from a list buckets response.
    *
-   * @param request the request to send.
-   * @return a result from the sent request.
+   * @param result the response to the list request.
+   * @return the names of the buckets.
    */
-  private HttpResult sendRequest(final HttpRequest request) {
-    if (!running) {
-      throw new IllegalStateException("Not connected to one of the nodes.");
-    }
-
-    HttpCoreContext coreContext = HttpCoreContext.create();
-
-    request.addHeader("Authorization", "Basic "
-      + Base64.encodeBase64String((username + ':' + password).getBytes()));
-    request.addHeader("Accept", "*/*");
-    request.addHeader("Content-Type", "application/x-www-form-urlencoded");
+  private List<String> parseBucketNames(final HttpResult result) {
+    checkForErrorCode(200, result);
 
-    for (HttpHost node : clusterNodes) {
+    String json = result.getBody();
+    List<String> names = new ArrayList<String>();
+    if (json != null && !json.isEmpty()) {
       try {
+        JSONArray base = new JSONArray(json);
+        for (int i = 0; i < base.length(); i++) {
+          JSONObject bucket = base.getJSONObject(i);
+          if (bucket.has("name")) {
+            names.add(bucket.getString("name"));
+          }
+        }
+      } catch (JSONException e) {
+        getLogger().error("Unable to interpret list buckets response.");
+        throw new RuntimeException(e);
+      }
+    }
 
-        final CountDownLatch latch = new CountDownLatch(1);
-        final AtomicBoolean success = new AtomicBoolean(false);
-        final AtomicReference<HttpResponse> response =
-          new AtomicReference<HttpResponse>();
-
-        requester.execute(
-          new BasicAsyncRequestProducer(node, request),
-          new BasicAsyncResponseConsumer(),
-          pool,
-          coreContext,
-          new FutureCallback<HttpResponse>() {
-            @Override
-            public void completed(final HttpResponse result) {
-              latch.countDown();
-              success.set(true);
-              response.set(result);
-            }
-
-            @Override
-            public void failed(Exception ex) {
-              getLogger().warn("Cluster Response failed with: ", ex);
-              latch.countDown();
-            }
+    return names;
+  }
 
-            @Override
-            public void cancelled() {
-              getLogger().warn("Cluster Response was cancelled.");
-              latch.countDown();
-            }
-          }
-        );
+  /**
+   * Find a node and send the request.
+   *
+   * The node which answered the last request is asked first, the next one
+   * once it could not be reached. Reads also move on to the next node if
+   * one does not answer in time, and are additionally hedged after
+   * {@link #hedgeDelay}. A write which does not get an answer in time fails
+   * with a {@link TimeoutException}, because the node may have applied it
+   * and the cluster would apply it once more.
+   *
+   * @param method the HTTP method of the request.
+   * @param path the path of the request.
+   * @param entity the body of the request, may be null.
+   * @param callback receives the first response of one of the nodes.
+   */
+  private void sendRequest(final String method, final String path,
+    final HttpEntity entity, final ResultCallback<?> callback) {
+    if (!running) {
+      throw new IllegalStateException("Not connected to one of the nodes.");
+    }
+    new Dispatch(method, path, entity, callback).attempt();
+  }
 
-        latch.await();
-        if (!success.get()) {
-          getLogger().info("Could not finish request execution");
-          continue;
-        }
+  /**
+   * Creates a future whose {@link ClusterManagerFuture#get()} waits as long as
+   * the given number of requests may take if every node times out.
+   *
+   * @param requests the number of requests needed to complete the future.
+   * @return the new future.
+   */
+  private <T> ClusterManagerFuture<T> newFuture(int requests) {
+    long timeout = ((long) requests * clusterNodes.size() + 1)
+      * attemptTimeout;
+    return new ClusterManagerFuture<T>(timeout, listenerExecutor);
+  }
 
-        int code = response.get().getStatusLine().getStatusCode();
-        String body = EntityUtils.toString(response.get().getEntity());
-        String reason = parseError(body);
-        String phrase = response.get().getStatusLine().getReasonPhrase();
-        return new HttpResult(body, code, phrase, reason);
-      } catch (InterruptedException ex) {
-        getLogger().debug("Got interrupted while waiting for the response.");
-      } catch (IOException e) {
-        getLogger().debug("Unable to connect to: " + node
-          + ". Trying another server");
+  /**
+   * Waits for the result of an asynchronous operation.
+   *
+   * @param future the future to wait for.
+   * @return the result of the future.
+   */
+  private static <T> T await(final ClusterManagerFuture<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted waiting for the cluster", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
       }
+      throw new RuntimeException(e.getCause());
     }
-    throw new RuntimeException("Unable to connect to cluster");
   }
 
   /**
@@ -570,6 +786,8 @@ public class ClusterManager extends SpyObject {
       getLogger().error("Interrupt " + ex + " received while waiting for "
         + "view thread to shut down.");
     }
+    scheduler.shutdownNow();
+    listenerExecutor.shutdown();
     return true;
   }
 
@@ -600,6 +818,236 @@ public class ClusterManager extends SpyObject {
     running = true;
   }
 
+  /**
+   * Creates daemon threads with the given name.
+   */
+  private static ThreadFactory daemonThreads(final String name) {
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, name);
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+
+  /**
+   * Completes a future with the response to a request.
+   *
+   * A {@link RuntimeException} thrown while the result is interpreted fails
+   * the future.
+   */
+  private abstract static class ResultCallback<T> {
+
+    private final ClusterManagerFuture<T> future;
+
+    ResultCallback(final ClusterManagerFuture<T> future) {
+      this.future = future;
+    }
+
+    /**
+     * Interprets the response of the cluster.
+     *
+     * @param result the response of one of the nodes.
+     */
+    abstract void completed(HttpResult result);
+
+    final void deliver(final HttpResult result) {
+      try {
+        completed(result);
+      } catch (RuntimeException e) {
+        future.setException(e);
+      }
+    }
+
+    final void failed(final Exception ex) {
+      future.setException(ex);
+    }
+
+    final boolean isDone() {
+      return future.isDone();
+    }
+  }
+
+  /**
+   * Sends one request to the cluster nodes until one of them answers.
+   *
+   * Every attempt gets a fresh request, because the protocol interceptors
+   * add host and content headers to it. The connections come from the
+   * shared {@link #pool}.
+   */
+  private final class Dispatch {
+
+    private final String method;
+    private final String path;
+    private final HttpEntity entity;
+    private final ResultCallback<?> callback;
+    private final boolean idempotent;
+    private final boolean hedged;
+    private final int firstNode = preferredNode;
+    private final AtomicInteger nextNode = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean done = new AtomicBoolean();
+    private final List<Future<HttpResponse>> attempts =
+      Collections.synchronizedList(new ArrayList<Future<HttpResponse>>());
+
+    Dispatch(final String method, final String path, final HttpEntity entity,
+      final ResultCallback<?> callback) {
+      this.method = method;
+      this.path = path;
+      this.entity = entity;
+      this.callback = callback;
+      idempotent = "GET".equals(method);
+      hedged = idempotent && clusterNodes.size() > 1;
+    }
+
+    /**
+     * Sends the request to the next node, if there is one left.
+     *
+     * The pending count is raised before a node is picked, so that it can
+     * only drop to zero once every picked node has failed.
+     */
+    void attempt() {
+      pending.incrementAndGet();
+      int index = nextNode.getAndIncrement();
+      if (done.get() || callback.isDone() || index >= clusterNodes.size()) {
+        attemptDone();
+        return;
+      }
+
+      final int nodeIndex = (firstNode + index) % clusterNodes.size();
+      final HttpHost node = clusterNodes.get(nodeIndex);
+      final Future<HttpResponse> attempt;
+      try {
+        attempt = requester.execute(
+          new BasicAsyncRequestProducer(node, newRequest()),
+          new BasicAsyncResponseConsumer(),
+          pool,
+          HttpCoreContext.create(),
+          new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(final HttpResponse result) {
+              answered(nodeIndex, node, result);
+            }
+
+            @Override
+            public void failed(Exception ex) {
+              getLogger().warn("Cluster Response failed with: ", ex);
+              attemptFailed();
+            }
+
+            @Override
+            public void cancelled() {
+              attemptFailed();
+            }
+          }
+        );
+      } catch (RuntimeException ex) {
+        getLogger().warn("Could not send request to " + node, ex);
+        attemptFailed();
+        return;
+      }
+
+      attempts.add(attempt);
+      if (done.get()) {
+        attempt.cancel(true);
+        return;
+      }
+      scheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          if (attempt.isDone()) {
+            return;
+          }
+          String message = node + " did not answer " + method + " " + path
+            + " within " + attemptTimeout + "ms";
+          if (idempotent) {
+            getLogger().info(message + ", trying another server");
+          } else if (done.compareAndSet(false, true)) {
+            callback.failed(new TimeoutException(message));
+          }
+          attempt.cancel(true);
+        }
+      }, attemptTimeout, TimeUnit.MILLISECONDS);
+      if (hedged && index + 1 < clusterNodes.size()) {
+        scheduler.schedule(new Runnable() {
+          @Override
+          public void run() {
+            if (!attempt.isDone()) {
+              attempt();
+            }
+          }
+        }, hedgeDelay, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    private HttpRequest newRequest() {
+      HttpRequest request;
+      if (entity == null) {
+        request = new BasicHttpRequest(method, path);
+      } else {
+        BasicHttpEntityEnclosingRequest withBody =
+          new BasicHttpEntityEnclosingRequest(method, path);
+        withBody.setEntity(entity);
+        request = withBody;
+      }
+      request.addHeader("Authorization", authorization);
+      request.addHeader("Accept", "*/*");
+      request.addHeader("Content-Type", "application/x-www-form-urlencoded");
+      return request;
+    }
+
+    private void answered(final int nodeIndex, final HttpHost node,
+      final HttpResponse response) {
+      HttpResult result;
+      try {
+        int code = response.getStatusLine().getStatusCode();
+        String body = response.getEntity() == null
+          ? "" : EntityUtils.toString(response.getEntity());
+        String reason = parseError(body);
+        String phrase = response.getStatusLine().getReasonPhrase();
+        result = new HttpResult(body, code, phrase, reason);
+      } catch (IOException e) {
+        if (idempotent) {
+          getLogger().debug("Unable to read the response of: " + node
+            + ". Trying another server");
+          attemptFailed();
+        } else {
+          if (done.compareAndSet(false, true)) {
+            callback.failed(e);
+          }
+          attemptDone();
+        }
+        return;
+      }
+
+      if (done.compareAndSet(false, true)) {
+        preferredNode = nodeIndex;
+        synchronized (attempts) {
+          for (Future<HttpResponse> attempt : attempts) {
+            attempt.cancel(true);
+          }
+        }
+        callback.deliver(result);
+      }
+      attemptDone();
+    }
+
+    private void attemptFailed() {
+      if (!done.get()) {
+        attempt();
+      }
+      attemptDone();
+    }
+
+    private void attemptDone() {
+      if (pending.decrementAndGet() == 0 && done.compareAndSet(false, true)) {
+        callback.failed(new RuntimeException("Unable to connect to cluster"));
+      }
+    }
+  }
+
   /**
    * Value Object to aggregate a raw response message.
    */
@@ -38,6 +38,8 @@ public class ClusterManagerBuilder {
   private boolean tcpNoDelay = ClusterManager.DEFAULT_TCP_NODELAY;
   private int ioThreadCount = ClusterManager.DEFAULT_IO_THREADS;
   private int connectionsPerNode = ClusterManager.DEFAULT_CONNS_PER_NODE;
+  private int attemptTimeout = ClusterManager.DEFAULT_ATTEMPT_TIMEOUT;
+  private int hedgeDelay = ClusterManager.DEFAULT_HEDGE_DELAY;
 
   /**
    * Returns the connection timeout.
@@ -84,6 +86,24 @@ public class ClusterManagerBuilder {
     return connectionsPerNode;
   }
 
+  /**
+   * Returns the time a node gets to answer a request.
+   *
+   * @return the attempt timeout.
+   */
+  public int getAttemptTimeout() {
+    return attemptTimeout;
+  }
+
+  /**
+   * Returns the delay after which a read is also sent to the next node.
+   *
+   * @return the hedge delay.
+   */
+  public int getHedgeDelay() {
+    return hedgeDelay;
+  }
+
   /**
    * Set the HTTP connection timeout (2 minutes by default).
    *
@@ -135,6 +155,34 @@ public class ClusterManagerBuilder {
     return this;
   }
 
+  /**
+   * The time in milliseconds a node gets to answer a request (1 minute by
+   * default).
+   *
+   * A read which times out is sent to the next node, a write fails with a
+   * timeout because the node may have applied it already.
+   *
+   * @param attemptTimeout the timeout of a single attempt.
+   */
+  public ClusterManagerBuilder setAttemptTimeout(int attemptTimeout) {
+    this.attemptTimeout = attemptTimeout;
+    return this;
+  }
+
+  /**
+   * The delay in milliseconds after which a read is also sent to the next
+   * node if the current one did not answer yet (500ms by default).
+   *
+   * A delay of 0 races all nodes at once, a delay at or above the attempt
+   * timeout disables hedging. Writes are never hedged.
+   *
+   * @param hedgeDelay the delay before a read is hedged.
+   */
+  public ClusterManagerBuilder setHedgeDelay(int hedgeDelay) {
+    this.hedgeDelay = hedgeDelay;
+    return this;
+  }
+
   /**
    * Builder a {@link ClusterManager}.
    *
@@ -146,7 +194,8 @@ public class ClusterManagerBuilder {
   public ClusterManager build(final List<URI> nodes, final String username,
     final String password) {
     return new ClusterManager(nodes, username, password, connectionTimeout,
-      socketTimeout, tcpNoDelay, ioThreadCount, connectionsPerNode);
+      socketTimeout, tcpNoDelay, ioThreadCount, connectionsPerNode,
+      attemptTimeout, hedgeDelay);
   }
 
 }
@@ -27,6 +27,8 @@ import com.couchbase.client.internal.HttpFuture;
 import com.couchbase.client.internal.ObserveFuture;
 import com.couchbase.client.internal.ReplicaGetFuture;
 import com.couchbase.client.internal.ViewFuture;
+import com.couchbase.client.internal.WarmupFuture;
+import com.couchbase.client.metrics.CouchbaseMetrics;
 import com.couchbase.client.protocol.views.AbstractView;
 import com.couchbase.client.protocol.views.DesignDocFetcherOperation;
 import com.couchbase.client.protocol.views.DesignDocFetcherOperationImpl;
@@ -61,6 +63,7 @@ import net.spy.memcached.CASValue;
 import net.spy.memcached.CachedData;
 import net.spy.memcached.MemcachedClient;
 import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.NodeLocator;
 import net.spy.memcached.ObserveResponse;
 import net.spy.memcached.OperationTimeoutException;
 import net.spy.memcached.PersistTo;
@@ -87,23 +90,31 @@ import org.apache.http.message.BasicHttpRequest;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.URI;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -131,6 +142,15 @@ public class CouchbaseClient extends MemcachedClient
   protected volatile boolean reconfiguring = false;
   private final CouchbaseConnectionFactory cbConnFactory;
   protected final ExecutorService executorService;
+  private final ScheduledExecutorService replicaFallbackExecutor;
+  private final WarmupFuture readyFuture;
+
+  /**
+   * Nodes for which authentication has been started, if more than one
+   * connection per node is used. Created lazily, since connections may be
+   * established before this class is fully constructed.
+   */
+  private Set<MemcachedNode> authStartedNodes;
 
   /**
    * Try to load the cbclient.properties file and check for the viewmode.
@@ -262,8 +282,27 @@ public class CouchbaseClient extends MemcachedClient
 
     executorService = cbConnFactory.getListenerExecutorService();
 
+    if (cf.getMetrics() != null) {
+      cf.getMetrics().register();
+    }
+
+    if (cf.getReplicaReadStrategy() == ReplicaReadStrategy.ACTIVE_FIRST) {
+      replicaFallbackExecutor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Couchbase/ReplicaReadFallback");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    } else {
+      replicaFallbackExecutor = null;
+    }
+
     getLogger().info(MODE_ERROR);
     cf.getConfigurationProvider().subscribe(cf.getBucketName(), this);
+    readyFuture = warmup();
   }
 
   @Override
@@ -871,8 +910,6 @@ public class CouchbaseClient extends MemcachedClient
   @Override
   public <T> ReplicaGetFuture<T> asyncGetFromReplica(final String key,
     final Transcoder<T> tc) {
-    int discardedOps = 0;
-
     int bucketReplicaCount = cbConnFactory.getVBucketConfig().getReplicasCount();
     if (bucketReplicaCount == 0) {
       getLogger().debug("No replica configured for this bucket, trying to get "
@@ -885,41 +922,18 @@ public class CouchbaseClient extends MemcachedClient
     final ReplicaGetFuture<T> replicaFuture = new ReplicaGetFuture<T>(
       operationTimeout, executorService);
 
-    for(int index : actualReplicaIndexes) {
-      final CountDownLatch latch = new CountDownLatch(1);
-      final GetFuture<T> rv =
-        new GetFuture<T>(latch, operationTimeout, key, executorService);
-      Operation op = createOperationForReplicaGet(key, rv, replicaFuture,
-        latch, tc, index, true);
-
-      rv.setOperation(op);
-      mconn.enqueueOperation(key, op);
-
-      if (op.isCancelled()) {
-        discardedOps++;
-        getLogger().debug("Silently discarding replica get for key \""
-          + key + "\" (cancelled).");
-      } else {
-        replicaFuture.addFutureToMonitor(rv);
-      }
-
+    if (replicaFallbackExecutor != null && !actualReplicaIndexes.isEmpty()
+      && isActiveNodeUsable(locator, key)) {
+      asyncGetFromActiveFirst(key, tc, replicaFuture, actualReplicaIndexes);
+      return replicaFuture;
     }
 
-    if (locator.hasActiveMaster(key)) {
-      final CountDownLatch latch = new CountDownLatch(1);
-      final GetFuture<T> additionalActiveGet = new GetFuture<T>(latch, operationTimeout, key,
-        executorService);
-      Operation op = createOperationForReplicaGet(key, additionalActiveGet,
-        replicaFuture, latch, tc, 0, false);
-      additionalActiveGet.setOperation(op);
-      mconn.enqueueOperation(key, op);
+    int discardedOps = dispatchReplicaGets(key, tc, replicaFuture,
+      actualReplicaIndexes);
 
-      if (op.isCancelled()) {
+    if (locator.hasActiveMaster(key)) {
+      if (!dispatchActiveGet(key, tc, replicaFuture, null)) {
         discardedOps++;
-        getLogger().debug("Silently discarding replica (active) get for key \""
-          + key + "\" (cancelled).");
-      } else {
-        replicaFuture.addFutureToMonitor(additionalActiveGet);
       }
     } else {
       discardedOps++;
@@ -934,72 +948,168 @@ public class CouchbaseClient extends MemcachedClient
   }
 
   /**
-   * Helper method to create an operation for the asyncGetFromReplica method.
+   * Dispatches a replica get with the {@link ReplicaReadStrategy#ACTIVE_FIRST}
+   * strategy.
    *
-   * @param replica if the operation should go to a replica node.
-   * @return the created {@link Operation}.
+   * The active node is asked first. The replica gets are only dispatched if
+   * the active node does not answer successfully within the configured
+   * replica read delay.
+   *
+   * @param key the key to fetch.
+   * @param tc the transcoder to use.
+   * @param replicaFuture the future to complete.
+   * @param replicaIndexes the replica indexes to ask on fallback.
    */
-  private <T> Operation createOperationForReplicaGet(final String key,
-    final GetFuture<T> future, final ReplicaGetFuture<T> replicaFuture,
-    final CountDownLatch latch, final Transcoder<T> tc, final int replicaIndex,
-    final boolean replica) {
-    if (replica) {
-      return opFact.replicaGet(key, replicaIndex,
-        new ReplicaGetOperation.Callback() {
-          private Future<T> val;
-          private boolean usedFuture;
+  private <T> void asyncGetFromActiveFirst(final String key,
+    final Transcoder<T> tc, final ReplicaGetFuture<T> replicaFuture,
+    final List<Integer> replicaIndexes) {
+    final AtomicBoolean fallenBack = new AtomicBoolean(false);
+    final Runnable fallback = new Runnable() {
+      @Override
+      public void run() {
+        if (replicaFuture.isDone() || replicaFuture.isCancelled()
+          || !fallenBack.compareAndSet(false, true)) {
+          return;
+        }
+        getLogger().debug("Active node did not answer replica get for key \""
+          + key + "\" in time, asking the replicas.");
+        dispatchReplicaGets(key, tc, replicaFuture, replicaIndexes);
+      }
+    };
 
-          @Override
-          public void receivedStatus(OperationStatus status) {
-            future.set(val, status);
-            if (!replicaFuture.isDone() && status.isSuccess()) {
-              usedFuture = replicaFuture.setCompletedFuture(future);
-            }
-          }
+    if (dispatchActiveGet(key, tc, replicaFuture, fallback)) {
+      try {
+        replicaFallbackExecutor.schedule(fallback,
+          cbConnFactory.getReplicaReadDelay(), TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException ex) {
+        getLogger().debug("Could not schedule replica read fallback, client "
+          + "is shutting down.");
+      }
+    } else if (fallenBack.compareAndSet(false, true)) {
+      int discardedOps = dispatchReplicaGets(key, tc, replicaFuture,
+        replicaIndexes);
+      if (discardedOps == replicaIndexes.size()) {
+        throw new IllegalStateException("No replica get operation could be "
+          + "dispatched because all operations have been cancelled.");
+      }
+    }
+  }
 
-          @Override
-          public void gotData(String k, int flags, byte[] data) {
-            assert key.equals(k) : "Wrong key returned";
-            val = tcService.decode(tc, new CachedData(flags, data,
-              tc.getMaxSize()));
-          }
+  /**
+   * Checks if the active node for the given key can currently take requests.
+   *
+   * @param locator the locator to use.
+   * @param key the key to check.
+   * @return true if there is an active master and its node is active.
+   */
+  private boolean isActiveNodeUsable(VBucketNodeLocator locator, String key) {
+    if (!locator.hasActiveMaster(key)) {
+      return false;
+    }
+    MemcachedNode primary = locator.getPrimary(key);
+    return primary != null && primary.isActive();
+  }
 
-          @Override
-          public void complete() {
-            latch.countDown();
-            if (usedFuture) {
-              replicaFuture.signalComplete();
-            }
-          }
-        });
-    } else {
-      return opFact.get(key, new GetOperation.Callback() {
-        private Future<T> val = null;
-        private boolean usedFuture;
+  /**
+   * Dispatches a get for every given replica index.
+   *
+   * @return the number of operations that have been discarded.
+   */
+  private <T> int dispatchReplicaGets(final String key, final Transcoder<T> tc,
+    final ReplicaGetFuture<T> replicaFuture, final List<Integer> indexes) {
+    int discardedOps = 0;
+    for(int index : indexes) {
+      Operation op = opFact.replicaGet(key, index,
+        new ReplicaGetCallback<T>(key, tc, replicaFuture, null));
+      mconn.enqueueOperation(key, op);
 
-        @Override
-        public void receivedStatus(OperationStatus status) {
-          future.set(val, status);
-          if (!replicaFuture.isDone() && status.isSuccess()) {
-            usedFuture = replicaFuture.setCompletedFuture(future);
-          }
-        }
+      if (op.isCancelled()) {
+        discardedOps++;
+        getLogger().debug("Silently discarding replica get for key \""
+          + key + "\" (cancelled).");
+      } else {
+        replicaFuture.addOperationToMonitor(op);
+      }
+    }
+    return discardedOps;
+  }
 
-        @Override
-        public void gotData(String k, int flags, byte[] data) {
-          assert key.equals(k) : "Wrong key returned";
-          val = tcService.decode(tc, new CachedData(flags, data,
-            tc.getMaxSize()));
-        }
+  /**
+   * Dispatches a get against the active node.
+   *
+   * @param onFailure run on the replica fallback executor if the active node
+   *        does not answer successfully, may be null.
+   * @return true if the operation has been dispatched.
+   */
+  private <T> boolean dispatchActiveGet(final String key,
+    final Transcoder<T> tc, final ReplicaGetFuture<T> replicaFuture,
+    final Runnable onFailure) {
+    Operation op = opFact.get(key,
+      new ReplicaGetCallback<T>(key, tc, replicaFuture, onFailure));
+    mconn.enqueueOperation(key, op);
 
-        @Override
-        public void complete() {
-          latch.countDown();
-          if (usedFuture) {
-            replicaFuture.signalComplete();
-          }
+    if (op.isCancelled()) {
+      getLogger().debug("Silently discarding replica (active) get for key \""
+        + key + "\" (cancelled).");
+      return false;
+    }
+    replicaFuture.addOperationToMonitor(op);
+    return true;
+  }
+
+  /**
+   * Callback shared by all operations dispatched for one replica get.
+   *
+   * The first successful response is decoded and set as the result of the
+   * {@link ReplicaGetFuture}, which also cancels the other operations.
+   */
+  private class ReplicaGetCallback<T> implements GetOperation.Callback,
+    ReplicaGetOperation.Callback {
+
+    private final String key;
+    private final Transcoder<T> tc;
+    private final ReplicaGetFuture<T> replicaFuture;
+    private final Runnable onFailure;
+    private Future<T> val;
+    private boolean succeeded;
+
+    /**
+     * @param onFailure run on the replica fallback executor if the operation
+     *        does not complete successfully, may be null.
+     */
+    ReplicaGetCallback(String key, Transcoder<T> tc,
+      ReplicaGetFuture<T> replicaFuture, Runnable onFailure) {
+      this.key = key;
+      this.tc = tc;
+      this.replicaFuture = replicaFuture;
+      this.onFailure = onFailure;
+    }
+
+    @Override
+    public void receivedStatus(OperationStatus status) {
+      succeeded = status.isSuccess();
+      if (succeeded && !replicaFuture.isDone()) {
+        replicaFuture.setCompleted(val);
+      }
+    }
+
+    @Override
+    public void gotData(String k, int flags, byte[] data) {
+      assert key.equals(k) : "Wrong key returned";
+      val = tcService.decode(tc, new CachedData(flags, data,
+        tc.getMaxSize()));
+    }
+
+    @Override
+    public void complete() {
+      if (!succeeded && onFailure != null) {
+        try {
+          replicaFallbackExecutor.execute(onFailure);
+        } catch (RejectedExecutionException ex) {
+          getLogger().debug("Could not run replica read fallback, client "
+            + "is shutting down.");
         }
-      });
+      }
     }
   }
 
@@ -1556,6 +1666,112 @@ public class CouchbaseClient extends MemcachedClient
     return observe(key, cas, true, true);
   }
 
+  /**
+   * Start authentication for a newly established connection.
+   *
+   * The default implementation looks up the node by its address. With more
+   * than one connection per node (or more than one I/O thread), all of them
+   * share that address, so
+   * authentication is started for one connection of that address which
+   * has not been authenticated yet.
+   */
+  @Override
+  public void connectionEstablished(SocketAddress sa, int reconnectCount) {
+    CouchbaseConnectionFactory cf = (CouchbaseConnectionFactory) connFactory;
+    if (authDescriptor == null
+      || (cf.getKvConnsPerNode() <= 1 && cf.getIoThreads() <= 1)) {
+      super.connectionEstablished(sa, reconnectCount);
+      return;
+    }
+    if (authDescriptor.authThresholdReached()) {
+      shutdown();
+    }
+    synchronized (this) {
+      Set<MemcachedNode> started = getAuthStartedNodes();
+      for (MemcachedNode node : mconn.getLocator().getAll()) {
+        if (!sa.equals(node.getSocketAddress())) {
+          continue;
+        }
+        if (node.isAuthenticated()) {
+          started.remove(node);
+        } else if (node.isActive() && started.add(node)) {
+          authMonitor.authConnection(mconn, opFact, authDescriptor, node);
+          return;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void connectionLost(SocketAddress sa) {
+    super.connectionLost(sa);
+    synchronized (this) {
+      Iterator<MemcachedNode> nodes = getAuthStartedNodes().iterator();
+      while (nodes.hasNext()) {
+        if (sa.equals(nodes.next().getSocketAddress())) {
+          nodes.remove();
+        }
+      }
+    }
+  }
+
+  private synchronized Set<MemcachedNode> getAuthStartedNodes() {
+    if (authStartedNodes == null) {
+      authStartedNodes = new HashSet<MemcachedNode>();
+    }
+    return authStartedNodes;
+  }
+
+  @Override
+  public WarmupFuture getReadyFuture() {
+    return readyFuture;
+  }
+
+  @Override
+  public WarmupFuture warmup() {
+    NodeLocator locator = mconn.getLocator();
+    Collection<MemcachedNode> nodes = locator.getAll();
+    final WarmupFuture future = new WarmupFuture(nodes.size(),
+      operationTimeout, executorService);
+
+    if (nodes.isEmpty()) {
+      return future;
+    }
+    broadcastOp(new BroadcastOpFactory() {
+      @Override
+      public Operation newOp(final MemcachedNode n,
+        final CountDownLatch latch) {
+        return opFact.noop(new OperationCallback() {
+          private volatile boolean success;
+
+          @Override
+          public void receivedStatus(OperationStatus status) {
+            success = status.isSuccess();
+          }
+
+          @Override
+          public void complete() {
+            future.nodeWarmedUp(success);
+            latch.countDown();
+          }
+        });
+      }
+    }, nodes);
+    return future;
+  }
+
+  /**
+   * Returns the latency histograms and node metrics of this client.
+   *
+   * Instrumentation is enabled through
+   * {@link CouchbaseConnectionFactoryBuilder#setEnableInstrumentation}.
+   *
+   * @return the metrics or null if instrumentation is disabled.
+   */
+  public CouchbaseMetrics getMetrics() {
+    return cbConnFactory.getMetrics();
+  }
+
   @Override
   public int getNumVBuckets() {
     return ((CouchbaseConnectionFactory)connFactory).getVBucketConfig()
@@ -1572,6 +1788,12 @@ public class CouchbaseClient extends MemcachedClient
       if(vconn != null) {
         vconn.shutdown();
       }
+      if (replicaFallbackExecutor != null) {
+        replicaFallbackExecutor.shutdownNow();
+      }
+      if (cf.getMetrics() != null) {
+        cf.getMetrics().unregister();
+      }
     } catch (IOException ex) {
       Logger.getLogger(
          CouchbaseClient.class.getName()).log(Level.SEVERE,
@@ -1594,7 +1816,8 @@ public class CouchbaseClient extends MemcachedClient
       }
     }
 
-    int replicaCount = Math.min(locator.getAll().size() - 1, cfg.getReplicasCount());
+    int replicaCount = Math.min(locator.getServerCount() - 1,
+      cfg.getReplicasCount());
     if (numReplica > replicaCount) {
       throw new ObservedException("Requested replication to " + numReplica
           + " node(s), but only " + replicaCount + " are available.");
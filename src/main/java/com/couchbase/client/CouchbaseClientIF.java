@@ -24,6 +24,7 @@ package com.couchbase.client;
 
 import com.couchbase.client.internal.HttpFuture;
 import com.couchbase.client.internal.ReplicaGetFuture;
+import com.couchbase.client.internal.WarmupFuture;
 import com.couchbase.client.protocol.views.AbstractView;
 import com.couchbase.client.protocol.views.DesignDocument;
 import com.couchbase.client.protocol.views.Paginator;
@@ -1383,4 +1384,25 @@ public interface CouchbaseClientIF extends MemcachedClientIF {
 
   OperationFuture<Map<String, String>> getKeyStats(String key);
 
+  /**
+   * Returns a future which completes once all nodes the client connected to
+   * during construction are authenticated and answer requests.
+   *
+   * Waiting on this future before taking traffic ensures that the first
+   * requests do not pay the connection setup latency.
+   *
+   * @return the readiness future of the client.
+   */
+  WarmupFuture getReadyFuture();
+
+  /**
+   * Warm up all nodes of the current cluster map.
+   *
+   * A no-op request is sent to every node, which completes once the node is
+   * connected and authenticated.
+   *
+   * @return a future which completes once all nodes have answered.
+   */
+  WarmupFuture warmup();
+
 }
@@ -24,9 +24,14 @@ package com.couchbase.client;
 
 import com.couchbase.client.internal.AdaptiveThrottler;
 import com.couchbase.client.internal.ThrottleManager;
+import com.couchbase.client.metrics.CouchbaseMetrics;
+import com.couchbase.client.tracing.TraceSpan;
+import com.couchbase.client.tracing.TraceStage;
+import com.couchbase.client.tracing.Tracer;
 import com.couchbase.client.vbucket.Reconfigurable;
 import com.couchbase.client.vbucket.VBucketNodeLocator;
 import com.couchbase.client.vbucket.config.Bucket;
+import com.couchbase.client.vbucket.config.Config;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -37,16 +42,28 @@ import java.nio.channels.Selector;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import net.spy.memcached.BroadcastOpFactory;
 
 import net.spy.memcached.ConnectionObserver;
 import net.spy.memcached.FailureMode;
 import net.spy.memcached.MemcachedConnection;
 import net.spy.memcached.MemcachedNode;
 import net.spy.memcached.OperationFactory;
+import net.spy.memcached.metrics.MetricType;
 import net.spy.memcached.ops.KeyedOperation;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.ReplicaGetOperation;
@@ -59,16 +76,62 @@ import net.spy.memcached.ops.VBucketAware;
 public class CouchbaseConnection extends MemcachedConnection  implements
   Reconfigurable {
 
-  protected volatile boolean reconfiguring = false;
+  private static final String OVERALL_REQUEST_METRIC =
+    "[MEM] Request Rate: All";
+
+  /**
+   * The name of the counter of operations which were dropped because their
+   * deadline had passed before they were written.
+   */
+  public static final String EXPIRED_OPERATIONS_METRIC =
+    "[MEM] Expired Operations (Dropped)";
+
+  private static final AtomicIntegerFieldUpdater<CouchbaseConnection>
+    WAKEUP_PENDING = AtomicIntegerFieldUpdater.newUpdater(
+      CouchbaseConnection.class, "wakeupPending");
+
+  private static final AtomicLongFieldUpdater<CouchbaseConnection>
+    EXPIRED_OPERATIONS = AtomicLongFieldUpdater.newUpdater(
+      CouchbaseConnection.class, "expiredOperations");
+
+  private static final long CONSTRUCTION_WAIT_NANOS =
+    TimeUnit.MILLISECONDS.toNanos(10);
+
+  private final Object reconfigurationLock = new Object();
+  private volatile int wakeupPending;
+  private volatile long expiredOperations;
+  private final long operationTimeout;
+  private final long writeBatchNanos;
+  private volatile PendingReconfiguration pendingReconfiguration;
   private final CouchbaseConnectionFactory cf;
+  private final CouchbaseMetrics instrumentation;
+  private final Tracer tracer;
   private final ThrottleManager throttleManager;
   private final boolean enableThrottling;
+  private final CouchbaseConnectionShard[] shards;
+  private final Map<MemcachedNode, CouchbaseConnectionShard> shardNodes;
+  private Set<SocketAddress> currentServers;
+  private Config currentConfig;
+  private volatile boolean constructed;
 
   public CouchbaseConnection(int bufSize, CouchbaseConnectionFactory f,
       List<InetSocketAddress> a, Collection<ConnectionObserver> obs,
       FailureMode fm, OperationFactory opfactory) throws IOException {
-    super(bufSize, f, a, obs, fm, opfactory);
+    super(bufSize, f, shardAddresses(a, getConnsPerNode(f), f.getIoThreads(),
+      0), obs, fm, opfactory);
     this.cf = f;
+    this.instrumentation = f.getMetrics();
+    this.tracer = f.getTracer();
+    this.operationTimeout = f.getOperationTimeout();
+    this.writeBatchNanos =
+      TimeUnit.MICROSECONDS.toNanos(f.getWriteBatchDelay());
+    this.shards = new CouchbaseConnectionShard[f.getIoThreads() - 1];
+    this.shardNodes = new ConcurrentHashMap<MemcachedNode,
+      CouchbaseConnectionShard>();
+    this.currentServers = new HashSet<SocketAddress>(a);
+    if (shards.length > 0) {
+      createShards(bufSize, a, obs, fm, opfactory);
+    }
 
     enableThrottling = Boolean.parseBoolean(
       CouchbaseProperties.getProperty("enable_throttle", false));
@@ -78,98 +141,320 @@ public class CouchbaseConnection extends MemcachedConnection  implements
     } else {
       this.throttleManager = null;
     }
+    constructed = true;
+    LockSupport.unpark(this);
   }
 
-  public void reconfigure(Bucket bucket) {
-    if(reconfiguring) {
-      getLogger().debug("Suppressing attempt to reconfigure again while "
-        + "reconfiguring.");
-      return;
+  @Override
+  protected void registerMetrics() {
+    super.registerMetrics();
+    if (metricType != MetricType.OFF) {
+      metrics.addCounter(EXPIRED_OPERATIONS_METRIC);
     }
+  }
 
-    reconfiguring = true;
+  /**
+   * Start the additional I/O threads and publish their nodes to the locator.
+   */
+  private void createShards(int bufSize, List<InetSocketAddress> a,
+    Collection<ConnectionObserver> obs, FailureMode fm,
+    OperationFactory opfactory) throws IOException {
+    int connsPerNode = getConnsPerNode(cf);
     try {
-      // get a new collection of addresses from the received config
-      List<String> servers = bucket.getConfig().getServers();
-      HashSet<SocketAddress> newServerAddresses = new HashSet<SocketAddress>();
-      ArrayList<InetSocketAddress> newServers =
-          new ArrayList<InetSocketAddress>();
-      for (String server : servers) {
-        int finalColon = server.lastIndexOf(':');
-        if (finalColon < 1) {
-          throw new IllegalArgumentException("Invalid server ``" + server
-              + "'' in vbucket's server list");
+      for (int i = 0; i < shards.length; i++) {
+        shards[i] = new CouchbaseConnectionShard(this, bufSize, cf,
+          shardAddresses(a, connsPerNode, shards.length + 1, i + 1), obs, fm,
+          opfactory);
+        for (MemcachedNode node : shards[i].getLocator().getAll()) {
+          shardNodes.put(node, shards[i]);
         }
-        String hostPart = server.substring(0, finalColon);
-        String portNum = server.substring(finalColon + 1);
-
-        InetSocketAddress address =
-            new InetSocketAddress(hostPart, Integer.parseInt(portNum));
-        // add parsed address to our collections
-        newServerAddresses.add(address);
-        newServers.add(address);
       }
+    } catch (IOException e) {
+      shutdown();
+      throw e;
+    }
 
-      // split current nodes to "odd nodes" and "stay nodes"
-      ArrayList<MemcachedNode> oddNodes = new ArrayList<MemcachedNode>();
-      ArrayList<MemcachedNode> stayNodes = new ArrayList<MemcachedNode>();
-      ArrayList<InetSocketAddress> stayServers =
-          new ArrayList<InetSocketAddress>();
-      for (MemcachedNode current : locator.getAll()) {
-        if (newServerAddresses.contains(current.getSocketAddress())) {
-          stayNodes.add(current);
-          stayServers.add((InetSocketAddress) current.getSocketAddress());
-        } else {
-          oddNodes.add(current);
-        }
+    List<MemcachedNode> allNodes =
+      new ArrayList<MemcachedNode>(locator.getAll());
+    allNodes.addAll(shardNodes.keySet());
+    if (locator instanceof VBucketNodeLocator) {
+      ((VBucketNodeLocator) locator).updateNodes(allNodes);
+    } else {
+      locator.updateLocator(allNodes);
+    }
+    getLogger().info("Serving %d connections on %d I/O threads.",
+      allNodes.size(), shards.length + 1);
+  }
+
+  /**
+   * The number of connections to open to every node.
+   *
+   * Every I/O thread needs at least one connection to each node.
+   */
+  private static int getConnsPerNode(CouchbaseConnectionFactory f) {
+    return Math.max(f.getKvConnsPerNode(), f.getIoThreads());
+  }
+
+  /**
+   * Select the addresses served by one of the I/O threads.
+   *
+   * The connections to a node are dealt round-robin to the threads, so with
+   * at least as many connections as threads every thread serves every node.
+   *
+   * @param addrs the addresses of the nodes.
+   * @param connsPerNode the number of connections per node.
+   * @param threads the number of I/O threads.
+   * @param thread the index of the thread.
+   * @return the list of addresses the thread connects to.
+   */
+  static List<InetSocketAddress> shardAddresses(List<InetSocketAddress> addrs,
+    int connsPerNode, int threads, int thread) {
+    if (threads <= 1) {
+      return expandAddresses(addrs, connsPerNode);
+    }
+    List<InetSocketAddress> selected = new ArrayList<InetSocketAddress>();
+    for (InetSocketAddress addr : addrs) {
+      for (int i = thread; i < connsPerNode; i += threads) {
+        selected.add(addr);
       }
+    }
+    return selected;
+  }
 
-      // prepare a collection of addresses for new nodes
-      newServers.removeAll(stayServers);
+  /**
+   * Repeat every address as often as connections should be opened to it.
+   *
+   * @param addrs the addresses of the nodes.
+   * @param connsPerNode the number of connections per node.
+   * @return the list of addresses to connect to.
+   */
+  static List<InetSocketAddress> expandAddresses(
+    List<InetSocketAddress> addrs, int connsPerNode) {
+    if (connsPerNode <= 1) {
+      return addrs;
+    }
+    List<InetSocketAddress> expanded =
+      new ArrayList<InetSocketAddress>(addrs.size() * connsPerNode);
+    for (InetSocketAddress addr : addrs) {
+      for (int i = 0; i < connsPerNode; i++) {
+        expanded.add(addr);
+      }
+    }
+    return expanded;
+  }
 
-      // create a collection of new nodes
-      List<MemcachedNode> newNodes = createConnections(newServers);
+  public void reconfigure(Bucket bucket) {
+    // if the servers stay the same, only the vbucket map needs an update,
+    // which the locator publishes atomically without involving the I/O thread
+    synchronized (reconfigurationLock) {
+      long start = System.nanoTime();
+      if (pendingReconfiguration == null
+        && locator instanceof VBucketNodeLocator
+        && ((VBucketNodeLocator) locator).updateVBucketMap(bucket.getConfig())) {
+        currentConfig = bucket.getConfig();
+        for (CouchbaseConnectionShard shard : shards) {
+          shard.updateVBucketMap(bucket.getConfig());
+        }
+        recordReconfiguration(start);
+        return;
+      }
+    }
 
-      // merge stay nodes with new nodes
-      List<MemcachedNode> mergedNodes = new ArrayList<MemcachedNode>();
-      mergedNodes.addAll(stayNodes);
-      mergedNodes.addAll(newNodes);
+    PendingReconfiguration reconfiguration =
+      PendingReconfiguration.prepare(bucket);
+    synchronized (reconfigurationLock) {
+      if (pendingReconfiguration != null) {
+        getLogger().debug("Replacing a pending reconfiguration which has not "
+          + "been applied yet.");
+      }
+      pendingReconfiguration = reconfiguration;
+    }
+    selector.wakeup();
+  }
 
-      for(MemcachedNode keepingNode : mergedNodes) {
-        getLogger().debug("Node " + keepingNode.getSocketAddress()
-          + " will stay in cluster config after reconfiguration.");
+  /**
+   * Apply the latest pending reconfiguration, if any.
+   *
+   * This is called on the I/O thread before each round of I/O, so new
+   * connections are registered with the selector from the thread that owns
+   * it and unaffected nodes keep being serviced.
+   */
+  private void applyPendingReconfiguration() {
+    synchronized (reconfigurationLock) {
+      PendingReconfiguration reconfiguration = pendingReconfiguration;
+      pendingReconfiguration = null;
+      if (reconfiguration == null) {
+        return;
+      }
+      long start = System.nanoTime();
+      try {
+        applyReconfiguration(reconfiguration.getBucket(),
+          reconfiguration.getServers());
+      } catch (IOException e) {
+        getLogger().error("Connection reconfiguration failed", e);
       }
+      recordReconfiguration(start);
+    }
+  }
 
-      // call update locator with new nodes list and vbucket config
-      if (locator instanceof VBucketNodeLocator) {
-        ((VBucketNodeLocator)locator).updateLocator(mergedNodes,
-            bucket.getConfig());
+  private void recordReconfiguration(long start) {
+    if (instrumentation != null) {
+      instrumentation.recordReconfiguration(
+        TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+    }
+  }
+
+  private void applyReconfiguration(Bucket bucket,
+    List<InetSocketAddress> servers) throws IOException {
+    HashSet<SocketAddress> newServerAddresses =
+      new HashSet<SocketAddress>(servers);
+    ArrayList<InetSocketAddress> newServers =
+      new ArrayList<InetSocketAddress>(servers);
+
+    // split current nodes to "odd nodes" and "stay nodes"
+    ArrayList<MemcachedNode> oddNodes = new ArrayList<MemcachedNode>();
+    ArrayList<MemcachedNode> stayNodes = new ArrayList<MemcachedNode>();
+    ArrayList<InetSocketAddress> stayServers =
+        new ArrayList<InetSocketAddress>();
+    for (MemcachedNode current : locator.getAll()) {
+      if (newServerAddresses.contains(current.getSocketAddress())) {
+        stayNodes.add(current);
+        stayServers.add((InetSocketAddress) current.getSocketAddress());
       } else {
-        locator.updateLocator(mergedNodes);
+        oddNodes.add(current);
       }
+    }
 
-      if(enableThrottling) {
-        for(MemcachedNode node : newNodes) {
-          throttleManager.setThrottler(
-            (InetSocketAddress)node.getSocketAddress());
+    // prepare a collection of addresses for new nodes
+    newServers.removeAll(stayServers);
+
+    // create a collection of new nodes on this thread, the other I/O
+    // threads connect theirs on their own and attach them once they are
+    // registered with their selectors
+    currentServers = newServerAddresses;
+    currentConfig = bucket.getConfig();
+    int connsPerNode = getConnsPerNode(cf);
+    List<MemcachedNode> newNodes = createConnections(
+      shardAddresses(newServers, connsPerNode, shards.length + 1, 0));
+    for (int i = 0; i < shards.length; i++) {
+      shards[i].connect(shardAddresses(newServers, connsPerNode,
+        shards.length + 1, i + 1));
+    }
+
+    // merge stay nodes with new nodes
+    List<MemcachedNode> mergedNodes = new ArrayList<MemcachedNode>();
+    mergedNodes.addAll(stayNodes);
+    mergedNodes.addAll(newNodes);
+
+    for(MemcachedNode keepingNode : mergedNodes) {
+      getLogger().debug("Node " + keepingNode.getSocketAddress()
+        + " will stay in cluster config after reconfiguration.");
+    }
+
+    // call update locator with new nodes list and vbucket config
+    if (locator instanceof VBucketNodeLocator) {
+      ((VBucketNodeLocator)locator).updateLocator(mergedNodes,
+          bucket.getConfig());
+    } else {
+      locator.updateLocator(mergedNodes);
+    }
+    // shards which connect to new servers update their locator once they
+    // attach the new nodes
+    if (newServers.isEmpty()) {
+      for (CouchbaseConnectionShard shard : shards) {
+        List<MemcachedNode> shardMerged = new ArrayList<MemcachedNode>();
+        for (MemcachedNode node : mergedNodes) {
+          if (shardNodes.get(node) == shard) {
+            shardMerged.add(node);
+          }
+        }
+        shard.updateLocator(shardMerged, bucket.getConfig());
+      }
+    }
+
+    if(enableThrottling) {
+      for(MemcachedNode node : newNodes) {
+        throttleManager.setThrottler(
+          (InetSocketAddress)node.getSocketAddress());
+      }
+      for(MemcachedNode node : oddNodes) {
+        throttleManager.removeThrottler(
+          (InetSocketAddress)node.getSocketAddress());
+      }
+    }
+
+    // schedule shutdown for the oddNodes
+    for(MemcachedNode shutDownNode : oddNodes) {
+      getLogger().info("Scheduling Node "
+        + shutDownNode.getSocketAddress() + "for shutdown.");
+    }
+    Map<CouchbaseConnectionShard, List<MemcachedNode>> shardOddNodes =
+      new IdentityHashMap<CouchbaseConnectionShard, List<MemcachedNode>>();
+    for (MemcachedNode oddNode : oddNodes) {
+      CouchbaseConnectionShard shard = shardNodes.remove(oddNode);
+      if (shard == null) {
+        nodesToShutdown.add(oddNode);
+        continue;
+      }
+      if (!shardOddNodes.containsKey(shard)) {
+        shardOddNodes.put(shard, new ArrayList<MemcachedNode>());
+      }
+      shardOddNodes.get(shard).add(oddNode);
+    }
+    for (Map.Entry<CouchbaseConnectionShard, List<MemcachedNode>> entry
+      : shardOddNodes.entrySet()) {
+      entry.getKey().shutdownNodes(entry.getValue());
+    }
+  }
+
+  /**
+   * Publish nodes which an I/O shard has connected to the locators.
+   *
+   * This is called from the I/O thread of the shard. Nodes of servers which
+   * have been removed by a later reconfiguration in the meantime are shut
+   * down instead.
+   *
+   * @param shard the shard which owns the nodes.
+   * @param nodes the new nodes.
+   */
+  void attachNodes(CouchbaseConnectionShard shard, List<MemcachedNode> nodes) {
+    List<MemcachedNode> oddNodes = new ArrayList<MemcachedNode>();
+    synchronized (reconfigurationLock) {
+      List<MemcachedNode> attached = new ArrayList<MemcachedNode>();
+      for (MemcachedNode node : nodes) {
+        if (currentServers.contains(node.getSocketAddress())) {
+          shardNodes.put(node, shard);
+          attached.add(node);
+        } else {
+          oddNodes.add(node);
         }
-        for(MemcachedNode node : oddNodes) {
-          throttleManager.removeThrottler(
-            (InetSocketAddress)node.getSocketAddress());
+      }
+      if (!attached.isEmpty()) {
+        shard.updateLocator(getShardNodes(shard), currentConfig);
+        List<MemcachedNode> allNodes =
+          new ArrayList<MemcachedNode>(locator.getAll());
+        allNodes.addAll(attached);
+        if (locator instanceof VBucketNodeLocator) {
+          ((VBucketNodeLocator) locator).updateNodes(allNodes);
+        } else {
+          locator.updateLocator(allNodes);
         }
       }
+    }
+    if (!oddNodes.isEmpty()) {
+      shard.shutdownNodes(oddNodes);
+    }
+  }
 
-      // schedule shutdown for the oddNodes
-      for(MemcachedNode shutDownNode : oddNodes) {
-        getLogger().info("Scheduling Node "
-          + shutDownNode.getSocketAddress() + "for shutdown.");
+  private List<MemcachedNode> getShardNodes(CouchbaseConnectionShard shard) {
+    List<MemcachedNode> nodes = new ArrayList<MemcachedNode>();
+    for (Map.Entry<MemcachedNode, CouchbaseConnectionShard> entry
+      : shardNodes.entrySet()) {
+      if (entry.getValue() == shard) {
+        nodes.add(entry.getKey());
       }
-      nodesToShutdown.addAll(oddNodes);
-    } catch (IOException e) {
-      getLogger().error("Connection reconfiguration failed", e);
-    } finally {
-      reconfiguring = false;
     }
+    return nodes;
   }
 
   /**
@@ -181,6 +466,7 @@ public class CouchbaseConnection extends MemcachedConnection  implements
   @Override
   public void addOperation(final String key, final Operation o) {
     MemcachedNode placeIn = null;
+    TraceSpan span = tracer == null ? null : tracer.start(o, key);
 
     MemcachedNode primary;
     if(o instanceof ReplicaGetOperation
@@ -193,6 +479,9 @@ public class CouchbaseConnection extends MemcachedConnection  implements
 
     if (primary == null) {
       o.cancel();
+      if (span != null) {
+        tracer.finish(o);
+      }
       cf.checkConfigUpdate();
       return;
     }
@@ -228,6 +517,9 @@ public class CouchbaseConnection extends MemcachedConnection  implements
       if (locator instanceof VBucketNodeLocator) {
         VBucketNodeLocator vbucketLocator = (VBucketNodeLocator) locator;
         short vbucketIndex = (short) vbucketLocator.getVBucketIndex(key);
+        if (instrumentation != null) {
+          instrumentation.recordVBucket(vbucketIndex);
+        }
         if (o instanceof VBucketAware) {
           VBucketAware vbucketAwareOp = (VBucketAware) o;
           vbucketAwareOp.setVBucket(key, vbucketIndex);
@@ -245,17 +537,34 @@ public class CouchbaseConnection extends MemcachedConnection  implements
         throttleManager.getThrottler(
           (InetSocketAddress)placeIn.getSocketAddress()).throttle();
       }
+      if (span != null) {
+        span.setNode(String.valueOf(placeIn.getSocketAddress()));
+        span.mark(TraceStage.QUEUED);
+      }
       addOperation(placeIn, o);
     } else {
       assert o.isCancelled() : "No node found for " + key
           + " (and not immediately cancelled)";
+      if (span != null) {
+        tracer.finish(o);
+      }
     }
   }
 
   public void addOperations(final Map<MemcachedNode, Operation> ops) {
+    Map<CouchbaseConnectionShard, Map<MemcachedNode, Operation>> shardOps =
+      null;
     for (Map.Entry<MemcachedNode, Operation> me : ops.entrySet()) {
       final MemcachedNode node = me.getKey();
       Operation o = me.getValue();
+      if (dropExpired(o)) {
+        continue;
+      }
+      TraceSpan span = tracer == null ? null : tracer.start(o, null);
+      if (span != null) {
+        span.setNode(String.valueOf(node.getSocketAddress()));
+        span.mark(TraceStage.QUEUED);
+      }
       // add the vbucketIndex to the operation
       if (locator instanceof VBucketNodeLocator) {
         if (o instanceof KeyedOperation && o instanceof VBucketAware) {
@@ -263,18 +572,192 @@ public class CouchbaseConnection extends MemcachedConnection  implements
           VBucketNodeLocator vbucketLocator = (VBucketNodeLocator) locator;
           for (String key : keys) {
             short vbucketIndex = (short) vbucketLocator.getVBucketIndex(key);
+            if (instrumentation != null) {
+              instrumentation.recordVBucket(vbucketIndex);
+            }
             VBucketAware vbucketAwareOp = (VBucketAware) o;
             vbucketAwareOp.setVBucket(key, vbucketIndex);
           }
         }
       }
+      CouchbaseConnectionShard shard = shardNodes.get(node);
+      if (shard != null) {
+        if (shardOps == null) {
+          shardOps = new IdentityHashMap<CouchbaseConnectionShard,
+            Map<MemcachedNode, Operation>>();
+        }
+        if (!shardOps.containsKey(shard)) {
+          shardOps.put(shard, new HashMap<MemcachedNode, Operation>());
+        }
+        shardOps.get(shard).put(node, o);
+        continue;
+      }
       o.setHandlingNode(node);
       o.initialize();
       node.addOp(o);
       addedQueue.offer(node);
     }
-    Selector s = selector.wakeup();
-    assert s == selector : "Wakeup returned the wrong selector.";
+    if (shardOps != null) {
+      for (Map.Entry<CouchbaseConnectionShard, Map<MemcachedNode, Operation>>
+        entry : shardOps.entrySet()) {
+        entry.getKey().addOperations(entry.getValue());
+      }
+    }
+    wakeUpSelector();
+  }
+
+  /**
+   * Wake up the selector unless a wakeup is already pending.
+   *
+   * The flag is cleared by the I/O thread right before it handles the added
+   * operations, so a flood of operations between two rounds of I/O only
+   * wakes up the selector once.
+   */
+  private void wakeUpSelector() {
+    if (wakeupPending == 0 && WAKEUP_PENDING.compareAndSet(this, 0, 1)) {
+      Selector s = selector.wakeup();
+      assert s == selector : "Wakeup returned the wrong selector.";
+    }
+  }
+
+  /**
+   * Add an operation to the I/O thread which owns the given node.
+   *
+   * @param node the node to add the operation to.
+   * @param o the operation.
+   */
+  @Override
+  protected void addOperation(final MemcachedNode node, final Operation o) {
+    if (dropExpired(o)) {
+      return;
+    }
+    CouchbaseConnectionShard shard = shardNodes.get(node);
+    if (shard != null) {
+      shard.addOp(node, o);
+      return;
+    }
+    o.setHandlingNode(node);
+    o.initialize();
+    node.addOp(o);
+    addedQueue.offer(node);
+    metrics.markMeter(OVERALL_REQUEST_METRIC);
+    wakeUpSelector();
+    getLogger().debug("Added %s to %s", o, node);
+  }
+
+  /**
+   * Drop the operation if its deadline has passed, so it is neither encoded
+   * nor written.
+   *
+   * The deadline of an operation is its creation time plus the operation
+   * timeout. An operation whose future timed out earlier is marked as timed
+   * out by the future and dropped as well. This mostly catches operations
+   * which waited for a throttle, a full queue or a new configuration. The
+   * operation completes its callback with a timed out status itself when it
+   * is marked as timed out, so it must not be completed here again.
+   *
+   * @param o the operation.
+   * @return true if the operation has been dropped.
+   */
+  boolean dropExpired(final Operation o) {
+    if (!isExpired(o, operationTimeout)) {
+      return false;
+    }
+    EXPIRED_OPERATIONS.incrementAndGet(this);
+    metrics.incrementCounter(EXPIRED_OPERATIONS_METRIC);
+    if (tracer != null) {
+      tracer.finish(o);
+    }
+    getLogger().debug("Dropping expired operation %s", o);
+    return true;
+  }
+
+  /**
+   * Check if the deadline of a not cancelled operation has passed.
+   *
+   * @param o the operation.
+   * @param timeout the operation timeout in milliseconds, 0 to disable the
+   *   check.
+   * @return true if the operation has expired.
+   */
+  static boolean isExpired(final Operation o, final long timeout) {
+    return timeout > 0 && !o.isCancelled()
+      && (o.isTimedOut() || o.isTimedOut(timeout));
+  }
+
+  /**
+   * Returns the number of operations dropped because their deadline had
+   * passed before they were written.
+   *
+   * @return the number of expired operations.
+   */
+  public long getExpiredOperations() {
+    return expiredOperations;
+  }
+
+  /**
+   * Returns the latency histograms and node metrics of this connection.
+   *
+   * @return the metrics or null if instrumentation is disabled.
+   */
+  public CouchbaseMetrics getMetrics() {
+    return instrumentation;
+  }
+
+  @Override
+  public void insertOperation(final MemcachedNode node, final Operation o) {
+    // authentication may insert operations before the constructor is done
+    CouchbaseConnectionShard shard = shardNodes == null
+      ? null : shardNodes.get(node);
+    if (shard == null) {
+      super.insertOperation(node, o);
+    } else {
+      shard.insertOperation(node, o);
+    }
+  }
+
+  @Override
+  public CountDownLatch broadcastOperation(final BroadcastOpFactory of,
+    final Collection<MemcachedNode> nodes) {
+    if (shards.length == 0) {
+      return super.broadcastOperation(of, nodes);
+    }
+    final CountDownLatch latch = new CountDownLatch(nodes.size());
+    for (MemcachedNode node : nodes) {
+      getLogger().debug("broadcast Operation: node = " + node);
+      addOperation(node, of.newOp(node, latch));
+    }
+    return latch;
+  }
+
+  @Override
+  public boolean addObserver(ConnectionObserver obs) {
+    for (CouchbaseConnectionShard shard : shards) {
+      shard.addObserver(obs);
+    }
+    return super.addObserver(obs);
+  }
+
+  @Override
+  public boolean removeObserver(ConnectionObserver obs) {
+    for (CouchbaseConnectionShard shard : shards) {
+      shard.removeObserver(obs);
+    }
+    return super.removeObserver(obs);
+  }
+
+  /**
+   * Shut down the additional I/O threads before the connections of all
+   * nodes are closed.
+   */
+  @Override
+  public void shutdown() throws IOException {
+    for (CouchbaseConnectionShard shard : shards) {
+      if (shard != null) {
+        shard.shutdown();
+      }
+    }
+    super.shutdown();
   }
 
   /**
@@ -282,21 +765,31 @@ public class CouchbaseConnection extends MemcachedConnection  implements
    */
   @Override
   public void run() {
+    // the super constructor starts this thread before our fields are set
+    while (!constructed && running) {
+      LockSupport.parkNanos(this, CONSTRUCTION_WAIT_NANOS);
+    }
     while (running) {
-      if (!reconfiguring) {
-        try {
-          handleIO();
-        } catch (IOException e) {
-          logRunException(e);
-        } catch (CancelledKeyException e) {
-          logRunException(e);
-        } catch (ClosedSelectorException e) {
-          logRunException(e);
-        } catch (IllegalStateException e) {
-          logRunException(e);
-        } catch (ConcurrentModificationException e) {
-          logRunException(e);
+      try {
+        if (writeBatchNanos > 0 && wakeupPending != 0) {
+          // let more operations queue up, so they are written together
+          LockSupport.parkNanos(writeBatchNanos);
+        }
+        WAKEUP_PENDING.set(this, 0);
+        if (pendingReconfiguration != null) {
+          applyPendingReconfiguration();
         }
+        handleIO();
+      } catch (IOException e) {
+        logRunException(e);
+      } catch (CancelledKeyException e) {
+        logRunException(e);
+      } catch (ClosedSelectorException e) {
+        logRunException(e);
+      } catch (IllegalStateException e) {
+        logRunException(e);
+      } catch (ConcurrentModificationException e) {
+        logRunException(e);
       }
     }
     getLogger().info("Shut down Couchbase client");
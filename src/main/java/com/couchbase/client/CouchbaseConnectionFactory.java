@@ -22,6 +22,10 @@
 
 package com.couchbase.client;
 
+import com.couchbase.client.internal.ObservedReadQueue;
+import com.couchbase.client.metrics.CouchbaseMetrics;
+import com.couchbase.client.tracing.TraceSink;
+import com.couchbase.client.tracing.Tracer;
 import com.couchbase.client.vbucket.ConfigurationException;
 import com.couchbase.client.vbucket.ConfigurationProvider;
 import com.couchbase.client.vbucket.ConfigurationProviderHTTP;
@@ -32,15 +36,20 @@ import com.couchbase.client.vbucket.config.Bucket;
 import com.couchbase.client.vbucket.config.Config;
 import com.couchbase.client.vbucket.config.ConfigType;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -57,6 +66,10 @@ import net.spy.memcached.MemcachedNode;
 import net.spy.memcached.NodeLocator;
 import net.spy.memcached.auth.AuthDescriptor;
 import net.spy.memcached.auth.PlainCallbackHandler;
+import net.spy.memcached.metrics.MetricCollector;
+import net.spy.memcached.metrics.MetricType;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.protocol.binary.BinaryMemcachedNodeImpl;
 
 /**
  * Couchbase implementation of ConnectionFactory.
@@ -112,6 +125,31 @@ public class CouchbaseConnectionFactory extends BinaryConnectionFactory {
    */
   public static final int DEFAULT_VIEW_CONNS_PER_NODE = 10;
 
+  /**
+   * Default amount of memcached connections per node.
+   */
+  public static final int DEFAULT_KV_CONNS_PER_NODE = 1;
+
+  /**
+   * Default amount of I/O threads serving the memcached connections.
+   */
+  public static final int DEFAULT_IO_THREADS = 1;
+
+  /**
+   * Default time the I/O thread waits to batch more writes (in us).
+   */
+  public static final long DEFAULT_WRITE_BATCH_DELAY = 0;
+
+  /**
+   * Default setting for collecting latency histograms and node metrics.
+   */
+  public static final boolean DEFAULT_ENABLE_INSTRUMENTATION = false;
+
+  /**
+   * Default fraction of requests traced once a trace sink is set.
+   */
+  public static final double DEFAULT_TRACE_SAMPLE_RATE = 0.01;
+
   /**
    * Default Timeout when persistence/replication constraints are used (in ms).
    */
@@ -138,6 +176,25 @@ public class CouchbaseConnectionFactory extends BinaryConnectionFactory {
   public static final CouchbaseNodeOrder DEFAULT_STREAMING_NODE_ORDER =
     CouchbaseNodeOrder.RANDOM;
 
+  /**
+   * Default strategy to use for replica reads.
+   */
+  public static final ReplicaReadStrategy DEFAULT_REPLICA_READ_STRATEGY =
+    ReplicaReadStrategy.ALL;
+
+  /**
+   * Default delay in ms before replicas are asked when the
+   * {@link ReplicaReadStrategy#ACTIVE_FIRST} strategy is used.
+   */
+  public static final long DEFAULT_REPLICA_READ_DELAY = 100;
+
+  /**
+   * Name of the histogram which records the time in ms it took to load the
+   * initial bucket configuration.
+   */
+  public static final String BOOTSTRAP_TIME_METRIC =
+    "[CB] Bootstrap Time (ms)";
+
   protected volatile ConfigurationProvider configurationProvider;
   private volatile String bucket;
   private volatile String pass;
@@ -152,9 +209,28 @@ public class CouchbaseConnectionFactory extends BinaryConnectionFactory {
                                          // reconnect in a 10 sec interval
   private volatile long configProviderLastUpdateTimestamp;
   private long minReconnectInterval = DEFAULT_MIN_RECONNECT_INTERVAL;
-  private final ExecutorService resubExec = Executors.newSingleThreadExecutor();
+
+  /**
+   * Runs resubscriptions for all factories in the JVM. Threads are only
+   * created while resubscriptions are in progress and do not keep the
+   * JVM alive.
+   */
+  private static final ExecutorService RESUB_EXEC =
+    Executors.newCachedThreadPool(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "Couchbase/Resubscriber");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
   private final CouchbaseNodeOrder nodeOrder = DEFAULT_STREAMING_NODE_ORDER;
   private ClusterManager clusterManager;
+  private CouchbaseMetrics couchbaseMetrics;
+  private Tracer tracer;
+  private ExecutorService untracedListenerExecutor;
+  private ExecutorService tracedListenerExecutor;
 
   /**
    * Create a new {@link CouchbaseConnectionFactory} and load the required
@@ -225,14 +301,22 @@ public class CouchbaseConnectionFactory extends BinaryConnectionFactory {
 
     this.bucket = bucket;
     pass = password;
-    configurationProvider =
-      new ConfigurationProviderHTTP(baseList, bucket, password);
+    configurationProvider = createConfigurationProvider(baseList);
+  }
+
+  private ConfigurationProvider createConfigurationProvider(
+    List<URI> baseList) {
+    ConfigurationProviderHTTP provider =
+      new ConfigurationProviderHTTP(baseList, bucket, pass);
+    provider.setConfigCacheDirectory(getConfigCacheDirectory());
+    return provider;
   }
 
   @Override
   public MemcachedConnection createConnection(List<InetSocketAddress> addrs)
     throws IOException {
     Config config = getVBucketConfig();
+    recordBootstrapTime();
     if (config.getConfigType() == ConfigType.MEMCACHE) {
       return new CouchbaseMemcachedConnection(getReadBufSize(), this, addrs,
         getInitialObservers(), getFailureMode(), getOperationFactory());
@@ -245,6 +329,25 @@ public class CouchbaseConnectionFactory extends BinaryConnectionFactory {
   }
 
 
+  /**
+   * Publish the time it took to load the initial bucket configuration to
+   * the metric collector, if metrics are enabled.
+   */
+  private void recordBootstrapTime() {
+    ConfigurationProvider provider = getConfigurationProvider();
+    if (enableMetrics() == MetricType.OFF
+      || !(provider instanceof ConfigurationProviderHTTP)) {
+      return;
+    }
+    long bootstrapTime = ((ConfigurationProviderHTTP) provider)
+      .getBootstrapTime();
+    if (bootstrapTime >= 0) {
+      MetricCollector metrics = getMetricCollector();
+      metrics.addHistogram(BOOTSTRAP_TIME_METRIC);
+      metrics.updateHistogram(BOOTSTRAP_TIME_METRIC, (int) bootstrapTime);
+    }
+  }
+
   public ViewConnection createViewConnection(
       List<InetSocketAddress> addrs) throws IOException {
     return new ViewConnection(this, addrs, bucket, pass);
@@ -305,10 +408,179 @@ public class CouchbaseConnectionFactory extends BinaryConnectionFactory {
     return DEFAULT_VIEW_CONNS_PER_NODE;
   }
 
+  /**
+   * The number of memcached connections opened to every node.
+   *
+   * With more than one connection, operations are spread across them by
+   * vbucket, so all operations on one key still use the same connection.
+   *
+   * @return the number of connections per node.
+   */
+  public int getKvConnsPerNode() {
+    return DEFAULT_KV_CONNS_PER_NODE;
+  }
+
+  /**
+   * The number of I/O threads serving the memcached connections.
+   *
+   * Every thread runs its own selector and gets its own connection to every
+   * node, so at least this many connections are opened per node.
+   *
+   * @return the number of I/O threads.
+   */
+  public int getIoThreads() {
+    return DEFAULT_IO_THREADS;
+  }
+
+  /**
+   * The time in microseconds an I/O thread waits for more operations once
+   * new operations have been queued, so they go out in fewer writes.
+   *
+   * The default of 0 writes operations as soon as possible.
+   *
+   * @return the write batching delay in microseconds.
+   */
+  public long getWriteBatchDelay() {
+    return DEFAULT_WRITE_BATCH_DELAY;
+  }
+
+  /**
+   * Whether latency histograms and node metrics are collected.
+   *
+   * @return true if the metrics are collected.
+   */
+  public boolean isInstrumentationEnabled() {
+    return DEFAULT_ENABLE_INSTRUMENTATION;
+  }
+
+  /**
+   * Returns the metrics shared by all connections created by this factory
+   * and creates them if they do not exist.
+   *
+   * @return the metrics or null if instrumentation is disabled.
+   */
+  public synchronized CouchbaseMetrics getMetrics() {
+    if (couchbaseMetrics == null && isInstrumentationEnabled()) {
+      couchbaseMetrics = new CouchbaseMetrics(getBucketName());
+    }
+    return couchbaseMetrics;
+  }
+
+  /**
+   * The sink traced requests are reported to.
+   *
+   * @return the sink or null if tracing is disabled.
+   */
+  public TraceSink getTraceSink() {
+    return null;
+  }
+
+  /**
+   * The fraction of requests which are traced if a trace sink is set.
+   *
+   * @return the sample rate.
+   */
+  public double getTraceSampleRate() {
+    return DEFAULT_TRACE_SAMPLE_RATE;
+  }
+
+  /**
+   * Returns the tracer shared by all connections created by this factory
+   * and creates it if it does not exist.
+   *
+   * @return the tracer or null if tracing is disabled.
+   */
+  public synchronized Tracer getTracer() {
+    if (tracer == null && getTraceSink() != null) {
+      tracer = new Tracer(getTraceSink(), getTraceSampleRate(),
+        Math.max(getOperationTimeout(), getViewTimeout()));
+    }
+    return tracer;
+  }
+
+  @Override
+  public ExecutorService getListenerExecutorService() {
+    return traceListeners(super.getListenerExecutorService());
+  }
+
+  /**
+   * Wraps the listener executor so listener notifications are traced, if
+   * tracing is enabled.
+   *
+   * @param executor the listener executor.
+   * @return the executor to notify listeners with.
+   */
+  protected synchronized ExecutorService traceListeners(
+    ExecutorService executor) {
+    if (getTracer() == null) {
+      return executor;
+    }
+    if (executor != untracedListenerExecutor) {
+      untracedListenerExecutor = executor;
+      tracedListenerExecutor = getTracer().traceListeners(executor);
+    }
+    return tracedListenerExecutor;
+  }
+
+  @Override
+  public MemcachedNode createMemcachedNode(SocketAddress sa, SocketChannel c,
+    int bufSize) {
+    CouchbaseMetrics instrumentation = getMetrics();
+    Tracer nodeTracer = getTracer();
+    if (instrumentation == null && nodeTracer == null) {
+      return super.createMemcachedNode(sa, c, bufSize);
+    }
+    BlockingQueue<Operation> readQueue = createReadOperationQueue();
+    if (instrumentation != null) {
+      readQueue = instrumentation.instrumentReadQueue(readQueue, sa);
+    }
+    if (nodeTracer != null) {
+      readQueue = new ObservedReadQueue(readQueue, nodeTracer);
+    }
+    BlockingQueue<Operation> writeQueue = createWriteOperationQueue();
+    BlockingQueue<Operation> inputQueue = createOperationQueue();
+    MemcachedNode node = new BinaryMemcachedNodeImpl(sa, c, bufSize,
+      readQueue, writeQueue, inputQueue, getOpQueueMaxBlockTime(),
+      getAuthDescriptor() != null, getOperationTimeout());
+    if (instrumentation != null) {
+      instrumentation.registerNode(node, inputQueue, writeQueue, readQueue);
+    }
+    return node;
+  }
+
   public CouchbaseNodeOrder getStreamingNodeOrder() {
     return nodeOrder;
   }
 
+  /**
+   * The strategy used to dispatch replica reads.
+   *
+   * @return the replica read strategy.
+   */
+  public ReplicaReadStrategy getReplicaReadStrategy() {
+    return DEFAULT_REPLICA_READ_STRATEGY;
+  }
+
+  /**
+   * The time in milliseconds to wait for the active node before the replicas
+   * are asked when {@link ReplicaReadStrategy#ACTIVE_FIRST} is used.
+   *
+   * @return the replica read delay.
+   */
+  public long getReplicaReadDelay() {
+    return DEFAULT_REPLICA_READ_DELAY;
+  }
+
+  /**
+   * The directory in which the last good bucket configuration is kept, so
+   * that the next start does not need to wait for the cluster.
+   *
+   * @return the directory or null if the configuration is not cached.
+   */
+  public File getConfigCacheDirectory() {
+    return null;
+  }
+
   public Config getVBucketConfig() {
     Bucket config = configurationProvider.getBucketConfiguration(bucket);
     if(config == null) {
@@ -385,7 +657,7 @@ public class CouchbaseConnectionFactory extends BinaryConnectionFactory {
   private synchronized void resubConfigUpdate() {
     LOGGER.log(Level.INFO, "Attempting to resubscribe for cluster config"
       + " updates.");
-    resubExec.execute(new Resubscriber());
+    RESUB_EXEC.execute(new Resubscriber());
   }
 
   /**
@@ -490,12 +762,15 @@ public class CouchbaseConnectionFactory extends BinaryConnectionFactory {
           ConfigurationProvider oldConfigProvider = getConfigurationProvider();
           Reconfigurable oldRec = oldConfigProvider.getReconfigurable();
 
+          // Release the old monitor first, a shared monitor would otherwise
+          // be handed to the new provider and lose its observer once the
+          // old provider shuts down.
+          oldConfigProvider.shutdown();
           ConfigurationProvider newConfigProvider =
-            new ConfigurationProviderHTTP(storedBaseList, bucket, pass);
+            createConfigurationProvider(storedBaseList);
           newConfigProvider.subscribe(bucket, oldRec);
 
           setConfigurationProvider(newConfigProvider);
-          oldConfigProvider.shutdown();
 
           if (!doingResubscribe.compareAndSet(true, false)) {
             LOGGER.log(Level.WARNING,
@@ -606,8 +881,17 @@ public class CouchbaseConnectionFactory extends BinaryConnectionFactory {
     sb.append(", obsPollMax=").append(getObsPollMax());
     sb.append(", obsTimeout=").append(getObsTimeout());
     sb.append(", viewConns=").append(getViewConnsPerNode());
+    sb.append(", kvConns=").append(getKvConnsPerNode());
+    sb.append(", ioThreads=").append(getIoThreads());
+    sb.append(", writeBatchDelay=").append(getWriteBatchDelay());
+    sb.append(", instrumentation=").append(isInstrumentationEnabled());
+    sb.append(", traceSink=").append(getTraceSink());
+    sb.append(", traceSampleRate=").append(getTraceSampleRate());
     sb.append(", viewTimeout=").append(getViewTimeout());
     sb.append(", viewWorkers=").append(getViewWorkerSize());
+    sb.append(", replicaRead=").append(getReplicaReadStrategy());
+    sb.append(", replicaReadDelay=").append(getReplicaReadDelay());
+    sb.append(", configCacheDir=").append(getConfigCacheDirectory());
     sb.append(", configCheck=").append(getMaxConfigCheck());
     sb.append(", reconnectInt=").append(getMinReconnectInterval());
     sb.append(", failureMode=").append(getFailureMode());
@@ -22,9 +22,11 @@
 
 package com.couchbase.client;
 
+import com.couchbase.client.tracing.TraceSink;
 import com.couchbase.client.vbucket.CouchbaseNodeOrder;
 import com.couchbase.client.vbucket.config.Config;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Collection;
@@ -64,9 +66,23 @@ public class CouchbaseConnectionFactoryBuilder extends ConnectionFactoryBuilder
   private int viewWorkers = CouchbaseConnectionFactory.DEFAULT_VIEW_WORKER_SIZE;
   private int viewConns =
     CouchbaseConnectionFactory.DEFAULT_VIEW_CONNS_PER_NODE;
+  private int kvConns = CouchbaseConnectionFactory.DEFAULT_KV_CONNS_PER_NODE;
+  private int ioThreads = CouchbaseConnectionFactory.DEFAULT_IO_THREADS;
+  private long writeBatchDelay =
+    CouchbaseConnectionFactory.DEFAULT_WRITE_BATCH_DELAY;
+  private boolean enableInstrumentation =
+    CouchbaseConnectionFactory.DEFAULT_ENABLE_INSTRUMENTATION;
+  private TraceSink traceSink = null;
+  private double traceSampleRate =
+    CouchbaseConnectionFactory.DEFAULT_TRACE_SAMPLE_RATE;
 
   private CouchbaseNodeOrder nodeOrder
     = CouchbaseConnectionFactory.DEFAULT_STREAMING_NODE_ORDER;
+  private ReplicaReadStrategy replicaReadStrategy =
+    CouchbaseConnectionFactory.DEFAULT_REPLICA_READ_STRATEGY;
+  private long replicaReadDelay =
+    CouchbaseConnectionFactory.DEFAULT_REPLICA_READ_DELAY;
+  private File configCacheDirectory = null;
   private static final Logger LOGGER =
     Logger.getLogger(CouchbaseConnectionFactoryBuilder.class.getName());
   protected MetricType metricType = null;
@@ -157,6 +173,119 @@ public class CouchbaseConnectionFactoryBuilder extends ConnectionFactoryBuilder
     return this;
   }
 
+  /**
+   * Set the number of memcached connections to open to every node.
+   *
+   * Operations are spread across the connections of a node by vbucket, so
+   * the order of operations on a single key is preserved. This only applies
+   * to couchbase buckets.
+   *
+   * @param conns the number of connections per node.
+   * @return the builder for proper chaining.
+   */
+  public CouchbaseConnectionFactoryBuilder setKvConnsPerNode(int conns) {
+    if (conns < 1) {
+      throw new IllegalArgumentException("The KV connections per node need "
+        + "to be greater than zero");
+    }
+    kvConns = conns;
+    return this;
+  }
+
+  /**
+   * Set the number of I/O threads serving the memcached connections.
+   *
+   * Every thread runs its own selector and keeps its own connection to
+   * every node, so the number of connections per node is raised to the
+   * number of threads if needed. Operations are still spread across the
+   * connections of a node by vbucket. This only applies to couchbase
+   * buckets.
+   *
+   * @param threads the number of I/O threads.
+   * @return the builder for proper chaining.
+   */
+  public CouchbaseConnectionFactoryBuilder setIoThreads(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("The number of I/O threads needs "
+        + "to be greater than zero");
+    }
+    ioThreads = threads;
+    return this;
+  }
+
+  /**
+   * Set how long an I/O thread waits for more operations once new
+   * operations have been queued.
+   *
+   * Operations queued in the meantime are written together with as few
+   * writes as the write buffer allows, which saves system calls under high
+   * concurrency at the cost of latency. Values in the range of tens of
+   * microseconds are a good start. The default of 0 disables the delay.
+   *
+   * @param delay the delay.
+   * @param unit the unit of the delay.
+   * @return the builder for proper chaining.
+   */
+  public CouchbaseConnectionFactoryBuilder setWriteBatchDelay(long delay,
+    TimeUnit unit) {
+    if (delay < 0) {
+      throw new IllegalArgumentException("The write batch delay must not be "
+        + "negative");
+    }
+    writeBatchDelay = unit.toMicros(delay);
+    return this;
+  }
+
+  /**
+   * Enable latency histograms and node metrics.
+   *
+   * When enabled, the latencies of all operations are recorded per type and
+   * per node, together with queue depths, view connection waits,
+   * reconfigurations and throttling. They are available through
+   * {@link CouchbaseClient#getMetrics()} and registered with JMX.
+   *
+   * @param enable true to collect the metrics.
+   * @return the builder for proper chaining.
+   */
+  public CouchbaseConnectionFactoryBuilder setEnableInstrumentation(
+    boolean enable) {
+    enableInstrumentation = enable;
+    return this;
+  }
+
+  /**
+   * Trace sampled requests through the pipeline and report them to the
+   * given sink.
+   *
+   * Every sampled memcached operation and view request is followed from
+   * the moment it is handed to the connection until its response has been
+   * handled, and listener notifications are followed until the listener
+   * returns. Tracing is disabled by default.
+   *
+   * @param sink the sink to report the spans to, null to disable tracing.
+   * @return the builder for proper chaining.
+   */
+  public CouchbaseConnectionFactoryBuilder setTraceSink(TraceSink sink) {
+    traceSink = sink;
+    return this;
+  }
+
+  /**
+   * Set the fraction of requests which are traced once a trace sink is
+   * set.
+   *
+   * @param rate the sample rate, greater than 0 and at most 1.
+   * @return the builder for proper chaining.
+   */
+  public CouchbaseConnectionFactoryBuilder setTraceSampleRate(double rate) {
+    if (!(rate > 0 && rate <= 1)) {
+      throw new IllegalArgumentException("The trace sample rate must be "
+        + "greater than 0 and at most 1");
+    }
+    traceSampleRate = rate;
+    return this;
+  }
+
   /**
    * Set the streaming connection node ordering.
    *
@@ -168,6 +297,60 @@ public class CouchbaseConnectionFactoryBuilder extends ConnectionFactoryBuilder
     return this;
   }
 
+  /**
+   * Set the strategy used to dispatch replica reads.
+   *
+   * @param strategy the replica read strategy to use.
+   * @return the builder for proper chaining.
+   */
+  public CouchbaseConnectionFactoryBuilder setReplicaReadStrategy(
+    ReplicaReadStrategy strategy) {
+    if (strategy == null) {
+      throw new IllegalArgumentException("The replica read strategy must not "
+        + "be null.");
+    }
+    replicaReadStrategy = strategy;
+    return this;
+  }
+
+  /**
+   * Set the time in milliseconds to wait for the active node before the
+   * replicas are asked.
+   *
+   * This setting is only used with {@link ReplicaReadStrategy#ACTIVE_FIRST}.
+   *
+   * @param delay the delay in milliseconds.
+   * @return the builder for proper chaining.
+   */
+  public CouchbaseConnectionFactoryBuilder setReplicaReadDelay(long delay) {
+    if (delay < 0) {
+      throw new IllegalArgumentException("The replica read delay must not "
+        + "be negative.");
+    }
+    replicaReadDelay = delay;
+    return this;
+  }
+
+  /**
+   * Keep the last good bucket configuration in the given directory.
+   *
+   * On the next start the client is created from the cached configuration
+   * right away, and switches to the live configuration once the cluster
+   * has been reached. The directory is created if it does not exist.
+   *
+   * @param directory the directory or null to disable the cache.
+   * @return the builder for proper chaining.
+   */
+  public CouchbaseConnectionFactoryBuilder setConfigCacheDirectory(
+    File directory) {
+    if (directory != null && directory.exists() && !directory.isDirectory()) {
+      throw new IllegalArgumentException("The config cache location "
+        + directory + " is not a directory.");
+    }
+    configCacheDirectory = directory;
+    return this;
+  }
+
   /**
    * Enable or disable metric collection.
    *
@@ -354,6 +537,51 @@ public class CouchbaseConnectionFactoryBuilder extends ConnectionFactoryBuilder
         return viewConns;
       }
 
+      @Override
+      public int getKvConnsPerNode() {
+        return kvConns;
+      }
+
+      @Override
+      public int getIoThreads() {
+        return ioThreads;
+      }
+
+      @Override
+      public long getWriteBatchDelay() {
+        return writeBatchDelay;
+      }
+
+      @Override
+      public boolean isInstrumentationEnabled() {
+        return enableInstrumentation;
+      }
+
+      @Override
+      public TraceSink getTraceSink() {
+        return traceSink;
+      }
+
+      @Override
+      public double getTraceSampleRate() {
+        return traceSampleRate;
+      }
+
+      @Override
+      public ReplicaReadStrategy getReplicaReadStrategy() {
+        return replicaReadStrategy;
+      }
+
+      @Override
+      public long getReplicaReadDelay() {
+        return replicaReadDelay;
+      }
+
+      @Override
+      public File getConfigCacheDirectory() {
+        return configCacheDirectory;
+      }
+
       @Override
       public MetricType enableMetrics() {
         return metricType == null ? super.enableMetrics() : metricType;
@@ -366,7 +594,8 @@ public class CouchbaseConnectionFactoryBuilder extends ConnectionFactoryBuilder
 
       @Override
       public ExecutorService getListenerExecutorService() {
-        return executorService == null ? super.getListenerExecutorService() : executorService;
+        return executorService == null ? super.getListenerExecutorService()
+          : traceListeners(executorService);
       }
 
       @Override
@@ -500,6 +729,51 @@ public class CouchbaseConnectionFactoryBuilder extends ConnectionFactoryBuilder
         return viewConns;
       }
 
+      @Override
+      public int getKvConnsPerNode() {
+        return kvConns;
+      }
+
+      @Override
+      public int getIoThreads() {
+        return ioThreads;
+      }
+
+      @Override
+      public long getWriteBatchDelay() {
+        return writeBatchDelay;
+      }
+
+      @Override
+      public boolean isInstrumentationEnabled() {
+        return enableInstrumentation;
+      }
+
+      @Override
+      public TraceSink getTraceSink() {
+        return traceSink;
+      }
+
+      @Override
+      public double getTraceSampleRate() {
+        return traceSampleRate;
+      }
+
+      @Override
+      public ReplicaReadStrategy getReplicaReadStrategy() {
+        return replicaReadStrategy;
+      }
+
+      @Override
+      public long getReplicaReadDelay() {
+        return replicaReadDelay;
+      }
+
+      @Override
+      public File getConfigCacheDirectory() {
+        return configCacheDirectory;
+      }
+
       @Override
       public MetricType enableMetrics() {
         return metricType == null ? super.enableMetrics() : metricType;
@@ -512,7 +786,8 @@ public class CouchbaseConnectionFactoryBuilder extends ConnectionFactoryBuilder
 
       @Override
       public ExecutorService getListenerExecutorService() {
-        return executorService == null ? super.getListenerExecutorService() : executorService;
+        return executorService == null ? super.getListenerExecutorService()
+          : traceListeners(executorService);
       }
 
       @Override
@@ -558,4 +833,40 @@ public class CouchbaseConnectionFactoryBuilder extends ConnectionFactoryBuilder
     return viewConns;
   }
 
+  public ReplicaReadStrategy getReplicaReadStrategy() {
+    return replicaReadStrategy;
+  }
+
+  public long getReplicaReadDelay() {
+    return replicaReadDelay;
+  }
+
+  public File getConfigCacheDirectory() {
+    return configCacheDirectory;
+  }
+
+  public int getKvConnsPerNode() {
+    return kvConns;
+  }
+
+  public int getIoThreads() {
+    return ioThreads;
+  }
+
+  public long getWriteBatchDelay() {
+    return writeBatchDelay;
+  }
+
+  public boolean isInstrumentationEnabled() {
+    return enableInstrumentation;
+  }
+
+  public TraceSink getTraceSink() {
+    return traceSink;
+  }
+
+  public double getTraceSampleRate() {
+    return traceSampleRate;
+  }
+
 }
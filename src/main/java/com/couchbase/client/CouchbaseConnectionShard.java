@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client;
+
+import com.couchbase.client.vbucket.VBucketNodeLocator;
+import com.couchbase.client.vbucket.config.Config;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import net.spy.memcached.ConnectionObserver;
+import net.spy.memcached.FailureMode;
+import net.spy.memcached.MemcachedConnection;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.OperationFactory;
+import net.spy.memcached.ops.Operation;
+
+/**
+ * An additional I/O thread of a {@link CouchbaseConnection}.
+ *
+ * Each shard runs its own selector and owns a subset of the connections to
+ * the cluster. The {@link CouchbaseConnection} it belongs to routes all
+ * operations for those connections here and keys which need to be retried
+ * are routed back through it.
+ */
+class CouchbaseConnectionShard extends MemcachedConnection {
+
+  private static final String OVERALL_REQUEST_METRIC =
+    "[MEM] Request Rate: All";
+
+  private static final AtomicIntegerFieldUpdater<CouchbaseConnectionShard>
+    WAKEUP_PENDING = AtomicIntegerFieldUpdater.newUpdater(
+      CouchbaseConnectionShard.class, "wakeupPending");
+
+  private static final long CONSTRUCTION_WAIT_NANOS =
+    TimeUnit.MILLISECONDS.toNanos(10);
+
+  private final CouchbaseConnection router;
+  private volatile int wakeupPending;
+  private final long writeBatchNanos;
+  private final Queue<Collection<InetSocketAddress>> pendingConnects =
+    new ConcurrentLinkedQueue<Collection<InetSocketAddress>>();
+  private volatile boolean constructed;
+
+  CouchbaseConnectionShard(CouchbaseConnection router, int bufSize,
+    CouchbaseConnectionFactory f, List<InetSocketAddress> a,
+    Collection<ConnectionObserver> obs, FailureMode fm,
+    OperationFactory opfactory) throws IOException {
+    super(bufSize, f, a, obs, fm, opfactory);
+    this.router = router;
+    this.writeBatchNanos =
+      TimeUnit.MICROSECONDS.toNanos(f.getWriteBatchDelay());
+    constructed = true;
+    LockSupport.unpark(this);
+  }
+
+  /**
+   * Open connections to the given addresses on this shard.
+   *
+   * The channels are created and registered from the I/O thread of this
+   * shard, which then hands the new nodes to the owning connection. The
+   * caller does not wait for that to happen.
+   *
+   * @param addrs the addresses to connect to.
+   */
+  void connect(final Collection<InetSocketAddress> addrs) {
+    if (addrs.isEmpty()) {
+      return;
+    }
+    pendingConnects.offer(addrs);
+    selector.wakeup();
+  }
+
+  /**
+   * Connect the addresses queued through {@link #connect(Collection)} and
+   * attach the new nodes to the owning connection.
+   */
+  private void connectPending() {
+    Collection<InetSocketAddress> addrs;
+    while ((addrs = pendingConnects.poll()) != null) {
+      try {
+        router.attachNodes(this, createConnections(addrs));
+      } catch (IOException e) {
+        getLogger().error("Could not connect to " + addrs, e);
+      }
+    }
+  }
+
+  /**
+   * Replace the nodes this shard is responsible for.
+   *
+   * @param nodes the nodes owned by this shard.
+   * @param config the configuration they belong to.
+   */
+  void updateLocator(Collection<MemcachedNode> nodes, Config config) {
+    if (locator instanceof VBucketNodeLocator) {
+      ((VBucketNodeLocator) locator).updateLocator(nodes, config);
+    } else {
+      locator.updateLocator(new ArrayList<MemcachedNode>(nodes));
+    }
+  }
+
+  void updateVBucketMap(Config config) {
+    if (locator instanceof VBucketNodeLocator) {
+      ((VBucketNodeLocator) locator).updateVBucketMap(config);
+    }
+  }
+
+  void shutdownNodes(Collection<MemcachedNode> nodes) {
+    nodesToShutdown.addAll(nodes);
+    selector.wakeup();
+  }
+
+  void addOp(MemcachedNode node, Operation o) {
+    addOperation(node, o);
+  }
+
+  /**
+   * Add an operation to a node of this shard, waking up the selector only
+   * if no wakeup is pending already.
+   */
+  @Override
+  protected void addOperation(MemcachedNode node, Operation o) {
+    o.setHandlingNode(node);
+    o.initialize();
+    node.addOp(o);
+    addedQueue.offer(node);
+    metrics.markMeter(OVERALL_REQUEST_METRIC);
+    if (wakeupPending == 0 && WAKEUP_PENDING.compareAndSet(this, 0, 1)) {
+      selector.wakeup();
+    }
+    getLogger().debug("Added %s to %s", o, node);
+  }
+
+  /**
+   * Operations which need to be placed again go through the owning
+   * connection, which knows about the nodes of all shards.
+   */
+  @Override
+  protected void addOperation(String key, Operation o) {
+    router.addOperation(key, o);
+  }
+
+  @Override
+  public void run() {
+    // the super constructor starts this thread before our fields are set
+    while (!constructed && running) {
+      LockSupport.parkNanos(this, CONSTRUCTION_WAIT_NANOS);
+    }
+    while (running) {
+      try {
+        if (writeBatchNanos > 0 && wakeupPending != 0) {
+          // let more operations queue up, so they are written together
+          LockSupport.parkNanos(writeBatchNanos);
+        }
+        WAKEUP_PENDING.set(this, 0);
+        if (!pendingConnects.isEmpty()) {
+          connectPending();
+        }
+        handleIO();
+      } catch (IOException e) {
+        logRunException(e);
+      } catch (CancelledKeyException e) {
+        logRunException(e);
+      } catch (ClosedSelectorException e) {
+        logRunException(e);
+      } catch (IllegalStateException e) {
+        logRunException(e);
+      } catch (ConcurrentModificationException e) {
+        logRunException(e);
+      }
+    }
+    getLogger().info("Shut down Couchbase I/O shard");
+  }
+
+  private void logRunException(Exception e) {
+    if (shutDown) {
+      getLogger().debug("Exception occurred during shutdown", e);
+    } else {
+      getLogger().warn("Problem handling Couchbase IO", e);
+    }
+  }
+
+}
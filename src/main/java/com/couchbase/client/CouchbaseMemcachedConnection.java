@@ -59,7 +59,8 @@ import net.spy.memcached.ops.Operation;
 public class CouchbaseMemcachedConnection extends MemcachedConnection implements
   Reconfigurable {
 
-  protected volatile boolean reconfiguring = false;
+  private final Object reconfigurationLock = new Object();
+  private volatile PendingReconfiguration pendingReconfiguration;
   private final CouchbaseConnectionFactory cf;
 
   public CouchbaseMemcachedConnection(int bufSize, CouchbaseConnectionFactory f,
@@ -72,86 +73,94 @@ public class CouchbaseMemcachedConnection extends MemcachedConnection implements
 
   @Override
   public void reconfigure(Bucket bucket) {
-    if(reconfiguring) {
-      getLogger().debug("Suppressing attempt to reconfigure again while "
-        + "reconfiguring.");
-      return;
+    PendingReconfiguration reconfiguration =
+      PendingReconfiguration.prepare(bucket);
+    synchronized (reconfigurationLock) {
+      if (pendingReconfiguration != null) {
+        getLogger().debug("Replacing a pending reconfiguration which has not "
+          + "been applied yet.");
+      }
+      pendingReconfiguration = reconfiguration;
     }
+    selector.wakeup();
+  }
 
-    reconfiguring = true;
-    try {
-      // get a new collection of addresses from the received config
-      List<String> servers = bucket.getConfig().getServers();
-      HashSet<SocketAddress> newServerAddresses = new HashSet<SocketAddress>();
-      ArrayList<InetSocketAddress> newServers =
-          new ArrayList<InetSocketAddress>();
-      for (String server : servers) {
-        int finalColon = server.lastIndexOf(':');
-        if (finalColon < 1) {
-          throw new IllegalArgumentException("Invalid server ``" + server
-              + "'' in vbucket's server list");
-        }
-        String hostPart = server.substring(0, finalColon);
-        String portNum = server.substring(finalColon + 1);
-
-        InetSocketAddress address =
-            new InetSocketAddress(hostPart, Integer.parseInt(portNum));
-        // add parsed address to our collections
-        newServerAddresses.add(address);
-        newServers.add(address);
+  /**
+   * Apply the latest pending reconfiguration, if any.
+   *
+   * This is called on the I/O thread before each round of I/O, so new
+   * connections are registered with the selector from the thread that owns
+   * it and unaffected nodes keep being serviced.
+   */
+  private void applyPendingReconfiguration() {
+    synchronized (reconfigurationLock) {
+      PendingReconfiguration reconfiguration = pendingReconfiguration;
+      pendingReconfiguration = null;
+      if (reconfiguration == null) {
+        return;
+      }
+      try {
+        applyReconfiguration(reconfiguration.getBucket(),
+          reconfiguration.getServers());
+      } catch (IOException e) {
+        getLogger().error("Connection reconfiguration failed", e);
       }
+    }
+  }
 
-      // split current nodes to "odd nodes" and "stay nodes"
-      ArrayList<MemcachedNode> oddNodes = new ArrayList<MemcachedNode>();
-      ArrayList<MemcachedNode> stayNodes = new ArrayList<MemcachedNode>();
-      ArrayList<InetSocketAddress> stayServers =
-          new ArrayList<InetSocketAddress>();
-      for (MemcachedNode current : locator.getAll()) {
-        if (newServerAddresses.contains(current.getSocketAddress())) {
-          stayNodes.add(current);
-          stayServers.add((InetSocketAddress) current.getSocketAddress());
-        } else {
-          oddNodes.add(current);
-        }
+  private void applyReconfiguration(Bucket bucket,
+    List<InetSocketAddress> servers) throws IOException {
+    HashSet<SocketAddress> newServerAddresses =
+      new HashSet<SocketAddress>(servers);
+    ArrayList<InetSocketAddress> newServers =
+      new ArrayList<InetSocketAddress>(servers);
+
+    // split current nodes to "odd nodes" and "stay nodes"
+    ArrayList<MemcachedNode> oddNodes = new ArrayList<MemcachedNode>();
+    ArrayList<MemcachedNode> stayNodes = new ArrayList<MemcachedNode>();
+    ArrayList<InetSocketAddress> stayServers =
+        new ArrayList<InetSocketAddress>();
+    for (MemcachedNode current : locator.getAll()) {
+      if (newServerAddresses.contains(current.getSocketAddress())) {
+        stayNodes.add(current);
+        stayServers.add((InetSocketAddress) current.getSocketAddress());
+      } else {
+        oddNodes.add(current);
       }
+    }
 
-      // prepare a collection of addresses for new nodes
-      newServers.removeAll(stayServers);
+    // prepare a collection of addresses for new nodes
+    newServers.removeAll(stayServers);
 
-      // create a collection of new nodes
-      List<MemcachedNode> newNodes = createConnections(newServers);
+    // create a collection of new nodes
+    List<MemcachedNode> newNodes = createConnections(newServers);
 
-      // merge stay nodes with new nodes
-      List<MemcachedNode> mergedNodes = new ArrayList<MemcachedNode>();
-      mergedNodes.addAll(stayNodes);
-      mergedNodes.addAll(newNodes);
+    // merge stay nodes with new nodes
+    List<MemcachedNode> mergedNodes = new ArrayList<MemcachedNode>();
+    mergedNodes.addAll(stayNodes);
+    mergedNodes.addAll(newNodes);
 
-      for(MemcachedNode keepingNode : mergedNodes) {
-        getLogger().debug("Node " + keepingNode.getSocketAddress()
-          + " will stay in cluster config after reconfiguration.");
-      }
+    for(MemcachedNode keepingNode : mergedNodes) {
+      getLogger().debug("Node " + keepingNode.getSocketAddress()
+        + " will stay in cluster config after reconfiguration.");
+    }
 
-      // call update locator with new nodes list and vbucket config
-      if (locator instanceof VBucketNodeLocator) {
-        ((VBucketNodeLocator)locator).updateLocator(mergedNodes,
-            bucket.getConfig());
-      } else {
-        // We update the locator with the merged nodes
-        // before initiating a reconnect on the queue
-        locator.updateLocator(mergedNodes);
-      }
+    // call update locator with new nodes list and vbucket config
+    if (locator instanceof VBucketNodeLocator) {
+      ((VBucketNodeLocator)locator).updateLocator(mergedNodes,
+          bucket.getConfig());
+    } else {
+      // We update the locator with the merged nodes
+      // before initiating a reconnect on the queue
+      locator.updateLocator(mergedNodes);
+    }
 
-      // schedule shutdown for the oddNodes
-      for(MemcachedNode shutDownNode : oddNodes) {
-        getLogger().info("Scheduling Node "
-          + shutDownNode.getSocketAddress() + "for shutdown.");
-      }
-      nodesToShutdown.addAll(oddNodes);
-    } catch (IOException e) {
-      getLogger().error("Connection reconfiguration failed", e);
-    } finally {
-      reconfiguring = false;
+    // schedule shutdown for the oddNodes
+    for(MemcachedNode shutDownNode : oddNodes) {
+      getLogger().info("Scheduling Node "
+        + shutDownNode.getSocketAddress() + "for shutdown.");
     }
+    nodesToShutdown.addAll(oddNodes);
   }
 
   @Override
@@ -208,20 +217,21 @@ public class CouchbaseMemcachedConnection extends MemcachedConnection implements
   @Override
   public void run() {
     while (running) {
-      if (!reconfiguring) {
-        try {
-          handleIO();
-        } catch (IOException e) {
-          logRunException(e);
-        } catch (CancelledKeyException e) {
-          logRunException(e);
-        } catch (ClosedSelectorException e) {
-          logRunException(e);
-        } catch (IllegalStateException e) {
-          logRunException(e);
-        } catch (ConcurrentModificationException e) {
-          logRunException(e);
+      try {
+        if (pendingReconfiguration != null) {
+          applyPendingReconfiguration();
         }
+        handleIO();
+      } catch (IOException e) {
+        logRunException(e);
+      } catch (CancelledKeyException e) {
+        logRunException(e);
+      } catch (ClosedSelectorException e) {
+        logRunException(e);
+      } catch (IllegalStateException e) {
+        logRunException(e);
+      } catch (ConcurrentModificationException e) {
+        logRunException(e);
       }
     }
     getLogger().info("Shut down Couchbase client");
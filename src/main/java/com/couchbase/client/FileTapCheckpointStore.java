@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import net.spy.memcached.compat.CloseUtil;
+
+/**
+ * A {@link TapCheckpointStore} which keeps the checkpoints of every tap
+ * stream in a properties file named after the stream.
+ *
+ * The file is written to a temporary file first and then renamed, so a
+ * crash while storing leaves the previous checkpoints intact.
+ */
+public class FileTapCheckpointStore implements TapCheckpointStore {
+
+  private static final String SUFFIX = ".checkpoints";
+
+  private final File directory;
+
+  /**
+   * Creates a store that keeps its files in the given directory.
+   *
+   * @param directory the directory, which is created if it does not exist.
+   */
+  public FileTapCheckpointStore(File directory) {
+    if (directory == null) {
+      throw new IllegalArgumentException("The directory must not be null");
+    }
+    this.directory = directory;
+  }
+
+  @Override
+  public Map<Short, Long> load(String id) throws IOException {
+    Map<Short, Long> checkpoints = new HashMap<Short, Long>();
+    File file = file(id);
+    if (!file.exists()) {
+      return checkpoints;
+    }
+    Properties properties = new Properties();
+    FileInputStream in = new FileInputStream(file);
+    try {
+      properties.load(in);
+    } finally {
+      CloseUtil.close(in);
+    }
+    try {
+      for (String vbucket : properties.stringPropertyNames()) {
+        checkpoints.put(Short.valueOf(vbucket),
+          Long.valueOf(properties.getProperty(vbucket)));
+      }
+    } catch (NumberFormatException e) {
+      throw new IOException("Malformed checkpoint file " + file, e);
+    }
+    return checkpoints;
+  }
+
+  @Override
+  public void store(String id, Map<Short, Long> checkpoints)
+    throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create directory " + directory);
+    }
+    Properties properties = new Properties();
+    for (Map.Entry<Short, Long> checkpoint : checkpoints.entrySet()) {
+      properties.setProperty(checkpoint.getKey().toString(),
+        checkpoint.getValue().toString());
+    }
+
+    File file = file(id);
+    File tmp = new File(directory, file.getName() + ".tmp");
+    FileOutputStream out = new FileOutputStream(tmp);
+    try {
+      properties.store(out, "Tap checkpoints of " + id);
+      out.getFD().sync();
+    } finally {
+      CloseUtil.close(out);
+    }
+    if (!tmp.renameTo(file)) {
+      // Windows does not rename onto an existing file.
+      if (!file.delete() || !tmp.renameTo(file)) {
+        throw new IOException("Could not replace " + file);
+      }
+    }
+  }
+
+  private File file(String id) {
+    return new File(directory, id.replaceAll("[^A-Za-z0-9_.-]", "_")
+      + SUFFIX);
+  }
+
+  @Override
+  public String toString() {
+    return "FileTapCheckpointStore{directory=" + directory + "}";
+  }
+
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.tapmessage.ResponseMessage;
+import net.spy.memcached.tapmessage.TapStream;
+
+/**
+ * A tap stream whose messages are handled by a pool of worker threads.
+ *
+ * Every worker owns a bounded queue and is responsible for a fixed set of
+ * vbuckets, so messages of the same vbucket are always handled in order by
+ * the same thread while different vbuckets are handled in parallel. If a
+ * queue is full, the I/O thread of the tap connection waits for the worker,
+ * which stops reading from the socket and slows down the server.
+ *
+ * Acknowledgements requested by the server are sent once all messages
+ * received before them have been handled by all workers.
+ */
+public class ParallelTapStream extends SpyObject {
+
+  private static final Object END = new Object();
+
+  private final TapStream stream;
+  private final TapMessageHandler handler;
+  private final BlockingQueue<Object>[] queues;
+  private final CountDownLatch terminated;
+  private final AtomicInteger pendingOps = new AtomicInteger(1);
+  private final AtomicLong handled = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private volatile boolean cancelled;
+
+  @SuppressWarnings("unchecked")
+  ParallelTapStream(TapStream stream, TapMessageHandler handler, int workers,
+    int queueSize) {
+    if (workers < 1) {
+      throw new IllegalArgumentException("The number of workers needs to be "
+        + "greater than zero");
+    }
+    if (queueSize < 1) {
+      throw new IllegalArgumentException("The queue size needs to be greater "
+        + "than zero");
+    }
+    this.stream = stream;
+    this.handler = handler;
+    queues = new BlockingQueue[workers];
+    terminated = new CountDownLatch(workers);
+    for (int i = 0; i < workers; i++) {
+      queues[i] = new ArrayBlockingQueue<Object>(queueSize);
+      Thread worker = new Thread(new Worker(queues[i]),
+        "Couchbase/TapWorker-" + i);
+      worker.setDaemon(true);
+      worker.start();
+    }
+  }
+
+  /**
+   * Queue a message for the worker responsible for its vbucket.
+   *
+   * Called from the I/O thread, blocks while the queue is full.
+   */
+  void dispatch(ResponseMessage message) {
+    int vbucket = message.getVbucket() & 0xffff;
+    enqueue(queues[vbucket % queues.length], message);
+  }
+
+  /**
+   * Run the given acknowledgement once all workers reached it.
+   */
+  void dispatchAck(Runnable ack) {
+    AckBarrier barrier = new AckBarrier(ack, queues.length);
+    for (BlockingQueue<Object> queue : queues) {
+      enqueue(queue, barrier);
+    }
+  }
+
+  /**
+   * Register an operation of the stream which will call
+   * {@link #opCompleted()} once it is done.
+   */
+  void opStarted() {
+    pendingOps.incrementAndGet();
+  }
+
+  /**
+   * Called when an operation of the stream completed, and once after all
+   * operations have been started. The workers stop after the last one.
+   */
+  void opCompleted() {
+    if (pendingOps.decrementAndGet() == 0) {
+      for (BlockingQueue<Object> queue : queues) {
+        enqueue(queue, END);
+      }
+    }
+  }
+
+  private void enqueue(BlockingQueue<Object> queue, Object item) {
+    try {
+      while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+        if (cancelled) {
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Cancel the tap stream and stop the workers after the message they are
+   * currently handling.
+   */
+  public void cancel() {
+    cancelled = true;
+    stream.cancel();
+    for (BlockingQueue<Object> queue : queues) {
+      do {
+        queue.clear();
+      } while (!queue.offer(END));
+    }
+  }
+
+  /**
+   * Wait until the stream has ended and all its messages have been handled.
+   *
+   * @param timeout the maximum time to wait.
+   * @param unit the unit of the timeout.
+   * @return true if all workers are done.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public boolean awaitTermination(long timeout, TimeUnit unit)
+    throws InterruptedException {
+    return terminated.await(timeout, unit);
+  }
+
+  /**
+   * Returns true once the stream has ended and all messages are handled.
+   */
+  public boolean isDone() {
+    return terminated.getCount() == 0;
+  }
+
+  /**
+   * The underlying tap stream.
+   */
+  public TapStream getTapStream() {
+    return stream;
+  }
+
+  /**
+   * The number of messages handled so far.
+   */
+  public long getMessagesHandled() {
+    return handled.get();
+  }
+
+  /**
+   * The number of messages for which the handler threw an exception.
+   */
+  public long getMessagesFailed() {
+    return failed.get();
+  }
+
+  private class Worker implements Runnable {
+    private final BlockingQueue<Object> queue;
+
+    Worker(BlockingQueue<Object> queue) {
+      this.queue = queue;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          Object item = queue.take();
+          if (item == END) {
+            return;
+          } else if (item instanceof AckBarrier) {
+            ((AckBarrier) item).arrive();
+          } else if (!cancelled) {
+            handle((ResponseMessage) item);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        terminated.countDown();
+      }
+    }
+
+    private void handle(ResponseMessage message) {
+      try {
+        handler.handle(message);
+        handled.incrementAndGet();
+      } catch (RuntimeException e) {
+        failed.incrementAndGet();
+        getLogger().warn("Tap message handler failed for " + message, e);
+      }
+    }
+  }
+
+  /**
+   * Runs the acknowledgement when the last worker arrives.
+   */
+  private static final class AckBarrier {
+    private final Runnable ack;
+    private final AtomicInteger remaining;
+
+    AckBarrier(Runnable ack, int workers) {
+      this.ack = ack;
+      this.remaining = new AtomicInteger(workers);
+    }
+
+    void arrive() {
+      if (remaining.decrementAndGet() == 0) {
+        ack.run();
+      }
+    }
+  }
+
+}
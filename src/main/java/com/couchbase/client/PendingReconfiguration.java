@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client;
+
+import com.couchbase.client.vbucket.config.Bucket;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A reconfiguration which has been prepared on the configuration thread and
+ * waits to be applied by the I/O thread of a connection.
+ *
+ * The server addresses are resolved when it is created, so the I/O thread
+ * only needs to open connections to new nodes and swap the locator.
+ */
+final class PendingReconfiguration {
+
+  private final Bucket bucket;
+  private final List<InetSocketAddress> servers;
+
+  private PendingReconfiguration(Bucket bucket,
+    List<InetSocketAddress> servers) {
+    this.bucket = bucket;
+    this.servers = servers;
+  }
+
+  /**
+   * Prepare the reconfiguration for the given bucket.
+   *
+   * @param bucket the new bucket configuration.
+   * @return the prepared reconfiguration.
+   * @throws IllegalArgumentException if a server address is invalid.
+   */
+  static PendingReconfiguration prepare(Bucket bucket) {
+    List<String> serverList = bucket.getConfig().getServers();
+    List<InetSocketAddress> servers =
+      new ArrayList<InetSocketAddress>(serverList.size());
+    for (String server : serverList) {
+      int finalColon = server.lastIndexOf(':');
+      if (finalColon < 1) {
+        throw new IllegalArgumentException("Invalid server ``" + server
+            + "'' in vbucket's server list");
+      }
+      String hostPart = server.substring(0, finalColon);
+      String portNum = server.substring(finalColon + 1);
+      servers.add(new InetSocketAddress(hostPart, Integer.parseInt(portNum)));
+    }
+    return new PendingReconfiguration(bucket,
+      Collections.unmodifiableList(servers));
+  }
+
+  Bucket getBucket() {
+    return bucket;
+  }
+
+  /**
+   * Returns the resolved addresses of all servers in the new configuration.
+   */
+  List<InetSocketAddress> getServers() {
+    return servers;
+  }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client;
+
+/**
+ * Defines how replica reads are dispatched to the cluster.
+ *
+ * If {@link #ALL} is chosen (the default), a replica read is sent to the
+ * active node and every replica at the same time and the first successful
+ * response wins. If {@link #ACTIVE_FIRST} is chosen, only the active node
+ * is asked first. The replicas are only asked if the active node did not
+ * respond within the configured replica read delay, responded with a
+ * failure or is currently not active.
+ */
+public enum ReplicaReadStrategy {
+
+  /**
+   * Fan out to the active node and all replicas at once.
+   */
+  ALL,
+
+  /**
+   * Ask the active node first and fall back to the replicas after a delay.
+   */
+  ACTIVE_FIRST
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tracks the checkpoints a consumer has completed on a named tap stream and
+ * writes them to a {@link TapCheckpointStore}.
+ *
+ * A checkpoint is only marked as reached once the consumer has taken every
+ * message up to its end, and it is only persisted once the consumer comes
+ * back for more messages, so a crash never skips unprocessed messages.
+ */
+class TapCheckpointTracker {
+
+  private final String id;
+  private final TapCheckpointStore store;
+  private final Map<Short, Long> checkpoints;
+  private final Map<Short, Long> reached = new HashMap<Short, Long>();
+
+  TapCheckpointTracker(String id, TapCheckpointStore store)
+    throws IOException {
+    this.id = id;
+    this.store = store;
+    checkpoints = new HashMap<Short, Long>(store.load(id));
+  }
+
+  /**
+   * Returns the stored checkpoints of the given vbuckets.
+   */
+  synchronized Map<Short, Long> getCheckpoints(short[] vbuckets) {
+    Map<Short, Long> result = new HashMap<Short, Long>();
+    for (short vbucket : vbuckets) {
+      Long checkpoint = checkpoints.get(vbucket);
+      if (checkpoint != null) {
+        result.put(vbucket, checkpoint);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Records that the consumer has taken every message of a checkpoint.
+   */
+  synchronized void reached(short vbucket, long checkpoint) {
+    reached.put(vbucket, checkpoint);
+  }
+
+  /**
+   * Stores the checkpoints reached since the last call.
+   *
+   * @return false if nothing had to be stored.
+   */
+  synchronized boolean persist() throws IOException {
+    if (reached.isEmpty()) {
+      return false;
+    }
+    Map<Short, Long> updated = new HashMap<Short, Long>(checkpoints);
+    updated.putAll(reached);
+    store.store(id, updated);
+    checkpoints.putAll(reached);
+    reached.clear();
+    return true;
+  }
+
+  String getId() {
+    return id;
+  }
+
+}
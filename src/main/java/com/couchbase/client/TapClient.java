@@ -24,16 +24,23 @@ package com.couchbase.client;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import javax.naming.ConfigurationException;
 
 import net.spy.memcached.BroadcastOpFactory;
 import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.compat.log.Logger;
+import net.spy.memcached.compat.log.LoggerFactory;
 import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationCallback;
 import net.spy.memcached.ops.OperationStatus;
@@ -41,13 +48,25 @@ import net.spy.memcached.ops.TapOperation;
 import net.spy.memcached.tapmessage.RequestMessage;
 import net.spy.memcached.tapmessage.ResponseMessage;
 import net.spy.memcached.tapmessage.TapAck;
+import net.spy.memcached.tapmessage.TapMagic;
 import net.spy.memcached.tapmessage.TapOpcode;
+import net.spy.memcached.tapmessage.TapRequestFlag;
 import net.spy.memcached.tapmessage.TapStream;
 
 /**
  * A tap client for Couchbase server.
  */
 public class TapClient extends net.spy.memcached.TapClient {
+  /**
+   * The default number of received tap messages buffered by a client.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 10000;
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(TapClient.class.getName());
+
+  private final Map<TapStream, TapCheckpointTracker> trackers =
+    new ConcurrentHashMap<TapStream, TapCheckpointTracker>();
   private List<URI> baseList;
   private String bucketName;
   private String pwd;
@@ -64,11 +83,34 @@ public class TapClient extends net.spy.memcached.TapClient {
    */
   public TapClient(final List<URI> baseList, final String bucketName,
       final String pwd) {
+    this(baseList, bucketName, pwd, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Creates a cluster aware tap client for Couchbase Server which buffers at
+   * most the given number of received messages.
+   *
+   * Once the buffer is full, the tap streams stop reading from the server
+   * until messages are consumed through {@link #getNextMessage()} or
+   * {@link #drainTo(Collection, int)}, so a slow consumer no longer causes
+   * the received messages to pile up on the heap.
+   *
+   * @param baseList a list of servers to get the cluster configuration from.
+   * @param bucketName the name of the bucket to tap.
+   * @param pwd the buckets password.
+   * @param bufferSize the maximum number of buffered messages.
+   */
+  public TapClient(final List<URI> baseList, final String bucketName,
+      final String pwd, final int bufferSize) {
     for (URI bu : baseList) {
       if (!bu.isAbsolute()) {
         throw new IllegalArgumentException("The base URI must be absolute");
       }
     }
+    if (bufferSize < 1) {
+      throw new IllegalArgumentException("The buffer size must be positive");
+    }
+    rqueue = new LinkedBlockingQueue<Object>(bufferSize);
     this.baseList = baseList;
     this.bucketName = bucketName;
     this.pwd = pwd;
@@ -93,26 +135,106 @@ public class TapClient extends net.spy.memcached.TapClient {
    *         empty for the given amount of time.
    */
   public ResponseMessage getNextMessage(long time, TimeUnit timeunit) {
+    persistCheckpoints();
     try {
-      Object m = rqueue.poll(time, timeunit);
-      if (m == null) {
-        return null;
-      } else if (m instanceof ResponseMessage) {
-        return (ResponseMessage) m;
-      } else if (m instanceof TapAck) {
-        TapAck ack = (TapAck) m;
-        tapAck((com.couchbase.client.TapConnectionProvider)ack.getConn(),
-            ack.getNode(), ack.getOpcode(), ack.getOpaque(), ack.getCallback());
-        return null;
-      } else {
-        throw new RuntimeException("Unexpected tap message type");
-      }
+      return handle(rqueue.poll(time, timeunit));
     } catch (InterruptedException e) {
       shutdown();
       return null;
     }
   }
 
+  /**
+   * Moves up to the given number of received tap messages into a collection
+   * without waiting.
+   *
+   * Pending tap acks found on the way are sent to the server and count
+   * against the maximum, so fewer messages than available may be returned.
+   *
+   * @param c the collection to add the messages to.
+   * @param max the maximum number of messages to take from the buffer.
+   * @return the number of messages added to the collection.
+   */
+  public int drainTo(Collection<? super ResponseMessage> c, int max) {
+    persistCheckpoints();
+    List<Object> drained = new ArrayList<Object>(Math.min(Math.max(max, 0),
+      rqueue.size()));
+    rqueue.drainTo(drained, max);
+    int added = 0;
+    for (Object m : drained) {
+      ResponseMessage message = handle(m);
+      if (message != null) {
+        c.add(message);
+        added++;
+      }
+    }
+    return added;
+  }
+
+  /**
+   * Moves up to the given number of received tap messages into a collection,
+   * waiting for the first one if none are available.
+   *
+   * @param c the collection to add the messages to.
+   * @param max the maximum number of messages to take from the buffer.
+   * @param time the amount of time to wait for a message.
+   * @param timeunit the unit of time to use.
+   * @return the number of messages added to the collection.
+   */
+  public int drainTo(Collection<? super ResponseMessage> c, int max,
+    long time, TimeUnit timeunit) {
+    if (max < 1) {
+      return 0;
+    }
+    ResponseMessage first = getNextMessage(time, timeunit);
+    if (first == null) {
+      return 0;
+    }
+    c.add(first);
+    return drainTo(c, max - 1) + 1;
+  }
+
+  /**
+   * Returns the message taken from the buffer, sending tap acks to the
+   * server as they are encountered.
+   */
+  private ResponseMessage handle(Object m) {
+    if (m == null) {
+      return null;
+    } else if (m instanceof ResponseMessage) {
+      return (ResponseMessage) m;
+    } else if (m instanceof TapAck) {
+      TapAck ack = (TapAck) m;
+      tapAck((com.couchbase.client.TapConnectionProvider)ack.getConn(),
+          ack.getNode(), ack.getOpcode(), ack.getOpaque(), ack.getCallback());
+      return null;
+    } else if (m instanceof CheckpointReached) {
+      CheckpointReached reached = (CheckpointReached) m;
+      reached.tracker.reached(reached.vbucket, reached.checkpoint);
+      return null;
+    } else {
+      throw new RuntimeException("Unexpected tap message type");
+    }
+  }
+
+  /**
+   * Adds a message to the buffer, blocking the I/O thread of the stream while
+   * the buffer is full. This stops reading from the server's socket until
+   * the consumer catches up.
+   */
+  private void enqueue(TapConnectionProvider conn, TapStream ts,
+    Object message) {
+    try {
+      while (!rqueue.offer(message, 100, TimeUnit.MILLISECONDS)) {
+        if (conn.isShuttingDown() || ts.isCancelled()) {
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   /**
    * Decides whether the client has received tap messages or will receive more
    * messages in the future.
@@ -121,6 +243,7 @@ public class TapClient extends net.spy.memcached.TapClient {
    *         in the future. False otherwise.
    */
   public boolean hasMoreMessages() {
+    persistCheckpoints();
     if (!rqueue.isEmpty()) {
       return true;
     } else {
@@ -132,6 +255,7 @@ public class TapClient extends net.spy.memcached.TapClient {
               || op.hasErrored()) {
             omap.get(op).shutdown();
             omap.remove(op);
+            trackers.remove(op);
           }
         }
         if (omap.size() > 0) {
@@ -172,12 +296,12 @@ public class TapClient extends net.spy.memcached.TapClient {
             public void receivedStatus(OperationStatus status) {
             }
             public void gotData(ResponseMessage tapMessage) {
-              rqueue.add(tapMessage);
+              enqueue(conn, ts, tapMessage);
               messagesRead++;
             }
             public void gotAck(MemcachedNode node, TapOpcode opcode,
                 int opaque) {
-              rqueue.add(new TapAck(conn, node, opcode, opaque, this));
+              enqueue(conn, ts, new TapAck(conn, node, opcode, opaque, this));
             }
             public void complete() {
               latch.countDown();
@@ -245,12 +369,12 @@ public class TapClient extends net.spy.memcached.TapClient {
               if (!conn.isPrimaryForKey(n, tapMessage.getKey())) {
                 return;
               }
-              rqueue.add(tapMessage);
+              enqueue(conn, ts, tapMessage);
               messagesRead++;
             }
             public void gotAck(MemcachedNode node, TapOpcode opcode,
                 int opaque) {
-              rqueue.add(new TapAck(conn, node, opcode, opaque, this));
+              enqueue(conn, ts, new TapAck(conn, node, opcode, opaque, this));
             }
             public void complete() {
               latch.countDown();
@@ -308,12 +432,12 @@ public class TapClient extends net.spy.memcached.TapClient {
             public void receivedStatus(OperationStatus status) {
             }
             public void gotData(ResponseMessage tapMessage) {
-              rqueue.add(tapMessage);
+              enqueue(conn, ts, tapMessage);
               messagesRead++;
             }
             public void gotAck(MemcachedNode node, TapOpcode opcode,
                 int opaque) {
-              rqueue.add(new TapAck(conn, node, opcode, opaque, this));
+              enqueue(conn, ts, new TapAck(conn, node, opcode, opaque, this));
             }
             public void complete() {
               latch.countDown();
@@ -329,16 +453,301 @@ public class TapClient extends net.spy.memcached.TapClient {
     return ts;
   }
 
+  /**
+   * Specifies a named tap stream that will take a snapshot of items in
+   * Couchbase and remembers its progress in the given store.
+   *
+   * The stream tracks the last checkpoint completed for every vbucket. When
+   * a stream with the same name is started again after a crash or on the
+   * next run of a job, only the vbucket checkpoints which were not completed
+   * yet are sent, instead of the whole bucket.
+   *
+   * A checkpoint counts as completed once the consumer has taken its last
+   * message, and it is stored once the consumer comes back for more
+   * messages or checks {@link #hasMoreMessages()}.
+   *
+   * @param id the name of the tap stream, which identifies its checkpoints.
+   * @param store the store for the checkpoints.
+   * @return the operation that controls the tap stream.
+   * @throws ConfigurationException a bad configuration was received from the
+   *           Couchbase cluster.
+   * @throws IOException If there are errors connecting to the cluster or
+   *           loading the checkpoints.
+   */
+  public TapStream tapDump(final String id, final TapCheckpointStore store)
+    throws IOException, ConfigurationException {
+    return tapCheckpointed(id, TapRequestFlag.DUMP, -1, store);
+  }
+
+  /**
+   * Specifies a named tap stream that will send all key-value mutations that
+   * took place after a specific date and remembers its progress in the given
+   * store.
+   *
+   * See {@link #tapDump(String, TapCheckpointStore)} for how the progress is
+   * tracked. The stream runs until it is cancelled.
+   *
+   * @param id the name of the tap stream, which identifies its checkpoints.
+   * @param date the date to begin sending key mutations from. Specify -1 to
+   *          send all future key-value mutations.
+   * @param store the store for the checkpoints.
+   * @return the operation that controls the tap stream.
+   * @throws ConfigurationException a bad configuration was received from the
+   *           Couchbase cluster.
+   * @throws IOException If there are errors connecting to the cluster or
+   *           loading the checkpoints.
+   */
+  public TapStream tapBackfill(final String id, final long date,
+    final TapCheckpointStore store) throws IOException,
+    ConfigurationException {
+    return tapCheckpointed(id, TapRequestFlag.BACKFILL, date, store);
+  }
+
+  private TapStream tapCheckpointed(final String id,
+    final TapRequestFlag mode, final long date, TapCheckpointStore store)
+    throws IOException, ConfigurationException {
+    if (id == null) {
+      throw new IllegalArgumentException("A checkpointed tap stream needs "
+        + "a name");
+    }
+    if (store == null) {
+      throw new IllegalArgumentException("The checkpoint store must not be "
+        + "null");
+    }
+    final TapCheckpointTracker tracker = new TapCheckpointTracker(id, store);
+    final TapConnectionProvider conn = new TapConnectionProvider(baseList,
+        bucketName, pwd);
+    final TapStream ts = new TapStream();
+    conn.broadcastOp(new BroadcastOpFactory() {
+      public Operation newOp(final MemcachedNode n,
+          final CountDownLatch latch) {
+        short[] vbuckets = conn.getMasterVBuckets(n);
+        if (vbuckets.length == 0) {
+          // an empty list would tap all vbuckets of the node
+          return conn.getOpFactory().noop(new OperationCallback() {
+            public void receivedStatus(OperationStatus status) {
+            }
+            public void complete() {
+              latch.countDown();
+            }
+          });
+        }
+        RequestMessage message = vbucketRequest(id, mode, date, vbuckets);
+        message.setFlags(TapRequestFlag.CHECKPOINT);
+        Map<Short, Long> checkpoints = tracker.getCheckpoints(vbuckets);
+        if (!checkpoints.isEmpty()) {
+          message.setvBucketCheckpoints(checkpoints);
+        }
+        Operation op = conn.getOpFactory().tapCustom(id, message,
+          new TapOperation.Callback() {
+            public void receivedStatus(OperationStatus status) {
+            }
+            public void gotData(ResponseMessage tapMessage) {
+              enqueue(conn, ts, tapMessage);
+              messagesRead++;
+              if (tapMessage.getOpcode() == TapOpcode.END_CHECKPOINT) {
+                enqueue(conn, ts, new CheckpointReached(tracker,
+                  tapMessage.getVbucket(), tapMessage.getCheckpoint()));
+              }
+            }
+            public void gotAck(MemcachedNode node, TapOpcode opcode,
+                int opaque) {
+              enqueue(conn, ts, new TapAck(conn, node, opcode, opaque, this));
+            }
+            public void complete() {
+              latch.countDown();
+            }
+          });
+        ts.addOp((TapOperation)op);
+        return op;
+      }
+    });
+    trackers.put(ts, tracker);
+    synchronized (omap) {
+      omap.put(ts, conn);
+    }
+    return ts;
+  }
+
+  /**
+   * Specifies a tap stream that will take a snapshot of items in Couchbase and
+   * hand them to a pool of worker threads.
+   *
+   * Every node only sends the vbuckets it is the master for, so no messages
+   * need to be filtered on the client. Messages are queued in bounded queues
+   * per worker and all messages of one vbucket are handled by the same worker
+   * in order.
+   *
+   * @param id the named tap id that can be used to resume a disconnected tap
+   *          stream
+   * @param workers the number of worker threads.
+   * @param queueSize the capacity of the queue of each worker.
+   * @param handler the handler called for every message.
+   * @return the stream, which allows to wait for all messages to be handled.
+   * @throws ConfigurationException a bad configuration was received from the
+   *           Couchbase cluster.
+   * @throws IOException If there are errors connecting to the cluster.
+   */
+  public ParallelTapStream tapDumpParallel(final String id, int workers,
+    int queueSize, TapMessageHandler handler) throws IOException,
+    ConfigurationException {
+    return tapParallel(id, TapRequestFlag.DUMP, -1, workers, queueSize,
+      handler);
+  }
+
+  /**
+   * Specifies a tap stream that will send all key-value mutations that took
+   * place after a specific date to a pool of worker threads.
+   *
+   * See {@link #tapDumpParallel(String, int, int, TapMessageHandler)} for
+   * how messages are dispatched. The stream runs until it is cancelled.
+   *
+   * @param id the named tap id that can be used to resume a disconnected tap
+   *          stream
+   * @param date the date to begin sending key mutations from. Specify -1 to
+   *          send all future key-value mutations.
+   * @param workers the number of worker threads.
+   * @param queueSize the capacity of the queue of each worker.
+   * @param handler the handler called for every message.
+   * @return the stream, which allows to cancel it.
+   * @throws ConfigurationException a bad configuration was received from the
+   *           Couchbase cluster.
+   * @throws IOException If there are errors connecting to the cluster.
+   */
+  public ParallelTapStream tapBackfillParallel(final String id,
+    final long date, int workers, int queueSize, TapMessageHandler handler)
+    throws IOException, ConfigurationException {
+    return tapParallel(id, TapRequestFlag.BACKFILL, date, workers, queueSize,
+      handler);
+  }
+
+  private ParallelTapStream tapParallel(final String id,
+    final TapRequestFlag mode, final long date, int workers, int queueSize,
+    TapMessageHandler handler) throws IOException, ConfigurationException {
+    final TapConnectionProvider conn = new TapConnectionProvider(baseList,
+        bucketName, pwd);
+    final TapStream ts = new TapStream();
+    final ParallelTapStream parallel;
+    try {
+      parallel = new ParallelTapStream(ts, handler, workers, queueSize);
+    } catch (IllegalArgumentException e) {
+      conn.shutdown();
+      throw e;
+    }
+    conn.broadcastOp(new BroadcastOpFactory() {
+      public Operation newOp(final MemcachedNode n,
+          final CountDownLatch latch) {
+        parallel.opStarted();
+        short[] vbuckets = conn.getMasterVBuckets(n);
+        if (vbuckets.length == 0) {
+          // an empty list would tap all vbuckets of the node
+          return conn.getOpFactory().noop(new OperationCallback() {
+            public void receivedStatus(OperationStatus status) {
+            }
+            public void complete() {
+              latch.countDown();
+              parallel.opCompleted();
+            }
+          });
+        }
+        Operation op = conn.getOpFactory().tapCustom(id,
+          vbucketRequest(id, mode, date, vbuckets),
+          new TapOperation.Callback() {
+            public void receivedStatus(OperationStatus status) {
+            }
+            public void gotData(ResponseMessage tapMessage) {
+              messagesRead++;
+              parallel.dispatch(tapMessage);
+            }
+            public void gotAck(final MemcachedNode node,
+                final TapOpcode opcode, final int opaque) {
+              final OperationCallback cb = this;
+              parallel.dispatchAck(new Runnable() {
+                @Override
+                public void run() {
+                  tapAck(conn, node, opcode, opaque, cb);
+                }
+              });
+            }
+            public void complete() {
+              latch.countDown();
+              parallel.opCompleted();
+            }
+          });
+        ts.addOp((TapOperation)op);
+        return op;
+      }
+    });
+    parallel.opCompleted();
+    synchronized (omap) {
+      omap.put(ts, conn);
+    }
+    return parallel;
+  }
+
+  /**
+   * Creates a tap request limited to the given vbuckets.
+   */
+  private static RequestMessage vbucketRequest(String id, TapRequestFlag mode,
+    long date, short[] vbuckets) {
+    RequestMessage message = new RequestMessage();
+    message.setMagic(TapMagic.PROTOCOL_BINARY_REQ);
+    message.setOpcode(TapOpcode.REQUEST);
+    message.setFlags(mode);
+    message.setFlags(TapRequestFlag.SUPPORT_ACK);
+    message.setFlags(TapRequestFlag.FIX_BYTEORDER);
+    message.setFlags(TapRequestFlag.LIST_VBUCKETS);
+    message.setVbucketlist(vbuckets);
+    message.setName(id == null ? UUID.randomUUID().toString() : id);
+    if (mode == TapRequestFlag.BACKFILL) {
+      message.setBackfill(date);
+    }
+    return message;
+  }
+
   private void tapAck(TapConnectionProvider conn, MemcachedNode node,
       TapOpcode opcode, int opaque, OperationCallback cb) {
     final Operation op = conn.getOpFactory().tapAck(opcode, opaque, cb);
     conn.addTapAckOp(node, op);
   }
 
+  /**
+   * Stores the checkpoints the consumer has completed since the last call.
+   * Failures are logged and retried on the next call.
+   */
+  private void persistCheckpoints() {
+    for (TapCheckpointTracker tracker : trackers.values()) {
+      try {
+        tracker.persist();
+      } catch (IOException e) {
+        LOGGER.warn("Could not store the checkpoints of tap stream "
+          + tracker.getId(), e);
+      }
+    }
+  }
+
+  /**
+   * Placed into the buffer behind the end of a checkpoint, so the checkpoint
+   * is only counted once the consumer has taken all of its messages.
+   */
+  private static final class CheckpointReached {
+    private final TapCheckpointTracker tracker;
+    private final short vbucket;
+    private final long checkpoint;
+
+    CheckpointReached(TapCheckpointTracker tracker, short vbucket,
+      long checkpoint) {
+      this.tracker = tracker;
+      this.vbucket = vbucket;
+      this.checkpoint = checkpoint;
+    }
+  }
+
   /**
    * Shuts down all tap streams that are currently running.
    */
   public void shutdown() {
+    persistCheckpoints();
     synchronized (omap) {
       for (Map.Entry<TapStream, net.spy.memcached.TapConnectionProvider> me
           : omap.entrySet()) {
@@ -24,6 +24,7 @@ package com.couchbase.client;
 
 import com.couchbase.client.vbucket.ConfigurationProvider;
 import com.couchbase.client.vbucket.Reconfigurable;
+import com.couchbase.client.vbucket.VBucketNodeLocator;
 import com.couchbase.client.vbucket.config.Bucket;
 
 import java.io.IOException;
@@ -93,6 +94,25 @@ public class TapConnectionProvider
     return primary.getSocketAddress().equals(node.getSocketAddress());
   }
 
+  /**
+   * Returns the vbuckets for which the given node is the master.
+   *
+   * @param node the node.
+   * @return the vbucket indexes.
+   */
+  public short[] getMasterVBuckets(MemcachedNode node) {
+    return ((VBucketNodeLocator) conn.getLocator()).getMasterVBuckets(node);
+  }
+
+  /**
+   * Returns true once this connection has been asked to shut down.
+   *
+   * @return true if the connection is shutting down.
+   */
+  public boolean isShuttingDown() {
+    return shuttingDown;
+  }
+
   public void shutdown() {
     super.shutdown();
     cf.getConfigurationProvider().shutdown();
@@ -24,8 +24,12 @@ package com.couchbase.client;
 
 import com.couchbase.client.http.HttpResponseCallback;
 import com.couchbase.client.http.HttpUtil;
+import com.couchbase.client.http.PooledAsyncResponseConsumer;
 import com.couchbase.client.http.ViewPool;
+import com.couchbase.client.internal.BufferPool;
+import com.couchbase.client.metrics.CouchbaseMetrics;
 import com.couchbase.client.protocol.views.HttpOperation;
+import com.couchbase.client.tracing.Tracer;
 import com.couchbase.client.vbucket.Reconfigurable;
 import com.couchbase.client.vbucket.config.Bucket;
 import com.couchbase.client.vbucket.config.DefaultConfig;
@@ -47,7 +51,6 @@ import org.apache.http.impl.nio.DefaultHttpClientIODispatch;
 import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
 import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.apache.http.nio.protocol.BasicAsyncRequestProducer;
-import org.apache.http.nio.protocol.BasicAsyncResponseConsumer;
 import org.apache.http.nio.protocol.HttpAsyncRequestExecutor;
 import org.apache.http.nio.protocol.HttpAsyncRequester;
 import org.apache.http.nio.reactor.ConnectingIOReactor;
@@ -102,6 +105,16 @@ public class ViewConnection extends SpyObject implements Reconfigurable {
    */
   private final ViewPool pool;
 
+  /**
+   * The metrics to record view latencies to, may be null.
+   */
+  private final CouchbaseMetrics metrics;
+
+  /**
+   * The tracer to follow sampled view requests with, may be null.
+   */
+  private final Tracer tracer;
+
   /**
    * A requester that helps with asynchronous request/response flow.
    */
@@ -163,7 +176,9 @@ public class ViewConnection extends SpyObject implements Reconfigurable {
       .setIoThreadCount(cf.getViewWorkerSize())
       .build());
 
-    pool = new ViewPool(ioReactor, ConnectionConfig.DEFAULT);
+    metrics = cf.getMetrics();
+    tracer = cf.getTracer();
+    pool = new ViewPool(ioReactor, ConnectionConfig.DEFAULT, metrics);
     pool.setDefaultMaxPerRoute(cf.getViewConnsPerNode());
     updateMaxTotalRequests();
 
@@ -189,10 +204,16 @@ public class ViewConnection extends SpyObject implements Reconfigurable {
     }
 
     HttpCoreContext coreContext = HttpCoreContext.create();
+    if (tracer != null) {
+      tracer.start(op, "view", op.getRequest().getRequestLine().getUri());
+    }
 
     if (viewNodes.isEmpty()) {
       getLogger().error("No server connections. Cancelling op.");
       op.cancel();
+      if (tracer != null) {
+        tracer.finish(op);
+      }
     } else {
       if (!"default".equals(user)) {
         try {
@@ -202,6 +223,9 @@ public class ViewConnection extends SpyObject implements Reconfigurable {
             + "could not encode credentials into base64. Canceling op."
             + op, ex);
           op.cancel();
+          if (tracer != null) {
+            tracer.finish(op);
+          }
           return;
         }
       }
@@ -212,10 +236,10 @@ public class ViewConnection extends SpyObject implements Reconfigurable {
       request.addHeader(HTTP.TARGET_HOST, httpHost.toHostString());
       requester.execute(
         new BasicAsyncRequestProducer(httpHost, request),
-        new BasicAsyncResponseConsumer(),
+        new PooledAsyncResponseConsumer(BufferPool.getDefault()),
         pool,
         coreContext,
-        new HttpResponseCallback(op, this, httpHost)
+        new HttpResponseCallback(op, this, httpHost, metrics, tracer)
       );
     }
   }
@@ -23,6 +23,11 @@
 package com.couchbase.client.http;
 
 import com.couchbase.client.ViewConnection;
+import com.couchbase.client.metrics.CouchbaseMetrics;
+import com.couchbase.client.metrics.OperationType;
+import com.couchbase.client.tracing.TraceSpan;
+import com.couchbase.client.tracing.TraceStage;
+import com.couchbase.client.tracing.Tracer;
 import com.couchbase.client.protocol.views.HttpOperation;
 import net.spy.memcached.compat.SpyObject;
 
@@ -37,6 +42,7 @@ import org.apache.http.util.EntityUtils;
 
 import java.io.IOException;
 import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Describes a {@link FutureCallback} for asynchronous View responses.
@@ -69,6 +75,26 @@ public class HttpResponseCallback implements FutureCallback<HttpResponse> {
    */
   private final HttpHost host;
 
+  /**
+   * The metrics to record the latency to, may be null.
+   */
+  private final CouchbaseMetrics metrics;
+
+  /**
+   * The time the request was dispatched.
+   */
+  private final long start;
+
+  /**
+   * The tracer following the request, may be null.
+   */
+  private final Tracer tracer;
+
+  /**
+   * The span of the request if it is traced.
+   */
+  private final TraceSpan span;
+
   /**
    * Create a new callback.
    *
@@ -78,9 +104,32 @@ public class HttpResponseCallback implements FutureCallback<HttpResponse> {
    */
   public HttpResponseCallback(final HttpOperation op,final ViewConnection vconn,
     final HttpHost host) {
+    this(op, vconn, host, null, null);
+  }
+
+  /**
+   * Create a new callback which records the latency of the request and
+   * marks the stages of its span.
+   *
+   * @param op the underlying operation.
+   * @param vconn the view connection to reference.
+   * @param host the target host from the response.
+   * @param metrics the metrics to record to, may be null.
+   * @param tracer the tracer following the request, may be null.
+   */
+  public HttpResponseCallback(final HttpOperation op,final ViewConnection vconn,
+    final HttpHost host, final CouchbaseMetrics metrics, final Tracer tracer) {
     this.op = op;
     this.vconn = vconn;
     this.host = host;
+    this.metrics = metrics;
+    this.start = metrics == null ? 0 : System.nanoTime();
+    this.tracer = tracer;
+    this.span = tracer == null ? null : tracer.get(op);
+    if (span != null) {
+      span.setNode(host.toHostString());
+      span.mark(TraceStage.QUEUED);
+    }
   }
 
   @Override
@@ -91,6 +140,9 @@ public class HttpResponseCallback implements FutureCallback<HttpResponse> {
       throw new RuntimeException("Could not convert HttpEntity content.");
     }
 
+    if (span != null) {
+      span.mark(TraceStage.RECEIVED);
+    }
     int statusCode = response.getStatusLine().getStatusCode();
     boolean shouldRetry = shouldRetry(statusCode, response);
     if (shouldRetry) {
@@ -98,7 +150,15 @@ public class HttpResponseCallback implements FutureCallback<HttpResponse> {
         + "of: " + response.getStatusLine());
       retryOperation(op);
     } else {
+      if (metrics != null) {
+        metrics.recordOperation(OperationType.VIEW,
+          TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+      }
       op.handleResponse(response);
+      if (span != null) {
+        span.mark(TraceStage.DECODED);
+        tracer.finish(op);
+      }
     }
   }
 
@@ -113,6 +173,8 @@ public class HttpResponseCallback implements FutureCallback<HttpResponse> {
         + host.toHostString() + "), Request: "
         + op.getRequest().getRequestLine());
       vconn.addOp(op);
+    } else if (span != null) {
+      tracer.finish(op);
     }
   }
 
@@ -125,6 +187,9 @@ public class HttpResponseCallback implements FutureCallback<HttpResponse> {
       LOGGER.info("View Operation " + op.getRequest().getRequestLine()
         + " failed because of: ", e);
       op.cancel();
+      if (span != null) {
+        tracer.finish(op);
+      }
     }
   }
 
@@ -133,6 +198,9 @@ public class HttpResponseCallback implements FutureCallback<HttpResponse> {
     LOGGER.info("View Operation " + op.getRequest().getRequestLine()
       + " got cancelled.");
     op.cancel();
+    if (span != null) {
+      tracer.finish(op);
+    }
   }
 
   /**
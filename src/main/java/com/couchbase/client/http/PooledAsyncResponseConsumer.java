@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.http;
+
+import com.couchbase.client.internal.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Consumes a HTTP response into a buffer taken from a {@link BufferPool}.
+ *
+ * The response body is read into pooled direct buffers and copied once into
+ * the entity of the result. The buffer goes back to the pool as soon as the
+ * response is completed, failed or cancelled.
+ */
+public class PooledAsyncResponseConsumer
+  extends AbstractAsyncResponseConsumer<HttpResponse> {
+
+  /**
+   * The buffer size used if the response does not announce its length.
+   */
+  private static final int DEFAULT_BUFFER_SIZE = 4096;
+
+  private final BufferPool pool;
+  private volatile HttpResponse response;
+  private volatile HttpEntity entity;
+  private volatile ByteBuffer buffer;
+
+  public PooledAsyncResponseConsumer(BufferPool pool) {
+    this.pool = pool;
+  }
+
+  @Override
+  protected void onResponseReceived(HttpResponse r) {
+    response = r;
+  }
+
+  @Override
+  protected void onEntityEnclosed(HttpEntity e, ContentType contentType) {
+    long length = e.getContentLength();
+    entity = e;
+    buffer = pool.acquire(length < 0 ? DEFAULT_BUFFER_SIZE
+      : (int) Math.min(length, Integer.MAX_VALUE));
+  }
+
+  @Override
+  protected void onContentReceived(ContentDecoder decoder, IOControl ioctrl)
+    throws IOException {
+    while (true) {
+      if (!buffer.hasRemaining()) {
+        grow();
+      }
+      if (decoder.read(buffer) <= 0) {
+        return;
+      }
+    }
+  }
+
+  private void grow() {
+    ByteBuffer larger = pool.acquire(buffer.capacity() * 2);
+    buffer.flip();
+    larger.put(buffer);
+    pool.release(buffer);
+    buffer = larger;
+  }
+
+  @Override
+  protected HttpResponse buildResult(HttpContext context) {
+    if (buffer != null) {
+      buffer.flip();
+      byte[] content = new byte[buffer.remaining()];
+      buffer.get(content);
+      ByteArrayEntity result = new ByteArrayEntity(content);
+      result.setContentType(entity.getContentType());
+      result.setContentEncoding(entity.getContentEncoding());
+      response.setEntity(result);
+    }
+    return response;
+  }
+
+  @Override
+  protected void releaseResources() {
+    pool.release(buffer);
+    buffer = null;
+    entity = null;
+    response = null;
+  }
+
+}
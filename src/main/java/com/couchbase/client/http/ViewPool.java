@@ -22,14 +22,18 @@
 
 package com.couchbase.client.http;
 
+import com.couchbase.client.metrics.CouchbaseMetrics;
 import org.apache.http.HttpHost;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.config.ConnectionConfig;
 import org.apache.http.impl.nio.pool.BasicNIOConnPool;
+import org.apache.http.impl.nio.pool.BasicNIOPoolEntry;
 import org.apache.http.nio.NHttpClientConnection;
 import org.apache.http.nio.reactor.ConnectingIOReactor;
 import org.apache.http.pool.PoolEntry;
 import org.apache.http.pool.PoolEntryCallback;
 
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -37,6 +41,8 @@ import java.util.concurrent.TimeUnit;
  */
 public class ViewPool extends BasicNIOConnPool {
 
+  private final CouchbaseMetrics metrics;
+
   /**
    * Create a new {@link ViewPool}.
    *
@@ -45,7 +51,59 @@ public class ViewPool extends BasicNIOConnPool {
    */
   public ViewPool(final ConnectingIOReactor reactor,
     final ConnectionConfig config) {
+    this(reactor, config, null);
+  }
+
+  /**
+   * Create a new {@link ViewPool} which records how long leases wait for a
+   * connection.
+   *
+   * @param reactor the reactor to use for connections.
+   * @param config the configuration to apply.
+   * @param metrics the metrics to record to, may be null.
+   */
+  public ViewPool(final ConnectingIOReactor reactor,
+    final ConnectionConfig config, final CouchbaseMetrics metrics) {
     super(reactor, config);
+    this.metrics = metrics;
+  }
+
+  @Override
+  public Future<BasicNIOPoolEntry> lease(final HttpHost route,
+    final Object state, final FutureCallback<BasicNIOPoolEntry> callback) {
+    if (metrics == null) {
+      return super.lease(route, state, callback);
+    }
+    final long start = System.nanoTime();
+    return super.lease(route, state, new FutureCallback<BasicNIOPoolEntry>() {
+      @Override
+      public void completed(BasicNIOPoolEntry entry) {
+        record();
+        if (callback != null) {
+          callback.completed(entry);
+        }
+      }
+
+      @Override
+      public void failed(Exception ex) {
+        record();
+        if (callback != null) {
+          callback.failed(ex);
+        }
+      }
+
+      @Override
+      public void cancelled() {
+        if (callback != null) {
+          callback.cancelled();
+        }
+      }
+
+      private void record() {
+        metrics.recordViewLeaseWait(
+          TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+      }
+    });
   }
 
   /**
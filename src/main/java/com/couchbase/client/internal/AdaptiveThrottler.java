@@ -24,6 +24,7 @@ package com.couchbase.client.internal;
 
 import com.couchbase.client.CouchbaseConnection;
 import com.couchbase.client.CouchbaseProperties;
+import com.couchbase.client.metrics.CouchbaseMetrics;
 import java.net.InetSocketAddress;
 import java.util.HashMap;
 import java.util.Map;
@@ -171,6 +172,10 @@ public class AdaptiveThrottler extends SpyObject implements Throttler {
         getLogger().debug("Throttling operation for " + throttleTime + "ms");
         try {
           Thread.sleep(throttleTime);
+          CouchbaseMetrics instrumentation = conn.getMetrics();
+          if (instrumentation != null) {
+            instrumentation.recordThrottle(throttleTime);
+          }
         } catch (InterruptedException ex) {
           getLogger().warn("Interrupted while Throttling!");
           return;
@@ -0,0 +1,216 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.internal;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of direct {@link ByteBuffer}s in power-of-two size classes.
+ *
+ * Buffers are handed out with {@link #acquire(int)} and must be given back
+ * with {@link #release(ByteBuffer)} once the data has been consumed. Requests
+ * larger than the biggest size class are served with unpooled heap buffers,
+ * so large responses do not pin direct memory. Every size class keeps at
+ * most a fixed number of idle buffers, anything beyond is left to the
+ * garbage collector.
+ *
+ * All methods are thread-safe and lock-free.
+ */
+public class BufferPool {
+
+  /**
+   * The smallest size class (in bytes).
+   */
+  public static final int MIN_BUFFER_SIZE = 512;
+
+  /**
+   * The biggest size class (in bytes).
+   */
+  public static final int MAX_BUFFER_SIZE = 256 * 1024;
+
+  /**
+   * The default number of idle buffers kept per size class.
+   */
+  public static final int DEFAULT_MAX_IDLE_PER_CLASS = 32;
+
+  private static final BufferPool DEFAULT_POOL =
+    new BufferPool(DEFAULT_MAX_IDLE_PER_CLASS);
+
+  private final int maxIdlePerClass;
+  private final Queue<ByteBuffer>[] idle;
+  private final AtomicInteger[] idleCount;
+
+  private final AtomicLong acquired = new AtomicLong();
+  private final AtomicLong reused = new AtomicLong();
+  private final AtomicLong allocated = new AtomicLong();
+  private final AtomicLong unpooled = new AtomicLong();
+  private final AtomicLong released = new AtomicLong();
+  private final AtomicLong idleBytes = new AtomicLong();
+
+  /**
+   * Create a new pool.
+   *
+   * @param maxIdlePerClass the number of idle buffers kept per size class.
+   */
+  @SuppressWarnings("unchecked")
+  public BufferPool(int maxIdlePerClass) {
+    if (maxIdlePerClass < 0) {
+      throw new IllegalArgumentException("The number of idle buffers must "
+        + "not be negative");
+    }
+    this.maxIdlePerClass = maxIdlePerClass;
+    int classes = sizeClass(MAX_BUFFER_SIZE) + 1;
+    idle = new Queue[classes];
+    idleCount = new AtomicInteger[classes];
+    for (int i = 0; i < classes; i++) {
+      idle[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+      idleCount[i] = new AtomicInteger();
+    }
+  }
+
+  /**
+   * The pool shared by all connections of this process.
+   *
+   * @return the shared pool.
+   */
+  public static BufferPool getDefault() {
+    return DEFAULT_POOL;
+  }
+
+  /**
+   * Get a cleared buffer with at least the given capacity.
+   *
+   * @param size the minimum capacity.
+   * @return the buffer.
+   */
+  public ByteBuffer acquire(int size) {
+    acquired.incrementAndGet();
+    if (size > MAX_BUFFER_SIZE) {
+      unpooled.incrementAndGet();
+      return ByteBuffer.allocate(size);
+    }
+    int sizeClass = sizeClass(size);
+    ByteBuffer buffer = idle[sizeClass].poll();
+    if (buffer != null) {
+      idleCount[sizeClass].decrementAndGet();
+      idleBytes.addAndGet(-buffer.capacity());
+      reused.incrementAndGet();
+      buffer.clear();
+      return buffer;
+    }
+    allocated.incrementAndGet();
+    return ByteBuffer.allocateDirect(MIN_BUFFER_SIZE << sizeClass);
+  }
+
+  /**
+   * Give a buffer obtained through {@link #acquire(int)} back to the pool.
+   *
+   * The buffer must not be used by the caller afterwards.
+   *
+   * @param buffer the buffer, ignored if null.
+   */
+  public void release(ByteBuffer buffer) {
+    if (buffer == null) {
+      return;
+    }
+    released.incrementAndGet();
+    int capacity = buffer.capacity();
+    if (!buffer.isDirect() || capacity > MAX_BUFFER_SIZE
+      || capacity < MIN_BUFFER_SIZE || Integer.bitCount(capacity) != 1) {
+      return;
+    }
+    int sizeClass = sizeClass(capacity);
+    if (idleCount[sizeClass].incrementAndGet() > maxIdlePerClass) {
+      idleCount[sizeClass].decrementAndGet();
+      return;
+    }
+    idleBytes.addAndGet(capacity);
+    idle[sizeClass].offer(buffer);
+  }
+
+  /**
+   * The index of the smallest size class holding the given size.
+   */
+  static int sizeClass(int size) {
+    if (size <= MIN_BUFFER_SIZE) {
+      return 0;
+    }
+    return 32 - Integer.numberOfLeadingZeros(size - 1)
+      - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+  }
+
+  /**
+   * The number of buffers handed out in total.
+   */
+  public long getAcquired() {
+    return acquired.get();
+  }
+
+  /**
+   * The number of buffers served from the idle buffers of the pool.
+   */
+  public long getReused() {
+    return reused.get();
+  }
+
+  /**
+   * The number of direct buffers allocated by the pool.
+   */
+  public long getAllocated() {
+    return allocated.get();
+  }
+
+  /**
+   * The number of oversized requests served with unpooled heap buffers.
+   */
+  public long getUnpooled() {
+    return unpooled.get();
+  }
+
+  /**
+   * The number of buffers currently handed out and not yet released.
+   */
+  public long getOutstanding() {
+    return acquired.get() - released.get();
+  }
+
+  /**
+   * The number of bytes held by idle buffers.
+   */
+  public long getIdleBytes() {
+    return idleBytes.get();
+  }
+
+  @Override
+  public String toString() {
+    return "BufferPool{acquired=" + getAcquired() + ", reused=" + getReused()
+      + ", allocated=" + getAllocated() + ", unpooled=" + getUnpooled()
+      + ", outstanding=" + getOutstanding() + ", idleBytes="
+      + getIdleBytes() + '}';
+  }
+
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.internal;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.spy.memcached.internal.AbstractListenableFuture;
+import net.spy.memcached.internal.GenericCompletionListener;
+
+/**
+ * The future result of a request against the cluster REST API.
+ *
+ * It completes with the value once one of the cluster nodes answered, or
+ * with the failure if none of them did. Cancelling the future only stops
+ * waiting for the result, a request which already reached the cluster may
+ * still be applied.
+ */
+public class ClusterManagerFuture<T>
+  extends AbstractListenableFuture<T, ClusterManagerCompletionListener>
+  implements Future<T> {
+
+  private final CountDownLatch latch;
+  private final AtomicBoolean completed;
+  private final long timeout;
+  private volatile T value;
+  private volatile Throwable exception;
+  private volatile boolean cancelled;
+
+  public ClusterManagerFuture(long timeout, ExecutorService service) {
+    super(service);
+    this.latch = new CountDownLatch(1);
+    this.completed = new AtomicBoolean();
+    this.timeout = timeout;
+  }
+
+  /**
+   * Completes the future with its value.
+   *
+   * Note that this method is for internal use only.
+   *
+   * @param result the value of the future.
+   * @return false if the future has already been completed.
+   */
+  public boolean set(T result) {
+    if (!completed.compareAndSet(false, true)) {
+      return false;
+    }
+    value = result;
+    complete();
+    return true;
+  }
+
+  /**
+   * Completes the future with a failure.
+   *
+   * Note that this method is for internal use only.
+   *
+   * @param cause the reason why the request failed.
+   * @return false if the future has already been completed.
+   */
+  public boolean setException(Throwable cause) {
+    if (!completed.compareAndSet(false, true)) {
+      return false;
+    }
+    exception = cause;
+    complete();
+    return true;
+  }
+
+  @Override
+  public T get() throws InterruptedException, ExecutionException {
+    try {
+      return get(timeout, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      throw new RuntimeException("Timed out waiting for the cluster", e);
+    }
+  }
+
+  @Override
+  public T get(long duration, TimeUnit unit)
+    throws InterruptedException, ExecutionException, TimeoutException {
+    if (!latch.await(duration, unit)) {
+      throw new TimeoutException("Timed out waiting for the cluster");
+    }
+    if (cancelled) {
+      throw new CancellationException("Cancelled");
+    }
+    if (exception != null) {
+      throw new ExecutionException(exception);
+    }
+    return value;
+  }
+
+  @Override
+  public boolean cancel(boolean ign) {
+    if (!completed.compareAndSet(false, true)) {
+      return false;
+    }
+    cancelled = true;
+    complete();
+    return true;
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  @Override
+  public boolean isDone() {
+    return latch.getCount() == 0;
+  }
+
+  @Override
+  public ClusterManagerFuture<T> addListener(
+    ClusterManagerCompletionListener listener) {
+    super.addToListeners((GenericCompletionListener) listener);
+    return this;
+  }
+
+  @Override
+  public ClusterManagerFuture<T> removeListener(
+    ClusterManagerCompletionListener listener) {
+    super.removeFromListeners((GenericCompletionListener) listener);
+    return this;
+  }
+
+  private void complete() {
+    latch.countDown();
+    notifyListeners();
+  }
+
+}
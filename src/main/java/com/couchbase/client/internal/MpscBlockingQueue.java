@@ -0,0 +1,352 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.internal;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A multi-producer, single-consumer queue which never blocks producers on a
+ * lock.
+ *
+ * Producers reserve capacity with a compare-and-set on the element count and
+ * append by swapping the tail reference, so concurrent application threads
+ * never contend on a lock. The consumer side (normally the I/O thread) walks
+ * the linked nodes from the head. Consuming methods are guarded by a monitor
+ * which is uncontended as long as only one thread consumes, but keeps the
+ * queue safe if another thread drains it occasionally (like it happens when
+ * authentication operations are inserted in front).
+ *
+ * Elements can be removed from anywhere in the queue, through
+ * {@link #remove(Object)} or the iterator. Since producers link new nodes
+ * to the tail without a lock, removed nodes are not unlinked but only
+ * emptied, and the consumer skips them.
+ *
+ * Waiting in {@link #put(Object)}, {@link #take()} and the timed variants
+ * is done by yielding and then parking in short intervals.
+ *
+ * @param <E> the type of elements held in this queue.
+ */
+public class MpscBlockingQueue<E> extends AbstractQueue<E>
+  implements BlockingQueue<E> {
+
+  /**
+   * How long to park between two attempts while waiting.
+   */
+  private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  /**
+   * How often to yield before starting to park while waiting.
+   */
+  private static final int YIELD_ATTEMPTS = 100;
+
+  private final int capacity;
+  private final AtomicInteger count = new AtomicInteger();
+  private final AtomicReference<Node<E>> tail;
+  private final Object consumerLock = new Object();
+  private Node<E> head;
+
+  /**
+   * Create an unbounded queue.
+   */
+  public MpscBlockingQueue() {
+    this(Integer.MAX_VALUE);
+  }
+
+  /**
+   * Create a queue which holds at most the given amount of elements.
+   *
+   * @param capacity the capacity of the queue.
+   */
+  public MpscBlockingQueue(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("The capacity needs to be greater "
+        + "than zero");
+    }
+    this.capacity = capacity;
+    head = new Node<E>(null);
+    tail = new AtomicReference<Node<E>>(head);
+  }
+
+  @Override
+  public boolean offer(E e) {
+    if (e == null) {
+      throw new NullPointerException();
+    }
+    int current;
+    do {
+      current = count.get();
+      if (current >= capacity) {
+        return false;
+      }
+    } while (!count.compareAndSet(current, current + 1));
+
+    Node<E> node = new Node<E>(e);
+    tail.getAndSet(node).next = node;
+    return true;
+  }
+
+  @Override
+  public boolean offer(E e, long timeout, TimeUnit unit)
+    throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    int attempts = 0;
+    while (!offer(e)) {
+      if (System.nanoTime() - deadline >= 0) {
+        return false;
+      }
+      backOff(attempts++);
+    }
+    return true;
+  }
+
+  @Override
+  public void put(E e) throws InterruptedException {
+    int attempts = 0;
+    while (!offer(e)) {
+      backOff(attempts++);
+    }
+  }
+
+  @Override
+  public E poll() {
+    synchronized (consumerLock) {
+      Node<E> next = first();
+      if (next == null) {
+        return null;
+      }
+      E value = next.value;
+      next.value = null;
+      head = next;
+      count.decrementAndGet();
+      return value;
+    }
+  }
+
+  @Override
+  public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    int attempts = 0;
+    E value;
+    while ((value = poll()) == null) {
+      if (System.nanoTime() - deadline >= 0) {
+        return null;
+      }
+      backOff(attempts++);
+    }
+    return value;
+  }
+
+  @Override
+  public E take() throws InterruptedException {
+    int attempts = 0;
+    E value;
+    while ((value = poll()) == null) {
+      backOff(attempts++);
+    }
+    return value;
+  }
+
+  @Override
+  public E peek() {
+    synchronized (consumerLock) {
+      Node<E> next = first();
+      return next == null ? null : next.value;
+    }
+  }
+
+  @Override
+  public boolean isEmpty() {
+    synchronized (consumerLock) {
+      return first() == null;
+    }
+  }
+
+  /**
+   * The number of elements in the queue.
+   *
+   * This includes elements whose producers reserved their slot but did not
+   * finish appending yet, so it may be ahead of what can be polled.
+   */
+  @Override
+  public int size() {
+    return count.get();
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return capacity == Integer.MAX_VALUE
+      ? Integer.MAX_VALUE : capacity - count.get();
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c, int maxElements) {
+    if (c == this) {
+      throw new IllegalArgumentException("Cannot drain to itself");
+    }
+    synchronized (consumerLock) {
+      int drained = 0;
+      Node<E> next;
+      while (drained < maxElements && (next = first()) != null) {
+        c.add(next.value);
+        next.value = null;
+        head = next;
+        drained++;
+      }
+      count.addAndGet(-drained);
+      return drained;
+    }
+  }
+
+  /**
+   * Remove a single instance of the given element, if it is present.
+   *
+   * @param o the element to remove.
+   * @return true if an element has been removed.
+   */
+  @Override
+  public boolean remove(Object o) {
+    if (o == null) {
+      return false;
+    }
+    synchronized (consumerLock) {
+      for (Node<E> node = head.next; node != null; node = node.next) {
+        if (node.value != null && o.equals(node.value)) {
+          node.value = null;
+          count.decrementAndGet();
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Returns an iterator over a snapshot of the elements which can currently
+   * be polled.
+   *
+   * Removing an element through the iterator removes it from the queue,
+   * unless it has been consumed in the meantime.
+   */
+  @Override
+  public Iterator<E> iterator() {
+    final List<Node<E>> nodes = new ArrayList<Node<E>>();
+    final List<E> values = new ArrayList<E>();
+    synchronized (consumerLock) {
+      for (Node<E> node = head.next; node != null; node = node.next) {
+        if (node.value != null) {
+          nodes.add(node);
+          values.add(node.value);
+        }
+      }
+    }
+    return new Iterator<E>() {
+      private int next;
+      private int last = -1;
+
+      @Override
+      public boolean hasNext() {
+        return next < values.size();
+      }
+
+      @Override
+      public E next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        last = next++;
+        return values.get(last);
+      }
+
+      @Override
+      public void remove() {
+        if (last < 0) {
+          throw new IllegalStateException();
+        }
+        Node<E> node = nodes.get(last);
+        synchronized (consumerLock) {
+          if (node.value == values.get(last)) {
+            node.value = null;
+            count.decrementAndGet();
+          }
+        }
+        last = -1;
+      }
+    };
+  }
+
+  /**
+   * Returns the first node which holds an element, moving the head past
+   * removed nodes.
+   *
+   * Needs to be called with the consumer lock held.
+   */
+  private Node<E> first() {
+    Node<E> next = head.next;
+    while (next != null && next.value == null) {
+      head = next;
+      next = next.next;
+    }
+    return next;
+  }
+
+  /**
+   * Yield for the first attempts, since the other side usually makes
+   * progress quickly (or a producer which has been descheduled between
+   * reserving and linking its element needs to run), then park.
+   */
+  private static void backOff(int attempts) throws InterruptedException {
+    if (attempts < YIELD_ATTEMPTS) {
+      Thread.yield();
+    } else {
+      LockSupport.parkNanos(PARK_NANOS);
+    }
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+  }
+
+  private static final class Node<E> {
+    private volatile Node<E> next;
+    private E value;
+
+    Node(E value) {
+      this.value = value;
+    }
+  }
+
+}
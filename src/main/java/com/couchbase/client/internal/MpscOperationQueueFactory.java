@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.internal;
+
+import java.util.concurrent.BlockingQueue;
+
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationQueueFactory;
+
+/**
+ * Creates {@link MpscBlockingQueue}s for the operation queues of a node.
+ *
+ * The input queue of every node is filled by all application threads and
+ * emptied by the I/O thread, which is exactly the access pattern the queue is
+ * built for. Use it with the <code>set*OpQueueFactory</code> methods of the
+ * connection factory builder.
+ */
+public class MpscOperationQueueFactory implements OperationQueueFactory {
+
+  private final int capacity;
+
+  /**
+   * Create a factory for unbounded queues.
+   */
+  public MpscOperationQueueFactory() {
+    this(Integer.MAX_VALUE);
+  }
+
+  /**
+   * Create a factory for queues with the given capacity.
+   *
+   * @param capacity the capacity of each queue.
+   */
+  public MpscOperationQueueFactory(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("The capacity needs to be greater "
+        + "than zero");
+    }
+    this.capacity = capacity;
+  }
+
+  @Override
+  public BlockingQueue<Operation> create() {
+    return new MpscBlockingQueue<Operation>(capacity);
+  }
+
+}
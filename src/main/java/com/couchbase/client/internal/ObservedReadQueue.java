@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.internal;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import net.spy.memcached.ops.Operation;
+
+/**
+ * Wraps the queue of operations which wait for their response and tells an
+ * {@link Observer} about every operation removed from it.
+ *
+ * The node removes an operation through {@link #remove()} once its response
+ * has been read, so no callback has to be attached to the operation.
+ */
+public class ObservedReadQueue extends AbstractQueue<Operation>
+  implements BlockingQueue<Operation> {
+
+  /**
+   * Notified on the I/O thread whenever a node is done with an operation.
+   */
+  public interface Observer {
+
+    /**
+     * Called when an operation has been removed from the read queue, which
+     * usually means its response has been read.
+     *
+     * @param o the operation.
+     */
+    void removed(Operation o);
+
+  }
+
+  private final BlockingQueue<Operation> delegate;
+  private final Observer observer;
+
+  /**
+   * Wraps a read queue.
+   *
+   * @param delegate the queue holding the operations.
+   * @param observer the observer to notify.
+   */
+  public ObservedReadQueue(BlockingQueue<Operation> delegate,
+    Observer observer) {
+    this.delegate = delegate;
+    this.observer = observer;
+  }
+
+  @Override
+  public Operation poll() {
+    Operation o = delegate.poll();
+    if (o != null) {
+      observer.removed(o);
+    }
+    return o;
+  }
+
+  @Override
+  public Operation peek() {
+    return delegate.peek();
+  }
+
+  @Override
+  public boolean offer(Operation o) {
+    return delegate.offer(o);
+  }
+
+  @Override
+  public void put(Operation o) throws InterruptedException {
+    delegate.put(o);
+  }
+
+  @Override
+  public boolean offer(Operation o, long timeout, TimeUnit unit)
+    throws InterruptedException {
+    return delegate.offer(o, timeout, unit);
+  }
+
+  @Override
+  public Operation take() throws InterruptedException {
+    return delegate.take();
+  }
+
+  @Override
+  public Operation poll(long timeout, TimeUnit unit)
+    throws InterruptedException {
+    return delegate.poll(timeout, unit);
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return delegate.remainingCapacity();
+  }
+
+  @Override
+  public int drainTo(Collection<? super Operation> c) {
+    return delegate.drainTo(c);
+  }
+
+  @Override
+  public int drainTo(Collection<? super Operation> c, int maxElements) {
+    return delegate.drainTo(c, maxElements);
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    return delegate.remove(o);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return delegate.isEmpty();
+  }
+
+  @Override
+  public Iterator<Operation> iterator() {
+    return delegate.iterator();
+  }
+
+  @Override
+  public int size() {
+    return delegate.size();
+  }
+
+}
@@ -23,68 +23,91 @@
 package com.couchbase.client.internal;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.spy.memcached.internal.AbstractListenableFuture;
 import net.spy.memcached.internal.GenericCompletionListener;
-import net.spy.memcached.internal.GetCompletionListener;
-import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
 
 /**
  * Represents the future result of a ReplicaGet operation.
+ *
+ * All operations dispatched for one replica get (against the active node and
+ * the replicas) share a single result slot. The first successful operation
+ * wins and all other operations that have not been written to the network
+ * yet are cancelled.
+ *
+ * Completion and cancellation race for a single state field, so exactly one
+ * of them takes effect.
  */
 public class ReplicaGetFuture<T extends Object>
   extends AbstractListenableFuture<T, ReplicaGetCompletionListener>
   implements Future<T> {
 
+  private static final int PENDING = 0;
+  private static final int COMPLETED = 1;
+  private static final int CANCELLED = 2;
+
   private final long timeout;
-  private AtomicReference<GetFuture<T>> completedFuture;
-  private final List<GetFuture<T>> monitoredFutures;
-  private volatile boolean cancelled = false;
+  private final CountDownLatch latch;
+  private final AtomicInteger state;
+  private final List<Operation> monitoredOps;
+  private volatile Future<T> value;
 
   public ReplicaGetFuture(long timeout, ExecutorService service) {
     super(service);
     this.timeout = timeout;
-    this.monitoredFutures = Collections.synchronizedList(
-      new ArrayList<GetFuture<T>>()
-    );
-    this.completedFuture = new AtomicReference<GetFuture<T>>();
+    this.latch = new CountDownLatch(1);
+    this.state = new AtomicInteger(PENDING);
+    this.monitoredOps = new ArrayList<Operation>(4);
   }
 
   /**
-   * Add a {@link GetFuture} to mointor.
+   * Add an {@link Operation} to monitor.
    *
-   * Note that this method is for internal use only.
+   * Note that this method is for internal use only. If this future is already
+   * completed or cancelled, the given operation is cancelled right away if
+   * it has not been written yet.
    *
-   * @param future the future to monitor.
+   * @param op the operation to monitor.
    */
-  public void addFutureToMonitor(GetFuture<T> future) {
-    this.monitoredFutures.add(future);
+  public void addOperationToMonitor(Operation op) {
+    synchronized (monitoredOps) {
+      monitoredOps.add(op);
+    }
+    if (state.get() != PENDING) {
+      cancelIfQueued(op);
+    }
   }
 
   /**
-   * Mark a monitored future as complete.
+   * Set the result of this future.
    *
-   * Note that this method is for internal use only. It will also cancel
-   * all other registered futures.
+   * Note that this method is for internal use only. Only the first call
+   * succeeds, all other monitored operations which are still waiting to be
+   * written are cancelled afterwards.
    *
-   * @param future the future to mark as completed.
-   * @return true if this future is the one that will be used.
+   * @param val the decoded value of the winning operation.
+   * @return true if the given value is the one that will be used.
    */
-  public boolean setCompletedFuture(GetFuture<T> future) {
-    boolean firstComplete = completedFuture.compareAndSet(null, future);
-    if (firstComplete) {
-      cancelOtherFutures(completedFuture.get());
+  public boolean setCompleted(Future<T> val) {
+    if (!state.compareAndSet(PENDING, COMPLETED)) {
+      return false;
     }
-    return firstComplete;
+    value = val;
+    latch.countDown();
+    cancelQueuedOperations();
+    notifyListeners();
+    return true;
   }
 
   @Override
@@ -97,64 +120,69 @@ public class ReplicaGetFuture<T extends Object>
   }
 
   @Override
-  @SuppressWarnings("unchecked")
   public T get(long userTimeout, TimeUnit unit) throws InterruptedException,
     ExecutionException, TimeoutException {
-    long start = System.currentTimeMillis();
-    long timeoutMs = TimeUnit.MILLISECONDS.convert(userTimeout, unit);
+    if (!latch.await(userTimeout, unit)) {
+      throw new TimeoutException("No replica get future returned with success "
+        + "before timeout.");
+    }
 
-    while(System.currentTimeMillis() - start <= timeoutMs) {
-      if (isDone() && !completedFuture.get().isCancelled()) {
-        return completedFuture.get().get();
-      }
+    if (state.get() != COMPLETED) {
+      throw new ExecutionException(new CancellationException("Cancelled"));
     }
 
-    throw new TimeoutException("No replica get future returned with success "
-      + "before timeout.");
+    Future<T> v = value;
+    return v == null ? null : v.get();
   }
 
   /**
-   * Cancel all other futures that are not completed.
-   *
-   * @param successFuture
+   * Cancel all monitored operations which have not been written yet.
    */
-  private void cancelOtherFutures(GetFuture successFuture) {
-    synchronized (monitoredFutures) {
-      Iterator it = monitoredFutures.iterator();
-      while (it.hasNext()) {
-        GetFuture future = (GetFuture) it.next();
-        if (!future.equals(successFuture)) {
-          future.cancel(true);
-        }
+  private void cancelQueuedOperations() {
+    synchronized (monitoredOps) {
+      for (Operation op : monitoredOps) {
+        cancelIfQueued(op);
       }
     }
   }
 
+  /**
+   * Cancel the given operation if it is still waiting in the write queue.
+   *
+   * Operations which are already on the wire are left alone, their response
+   * is just ignored.
+   *
+   * @param op the operation to cancel.
+   */
+  private static void cancelIfQueued(Operation op) {
+    if (op.getState() == OperationState.WRITE_QUEUED && !op.isCancelled()) {
+      op.cancel();
+    }
+  }
+
   @Override
   public boolean cancel(boolean ign) {
-    cancelled = true;
-    boolean allCancelled = true;
-    synchronized (monitoredFutures) {
-      Iterator it = monitoredFutures.iterator();
-      while (it.hasNext()) {
-        GetFuture future = (GetFuture) it.next();
-        if (!future.cancel(ign)) {
-          allCancelled = false;
-        }
+    if (!state.compareAndSet(PENDING, CANCELLED)) {
+      return false;
+    }
+    synchronized (monitoredOps) {
+      for (Operation op : monitoredOps) {
+        op.cancel();
       }
     }
+    latch.countDown();
     notifyListeners();
-    return allCancelled;
+    return true;
   }
 
   @Override
   public boolean isCancelled() {
-    return cancelled;
+    return state.get() == CANCELLED;
   }
 
   @Override
   public boolean isDone() {
-    return completedFuture.get() != null && completedFuture.get().isDone();
+    return state.get() != PENDING;
   }
 
   @Override
@@ -171,12 +199,4 @@ public class ReplicaGetFuture<T extends Object>
     return this;
   }
 
-  /**
-   * Signals that this future is complete.
-   */
-  public void signalComplete() {
-    notifyListeners();
-  }
-
-
 }
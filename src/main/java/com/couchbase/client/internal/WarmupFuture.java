@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.internal;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.spy.memcached.internal.AbstractListenableFuture;
+import net.spy.memcached.internal.GenericCompletionListener;
+
+/**
+ * Signals that all nodes of a client are connected, authenticated and
+ * answer requests.
+ *
+ * The future completes once every node has reported back. Its value is true
+ * if all nodes are ready and false if at least one of them failed. A warm-up
+ * can not be cancelled.
+ */
+public class WarmupFuture
+  extends AbstractListenableFuture<Boolean, WarmupCompletionListener>
+  implements Future<Boolean> {
+
+  private final long timeout;
+  private final CountDownLatch latch;
+  private final AtomicInteger remaining;
+  private final AtomicInteger failed;
+  private final long start;
+  private volatile long warmupTime = -1;
+
+  public WarmupFuture(int nodes, long timeout, ExecutorService service) {
+    super(service);
+    this.timeout = timeout;
+    this.latch = new CountDownLatch(nodes);
+    this.remaining = new AtomicInteger(nodes);
+    this.failed = new AtomicInteger();
+    this.start = System.nanoTime();
+    if (nodes == 0) {
+      warmupTime = 0;
+    }
+  }
+
+  /**
+   * Report the outcome of the warm-up of one node.
+   *
+   * Note that this method is for internal use only.
+   *
+   * @param success true if the node is ready.
+   */
+  public void nodeWarmedUp(boolean success) {
+    int left = remaining.decrementAndGet();
+    if (left < 0) {
+      return;
+    }
+    if (!success) {
+      failed.incrementAndGet();
+    }
+    if (left == 0) {
+      warmupTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+    latch.countDown();
+    if (left == 0) {
+      notifyListeners();
+    }
+  }
+
+  /**
+   * Returns the number of nodes which could not be warmed up.
+   *
+   * @return the number of failed nodes so far.
+   */
+  public int getFailedNodes() {
+    return failed.get();
+  }
+
+  /**
+   * Returns the time in milliseconds it took until all nodes reported back.
+   *
+   * @return the warm-up time or -1 if the warm-up is still in progress.
+   */
+  public long getWarmupTime() {
+    return warmupTime;
+  }
+
+  @Override
+  public Boolean get() throws InterruptedException, ExecutionException {
+    try {
+      return get(timeout, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      throw new RuntimeException("Timed out waiting for the warm-up", e);
+    }
+  }
+
+  @Override
+  public Boolean get(long userTimeout, TimeUnit unit)
+    throws InterruptedException, ExecutionException, TimeoutException {
+    if (!latch.await(userTimeout, unit)) {
+      throw new TimeoutException(latch.getCount() + " node(s) did not "
+        + "complete the warm-up before timeout.");
+    }
+    return failed.get() == 0;
+  }
+
+  @Override
+  public boolean cancel(boolean ign) {
+    return false;
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return false;
+  }
+
+  @Override
+  public boolean isDone() {
+    return latch.getCount() == 0;
+  }
+
+  @Override
+  public WarmupFuture addListener(WarmupCompletionListener listener) {
+    super.addToListeners((GenericCompletionListener) listener);
+    return this;
+  }
+
+  @Override
+  public WarmupFuture removeListener(WarmupCompletionListener listener) {
+    super.removeFromListeners((GenericCompletionListener) listener);
+    return this;
+  }
+
+}
@@ -0,0 +1,443 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.metrics;
+
+import com.couchbase.client.internal.BufferPool;
+import com.couchbase.client.internal.ObservedReadQueue;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+
+/**
+ * Collects latency histograms and gauges for one client.
+ *
+ * The latency of a memcached operation is measured on the wire, from the
+ * moment it has been written until its response has been read, and is
+ * recorded per operation type and per node. Time spent waiting in the
+ * queues shows up in the queue depths instead. Recording locks nothing and
+ * allocates nothing, so the I/O threads are not slowed down.
+ *
+ * The figures can be pulled through the getters or, once registered, read
+ * through JMX.
+ */
+public class CouchbaseMetrics extends SpyObject
+  implements CouchbaseMetricsMBean {
+
+  /**
+   * The number of vBuckets for which operations are counted.
+   */
+  private static final int MAX_VBUCKETS = 1024;
+
+  private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+  private final String bucket;
+  private final LatencyHistogram[] latencies;
+  private final ConcurrentMap<SocketAddress, LatencyHistogram> nodeLatencies =
+    new ConcurrentHashMap<SocketAddress, LatencyHistogram>();
+  private final Map<MemcachedNode, BlockingQueue<?>[]> nodeQueues =
+    new WeakHashMap<MemcachedNode, BlockingQueue<?>[]>();
+  private final AtomicLongArray vbucketOps = new AtomicLongArray(MAX_VBUCKETS);
+  private final LatencyHistogram viewLeaseWait = new LatencyHistogram();
+  private final LatencyHistogram reconfigurations = new LatencyHistogram();
+  private final AtomicLong throttleCount = new AtomicLong();
+  private final AtomicLong throttleMillis = new AtomicLong();
+  private final AtomicLong lateResponses = new AtomicLong();
+  private volatile ObjectName objectName;
+
+  /**
+   * Creates the metrics of a client.
+   *
+   * @param bucket the name of the bucket, used to name the MBean.
+   */
+  public CouchbaseMetrics(String bucket) {
+    this.bucket = bucket;
+    OperationType[] types = OperationType.values();
+    latencies = new LatencyHistogram[types.length];
+    for (int i = 0; i < types.length; i++) {
+      latencies[i] = new LatencyHistogram();
+    }
+  }
+
+  /**
+   * Wraps the read queue of a node, so the latency of every operation is
+   * recorded once its response has been read.
+   *
+   * @param queue the read queue of the node.
+   * @param address the address of the node.
+   * @return the queue to hand to the node.
+   */
+  public BlockingQueue<Operation> instrumentReadQueue(
+    BlockingQueue<Operation> queue, SocketAddress address) {
+    final LatencyHistogram node = getNodeLatency(address);
+    return new ObservedReadQueue(queue, new ObservedReadQueue.Observer() {
+      @Override
+      public void removed(Operation o) {
+        recordCompleted(o, node);
+      }
+    });
+  }
+
+  /**
+   * Registers the queues of a node, so their depth is reported.
+   *
+   * @param node the node.
+   * @param input the queue of operations added to the node.
+   * @param write the queue of operations to be written.
+   * @param read the queue of operations waiting for their response.
+   */
+  public void registerNode(MemcachedNode node, BlockingQueue<?> input,
+    BlockingQueue<?> write, BlockingQueue<?> read) {
+    synchronized (nodeQueues) {
+      nodeQueues.put(node, new BlockingQueue<?>[] {input, write, read});
+    }
+  }
+
+  /**
+   * Records the latency of an operation which has just been removed from
+   * the read queue of a node.
+   *
+   * Responses which arrive after their operation timed out are recorded as
+   * well, since they are the slowest ones, and are counted separately.
+   */
+  private void recordCompleted(Operation o, LatencyHistogram node) {
+    long written = o.getWriteCompleteTimestamp();
+    if (written == 0 || o.getState() != OperationState.COMPLETE
+      || o.isCancelled()) {
+      return;
+    }
+    long micros = (System.nanoTime() - written) / 1000;
+    latencies[OperationType.of(o).ordinal()].record(micros);
+    node.record(micros);
+    if (o.isTimedOut()) {
+      lateResponses.incrementAndGet();
+    }
+  }
+
+  /**
+   * Records the latency of an operation.
+   *
+   * @param type the type of the operation.
+   * @param micros the latency in microseconds.
+   */
+  public void recordOperation(OperationType type, long micros) {
+    latencies[type.ordinal()].record(micros);
+  }
+
+  /**
+   * Counts an operation sent to a vBucket.
+   *
+   * @param vbucket the index of the vBucket.
+   */
+  public void recordVBucket(int vbucket) {
+    if (vbucket >= 0 && vbucket < MAX_VBUCKETS) {
+      vbucketOps.incrementAndGet(vbucket);
+    }
+  }
+
+  /**
+   * Records the time spent waiting for a view connection.
+   *
+   * @param micros the wait in microseconds.
+   */
+  public void recordViewLeaseWait(long micros) {
+    viewLeaseWait.record(micros);
+  }
+
+  /**
+   * Records the time it took to apply a new cluster configuration.
+   *
+   * @param micros the duration in microseconds.
+   */
+  public void recordReconfiguration(long micros) {
+    reconfigurations.record(micros);
+  }
+
+  /**
+   * Records that an operation has been throttled.
+   *
+   * @param millis the time slept in milliseconds.
+   */
+  public void recordThrottle(long millis) {
+    throttleCount.incrementAndGet();
+    throttleMillis.addAndGet(millis);
+  }
+
+  /**
+   * Returns the latencies of an operation type.
+   *
+   * @param type the type of the operations.
+   * @return the histogram of the latencies.
+   */
+  public LatencyHistogram getLatency(OperationType type) {
+    return latencies[type.ordinal()];
+  }
+
+  /**
+   * Returns the latencies of the operations sent to a node.
+   *
+   * @param address the address of the node.
+   * @return the histogram of the latencies.
+   */
+  public LatencyHistogram getNodeLatency(SocketAddress address) {
+    LatencyHistogram histogram = nodeLatencies.get(address);
+    if (histogram == null) {
+      LatencyHistogram created = new LatencyHistogram();
+      histogram = nodeLatencies.putIfAbsent(address, created);
+      if (histogram == null) {
+        histogram = created;
+      }
+    }
+    return histogram;
+  }
+
+  /**
+   * Returns the latencies of all nodes which have been connected.
+   *
+   * @return the histograms by node address.
+   */
+  public Map<SocketAddress, LatencyHistogram> getNodeLatencies() {
+    return Collections.unmodifiableMap(nodeLatencies);
+  }
+
+  /**
+   * Returns the time spent waiting for a view connection.
+   *
+   * @return the histogram of the waits.
+   */
+  public LatencyHistogram getViewLeaseWait() {
+    return viewLeaseWait;
+  }
+
+  /**
+   * Returns the time it took to apply new cluster configurations.
+   *
+   * @return the histogram of the reconfigurations.
+   */
+  public LatencyHistogram getReconfigurations() {
+    return reconfigurations;
+  }
+
+  /**
+   * Returns the number of queued operations per node address.
+   *
+   * Connections to the same node are added up.
+   *
+   * @return the queue depths by node address.
+   */
+  public Map<SocketAddress, QueueDepth> getQueueDepths() {
+    Map<SocketAddress, int[]> sizes = new LinkedHashMap<SocketAddress, int[]>();
+    synchronized (nodeQueues) {
+      for (Map.Entry<MemcachedNode, BlockingQueue<?>[]> entry
+        : nodeQueues.entrySet()) {
+        SocketAddress address = entry.getKey().getSocketAddress();
+        int[] size = sizes.get(address);
+        if (size == null) {
+          size = new int[3];
+          sizes.put(address, size);
+        }
+        for (int i = 0; i < size.length; i++) {
+          size[i] += entry.getValue()[i].size();
+        }
+      }
+    }
+    Map<SocketAddress, QueueDepth> depths =
+      new LinkedHashMap<SocketAddress, QueueDepth>();
+    for (Map.Entry<SocketAddress, int[]> entry : sizes.entrySet()) {
+      int[] size = entry.getValue();
+      depths.put(entry.getKey(), new QueueDepth(size[0], size[1], size[2]));
+    }
+    return depths;
+  }
+
+  /**
+   * Returns the vBuckets which have received the most operations.
+   *
+   * @param max the number of vBuckets to return.
+   * @return the number of operations by vBucket, busiest first.
+   */
+  public Map<Integer, Long> getHottestVBuckets(int max) {
+    List<Integer> indexes = new ArrayList<Integer>();
+    final long[] counts = new long[MAX_VBUCKETS];
+    for (int i = 0; i < MAX_VBUCKETS; i++) {
+      counts[i] = vbucketOps.get(i);
+      if (counts[i] > 0) {
+        indexes.add(i);
+      }
+    }
+    Collections.sort(indexes, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        long ca = counts[a];
+        long cb = counts[b];
+        return ca > cb ? -1 : (ca < cb ? 1 : a.compareTo(b));
+      }
+    });
+    Map<Integer, Long> hottest = new LinkedHashMap<Integer, Long>();
+    for (Integer index : indexes.subList(0, Math.min(max, indexes.size()))) {
+      hottest.put(index, counts[index]);
+    }
+    return hottest;
+  }
+
+  @Override
+  public Map<String, Long> getLatencySummary() {
+    Map<String, Long> summary = new TreeMap<String, Long>();
+    for (OperationType type : OperationType.values()) {
+      summarize(summary, type.name().toLowerCase(), getLatency(type), true);
+    }
+    summarize(summary, "viewLease", viewLeaseWait, true);
+    summarize(summary, "reconfiguration", reconfigurations, true);
+    return summary;
+  }
+
+  @Override
+  public Map<String, Long> getNodeLatencySummary() {
+    Map<String, Long> summary = new TreeMap<String, Long>();
+    for (Map.Entry<SocketAddress, LatencyHistogram> entry
+      : nodeLatencies.entrySet()) {
+      summarize(summary, format(entry.getKey()), entry.getValue(), false);
+    }
+    return summary;
+  }
+
+  @Override
+  public Map<String, Integer> getQueueDepthSummary() {
+    Map<String, Integer> summary = new TreeMap<String, Integer>();
+    for (Map.Entry<SocketAddress, QueueDepth> entry
+      : getQueueDepths().entrySet()) {
+      summary.put(format(entry.getKey()), entry.getValue().getTotal());
+    }
+    return summary;
+  }
+
+  @Override
+  public Map<Integer, Long> getHotVBuckets() {
+    return getHottestVBuckets(10);
+  }
+
+  @Override
+  public long getThrottleCount() {
+    return throttleCount.get();
+  }
+
+  @Override
+  public long getThrottleMillis() {
+    return throttleMillis.get();
+  }
+
+  @Override
+  public long getLateResponseCount() {
+    return lateResponses.get();
+  }
+
+  @Override
+  public String getBufferPool() {
+    return BufferPool.getDefault().toString();
+  }
+
+  private static void summarize(Map<String, Long> summary, String prefix,
+    LatencyHistogram histogram, boolean detailed) {
+    summary.put(prefix + ".count", histogram.getCount());
+    summary.put(prefix + ".p50", histogram.getValueAtPercentile(50));
+    summary.put(prefix + ".p99", histogram.getValueAtPercentile(99));
+    summary.put(prefix + ".max", histogram.getMax());
+    if (detailed) {
+      summary.put(prefix + ".mean", Math.round(histogram.getMean()));
+      summary.put(prefix + ".p999", histogram.getValueAtPercentile(99.9));
+    }
+  }
+
+  private static String format(SocketAddress address) {
+    if (address instanceof InetSocketAddress) {
+      InetSocketAddress inet = (InetSocketAddress) address;
+      String host = inet.getAddress() == null ? inet.getHostName()
+        : inet.getAddress().getHostAddress();
+      return host + ":" + inet.getPort();
+    }
+    return String.valueOf(address);
+  }
+
+  /**
+   * Registers these metrics with the platform MBean server.
+   *
+   * Failures are logged, since the client works fine without JMX.
+   */
+  public void register() {
+    try {
+      ObjectName name = new ObjectName("com.couchbase.client:type=Metrics,"
+        + "bucket=" + ObjectName.quote(String.valueOf(bucket))
+        + ",instance=" + INSTANCES.incrementAndGet());
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+      objectName = name;
+    } catch (JMException e) {
+      getLogger().warn("Could not register the client metrics with JMX", e);
+    }
+  }
+
+  /**
+   * Removes these metrics from the platform MBean server.
+   */
+  public void unregister() {
+    ObjectName name = objectName;
+    if (name == null) {
+      return;
+    }
+    objectName = null;
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+    } catch (JMException e) {
+      getLogger().warn("Could not unregister the client metrics from JMX", e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "CouchbaseMetrics{bucket=" + bucket + ", latencies="
+      + getLatencySummary() + "}";
+  }
+
+}
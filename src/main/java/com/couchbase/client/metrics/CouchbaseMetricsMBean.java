@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.metrics;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link CouchbaseMetrics}.
+ *
+ * All latencies are in microseconds.
+ */
+public interface CouchbaseMetricsMBean {
+
+  /**
+   * Returns the count, mean, p50, p99, p99.9 and max latency of every
+   * operation type, of view connection leases and of reconfigurations,
+   * keyed like {@code get.p99}.
+   */
+  Map<String, Long> getLatencySummary();
+
+  /**
+   * Returns the count, p50, p99 and max latency of the operations sent to
+   * every node, keyed like {@code 10.0.0.1:11210.p99}.
+   */
+  Map<String, Long> getNodeLatencySummary();
+
+  /**
+   * Returns the number of queued operations per node.
+   */
+  Map<String, Integer> getQueueDepthSummary();
+
+  /**
+   * Returns the number of operations sent to the ten busiest vBuckets.
+   */
+  Map<Integer, Long> getHotVBuckets();
+
+  /**
+   * Returns the number of times operations were throttled.
+   */
+  long getThrottleCount();
+
+  /**
+   * Returns the total time operations were throttled, in milliseconds.
+   */
+  long getThrottleMillis();
+
+  /**
+   * Returns the number of responses which arrived after their operation
+   * had timed out. Their latencies are part of the histograms.
+   */
+  long getLateResponseCount();
+
+  /**
+   * Returns the statistics of the buffers used to read view responses.
+   */
+  String getBufferPool();
+
+}
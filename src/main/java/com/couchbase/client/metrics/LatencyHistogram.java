@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in microseconds.
+ *
+ * Values are counted in log-linear buckets in the style of an HDR
+ * histogram: values below 64us are counted exactly, larger values in 32
+ * buckets per power of two, so every reported value is within about 3% of
+ * the recorded one. Recording neither locks nor allocates, so it is safe to
+ * call from the I/O threads.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int LINEAR_BUCKETS = SUB_BUCKETS * 2;
+
+  /**
+   * The largest value which is recorded, larger values are counted as this
+   * value (about 19 hours).
+   */
+  public static final long MAX_VALUE = (1L << 36) - 1;
+
+  private final AtomicLongArray counts =
+    new AtomicLongArray(bucketIndex(MAX_VALUE) + 1);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records a latency.
+   *
+   * @param micros the latency in microseconds.
+   */
+  public void record(long micros) {
+    long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+    counts.incrementAndGet(bucketIndex(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    long current = max.get();
+    while (value > current && !max.compareAndSet(current, value)) {
+      current = max.get();
+    }
+  }
+
+  /**
+   * Returns the number of recorded latencies.
+   *
+   * @return the number of recorded latencies.
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * Returns the largest recorded latency.
+   *
+   * @return the largest latency in microseconds, 0 if none was recorded.
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Returns the mean of the recorded latencies.
+   *
+   * @return the mean latency in microseconds, 0 if none was recorded.
+   */
+  public double getMean() {
+    long n = count.get();
+    return n == 0 ? 0 : (double) sum.get() / n;
+  }
+
+  /**
+   * Returns the latency below which the given percentage of the recorded
+   * latencies fall.
+   *
+   * @param percentile the percentile between 0 and 100.
+   * @return the latency in microseconds, 0 if none was recorded.
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("The percentile must be between 0 "
+        + "and 100");
+    }
+    long total = count.get();
+    if (total == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      seen += counts.get(i);
+      if (seen >= target) {
+        return Math.min(highestValue(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("LatencyHistogram{count=%d, mean=%.1fus, p50=%dus, "
+      + "p99=%dus, max=%dus}", getCount(), getMean(),
+      getValueAtPercentile(50), getValueAtPercentile(99), getMax());
+  }
+
+  /**
+   * Returns the index of the bucket counting the given value.
+   */
+  static int bucketIndex(long value) {
+    if (value < LINEAR_BUCKETS) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS
+      + (int) (value >>> shift) - SUB_BUCKETS;
+  }
+
+  /**
+   * Returns the largest value counted in the given bucket.
+   */
+  static long highestValue(int index) {
+    if (index < LINEAR_BUCKETS) {
+      return index;
+    }
+    int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+    long sub = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+    return ((sub + 1) << shift) - 1;
+  }
+
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.metrics;
+
+import net.spy.memcached.ops.CASOperation;
+import net.spy.memcached.ops.GetAndTouchOperation;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.GetlOperation;
+import net.spy.memcached.ops.GetsOperation;
+import net.spy.memcached.ops.ObserveOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.ReplicaGetOperation;
+import net.spy.memcached.ops.StoreOperation;
+
+/**
+ * The kinds of operations for which latencies are tracked separately.
+ */
+public enum OperationType {
+
+  /**
+   * Reads of a document, including gets with CAS, lock or touch.
+   */
+  GET,
+
+  /**
+   * Writes of a document through set, add, replace or CAS.
+   */
+  SET,
+
+  /**
+   * Observe requests used to check durability.
+   */
+  OBSERVE,
+
+  /**
+   * View queries.
+   */
+  VIEW,
+
+  /**
+   * Reads of a document from a replica.
+   */
+  REPLICA_GET,
+
+  /**
+   * All other operations.
+   */
+  OTHER;
+
+  /**
+   * Returns the type of a memcached operation.
+   *
+   * @param o the operation.
+   * @return the type of the operation.
+   */
+  public static OperationType of(Operation o) {
+    if (o instanceof ReplicaGetOperation) {
+      return REPLICA_GET;
+    } else if (o instanceof GetOperation || o instanceof GetsOperation
+      || o instanceof GetlOperation || o instanceof GetAndTouchOperation) {
+      return GET;
+    } else if (o instanceof StoreOperation || o instanceof CASOperation) {
+      return SET;
+    } else if (o instanceof ObserveOperation) {
+      return OBSERVE;
+    }
+    return OTHER;
+  }
+
+}
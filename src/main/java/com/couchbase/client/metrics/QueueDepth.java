@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.metrics;
+
+/**
+ * The number of operations queued for a node at one point in time.
+ */
+public class QueueDepth {
+
+  private final int input;
+  private final int write;
+  private final int read;
+
+  /**
+   * Creates a new queue depth.
+   *
+   * @param input operations added but not yet picked up by the I/O thread.
+   * @param write operations waiting to be written.
+   * @param read operations written and waiting for their response.
+   */
+  public QueueDepth(int input, int write, int read) {
+    this.input = input;
+    this.write = write;
+    this.read = read;
+  }
+
+  public int getInput() {
+    return input;
+  }
+
+  public int getWrite() {
+    return write;
+  }
+
+  public int getRead() {
+    return read;
+  }
+
+  /**
+   * Returns the number of operations in all queues.
+   *
+   * @return the total number of queued operations.
+   */
+  public int getTotal() {
+    return input + write + read;
+  }
+
+  @Override
+  public String toString() {
+    return "input=" + input + ", write=" + write + ", read=" + read;
+  }
+
+}
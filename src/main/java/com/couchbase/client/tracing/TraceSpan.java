@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.tracing;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The timestamps at which one request passed the stages of the pipeline.
+ *
+ * Timestamps are taken from {@link System#nanoTime()}, so only the
+ * differences between them are meaningful.
+ */
+public class TraceSpan {
+
+  private static final TraceStage[] STAGES = TraceStage.values();
+
+  private final String name;
+  private final String target;
+  private final AtomicLongArray timestamps =
+    new AtomicLongArray(STAGES.length);
+  private volatile String node;
+
+  /**
+   * Creates a new span and marks it as {@link TraceStage#CREATED}.
+   *
+   * @param name the kind of request, like {@code get} or {@code view}.
+   * @param target the key or path of the request, may be null.
+   */
+  public TraceSpan(String name, String target) {
+    this.name = name;
+    this.target = target;
+    mark(TraceStage.CREATED);
+  }
+
+  /**
+   * Marks that the request has reached a stage now.
+   *
+   * @param stage the stage reached.
+   */
+  public void mark(TraceStage stage) {
+    mark(stage, System.nanoTime());
+  }
+
+  /**
+   * Marks that the request has reached a stage at the given time.
+   *
+   * @param stage the stage reached.
+   * @param nanos the time from {@link System#nanoTime()}.
+   */
+  public void mark(TraceStage stage, long nanos) {
+    timestamps.set(stage.ordinal(), nanos);
+  }
+
+  /**
+   * Sets the node which serves the request.
+   *
+   * @param node the address of the node.
+   */
+  public void setNode(String node) {
+    this.node = node;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getTarget() {
+    return target;
+  }
+
+  public String getNode() {
+    return node;
+  }
+
+  /**
+   * Returns when the request reached a stage.
+   *
+   * @param stage the stage.
+   * @return the time from {@link System#nanoTime()}, 0 if the stage has not
+   *   been reached.
+   */
+  public long getTimestamp(TraceStage stage) {
+    return timestamps.get(stage.ordinal());
+  }
+
+  /**
+   * Returns the time it took to get from one stage to another.
+   *
+   * @param from the earlier stage.
+   * @param to the later stage.
+   * @return the time in nanoseconds, -1 if either stage was not reached.
+   */
+  public long getElapsed(TraceStage from, TraceStage to) {
+    long start = getTimestamp(from);
+    long end = getTimestamp(to);
+    if (start == 0 || end == 0) {
+      return -1;
+    }
+    return end - start;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder(name);
+    if (target != null) {
+      sb.append(' ').append(target);
+    }
+    if (node != null) {
+      sb.append(" on ").append(node);
+    }
+    long last = getTimestamp(TraceStage.CREATED);
+    for (int i = 1; i < STAGES.length; i++) {
+      long timestamp = timestamps.get(i);
+      if (timestamp != 0) {
+        sb.append(", ").append(STAGES[i].name().toLowerCase()).append("=+")
+          .append((timestamp - last) / 1000).append("us");
+        last = timestamp;
+      }
+    }
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.tracing;
+
+/**
+ * The stages a traced request passes, in order.
+ *
+ * Not every request passes every stage: view requests are not written by
+ * the client's own I/O threads, memcached responses are decoded while they
+ * are read, and only listener notifications are started and finished on
+ * the listener executor.
+ */
+public enum TraceStage {
+
+  /**
+   * The request has been handed to the connection.
+   */
+  CREATED,
+
+  /**
+   * The request has been queued for a node.
+   */
+  QUEUED,
+
+  /**
+   * The request has been written to the node.
+   */
+  WRITTEN,
+
+  /**
+   * The response has been read from the node.
+   */
+  RECEIVED,
+
+  /**
+   * The response has been decoded.
+   */
+  DECODED,
+
+  /**
+   * A listener started running on the listener executor.
+   */
+  LISTENER_STARTED,
+
+  /**
+   * A listener finished running.
+   */
+  LISTENER_FINISHED
+
+}
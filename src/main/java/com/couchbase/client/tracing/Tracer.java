@@ -0,0 +1,261 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.tracing;
+
+import com.couchbase.client.internal.ObservedReadQueue;
+import com.couchbase.client.metrics.OperationType;
+import com.couchbase.client.protocol.views.HttpOperation;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.ops.Operation;
+
+/**
+ * Samples requests and follows them through the pipeline.
+ *
+ * Every n-th request gets a {@link TraceSpan}, which is marked at each
+ * stage and reported to the {@link TraceSink} once the response has been
+ * handled. Requests which are not sampled only cost a map lookup at the
+ * stages, and nothing at all while no request is being traced. When
+ * tracing is not configured no tracer exists.
+ */
+public class Tracer extends SpyObject implements ObservedReadQueue.Observer {
+
+  /**
+   * The maximum number of requests traced at the same time.
+   */
+  static final int MAX_IN_FLIGHT = 1024;
+
+  /**
+   * The default age in milliseconds after which a span is given up on.
+   */
+  public static final long DEFAULT_MAX_AGE = 75000;
+
+  private static final String[] OPERATION_NAMES;
+
+  static {
+    OperationType[] types = OperationType.values();
+    OPERATION_NAMES = new String[types.length];
+    for (int i = 0; i < types.length; i++) {
+      OPERATION_NAMES[i] = types[i].name().toLowerCase();
+    }
+  }
+
+  private final TraceSink sink;
+  private final long interval;
+  private final long maxAgeNanos;
+  private final AtomicLong requests = new AtomicLong();
+  private final ConcurrentMap<Object, TraceSpan> inFlight =
+    new ConcurrentHashMap<Object, TraceSpan>();
+
+  /**
+   * Creates a new tracer.
+   *
+   * @param sink the sink to report the spans to.
+   * @param sampleRate the fraction of requests to trace, between 0
+   *   (exclusive) and 1.
+   */
+  public Tracer(TraceSink sink, double sampleRate) {
+    this(sink, sampleRate, DEFAULT_MAX_AGE);
+  }
+
+  /**
+   * Creates a new tracer.
+   *
+   * @param sink the sink to report the spans to.
+   * @param sampleRate the fraction of requests to trace, between 0
+   *   (exclusive) and 1.
+   * @param maxAge the age in milliseconds after which a span which has not
+   *   been finished is reported and forgotten, usually the longest timeout
+   *   of the traced requests.
+   */
+  public Tracer(TraceSink sink, double sampleRate, long maxAge) {
+    if (sink == null) {
+      throw new IllegalArgumentException("The trace sink must not be null");
+    }
+    if (!(sampleRate > 0 && sampleRate <= 1)) {
+      throw new IllegalArgumentException("The sample rate must be greater "
+        + "than 0 and at most 1");
+    }
+    this.sink = sink;
+    if (maxAge <= 0) {
+      throw new IllegalArgumentException("The maximum age must be positive");
+    }
+    this.interval = Math.max(1, Math.round(1 / sampleRate));
+    this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAge);
+  }
+
+  /**
+   * Decides whether the next request is traced.
+   *
+   * @return true if it should be traced.
+   */
+  public boolean sample() {
+    return requests.incrementAndGet() % interval == 0;
+  }
+
+  /**
+   * Starts tracing a memcached operation if it is sampled.
+   *
+   * @param o the operation.
+   * @param key the key of the operation.
+   * @return the span or null if the operation is not traced.
+   */
+  public TraceSpan start(Operation o, String key) {
+    return start(o, OPERATION_NAMES[OperationType.of(o).ordinal()], key);
+  }
+
+  /**
+   * Starts tracing a request if it is sampled.
+   *
+   * Requests which are already traced keep their span, so retries do not
+   * start over.
+   *
+   * @param request the request, an {@link Operation} or
+   *   {@link HttpOperation}.
+   * @param name the kind of request.
+   * @param target the key or path of the request.
+   * @return the span or null if the request is not traced.
+   */
+  public TraceSpan start(Object request, String name, String target) {
+    TraceSpan span = get(request);
+    if (span != null || !sample()) {
+      return span;
+    }
+    if (inFlight.size() >= MAX_IN_FLIGHT) {
+      expire();
+      if (inFlight.size() >= MAX_IN_FLIGHT) {
+        return null;
+      }
+    }
+    span = new TraceSpan(name, target);
+    inFlight.put(request, span);
+    return span;
+  }
+
+  /**
+   * Returns the span of a request.
+   *
+   * @param request the request.
+   * @return the span or null if the request is not traced.
+   */
+  public TraceSpan get(Object request) {
+    return inFlight.isEmpty() ? null : inFlight.get(request);
+  }
+
+  /**
+   * Stops tracing a request and reports its span.
+   *
+   * @param request the request.
+   */
+  public void finish(Object request) {
+    if (!inFlight.isEmpty()) {
+      TraceSpan span = inFlight.remove(request);
+      if (span != null) {
+        report(span);
+      }
+    }
+  }
+
+  /**
+   * Reports a span to the sink.
+   *
+   * @param span the finished span.
+   */
+  public void report(TraceSpan span) {
+    try {
+      sink.report(span);
+    } catch (RuntimeException e) {
+      getLogger().warn("Trace sink failed to handle " + span, e);
+    }
+  }
+
+  /**
+   * Marks a memcached operation as received once the node has read its
+   * response, and finishes its span.
+   *
+   * The time the request was written is taken from the operation.
+   */
+  @Override
+  public void removed(Operation o) {
+    if (inFlight.isEmpty()) {
+      return;
+    }
+    TraceSpan span = inFlight.remove(o);
+    if (span != null) {
+      if (o.getWriteCompleteTimestamp() != 0) {
+        span.mark(TraceStage.WRITTEN, o.getWriteCompleteTimestamp());
+      }
+      span.mark(TraceStage.RECEIVED);
+      report(span);
+    }
+  }
+
+  /**
+   * Wraps the executor which notifies listeners, so sampled notifications
+   * are traced from submission until the listener returns.
+   *
+   * @param executor the listener executor.
+   * @return the traced executor.
+   */
+  public ExecutorService traceListeners(ExecutorService executor) {
+    return new TracingExecutorService(executor, this);
+  }
+
+  /**
+   * Reports and forgets the spans of requests which were cancelled, have
+   * timed out or are older than the maximum age, since they may never get a
+   * response. Old spans also cover requests which left the queues without
+   * passing a finishing stage, for example when a connection was reset.
+   */
+  private void expire() {
+    long oldest = System.nanoTime() - maxAgeNanos;
+    Iterator<Map.Entry<Object, TraceSpan>> entries =
+      inFlight.entrySet().iterator();
+    while (entries.hasNext()) {
+      Map.Entry<Object, TraceSpan> entry = entries.next();
+      if (isAbandoned(entry.getKey())
+        || entry.getValue().getTimestamp(TraceStage.CREATED) - oldest < 0) {
+        entries.remove();
+        report(entry.getValue());
+      }
+    }
+  }
+
+  private static boolean isAbandoned(Object request) {
+    if (request instanceof Operation) {
+      Operation o = (Operation) request;
+      return o.isCancelled() || o.isTimedOut();
+    } else if (request instanceof HttpOperation) {
+      HttpOperation o = (HttpOperation) request;
+      return o.isCancelled() || o.isTimedOut();
+    }
+    return false;
+  }
+
+}
@@ -0,0 +1,356 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.transfer;
+
+import com.couchbase.client.CouchbaseClient;
+import com.couchbase.client.ParallelTapStream;
+import com.couchbase.client.TapClient;
+import com.couchbase.client.TapMessageHandler;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.naming.ConfigurationException;
+import net.spy.memcached.PersistTo;
+import net.spy.memcached.ReplicateTo;
+import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.internal.OperationCompletionListener;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.tapmessage.ResponseMessage;
+import net.spy.memcached.tapmessage.TapOpcode;
+
+/**
+ * Copies the documents of a bucket to another bucket, or dumps them to and
+ * restores them from a file.
+ *
+ * Documents are read through a parallel tap dump, which hands every vbucket
+ * to one of several workers. Documents are written with pipelined sets, of
+ * which at most a window of operations is outstanding at any time. A full
+ * window blocks the readers, so a slow target slows down the dump instead of
+ * filling the heap. When sets wait for persistence, the observe polling runs
+ * on threads of the transfer, one per set of the window, so it does not hold
+ * up the client's listener threads.
+ *
+ * Values are transferred in their stored form with their original flags and
+ * expiration times. Deletions are not transferred.
+ */
+public class BulkTransfer extends SpyObject {
+
+  /**
+   * The default number of workers reading from the tap stream.
+   */
+  public static final int DEFAULT_WORKERS = 4;
+
+  /**
+   * The default number of outstanding sets.
+   */
+  public static final int DEFAULT_WINDOW = 1024;
+
+  private static final DumpRecordTranscoder TRANSCODER =
+    new DumpRecordTranscoder();
+
+  private final int workers;
+  private final int window;
+  private final PersistTo persistTo;
+
+  /**
+   * Creates a transfer with the default settings which does not wait for
+   * documents to be persisted.
+   */
+  public BulkTransfer() {
+    this(DEFAULT_WORKERS, DEFAULT_WINDOW, PersistTo.ZERO);
+  }
+
+  /**
+   * Creates a transfer.
+   *
+   * @param workers the number of workers reading from the tap stream.
+   * @param window the maximum number of outstanding sets.
+   * @param persistTo the durability every set waits for before it counts as
+   *          transferred.
+   */
+  public BulkTransfer(int workers, int window, PersistTo persistTo) {
+    if (workers < 1) {
+      throw new IllegalArgumentException("At least one worker is needed");
+    }
+    if (window < 1) {
+      throw new IllegalArgumentException("The window must be positive");
+    }
+    this.workers = workers;
+    this.window = window;
+    this.persistTo = persistTo == null ? PersistTo.ZERO : persistTo;
+  }
+
+  /**
+   * Copies all documents from the bucket of a tap client to a target bucket.
+   *
+   * @param source the tap client of the source bucket.
+   * @param target the client of the target bucket.
+   * @return the statistics of the transfer.
+   * @throws ConfigurationException a bad configuration was received from the
+   *           source cluster.
+   * @throws IOException if there are errors connecting to the source cluster.
+   * @throws InterruptedException if interrupted while waiting for the
+   *           transfer to finish.
+   */
+  public TransferStats copy(TapClient source, final CouchbaseClient target)
+    throws IOException, ConfigurationException, InterruptedException {
+    final TransferStats stats = new TransferStats();
+    final Semaphore permits = new Semaphore(window);
+    final ExecutorService observer = newObserveExecutor();
+    try {
+      ParallelTapStream stream = source.tapDumpParallel(null, workers, window,
+        new TapMessageHandler() {
+          @Override
+          public void handle(ResponseMessage message) {
+            if (message.getOpcode() != TapOpcode.MUTATION) {
+              return;
+            }
+            try {
+              store(target, DumpRecord.fromMessage(message), permits,
+                observer, stats);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+      awaitTermination(stream);
+      permits.acquire(window);
+    } finally {
+      shutdown(observer);
+    }
+    return finish(stats);
+  }
+
+  /**
+   * Dumps all documents from the bucket of a tap client to a file.
+   *
+   * If the dump fails, the file is left without its trailer, so reading it
+   * reports it as truncated.
+   *
+   * @param source the tap client of the source bucket.
+   * @param file the file to write the dump to.
+   * @return the statistics of the transfer.
+   * @throws ConfigurationException a bad configuration was received from the
+   *           source cluster.
+   * @throws IOException if there are errors connecting to the source cluster
+   *           or writing the file.
+   * @throws InterruptedException if interrupted while waiting for the
+   *           transfer to finish.
+   */
+  public TransferStats export(TapClient source, File file)
+    throws IOException, ConfigurationException, InterruptedException {
+    final TransferStats stats = new TransferStats();
+    final DumpFileWriter writer = new DumpFileWriter(file);
+    final AtomicReference<IOException> error =
+      new AtomicReference<IOException>();
+    boolean completed = false;
+    try {
+      final ParallelTapStream[] stream = new ParallelTapStream[1];
+      stream[0] = source.tapDumpParallel(null, workers, window,
+        new TapMessageHandler() {
+          @Override
+          public void handle(ResponseMessage message) {
+            if (message.getOpcode() != TapOpcode.MUTATION
+              || error.get() != null) {
+              return;
+            }
+            try {
+              writer.write(DumpRecord.fromMessage(message));
+              stats.transferred(message.getValue().length);
+            } catch (IOException e) {
+              stats.failed();
+              if (error.compareAndSet(null, e)) {
+                stream[0].cancel();
+              }
+            }
+          }
+        });
+      try {
+        awaitTermination(stream[0]);
+      } catch (InterruptedException e) {
+        stream[0].cancel();
+        throw e;
+      }
+      completed = error.get() == null;
+    } finally {
+      if (completed) {
+        writer.close();
+      } else {
+        writer.abort();
+      }
+    }
+    if (error.get() != null) {
+      throw error.get();
+    }
+    return finish(stats);
+  }
+
+  /**
+   * Restores all documents of a dump file into a bucket.
+   *
+   * @param file the dump file.
+   * @param target the client of the target bucket.
+   * @return the statistics of the transfer.
+   * @throws IOException if the file could not be read.
+   * @throws InterruptedException if interrupted while waiting for the
+   *           transfer to finish.
+   */
+  public TransferStats restore(File file, CouchbaseClient target)
+    throws IOException, InterruptedException {
+    TransferStats stats = new TransferStats();
+    Semaphore permits = new Semaphore(window);
+    ExecutorService observer = newObserveExecutor();
+    DumpFileReader reader = new DumpFileReader(file);
+    try {
+      DumpRecord record;
+      while ((record = reader.read()) != null) {
+        store(target, record, permits, observer, stats);
+      }
+    } finally {
+      try {
+        permits.acquire(window);
+      } finally {
+        shutdown(observer);
+        reader.close();
+      }
+    }
+    return finish(stats);
+  }
+
+  /**
+   * Sends a set for the record once the window has room for it.
+   *
+   * The permit is released once the set completed, or once the document has
+   * been persisted if the transfer waits for it.
+   */
+  private void store(final CouchbaseClient target, final DumpRecord record,
+    final Semaphore permits, final ExecutorService observer,
+    final TransferStats stats) throws InterruptedException {
+    permits.acquire();
+    OperationFuture<Boolean> future;
+    try {
+      future = target.set(record.getKey(), record.getExpiry(), record,
+        TRANSCODER);
+    } catch (RuntimeException e) {
+      permits.release();
+      stats.failed();
+      getLogger().warn("Could not transfer " + record.getKey(), e);
+      return;
+    }
+    future.addListener(new OperationCompletionListener() {
+      @Override
+      public void onComplete(final OperationFuture<?> f) throws Exception {
+        if (observer == null || !f.getStatus().isSuccess()) {
+          completed(target, record, f, permits, stats);
+          return;
+        }
+        try {
+          observer.execute(new Runnable() {
+            @Override
+            public void run() {
+              completed(target, record, f, permits, stats);
+            }
+          });
+        } catch (RejectedExecutionException e) {
+          permits.release();
+          stats.failed();
+          getLogger().debug("Could not observe " + record.getKey(), e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Accounts for a completed set, polling for its persistence first if
+   * needed, and releases its permit.
+   */
+  private void completed(CouchbaseClient target, DumpRecord record,
+    OperationFuture<?> f, Semaphore permits, TransferStats stats) {
+    try {
+      boolean success = f.getStatus().isSuccess();
+      if (success && persistTo != PersistTo.ZERO) {
+        target.observePoll(record.getKey(), f.getCas(), persistTo,
+          ReplicateTo.ZERO, false);
+      }
+      if (success) {
+        stats.transferred(record.getValue().length);
+      } else {
+        stats.failed();
+        getLogger().debug("Could not transfer " + record.getKey() + ": "
+          + f.getStatus());
+      }
+    } catch (RuntimeException e) {
+      stats.failed();
+      getLogger().debug("Could not transfer " + record.getKey(), e);
+    } finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * Creates the executor polling for persistence, with one thread per set
+   * of the window, or null if the transfer does not wait for persistence.
+   */
+  private ExecutorService newObserveExecutor() {
+    if (persistTo == PersistTo.ZERO) {
+      return null;
+    }
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(window, window,
+      1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "Couchbase/BulkTransfer-Observer");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private static void shutdown(ExecutorService executor) {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  private static void awaitTermination(ParallelTapStream stream)
+    throws InterruptedException {
+    stream.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+  private TransferStats finish(TransferStats stats) {
+    stats.finished();
+    getLogger().info("Finished transfer: " + stats);
+    return stats;
+  }
+
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.transfer;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the documents of a dump written by a {@link DumpFileWriter}.
+ */
+public class DumpFileReader implements Closeable {
+
+  private final DataInputStream in;
+  private long records;
+  private boolean finished;
+
+  /**
+   * Opens the dump in the given file.
+   *
+   * @param file the file.
+   * @throws IOException if the file could not be opened or is no dump.
+   */
+  public DumpFileReader(File file) throws IOException {
+    this(new FileInputStream(file));
+  }
+
+  /**
+   * Reads a dump from the given stream.
+   *
+   * @param stream the stream, which is closed together with the reader.
+   * @throws IOException if the stream does not contain a dump.
+   */
+  public DumpFileReader(InputStream stream) throws IOException {
+    in = new DataInputStream(new BufferedInputStream(stream, 64 * 1024));
+    try {
+      if (in.readInt() != DumpFileWriter.MAGIC) {
+        throw new IOException("Not a dump");
+      }
+      byte version = in.readByte();
+      if (version != DumpFileWriter.VERSION) {
+        throw new IOException("Unsupported dump version " + version);
+      }
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Reads the next document.
+   *
+   * @return the document or null if the end of the dump has been reached.
+   * @throws EOFException if the dump is truncated.
+   * @throws IOException if the dump could not be read.
+   */
+  public DumpRecord read() throws IOException {
+    if (finished) {
+      return null;
+    }
+    int keyLength = in.readUnsignedShort();
+    if (keyLength == 0) {
+      long expected = in.readLong();
+      if (expected != records) {
+        throw new IOException("The dump contains " + records
+          + " documents, but " + expected + " were written");
+      }
+      finished = true;
+      return null;
+    }
+    byte[] key = new byte[keyLength];
+    in.readFully(key);
+    int flags = in.readInt();
+    int expiry = in.readInt();
+    int valueLength = in.readInt();
+    if (valueLength < 0) {
+      throw new IOException("Invalid value length " + valueLength);
+    }
+    byte[] value = new byte[valueLength];
+    in.readFully(value);
+    records++;
+    return new DumpRecord(new String(key, DumpFileWriter.UTF8), flags, expiry,
+      value);
+  }
+
+  /**
+   * Returns the number of documents read so far.
+   *
+   * @return the number of documents.
+   */
+  public long getRecords() {
+    return records;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.transfer;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Writes documents to a dump in a compact, length-prefixed binary format.
+ *
+ * A dump starts with the magic number {@link #MAGIC} and the format
+ * {@link #VERSION}. Every document is written as
+ *
+ * <pre>
+ * short  key length (1 to 65535 bytes, UTF-8)
+ * byte[] key
+ * int    flags
+ * int    expiry
+ * int    value length
+ * byte[] value
+ * </pre>
+ *
+ * and the dump ends with a key length of 0 followed by the number of
+ * documents as a long, so truncated dumps are detected when reading.
+ *
+ * The writer is thread safe.
+ */
+public class DumpFileWriter implements Closeable {
+
+  /**
+   * The magic number at the start of every dump.
+   */
+  public static final int MAGIC = 0x43424450;
+
+  /**
+   * The version of the format.
+   */
+  public static final byte VERSION = 1;
+
+  static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final DataOutputStream out;
+  private long records;
+  private boolean closed;
+
+  /**
+   * Creates a new dump in the given file.
+   *
+   * @param file the file, which is replaced if it exists.
+   * @throws IOException if the file could not be created.
+   */
+  public DumpFileWriter(File file) throws IOException {
+    this(new FileOutputStream(file));
+  }
+
+  /**
+   * Writes a new dump to the given stream.
+   *
+   * @param stream the stream, which is closed together with the writer.
+   * @throws IOException if the header could not be written.
+   */
+  public DumpFileWriter(OutputStream stream) throws IOException {
+    out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+    out.writeInt(MAGIC);
+    out.writeByte(VERSION);
+  }
+
+  /**
+   * Appends a document to the dump.
+   *
+   * @param record the document.
+   * @throws IOException if the document could not be written.
+   */
+  public synchronized void write(DumpRecord record) throws IOException {
+    if (closed) {
+      throw new IOException("The dump is closed");
+    }
+    byte[] key = record.getKey().getBytes(UTF8);
+    if (key.length == 0 || key.length > 0xffff) {
+      throw new IOException("Invalid key length " + key.length);
+    }
+    out.writeShort(key.length);
+    out.write(key);
+    out.writeInt(record.getFlags());
+    out.writeInt(record.getExpiry());
+    out.writeInt(record.getValue().length);
+    out.write(record.getValue());
+    records++;
+  }
+
+  /**
+   * Returns the number of documents written so far.
+   *
+   * @return the number of documents.
+   */
+  public synchronized long getRecords() {
+    return records;
+  }
+
+  /**
+   * Completes the dump and closes the underlying stream.
+   *
+   * @throws IOException if the dump could not be completed.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      out.writeShort(0);
+      out.writeLong(records);
+      out.flush();
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Closes the underlying stream without completing the dump, so a dump
+   * which failed part way is reported as truncated when reading it.
+   *
+   * @throws IOException if the stream could not be closed.
+   */
+  public synchronized void abort() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    out.close();
+  }
+
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.transfer;
+
+import net.spy.memcached.tapmessage.ResponseMessage;
+
+/**
+ * A single document as it is written to and read from a dump.
+ *
+ * The value is kept in its stored form together with its flags, so documents
+ * are transferred without being decoded.
+ */
+public class DumpRecord {
+
+  private final String key;
+  private final int flags;
+  private final int expiry;
+  private final byte[] value;
+
+  /**
+   * Creates a new record.
+   *
+   * @param key the key of the document.
+   * @param flags the flags stored with the document.
+   * @param expiry the expiration time of the document, 0 if it does not
+   *          expire.
+   * @param value the stored value.
+   */
+  public DumpRecord(String key, int flags, int expiry, byte[] value) {
+    if (key == null || value == null) {
+      throw new IllegalArgumentException("Key and value must not be null");
+    }
+    this.key = key;
+    this.flags = flags;
+    this.expiry = expiry;
+    this.value = value;
+  }
+
+  /**
+   * Creates a record from a tap mutation message.
+   *
+   * @param message the mutation message.
+   * @return the record.
+   */
+  public static DumpRecord fromMessage(ResponseMessage message) {
+    return new DumpRecord(message.getKey(), message.getItemFlags(),
+      (int) message.getItemExpiry(), message.getValue());
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public int getFlags() {
+    return flags;
+  }
+
+  public int getExpiry() {
+    return expiry;
+  }
+
+  public byte[] getValue() {
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return "DumpRecord{key=" + key + ", flags=" + flags + ", expiry="
+      + expiry + ", length=" + value.length + "}";
+  }
+
+}
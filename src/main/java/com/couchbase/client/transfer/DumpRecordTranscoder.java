@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.transfer;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Stores the value of a {@link DumpRecord} as it is, with its original flags.
+ */
+class DumpRecordTranscoder implements Transcoder<DumpRecord> {
+
+  @Override
+  public boolean asyncDecode(CachedData d) {
+    return false;
+  }
+
+  @Override
+  public CachedData encode(DumpRecord record) {
+    return new CachedData(record.getFlags(), record.getValue(),
+      CachedData.MAX_SIZE);
+  }
+
+  @Override
+  public DumpRecord decode(CachedData d) {
+    throw new UnsupportedOperationException("Dump records are only written");
+  }
+
+  @Override
+  public int getMaxSize() {
+    return CachedData.MAX_SIZE;
+  }
+
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.transfer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the documents moved by a {@link BulkTransfer}.
+ *
+ * The counters are updated while the transfer runs, so they can be polled to
+ * report progress.
+ */
+public class TransferStats {
+
+  private final AtomicLong documents = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final long start = System.nanoTime();
+  private volatile long end;
+
+  void transferred(int length) {
+    documents.incrementAndGet();
+    bytes.addAndGet(length);
+  }
+
+  void failed() {
+    failures.incrementAndGet();
+  }
+
+  void finished() {
+    end = System.nanoTime();
+  }
+
+  /**
+   * Returns the number of documents transferred successfully.
+   *
+   * @return the number of documents.
+   */
+  public long getDocuments() {
+    return documents.get();
+  }
+
+  /**
+   * Returns the number of value bytes transferred successfully.
+   *
+   * @return the number of bytes.
+   */
+  public long getBytes() {
+    return bytes.get();
+  }
+
+  /**
+   * Returns the number of documents which could not be transferred.
+   *
+   * @return the number of failed documents.
+   */
+  public long getFailures() {
+    return failures.get();
+  }
+
+  /**
+   * Returns the time the transfer has been running, or took once finished.
+   *
+   * @param unit the unit of the result.
+   * @return the elapsed time.
+   */
+  public long getElapsed(TimeUnit unit) {
+    long stop = end == 0 ? System.nanoTime() : end;
+    return unit.convert(stop - start, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Returns the average number of documents transferred per second.
+   *
+   * @return the throughput in documents per second.
+   */
+  public double getDocumentsPerSecond() {
+    return perSecond(getDocuments());
+  }
+
+  /**
+   * Returns the average number of value bytes transferred per second.
+   *
+   * @return the throughput in bytes per second.
+   */
+  public double getBytesPerSecond() {
+    return perSecond(getBytes());
+  }
+
+  private double perSecond(long count) {
+    long nanos = Math.max(1, getElapsed(TimeUnit.NANOSECONDS));
+    return count * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("TransferStats{documents=%d, bytes=%d, failures=%d,"
+      + " elapsed=%dms, documents/s=%.1f, bytes/s=%.1f}", getDocuments(),
+      getBytes(), getFailures(), getElapsed(TimeUnit.MILLISECONDS),
+      getDocumentsPerSecond(), getBytesPerSecond());
+  }
+
+}
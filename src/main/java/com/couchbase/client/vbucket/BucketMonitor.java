@@ -26,50 +26,53 @@ import com.couchbase.client.http.HttpUtil;
 import com.couchbase.client.vbucket.config.Bucket;
 import com.couchbase.client.vbucket.config.ConfigurationParser;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.text.ParseException;
+import java.util.Iterator;
 import java.util.Observable;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import net.spy.memcached.compat.log.Logger;
 import net.spy.memcached.compat.log.LoggerFactory;
-import org.jboss.netty.bootstrap.ClientBootstrap;
-import org.jboss.netty.channel.Channel;
-import org.jboss.netty.channel.ChannelFactory;
-import org.jboss.netty.channel.ChannelFuture;
-import org.jboss.netty.channel.ChannelFutureListener;
-import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
-import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
-import org.jboss.netty.handler.codec.http.HttpHeaders;
-import org.jboss.netty.handler.codec.http.HttpMethod;
-import org.jboss.netty.handler.codec.http.HttpRequest;
-import org.jboss.netty.handler.codec.http.HttpVersion;
 
 /**
  * The BucketMonitor will open an HTTP comet stream to monitor for changes to
  * the list of nodes. If the list of nodes changes, it will notify observers.
+ *
+ * The stream is driven by a selector thread which is shared between all
+ * monitors in the JVM, so opening many buckets does not create additional
+ * threads. A monitor can be observed by more than one client, in which case
+ * all of them receive the same parsed {@link Bucket} instances.
  */
 public class BucketMonitor extends Observable {
 
+  /**
+   * Time in seconds to wait for the first configuration on the stream.
+   */
+  private static final long INITIAL_CONFIG_TIMEOUT = 30;
+
   private final URI cometStreamURI;
   private final String httpUser;
   private final String httpPass;
-  private final ChannelFactory factory;
-  private volatile Channel channel;
+  private volatile ConfigStreamConnection connection;
+  private volatile boolean shutdown;
+  private volatile boolean startFailed;
+  private volatile Bucket currentBucket;
+  private volatile String lastConfig;
   private final String host;
   private final int port;
   private ConfigurationParser configParser;
-  private BucketUpdateResponseHandler handler;
-  private final HttpMessageHeaders headers;
   private static final Logger LOGGER =
     LoggerFactory.getLogger(BucketMonitor.class.getName());
-  private ClientBootstrap bootstrap;
-  private final ConfigurationProviderHTTP provider;
+  private final Object startLock = new Object();
+  private final Object configLock = new Object();
+  private final CopyOnWriteArrayList<ConfigurationProviderHTTP> providers =
+    new CopyOnWriteArrayList<ConfigurationProviderHTTP>();
 
   /**
    * @param cometStreamURI the URI which will stream node changes
@@ -87,7 +90,6 @@ public class BucketMonitor extends Observable {
     String scheme = cometStreamURI.getScheme() == null ? "http"
         : cometStreamURI.getScheme();
     if (!scheme.equals("http")) {
-      // an SslHandler is needed in the pipeline
       throw new UnsupportedOperationException("Only http is supported.");
     }
 
@@ -97,17 +99,40 @@ public class BucketMonitor extends Observable {
     this.configParser = configParser;
     this.host = cometStreamURI.getHost();
     this.port = cometStreamURI.getPort() == -1 ? 80 : cometStreamURI.getPort();
-    factory = new NioClientSocketChannelFactory(Executors.newCachedThreadPool(),
-      Executors.newCachedThreadPool());
-    this.headers = new HttpMessageHeaders();
-      this.provider = provider;
+    if (provider != null) {
+      providers.add(provider);
+    }
+  }
+
+  /**
+   * Attach a provider which shares this monitor.
+   *
+   * Attached providers are told about every configuration received, so each
+   * of them can update its own cache.
+   *
+   * @param provider the provider to attach.
+   */
+  void attach(ConfigurationProviderHTTP provider) {
+    providers.addIfAbsent(provider);
+  }
+
+  /**
+   * Detach a provider which released this monitor.
+   *
+   * @param provider the provider to detach.
+   */
+  void detach(ConfigurationProviderHTTP provider) {
+    providers.remove(provider);
   }
 
   /**
    * Take any action required when the monitor appears to be disconnected.
    */
   protected void notifyDisconnected() {
-    Bucket bucket = provider.getBucketConfiguration(provider.getBucket());
+    Bucket bucket = getCurrentBucket();
+    if (bucket == null) {
+      return;
+    }
     bucket.setIsNotUpdating();
     LOGGER.trace("Marked bucket " + bucket.getName()
       + " as not updating.  Notifying observers.");
@@ -117,148 +142,102 @@ public class BucketMonitor extends Observable {
     notifyObservers();
   }
 
-  /**
-   * A strategy that selects and invokes the appropriate setHeader method on
-   * the netty HttpHeader class, either setHeader(String, Object) or
-   * setHeader(String, String). This indirection is needed as with netty 3.2.0
-   * setHeader(String, String) was changed to setHeader(String, Object) and
-   * spymemcached users shall be saved from incompatibilities due to an
-   * upgrade to the newer netty version. Once netty is upgraded to 3.2.0+ this
-   * may strategy can be replaced with a direct invocation of setHeader.
-   */
-  private static final class HttpMessageHeaders {
-
-    private final Method m;
-
-    private HttpMessageHeaders() {
-      this(getHttpMessageHeaderStrategy());
+  public void startMonitor() {
+    // Not synchronized on this: the initial configuration is published on
+    // the selector thread, and Observable locks this while notifying.
+    synchronized (startLock) {
+      doStartMonitor();
     }
+  }
 
-    private HttpMessageHeaders(final Method m) {
-      this.m = m;
+  private void doStartMonitor() {
+    if (connection != null) {
+      LOGGER.debug("Bucket monitor is already started.");
+      return;
     }
-
-    private static Method getHttpMessageHeaderStrategy() {
-      try {
-        return HttpRequest.class.getMethod("setHeader", String.class,
-          Object.class);
-      } catch (final SecurityException e) {
-        throw new RuntimeException(
-          "Cannot check method due to security restrictions.", e);
-      } catch (final NoSuchMethodException e) {
-        try {
-          return HttpRequest.class.getMethod("setHeader", String.class,
-            String.class);
-        } catch (final Exception e1) {
-          throw new RuntimeException(
-            "No suitable setHeader method found on netty HttpRequest, the "
-            + "signature seems to have changed.", e1);
-        }
-      }
+    if (shutdown) {
+      throw new ConnectionException("Bucket monitor has been shut down.");
     }
 
-    void setHeader(HttpRequest obj, String name, String value) {
-      try {
-        m.invoke(obj, name, value);
-      } catch (final Exception e) {
-        throw new RuntimeException("Could not invoke method " + m
-          + " with args '" + name + "' and '" + value + "'.", e);
-      }
+    startFailed = false;
+    MonitorListener listener = new MonitorListener();
+    byte[] request;
+    try {
+      request = prepareRequest(cometStreamURI, host).getBytes("UTF-8");
+    } catch (UnsupportedEncodingException ex) {
+      throw new IllegalStateException("UTF-8 is not supported.", ex);
     }
+    connection = new ConfigStreamConnection(new InetSocketAddress(host, port),
+      request, listener);
 
-  }
-
-  public void startMonitor() {
-    if (channel != null) {
-      LOGGER.info("Bucket monitor is already started.");
-      return;
+    try {
+      ConfigStreamSelector.open(connection);
+    } catch (IOException ex) {
+      connection = null;
+      startFailed = true;
+      throw new ConnectionException("Could not open a streaming connection "
+        + "to " + host + ":" + port + ": " + ex.getMessage());
     }
 
-    ChannelFuture channelFuture = createChannel();
-
-    final CountDownLatch channelLatch = new CountDownLatch(1);
-    channelFuture.addListener(new ChannelFutureListener() {
-      @Override
-      public void operationComplete(ChannelFuture cf) throws Exception {
-        if(cf.isSuccess()) {
-          channel = cf.getChannel();
-        } else {
-          LOGGER.warn("Could not start monitor channel because of: ",
-            cf.getCause());
-        }
-        channelLatch.countDown();
-      }
-    });
-
+    boolean received;
     try {
-      channelLatch.await();
+      received = listener.awaitInitialConfig();
     } catch(InterruptedException ex) {
+      ConfigStreamSelector.close(connection);
+      connection = null;
+      startFailed = true;
       throw new ConnectionException("Interrupted while waiting for streaming "
         + "connection to arrive.");
     }
 
-    if (channel == null) {
-      bootstrap.releaseExternalResources();
-      throw new ConnectionException("Could not establish a streaming connection to "
-        + host + ":" + port);
+    if (!received) {
+      LOGGER.warn("Could not start monitor channel because of: ",
+        listener.getFailure());
+      ConfigStreamSelector.close(connection);
+      connection = null;
+      startFailed = true;
+      throw new ConnectionException("Could not establish a streaming "
+        + "connection to " + host + ":" + port);
     }
-
-    this.handler = channel.getPipeline().get(BucketUpdateResponseHandler.class);
-    handler.setBucketMonitor(this);
-    HttpRequest request = prepareRequest(cometStreamURI, host);
-    channel.write(request);
-    try {
-      String response = this.handler.getLastResponse();
-      LOGGER.debug("Getting server list returns this last chunked response:\n"
-          + response);
-      Bucket bucketToMonitor = this.configParser.parseBucket(response);
-      setChanged();
-      notifyObservers(bucketToMonitor);
-    } catch (ParseException ex) {
-      LOGGER.warn("Invalid client configuration received from server. "
-        + "Staying with existing configuration.", ex);
-      LOGGER.debug("Invalid client configuration received:\n",
-        handler.getLastResponse());
-    }
-  }
-
-  protected ChannelFuture createChannel() {
-    // Configure the client.
-    bootstrap = new ClientBootstrap(factory);
-
-    // Set up the event pipeline factory.
-    bootstrap.setPipelineFactory(new BucketMonitorPipelineFactory());
-
-    // Start the connection attempt.
-    return bootstrap.connect(new InetSocketAddress(host, port));
   }
 
-  protected HttpRequest prepareRequest(URI uri, String h) {
-    // Send the HTTP request.
-    HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1,
-      HttpMethod.GET, uri.toASCIIString());
-    headers.setHeader(request, HttpHeaders.Names.HOST, h);
+  /**
+   * Build the raw HTTP request for the streaming connection.
+   *
+   * @param uri the streaming URI.
+   * @param h the host to send.
+   * @return the request including the terminating empty line.
+   */
+  protected String prepareRequest(URI uri, String h) {
+    StringBuilder request = new StringBuilder(256);
+    String path = uri.getRawPath() == null || uri.getRawPath().isEmpty()
+      ? "/" : uri.getRawPath();
+    request.append("GET ").append(path);
+    if (uri.getRawQuery() != null) {
+      request.append('?').append(uri.getRawQuery());
+    }
+    request.append(" HTTP/1.1\r\n");
+    appendHeader(request, "Host", h);
     if (getHttpUser() != null && !getHttpUser().isEmpty()) {
-      String basicAuthHeader;
       try {
-        basicAuthHeader =
-          HttpUtil.buildAuthHeader(getHttpUser(),
-            getHttpPass());
-        headers.setHeader(request, HttpHeaders.Names.AUTHORIZATION,
-          basicAuthHeader);
+        appendHeader(request, "Authorization",
+          HttpUtil.buildAuthHeader(getHttpUser(), getHttpPass()));
       } catch (UnsupportedEncodingException ex) {
         throw new RuntimeException("Could not encode specified credentials"
             + " for HTTP request.", ex);
       }
     }
-    headers.setHeader(request, HttpHeaders.Names.CONNECTION,
-      HttpHeaders.Values.CLOSE);  // No keep-alives for this
-    headers.setHeader(request, HttpHeaders.Names.CACHE_CONTROL,
-      HttpHeaders.Values.NO_CACHE);
-    headers.setHeader(request, HttpHeaders.Names.ACCEPT, "application/json");
-    headers.setHeader(request, HttpHeaders.Names.USER_AGENT,
-      "Couchbase Java Client");
-    return request;
+    appendHeader(request, "Connection", "close");  // No keep-alives for this
+    appendHeader(request, "Cache-Control", "no-cache");
+    appendHeader(request, "Accept", "application/json");
+    appendHeader(request, "User-Agent", "Couchbase Java Client");
+    request.append("\r\n");
+    return request.toString();
+  }
+
+  private static void appendHeader(StringBuilder request, String name,
+    String value) {
+    request.append(name).append(": ").append(value).append("\r\n");
   }
 
   /**
@@ -285,27 +264,55 @@ public class BucketMonitor extends Observable {
   /**
    * Shut down this monitor in a graceful way.
    *
+   * The streaming connection is closed asynchronously on the shared selector
+   * thread, so this method does not block.
+   *
    * @param timeout
    * @param unit
    */
   public void shutdown(long timeout, TimeUnit unit) {
+    shutdown = true;
     deleteObservers();
-    if (channel != null) {
-      channel.close().awaitUninterruptibly(timeout, unit);
+    ConfigStreamConnection conn = connection;
+    if (conn != null) {
+      ConfigStreamSelector.close(conn);
     }
-    factory.releaseExternalResources();
   }
 
   /**
-   * Replace the previously received configuration with the current one.
+   * Replace the previously received configuration with the given one.
+   *
+   * Payloads which are identical to the last one received are skipped
+   * without parsing them or notifying the observers. The first configuration
+   * of the stream is applied here as well, so configurations are always
+   * applied in the order they arrive.
+   *
+   * @param response the raw configuration received on the stream.
    */
-  protected void replaceConfig() {
+  protected void replaceConfig(String response) {
+    synchronized (configLock) {
+      applyConfig(response);
+    }
+  }
+
+  private void applyConfig(String response) {
+    String last = lastConfig;
+    if (last != null && last.hashCode() == response.hashCode()
+      && last.equals(response)) {
+      LOGGER.debug("Received identical configuration, ignoring it.");
+      return;
+    }
+
     try {
-      String response = handler.getLastResponse();
-      Bucket updatedBucket = this.configParser.updateBucket(
-        response,
-        provider.getBucketConfiguration(provider.getBucket())
-      );
+      Bucket current = currentBucket;
+      Bucket updatedBucket = current == null
+        ? this.configParser.parseBucket(response)
+        : this.configParser.updateBucket(response, current);
+      currentBucket = updatedBucket;
+      lastConfig = response;
+      for (ConfigurationProviderHTTP provider : providers) {
+        provider.configReceived(response, updatedBucket);
+      }
       setChanged();
       notifyObservers(updatedBucket);
     } catch (ParseException e) {
@@ -317,4 +324,82 @@ public class BucketMonitor extends Observable {
   public void setConfigParser(ConfigurationParser newConfigParser) {
     this.configParser = newConfigParser;
   }
+
+  /**
+   * Returns the most recent bucket received on the stream.
+   *
+   * Falls back to the bucket of an attached provider if nothing has been
+   * received yet.
+   *
+   * @return the current bucket or null if there is none.
+   */
+  Bucket getCurrentBucket() {
+    Bucket bucket = currentBucket;
+    Iterator<ConfigurationProviderHTTP> attached = providers.iterator();
+    if (bucket == null && attached.hasNext()) {
+      ConfigurationProviderHTTP provider = attached.next();
+      bucket = provider.getBucketConfiguration(provider.getBucket());
+    }
+    return bucket;
+  }
+
+  /**
+   * Checks if this monitor is (or is about to be) streaming configurations.
+   *
+   * @return false once it has been shut down, failed to start or lost its
+   *   streaming connection.
+   */
+  boolean isUsable() {
+    if (shutdown || startFailed) {
+      return false;
+    }
+    ConfigStreamConnection conn = connection;
+    return conn == null || !conn.isClosed();
+  }
+
+  /**
+   * Receives the events of the streaming connection.
+   */
+  private class MonitorListener implements ConfigStreamConnection.Listener {
+
+    private final CountDownLatch initialLatch = new CountDownLatch(1);
+    private volatile boolean initialReceived;
+    private volatile Throwable failure;
+
+    /**
+     * Wait until the first configuration of the stream has been applied.
+     *
+     * @return true if it has been applied, false if the stream failed or
+     *   the wait timed out.
+     */
+    boolean awaitInitialConfig() throws InterruptedException {
+      initialLatch.await(INITIAL_CONFIG_TIMEOUT, TimeUnit.SECONDS);
+      return initialReceived;
+    }
+
+    Throwable getFailure() {
+      return failure;
+    }
+
+    @Override
+    public void configReceived(String config) {
+      replaceConfig(config);
+      if (initialLatch.getCount() > 0) {
+        initialReceived = true;
+        initialLatch.countDown();
+      }
+    }
+
+    @Override
+    public void streamClosed(Throwable cause) {
+      if (initialLatch.getCount() > 0) {
+        failure = cause;
+        initialLatch.countDown();
+      } else if (!shutdown) {
+        LOGGER.debug("Streaming connection has been closed on us, "
+          + "restarting the monitor.", cause);
+        notifyDisconnected();
+      }
+    }
+  }
 }
@@ -36,7 +36,10 @@ import static org.jboss.netty.channel.Channels.pipeline;
 
 /**
  * A BucketMonitorPipelineFactory.
+ *
+ * @deprecated the {@link BucketMonitor} no longer uses netty.
  */
+@Deprecated
 public class BucketMonitorPipelineFactory implements ChannelPipelineFactory {
 
   public ChannelPipeline getPipeline() {
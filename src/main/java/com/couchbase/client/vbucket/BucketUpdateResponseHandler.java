@@ -42,7 +42,11 @@ import org.jboss.netty.util.CharsetUtil;
 
 /**
  * A BucketUpdateResponseHandler.
+ *
+ * @deprecated the {@link BucketMonitor} no longer uses netty, the streaming
+ *   response is decoded by the {@link ConfigStreamDecoder}.
  */
+@Deprecated
 public class BucketUpdateResponseHandler extends SimpleChannelUpstreamHandler {
 
   private volatile boolean readingChunks;
@@ -77,7 +81,7 @@ public class BucketUpdateResponseHandler extends SimpleChannelUpstreamHandler {
           partialResponse = null;
           getLatch().countDown();
           if (monitor != null) {
-            monitor.replaceConfig();
+            monitor.replaceConfig(lastResponse);
           }
         } else {
           finerLog(curChunk);
@@ -222,8 +226,8 @@ public class BucketUpdateResponseHandler extends SimpleChannelUpstreamHandler {
       sb.append("\n");
     }
     LOGGER.log(Level.WARNING, sb.toString());
-    if (monitor != null) {
-      monitor.replaceConfig();
+    if (monitor != null && lastResponse != null) {
+      monitor.replaceConfig(lastResponse);
     }
   }
 }
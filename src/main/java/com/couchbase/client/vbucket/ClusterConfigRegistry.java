@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.vbucket;
+
+import com.couchbase.client.vbucket.config.Bucket;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A JVM-wide, reference counted registry of streaming bucket monitors.
+ *
+ * Every {@link ConfigurationProviderHTTP} which subscribes to the same bucket
+ * on the same cluster (identified through its seed node list) with the same
+ * credentials shares one {@link BucketMonitor}, and therefore one streaming
+ * connection and the parsed {@link Bucket} objects it produces. The monitor
+ * is shut down once the last provider releases it.
+ */
+final class ClusterConfigRegistry {
+
+  private static final Map<String, Entry> ENTRIES =
+    new HashMap<String, Entry>();
+
+  private ClusterConfigRegistry() {
+    // Empty
+  }
+
+  /**
+   * Build the registry key for the given cluster, bucket and credentials.
+   *
+   * The credentials only enter the key as a SHA-256 digest, so the password
+   * is not kept in plain text in the JVM-wide registry.
+   *
+   * @param baseList the seed node list, order does not matter.
+   * @param bucket the name of the bucket.
+   * @param user the user name.
+   * @param pass the password.
+   * @return the key to use.
+   */
+  static String key(List<URI> baseList, String bucket, String user,
+    String pass) {
+    List<String> nodes = new ArrayList<String>(baseList.size());
+    for (URI uri : baseList) {
+      nodes.add(uri.toString());
+    }
+    Collections.sort(nodes);
+    StringBuilder key = new StringBuilder();
+    key.append(bucket).append('\0').append(digest(user, pass));
+    for (String node : nodes) {
+      key.append('\0').append(node);
+    }
+    return key.toString();
+  }
+
+  /**
+   * Returns the SHA-256 digest of the credentials in hex.
+   */
+  private static String digest(String user, String pass) {
+    try {
+      MessageDigest sha = MessageDigest.getInstance("SHA-256");
+      sha.update(String.valueOf(user).getBytes("UTF-8"));
+      sha.update((byte) 0);
+      sha.update(String.valueOf(pass).getBytes("UTF-8"));
+      StringBuilder hex = new StringBuilder();
+      for (byte b : sha.digest()) {
+        hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+          .append(Character.forDigit(b & 0xf, 16));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException("SHA-256 is not supported.", ex);
+    } catch (UnsupportedEncodingException ex) {
+      throw new IllegalStateException("UTF-8 is not supported.", ex);
+    }
+  }
+
+  /**
+   * Acquire a reference to a usable monitor for the given key.
+   *
+   * @param key the registry key.
+   * @return the monitor or null if none is registered or usable.
+   */
+  static synchronized BucketMonitor acquire(String key) {
+    Entry entry = ENTRIES.get(key);
+    if (entry == null || !entry.monitor.isUsable()) {
+      return null;
+    }
+    entry.references++;
+    return entry.monitor;
+  }
+
+  /**
+   * Register a new monitor for the given key.
+   *
+   * If a usable monitor has been registered in the meantime, a reference
+   * to that one is returned instead and the candidate is discarded.
+   *
+   * @param key the registry key.
+   * @param candidate the monitor to register.
+   * @return the monitor to use.
+   */
+  static synchronized BucketMonitor register(String key,
+    BucketMonitor candidate) {
+    BucketMonitor existing = acquire(key);
+    if (existing != null) {
+      return existing;
+    }
+    ENTRIES.put(key, new Entry(candidate));
+    return candidate;
+  }
+
+  /**
+   * Returns the most recent bucket of a usable monitor for the given key.
+   *
+   * The monitor is asked outside of the registry lock, because it may need
+   * to load the bucket from the cluster first.
+   *
+   * @param key the registry key.
+   * @return the shared bucket or null.
+   */
+  static Bucket getCurrentBucket(String key) {
+    BucketMonitor monitor;
+    synchronized (ClusterConfigRegistry.class) {
+      Entry entry = ENTRIES.get(key);
+      if (entry == null || !entry.monitor.isUsable()) {
+        return null;
+      }
+      monitor = entry.monitor;
+    }
+    return monitor.getCurrentBucket();
+  }
+
+  /**
+   * Release one reference to the given monitor.
+   *
+   * The monitor is shut down once no references are left, or right away
+   * if it has been replaced in the registry already.
+   *
+   * @param monitor the monitor to release.
+   */
+  static void release(BucketMonitor monitor) {
+    boolean shutdown = true;
+    synchronized (ClusterConfigRegistry.class) {
+      Iterator<Entry> it = ENTRIES.values().iterator();
+      while (it.hasNext()) {
+        Entry entry = it.next();
+        if (entry.monitor == monitor) {
+          if (--entry.references > 0) {
+            shutdown = false;
+          } else {
+            it.remove();
+          }
+          break;
+        }
+      }
+    }
+    if (shutdown) {
+      monitor.shutdown();
+    }
+  }
+
+  /**
+   * Returns the number of registered monitors.
+   */
+  static synchronized int size() {
+    return ENTRIES.size();
+  }
+
+  private static final class Entry {
+    private final BucketMonitor monitor;
+    private int references = 1;
+
+    Entry(BucketMonitor monitor) {
+      this.monitor = monitor;
+    }
+  }
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.vbucket;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.spy.memcached.compat.SpyObject;
+
+/**
+ * Keeps the last good configuration of a bucket in a local file.
+ *
+ * The file starts with a header line that carries a revision marker, which
+ * is incremented on every write, followed by the raw JSON configuration as
+ * it was received from the server. Files are written to a temporary file
+ * first and then renamed, so readers never see partial content. Updates
+ * from the configuration stream are written on a background thread.
+ *
+ * The file name is derived from the bucket name and the seed node list, so
+ * that one directory can be shared by clients of different clusters.
+ */
+class ConfigCache extends SpyObject {
+
+  private static final String HEADER = "couchbase-config-cache 1 ";
+  private static final String CHARSET = "UTF-8";
+
+  /**
+   * Writes the cache files of all clients in the JVM, one after the other.
+   */
+  private static final ExecutorService WRITER =
+    Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "Couchbase/ConfigCacheWriter");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+  private final File file;
+  private final AtomicReference<String> pending =
+    new AtomicReference<String>();
+  private long revision;
+
+  /**
+   * Create a cache for the given bucket on the given cluster.
+   *
+   * @param directory the directory to store the file in.
+   * @param baseList the seed node list, order does not matter.
+   * @param bucket the name of the bucket.
+   */
+  ConfigCache(File directory, List<URI> baseList, String bucket) {
+    List<String> nodes = new ArrayList<String>(baseList.size());
+    for (URI uri : baseList) {
+      nodes.add(uri.toString());
+    }
+    Collections.sort(nodes);
+    file = new File(directory, bucket + "-"
+      + Integer.toHexString(nodes.hashCode()) + ".json");
+  }
+
+  File getFile() {
+    return file;
+  }
+
+  /**
+   * Returns the revision of the most recently loaded or stored config.
+   *
+   * @return the revision or 0 if nothing has been loaded or stored.
+   */
+  synchronized long getRevision() {
+    return revision;
+  }
+
+  /**
+   * Read the cached configuration.
+   *
+   * @return the raw JSON or null if there is no usable cached config.
+   */
+  synchronized String load() {
+    if (!file.isFile()) {
+      return null;
+    }
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), CHARSET));
+      String header = reader.readLine();
+      if (header == null || !header.startsWith(HEADER)) {
+        getLogger().warn("Ignoring cached configuration " + file
+          + " with unknown format.");
+        return null;
+      }
+      long loadedRevision = Long.parseLong(
+        header.substring(HEADER.length()).trim());
+      StringBuilder json = new StringBuilder((int) file.length());
+      char[] buffer = new char[8192];
+      int read;
+      while ((read = reader.read(buffer)) != -1) {
+        json.append(buffer, 0, read);
+      }
+      revision = Math.max(revision, loadedRevision);
+      return json.toString();
+    } catch (NumberFormatException e) {
+      getLogger().warn("Ignoring cached configuration " + file
+        + " with invalid revision.");
+      return null;
+    } catch (IOException e) {
+      getLogger().warn("Could not read cached configuration " + file, e);
+      return null;
+    } finally {
+      close(reader);
+    }
+  }
+
+  /**
+   * Replace the cached configuration.
+   *
+   * Failures are logged and otherwise ignored, since the cache is only an
+   * optimization.
+   *
+   * @param json the raw JSON configuration.
+   * @return true if the configuration has been written.
+   */
+  synchronized boolean store(String json) {
+    File tmp = new File(file.getPath() + ".tmp");
+    Writer writer = null;
+    try {
+      File directory = file.getParentFile();
+      if (directory != null && !directory.isDirectory()
+        && !directory.mkdirs()) {
+        throw new IOException("Could not create directory " + directory);
+      }
+      long nextRevision = revision + 1;
+      writer = new OutputStreamWriter(new FileOutputStream(tmp), CHARSET);
+      writer.write(HEADER);
+      writer.write(Long.toString(nextRevision));
+      writer.write('\n');
+      writer.write(json);
+      writer.close();
+      writer = null;
+      if (!tmp.renameTo(file)) {
+        // Some platforms can not rename onto an existing file.
+        if (!file.delete() || !tmp.renameTo(file)) {
+          throw new IOException("Could not rename " + tmp + " to " + file);
+        }
+      }
+      revision = nextRevision;
+      return true;
+    } catch (IOException e) {
+      getLogger().warn("Could not write cached configuration " + file, e);
+      tmp.delete();
+      return false;
+    } finally {
+      close(writer);
+    }
+  }
+
+  /**
+   * Replace the cached configuration in the background.
+   *
+   * If more configurations arrive while a write is queued, only the latest
+   * one is written.
+   *
+   * @param json the raw JSON configuration.
+   */
+  void storeLater(String json) {
+    if (pending.getAndSet(json) == null) {
+      WRITER.execute(new Runnable() {
+        @Override
+        public void run() {
+          String latest = pending.getAndSet(null);
+          if (latest != null) {
+            store(latest);
+          }
+        }
+      });
+    }
+  }
+
+  private void close(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        getLogger().debug("Could not close " + file, e);
+      }
+    }
+  }
+}
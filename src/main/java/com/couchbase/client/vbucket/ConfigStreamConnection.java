@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.vbucket;
+
+import com.couchbase.client.internal.BufferPool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.spy.memcached.compat.SpyObject;
+
+/**
+ * A single streaming configuration connection.
+ *
+ * The connection is driven by the shared {@link ConfigStreamSelector}, it
+ * connects, writes the prepared HTTP request and then decodes the streamed
+ * configurations as they arrive. All {@link Listener} callbacks are invoked
+ * on the selector thread, so they should not block for long.
+ */
+class ConfigStreamConnection extends SpyObject
+  implements ConfigStreamDecoder.Callback {
+
+  /**
+   * Gets notified about configurations and the end of the stream.
+   */
+  interface Listener {
+
+    /**
+     * Called for every configuration received on the stream.
+     *
+     * @param config the raw configuration.
+     */
+    void configReceived(String config);
+
+    /**
+     * Called once when the stream is closed.
+     *
+     * @param cause the reason or null if closed regularly.
+     */
+    void streamClosed(Throwable cause);
+  }
+
+  private static final int READ_BUFFER_SIZE = 16384;
+
+  private final InetSocketAddress address;
+  private final ByteBuffer request;
+  private final Listener listener;
+  private final ConfigStreamDecoder decoder;
+  private final AtomicBoolean closed = new AtomicBoolean(false);
+  private ByteBuffer readBuffer;
+  private SocketChannel channel;
+  private SelectionKey key;
+  private boolean released;
+
+  ConfigStreamConnection(InetSocketAddress address, byte[] request,
+    Listener listener) {
+    this.address = address;
+    this.request = ByteBuffer.wrap(request);
+    this.listener = listener;
+    this.decoder = new ConfigStreamDecoder(this);
+  }
+
+  InetSocketAddress getAddress() {
+    return address;
+  }
+
+  boolean isClosed() {
+    return closed.get();
+  }
+
+  /**
+   * Marks the selector slot of this connection as released.
+   *
+   * Called on the selector thread.
+   *
+   * @return true only on the first call.
+   */
+  boolean release() {
+    if (released) {
+      return false;
+    }
+    released = true;
+    return true;
+  }
+
+  /**
+   * Open the channel and register it with the selector.
+   *
+   * Called on the selector thread.
+   */
+  void open(Selector selector) throws IOException {
+    channel = SocketChannel.open();
+    channel.configureBlocking(false);
+    channel.socket().setTcpNoDelay(true);
+    if (channel.connect(address)) {
+      key = channel.register(selector, SelectionKey.OP_WRITE, this);
+    } else {
+      key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+    }
+  }
+
+  /**
+   * Handle the ready operations of the given key.
+   *
+   * Called on the selector thread.
+   */
+  void handle(SelectionKey k) throws IOException {
+    if (k.isConnectable()) {
+      if (channel.finishConnect()) {
+        k.interestOps(SelectionKey.OP_WRITE);
+      }
+    } else if (k.isWritable()) {
+      channel.write(request);
+      if (!request.hasRemaining()) {
+        readBuffer = BufferPool.getDefault().acquire(READ_BUFFER_SIZE);
+        k.interestOps(SelectionKey.OP_READ);
+      }
+    } else if (k.isReadable()) {
+      int read = channel.read(readBuffer);
+      if (read < 0) {
+        closeChannel(null);
+        return;
+      }
+      readBuffer.flip();
+      decoder.decode(readBuffer);
+      readBuffer.clear();
+      if (decoder.isDone()) {
+        closeChannel(null);
+      }
+    }
+  }
+
+  @Override
+  public void configReceived(String config) {
+    if (!closed.get()) {
+      listener.configReceived(config);
+    }
+  }
+
+  /**
+   * Close the channel and notify the listener.
+   *
+   * Called on the selector thread, use {@link ConfigStreamSelector#close}
+   * from other threads.
+   *
+   * @param cause the reason or null if closed regularly.
+   */
+  void closeChannel(Throwable cause) {
+    if (!closed.compareAndSet(false, true)) {
+      return;
+    }
+    if (key != null) {
+      key.cancel();
+    }
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException ex) {
+        getLogger().debug("Error while closing streaming connection to "
+          + address, ex);
+      }
+    }
+    BufferPool.getDefault().release(readBuffer);
+    readBuffer = null;
+    listener.streamClosed(cause);
+  }
+
+  @Override
+  public String toString() {
+    return "ConfigStreamConnection{" + address + ", closed=" + closed.get()
+      + '}';
+  }
+}
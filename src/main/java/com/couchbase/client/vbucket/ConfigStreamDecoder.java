@@ -0,0 +1,270 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.vbucket;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+/**
+ * Incrementally decodes the HTTP response of a streaming configuration
+ * connection.
+ *
+ * The decoder is fed with whatever bytes arrive on the socket and takes care
+ * of the status line, the headers and (if used) the chunked transfer
+ * encoding. The resulting body is split into single configurations on the
+ * four newline delimiter the server sends between them. Every complete
+ * configuration is handed to the {@link Callback}.
+ *
+ * This class is not thread-safe, it is meant to be driven by one I/O thread.
+ */
+class ConfigStreamDecoder {
+
+  /**
+   * Gets notified for every complete configuration in the stream.
+   */
+  interface Callback {
+    void configReceived(String config);
+  }
+
+  private enum State {
+    STATUS_LINE,
+    HEADERS,
+    CHUNK_SIZE,
+    CHUNK_DATA,
+    CHUNK_DATA_END,
+    TRAILER,
+    BODY,
+    DONE
+  }
+
+  private static final byte CR = '\r';
+  private static final byte LF = '\n';
+  private static final int DELIMITER_LENGTH = 4;
+  private static final int MAX_LINE_LENGTH = 8192;
+
+  private final Callback callback;
+  private final StringBuilder line = new StringBuilder(128);
+  private State state = State.STATUS_LINE;
+  private boolean chunked;
+  private int chunkRemaining;
+  private int statusCode = -1;
+
+  private byte[] body = new byte[4096];
+  private int bodyLength;
+  private int newlines;
+
+  ConfigStreamDecoder(Callback callback) {
+    this.callback = callback;
+  }
+
+  /**
+   * Decode all readable bytes of the given buffer.
+   *
+   * @param buf the buffer to consume.
+   * @throws ConnectionException if the server does not answer with a 200.
+   */
+  void decode(ByteBuffer buf) {
+    while (buf.hasRemaining() && state != State.DONE) {
+      switch (state) {
+        case STATUS_LINE:
+          if (readLine(buf)) {
+            parseStatusLine(line.toString());
+            line.setLength(0);
+            state = State.HEADERS;
+          }
+          break;
+        case HEADERS:
+          if (readLine(buf)) {
+            String header = line.toString();
+            line.setLength(0);
+            if (header.length() == 0) {
+              state = chunked ? State.CHUNK_SIZE : State.BODY;
+            } else {
+              parseHeader(header);
+            }
+          }
+          break;
+        case CHUNK_SIZE:
+          if (readLine(buf)) {
+            chunkRemaining = parseChunkSize(line.toString());
+            line.setLength(0);
+            state = chunkRemaining == 0 ? State.TRAILER : State.CHUNK_DATA;
+          }
+          break;
+        case CHUNK_DATA:
+          int toRead = Math.min(chunkRemaining, buf.remaining());
+          appendBody(buf, toRead);
+          chunkRemaining -= toRead;
+          if (chunkRemaining == 0) {
+            state = State.CHUNK_DATA_END;
+          }
+          break;
+        case CHUNK_DATA_END:
+          if (readLine(buf)) {
+            line.setLength(0);
+            state = State.CHUNK_SIZE;
+          }
+          break;
+        case TRAILER:
+          if (readLine(buf)) {
+            boolean end = line.length() == 0;
+            line.setLength(0);
+            if (end) {
+              state = State.DONE;
+            }
+          }
+          break;
+        case BODY:
+          appendBody(buf, buf.remaining());
+          break;
+        default:
+          throw new IllegalStateException("Unknown decoder state " + state);
+      }
+    }
+  }
+
+  /**
+   * Returns the HTTP status code or -1 if it has not been received yet.
+   */
+  int getStatusCode() {
+    return statusCode;
+  }
+
+  /**
+   * Returns true if the server signalled the end of the response.
+   */
+  boolean isDone() {
+    return state == State.DONE;
+  }
+
+  private boolean readLine(ByteBuffer buf) {
+    while (buf.hasRemaining()) {
+      byte b = buf.get();
+      if (b == LF) {
+        return true;
+      } else if (b != CR) {
+        if (line.length() >= MAX_LINE_LENGTH) {
+          throw new ConnectionException("Line in streaming configuration "
+            + "response exceeds " + MAX_LINE_LENGTH + " bytes.");
+        }
+        line.append((char) (b & 0xff));
+      }
+    }
+    return false;
+  }
+
+  private void parseStatusLine(String statusLine) {
+    String[] parts = statusLine.split(" ", 3);
+    if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+      throw new ConnectionException("Invalid status line in streaming "
+        + "configuration response: " + statusLine);
+    }
+    try {
+      statusCode = Integer.parseInt(parts[1]);
+    } catch (NumberFormatException ex) {
+      throw new ConnectionException("Invalid status line in streaming "
+        + "configuration response: " + statusLine);
+    }
+    if (statusCode != 200) {
+      throw new ConnectionException("Could not retrieve configuration chunk. "
+        + "Response Code is: " + statusLine.substring(parts[0].length() + 1));
+    }
+  }
+
+  private void parseHeader(String header) {
+    int colon = header.indexOf(':');
+    if (colon < 0) {
+      return;
+    }
+    String name = header.substring(0, colon).trim();
+    String value = header.substring(colon + 1).trim();
+    if (name.equalsIgnoreCase("Transfer-Encoding")
+      && value.toLowerCase().contains("chunked")) {
+      chunked = true;
+    }
+  }
+
+  private static int parseChunkSize(String sizeLine) {
+    int ext = sizeLine.indexOf(';');
+    String size = (ext < 0 ? sizeLine : sizeLine.substring(0, ext)).trim();
+    try {
+      return Integer.parseInt(size, 16);
+    } catch (NumberFormatException ex) {
+      throw new ConnectionException("Invalid chunk size in streaming "
+        + "configuration response: " + sizeLine);
+    }
+  }
+
+  /**
+   * Appends body bytes and emits every configuration found on the way.
+   *
+   * The delimiter is tracked with a running newline counter, so every byte
+   * is only looked at once, no matter how the stream is split into reads
+   * and chunks.
+   */
+  private void appendBody(ByteBuffer buf, int length) {
+    for (int i = 0; i < length; i++) {
+      byte b = buf.get();
+      if (b == LF) {
+        if (++newlines == DELIMITER_LENGTH) {
+          emit();
+          continue;
+        }
+      } else {
+        newlines = 0;
+      }
+      if (bodyLength == body.length) {
+        byte[] grown = new byte[body.length << 1];
+        System.arraycopy(body, 0, grown, 0, bodyLength);
+        body = grown;
+      }
+      body[bodyLength++] = b;
+    }
+  }
+
+  private void emit() {
+    int end = bodyLength - (DELIMITER_LENGTH - 1);
+    int start = 0;
+    while (start < end && isWhitespace(body[start])) {
+      start++;
+    }
+    while (end > start && isWhitespace(body[end - 1])) {
+      end--;
+    }
+    bodyLength = 0;
+    newlines = 0;
+    if (end > start) {
+      try {
+        callback.configReceived(new String(body, start, end - start,
+          "UTF-8"));
+      } catch (UnsupportedEncodingException ex) {
+        throw new IllegalStateException("UTF-8 is not supported.", ex);
+      }
+    }
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == LF || b == CR || b == ' ' || b == '\t';
+  }
+}
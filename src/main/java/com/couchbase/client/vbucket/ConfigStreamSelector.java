@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.vbucket;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import net.spy.memcached.compat.SpyObject;
+
+/**
+ * A single selector thread which drives all streaming configuration
+ * connections in the JVM.
+ *
+ * Instead of allocating thread pools per monitored bucket, every
+ * {@link ConfigStreamConnection} is registered with this shared selector.
+ * The thread is started with the first connection and terminates once the
+ * last connection has been closed.
+ */
+final class ConfigStreamSelector extends SpyObject implements Runnable {
+
+  private static final String THREAD_NAME = "Couchbase/ConfigStream";
+
+  private static ConfigStreamSelector instance;
+
+  private final Selector selector;
+  private final Queue<ConfigStreamConnection> toOpen =
+    new ConcurrentLinkedQueue<ConfigStreamConnection>();
+  private final Queue<ConfigStreamConnection> toClose =
+    new ConcurrentLinkedQueue<ConfigStreamConnection>();
+  private int connections;
+
+  private ConfigStreamSelector() throws IOException {
+    selector = Selector.open();
+  }
+
+  /**
+   * Register a new connection with the shared selector.
+   *
+   * @param connection the connection to open.
+   * @throws IOException if the selector could not be opened.
+   */
+  static void open(ConfigStreamConnection connection) throws IOException {
+    ConfigStreamSelector current;
+    synchronized (ConfigStreamSelector.class) {
+      if (instance == null) {
+        instance = new ConfigStreamSelector();
+        Thread thread = new Thread(instance, THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+      }
+      current = instance;
+      current.connections++;
+      current.toOpen.add(connection);
+    }
+    current.selector.wakeup();
+  }
+
+  /**
+   * Close the given connection on the selector thread.
+   *
+   * @param connection the connection to close.
+   */
+  static void close(ConfigStreamConnection connection) {
+    ConfigStreamSelector current;
+    synchronized (ConfigStreamSelector.class) {
+      current = instance;
+    }
+    if (current == null) {
+      connection.closeChannel(null);
+      return;
+    }
+    current.toClose.add(connection);
+    current.selector.wakeup();
+  }
+
+  /**
+   * Returns true if the shared selector thread is currently running.
+   */
+  static synchronized boolean isRunning() {
+    return instance != null;
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (true) {
+        selector.select();
+        openPending();
+        handleSelected();
+        closePending();
+        if (shouldStop()) {
+          break;
+        }
+      }
+    } catch (IOException ex) {
+      getLogger().warn("Streaming configuration selector failed.", ex);
+      abort(ex);
+    } catch (ClosedSelectorException ex) {
+      getLogger().warn("Streaming configuration selector got closed.", ex);
+      abort(ex);
+    } finally {
+      try {
+        selector.close();
+      } catch (IOException ex) {
+        getLogger().debug("Could not close streaming selector.", ex);
+      }
+    }
+  }
+
+  private void openPending() {
+    ConfigStreamConnection conn;
+    while ((conn = toOpen.poll()) != null) {
+      try {
+        conn.open(selector);
+      } catch (Exception ex) {
+        closed(conn, ex);
+      }
+    }
+  }
+
+  private void handleSelected() {
+    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+    while (it.hasNext()) {
+      SelectionKey key = it.next();
+      it.remove();
+      ConfigStreamConnection conn = (ConfigStreamConnection) key.attachment();
+      if (!key.isValid()) {
+        closed(conn, null);
+        continue;
+      }
+      try {
+        conn.handle(key);
+      } catch (Exception ex) {
+        closed(conn, ex);
+        continue;
+      }
+      if (conn.isClosed()) {
+        closed(conn, null);
+      }
+    }
+  }
+
+  private void closePending() {
+    ConfigStreamConnection conn;
+    while ((conn = toClose.poll()) != null) {
+      closed(conn, null);
+    }
+  }
+
+  /**
+   * Close the connection (if not done already) and release its slot.
+   */
+  private void closed(ConfigStreamConnection conn, Throwable cause) {
+    conn.closeChannel(cause);
+    if (conn.release()) {
+      synchronized (ConfigStreamSelector.class) {
+        connections--;
+      }
+    }
+  }
+
+  private boolean shouldStop() {
+    synchronized (ConfigStreamSelector.class) {
+      if (connections <= 0 && toOpen.isEmpty()) {
+        instance = null;
+        return true;
+      }
+      return false;
+    }
+  }
+
+  private void abort(Throwable cause) {
+    synchronized (ConfigStreamSelector.class) {
+      if (instance == this) {
+        instance = null;
+      }
+    }
+    for (SelectionKey key : selector.keys()) {
+      ((ConfigStreamConnection) key.attachment()).closeChannel(cause);
+    }
+    ConfigStreamConnection conn;
+    while ((conn = toOpen.poll()) != null) {
+      conn.closeChannel(cause);
+    }
+  }
+}
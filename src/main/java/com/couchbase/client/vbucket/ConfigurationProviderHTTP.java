@@ -31,6 +31,7 @@ import com.couchbase.client.vbucket.config.ConfigurationParserJSON;
 import com.couchbase.client.vbucket.config.Pool;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -40,14 +41,25 @@ import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.text.ParseException;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import net.spy.memcached.AddrUtil;
 import net.spy.memcached.compat.SpyObject;
@@ -71,7 +83,7 @@ public class ConfigurationProviderHTTP extends SpyObject implements
   private volatile List<URI> baseList;
   private final String restUsr;
   private final String restPwd;
-  private URI loadedBaseUri;
+  private volatile URI loadedBaseUri;
 
   private final Map<String, Bucket> buckets =
     new ConcurrentHashMap<String, Bucket>();
@@ -82,6 +94,39 @@ public class ConfigurationProviderHTTP extends SpyObject implements
     new HashMap<String, BucketMonitor>();
   private volatile String reSubBucket;
   private volatile Reconfigurable reSubRec;
+  private volatile long bootstrapTime = -1;
+  private volatile File configCacheDirectory;
+  private volatile List<URI> configCacheSeeds;
+  private final Map<String, ConfigCache> configCaches =
+    new HashMap<String, ConfigCache>();
+  private volatile boolean loadedFromCache;
+
+  /**
+   * Incremented whenever the monitors are released, so that a subscription
+   * which is still being set up in the background can tell it is obsolete.
+   */
+  private int subscriptions;
+
+  /**
+   * The first and the maximum delay in milliseconds between two attempts to
+   * replace a cached configuration with the live one.
+   */
+  private static final long MIN_RECONCILE_BACKOFF = 500;
+  private static final long MAX_RECONCILE_BACKOFF =
+    TimeUnit.SECONDS.toMillis(30);
+
+  /**
+   * Runs the parallel bootstrap requests for all providers in the JVM.
+   */
+  private static final ExecutorService BOOTSTRAP_EXECUTOR =
+    Executors.newCachedThreadPool(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "Couchbase/Bootstrap");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
 
   /**
    * Constructs a configuration provider with disabled authentication for the
@@ -139,6 +184,25 @@ public class ConfigurationProviderHTTP extends SpyObject implements
     }
     Bucket bucket = this.buckets.get(bucketname);
     if (bucket == null) {
+      Bucket shared = ClusterConfigRegistry.getCurrentBucket(
+        registryKey(bucketname));
+      if (shared != null && !shared.isNotUpdating()) {
+        getLogger().debug("Using shared configuration for bucket "
+          + bucketname);
+        this.buckets.put(bucketname, shared);
+        return shared;
+      }
+
+      long bootstrapStart = System.nanoTime();
+      if (loadCachedBucket(bucketname)) {
+        bootstrapTime = TimeUnit.NANOSECONDS.toMillis(
+          System.nanoTime() - bootstrapStart);
+        getLogger().info("Loaded cached configuration for bucket "
+          + bucketname + " from " + getConfigCache(bucketname).getFile()
+          + " in " + bootstrapTime + "ms.");
+        return this.buckets.get(bucketname);
+      }
+
       boolean warmedUp = false;
       int maxBackoffRetries = 5;
       int retryCount = 1;
@@ -168,10 +232,108 @@ public class ConfigurationProviderHTTP extends SpyObject implements
           warmedUp = true;
         }
       }
+      bootstrapTime = TimeUnit.NANOSECONDS.toMillis(
+        System.nanoTime() - bootstrapStart);
+      getLogger().info("Loaded configuration for bucket " + bucketname
+        + " from " + loadedBaseUri + " in " + bootstrapTime + "ms.");
     }
     return this.buckets.get(bucketname);
   }
 
+  /**
+   * Keep the last good configuration of the bucket in the given directory.
+   *
+   * When a cached configuration is found, it is used right away instead of
+   * waiting for the cluster. Once the provider subscribes, the live
+   * configuration is loaded and streamed in the background and replaces
+   * the cached one.
+   *
+   * @param directory the directory for the cache or null to disable it.
+   */
+  public void setConfigCacheDirectory(File directory) {
+    configCacheSeeds = baseList;
+    configCacheDirectory = directory;
+  }
+
+  /**
+   * Returns the configuration cache for the given bucket.
+   *
+   * The cache file is named after the seed nodes the provider has been
+   * created with, so it can be found again by the next process.
+   *
+   * @param bucketname the name of the bucket.
+   * @return the cache or null if caching is disabled.
+   */
+  private ConfigCache getConfigCache(String bucketname) {
+    File directory = configCacheDirectory;
+    if (directory == null) {
+      return null;
+    }
+    synchronized (configCaches) {
+      ConfigCache cache = configCaches.get(bucketname);
+      if (cache == null) {
+        cache = new ConfigCache(directory, configCacheSeeds, bucketname);
+        configCaches.put(bucketname, cache);
+      }
+      return cache;
+    }
+  }
+
+  /**
+   * Try to load the bucket from the local configuration cache.
+   *
+   * @param bucketname the name of the bucket.
+   * @return true if a usable cached bucket has been loaded.
+   */
+  private boolean loadCachedBucket(String bucketname) {
+    ConfigCache cache = getConfigCache(bucketname);
+    if (cache == null) {
+      return false;
+    }
+    String json = cache.load();
+    if (json == null) {
+      return false;
+    }
+    try {
+      Bucket cached = configurationParser.parseBucket(json);
+      if (!isWarmedUp(cached) || !bucketname.equals(cached.getName())) {
+        return false;
+      }
+      this.buckets.put(bucketname, cached);
+      loadedFromCache = true;
+      return true;
+    } catch (ParseException e) {
+      getLogger().warn("Ignoring unparsable cached configuration "
+        + cache.getFile(), e);
+    } catch (RuntimeException e) {
+      getLogger().warn("Ignoring invalid cached configuration "
+        + cache.getFile(), e);
+    }
+    return false;
+  }
+
+  /**
+   * Store a configuration received from the cluster in the local cache.
+   *
+   * The file is written in the background, so this can be called from the
+   * selector thread which streams the configurations.
+   *
+   * @param json the raw configuration.
+   * @param received the parsed bucket.
+   */
+  void configReceived(String json, Bucket received) {
+    ConfigCache cache = getConfigCache(received.getName());
+    if (cache != null && isWarmedUp(received)) {
+      cache.storeLater(json);
+    }
+  }
+
+  private static boolean isWarmedUp(Bucket bucket) {
+    Config config = bucket.getConfig();
+    return config.getConfigType().equals(ConfigType.MEMCACHE)
+      || config.getVbucketsCount() > 0;
+  }
+
   /**
    * Update the configuration provider with a new bucket.
    *
@@ -188,93 +350,133 @@ public class ConfigurationProviderHTTP extends SpyObject implements
   }
 
   /**
-   * For a given bucket to be found, walk the URIs in the baselist until the
-   * bucket needed is found.
+   * For a given bucket to be found, ask all URIs in the baselist in parallel
+   * and load the bucket from the first node which answers.
    *
-   * The intent with this method is to encapsulate all of the walking of
-   * URIs and populating an internal object model of the configuration in
-   * one place.
-   *
-   * When the full baseList URIs are walked and still no connection is
-   * established, a backoff algorithm is in place to retry after a
-   * increasing timeframe.
+   * The /pools requests are raced against each other, so a dead or slow node
+   * in the list does not delay the bootstrap. Only the configuration of the
+   * requested bucket is fetched from the default pool. If a node cannot
+   * provide it, the next node to answer is tried.
    *
    * @param bucketToFind
    */
   private void readPools(String bucketToFind) {
-    for (URI baseUri : baseList) {
-      try {
-        // get and parse the response from the current base uri
-        URLConnection baseConnection = urlConnBuilder(null, baseUri);
-        String base = readToString(baseConnection);
-        if ("".equals(base)) {
-          getLogger().warn("Provided URI " + baseUri + " has an empty"
-            + " response... skipping");
-          continue;
+    List<URI> seeds = baseList;
+    CompletionService<SeedResponse> completion =
+      new ExecutorCompletionService<SeedResponse>(BOOTSTRAP_EXECUTOR);
+    List<Future<SeedResponse>> requests =
+      new ArrayList<Future<SeedResponse>>(seeds.size());
+    for (final URI baseUri : seeds) {
+      requests.add(completion.submit(new Callable<SeedResponse>() {
+        @Override
+        public SeedResponse call() throws Exception {
+          return readDefaultPool(baseUri);
         }
-        Map<String, Pool> pools = this.configurationParser.parsePools(base);
+      }));
+    }
 
-        // check for the default pool name
-        if (!pools.containsKey(DEFAULT_POOL_NAME)) {
-          getLogger().warn("Provided URI " + baseUri + " has no default pool"
-            + "... skipping");
+    try {
+      for (int i = 0; i < seeds.size(); i++) {
+        SeedResponse response;
+        try {
+          response = completion.take().get();
+        } catch (ExecutionException e) {
+          getLogger().warn("Could not load the pools ...skipping",
+            e.getCause());
           continue;
         }
-
-
-        // load pools
-        for (Pool pool : pools.values()) {
-          URLConnection poolConnection = urlConnBuilder(baseUri,
-            pool.getUri());
-          String poolString = readToString(poolConnection);
-          configurationParser.parsePool(pool, poolString);
-          URLConnection poolBucketsConnection = urlConnBuilder(baseUri,
-            pool.getBucketsUri());
-          String sBuckets = readToString(poolBucketsConnection);
-          Map<String, Bucket> bucketsForPool =
-              configurationParser.parseBuckets(sBuckets);
-          pool.replaceBuckets(bucketsForPool);
-        }
-
-        // did we find our bucket?
-        boolean bucketFound = false;
-        for (Pool pool : pools.values()) {
-          if (pool.hasBucket(bucketToFind)) {
-            bucketFound = true;
-            break;
-          }
+        if (response == null) {
+          continue;
         }
-        if (bucketFound) {
-          for (Pool pool : pools.values()) {
-            for (Map.Entry<String, Bucket> bucketEntry : pool.getROBuckets()
-                .entrySet()) {
-              this.buckets.put(bucketEntry.getKey(), bucketEntry.getValue());
-            }
-          }
-
-          if (this.buckets.get(bucketToFind) == null) {
-            getLogger().warn("Bucket found, but has no bucket "
-              + "configuration attached...skipping");
-            continue;
-          }
 
-          this.loadedBaseUri = baseUri;
+        Bucket bucket = readBucket(response, bucketToFind);
+        if (bucket != null) {
+          this.buckets.put(bucketToFind, bucket);
+          this.loadedBaseUri = response.getBaseUri();
           return;
         }
-      } catch (ParseException e) {
-        getLogger().warn("Provided URI " + baseUri
-          + " has an unparsable response...skipping", e);
-        continue;
-      } catch (IOException e) {
-        getLogger().warn("Connection problems with URI " + baseUri
-          + " ...skipping", e);
-        continue;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ConfigurationException("Interrupted while loading the "
+        + "configuration for bucket \"" + bucketToFind + "\".");
+    } finally {
+      for (Future<SeedResponse> request : requests) {
+        request.cancel(true);
       }
     }
     throw new ConfigurationException("Configuration for bucket \""
       + bucketToFind + "\" was not found in server list (" + baseList + ").");
   }
 
+  /**
+   * Load the pools from the given base URI and return the default pool.
+   *
+   * @param baseUri the URI of the pools.
+   * @return the response or null if the node has no usable default pool.
+   * @throws IOException if the node could not be reached.
+   * @throws ParseException if the response could not be parsed.
+   */
+  private SeedResponse readDefaultPool(URI baseUri) throws IOException,
+    ParseException {
+    String base = readToString(urlConnBuilder(null, baseUri));
+    if ("".equals(base)) {
+      getLogger().warn("Provided URI " + baseUri + " has an empty"
+        + " response... skipping");
+      return null;
+    }
+    Map<String, Pool> pools = this.configurationParser.parsePools(base);
+
+    // check for the default pool name
+    Pool pool = pools.get(DEFAULT_POOL_NAME);
+    if (pool == null) {
+      getLogger().warn("Provided URI " + baseUri + " has no default pool"
+        + "... skipping");
+      return null;
+    }
+    return new SeedResponse(baseUri, pool);
+  }
+
+  /**
+   * Load the configuration of a single bucket from the default pool.
+   *
+   * @param response the node which answered the pools request.
+   * @param bucketToFind the name of the bucket.
+   * @return the bucket or null if it could not be loaded from this node.
+   */
+  private Bucket readBucket(SeedResponse response, String bucketToFind) {
+    URI baseUri = response.getBaseUri();
+    try {
+      URI bucketUri = new URI(null, null, response.getPool().getUri().getPath()
+        + "/buckets/" + bucketToFind, null);
+      String bucketJson = readToString(urlConnBuilder(baseUri, bucketUri));
+      Bucket bucket = configurationParser.parseBucket(bucketJson);
+      configReceived(bucketJson, bucket);
+      return bucket;
+    } catch (URISyntaxException e) {
+      getLogger().warn("Bucket name " + bucketToFind + " can not be used in "
+        + "an URI", e);
+    } catch (ParseException e) {
+      getLogger().warn("Provided URI " + baseUri
+        + " has an unparsable response...skipping", e);
+    } catch (IOException e) {
+      getLogger().warn("Connection problems with URI " + baseUri
+        + " ...skipping", e);
+    }
+    return null;
+  }
+
+  /**
+   * Returns the time in milliseconds it took to load the initial bucket
+   * configuration over HTTP.
+   *
+   * @return the bootstrap time or -1 if no configuration has been loaded
+   *   over HTTP by this provider.
+   */
+  public long getBootstrapTime() {
+    return bootstrapTime;
+  }
+
   public List<InetSocketAddress> getServerList(final String bucketname) {
     Bucket bucket = getBucketConfiguration(bucketname);
     List<String> servers = bucket.getConfig().getServers();
@@ -286,7 +488,7 @@ public class ConfigurationProviderHTTP extends SpyObject implements
   }
 
   public synchronized void finishResubscribe() {
-    monitors.clear();
+    releaseMonitors();
     subscribe(reSubBucket, reSubRec);
   }
 
@@ -331,17 +533,143 @@ public class ConfigurationProviderHTTP extends SpyObject implements
     ReconfigurableObserver obs = new ReconfigurableObserver(rec);
     BucketMonitor monitor = this.monitors.get(bucketName);
     if (monitor == null) {
-      URI streamingURI = bucket.getStreamingURI();
-      monitor = new BucketMonitor(this.loadedBaseUri.resolve(streamingURI),
-        this.restUsr, this.restPwd, configurationParser, this);
+      String key = registryKey(bucketName);
+      monitor = ClusterConfigRegistry.acquire(key);
+      if (monitor == null && loadedFromCache && this.loadedBaseUri == null) {
+        getLogger().info("Starting from the cached configuration of bucket "
+          + bucketName + ", subscribing to updates in the background.");
+        reconcileLater(bucketName, obs);
+        return;
+      }
+      if (monitor == null) {
+        if (this.loadedBaseUri == null) {
+          readPools(bucketName);
+          bucket = this.buckets.get(bucketName);
+        }
+        URI streamingURI = bucket.getStreamingURI();
+        monitor = ClusterConfigRegistry.register(key, new BucketMonitor(
+          this.loadedBaseUri.resolve(streamingURI), this.restUsr,
+          this.restPwd, configurationParser, this));
+      }
       this.monitors.put(bucketName, monitor);
+      monitor.attach(this);
       monitor.addObserver(obs);
-      monitor.startMonitor();
+      try {
+        monitor.startMonitor();
+      } catch (RuntimeException ex) {
+        this.monitors.remove(bucketName);
+        monitor.deleteObserver(obs);
+        monitor.detach(this);
+        ClusterConfigRegistry.release(monitor);
+        throw ex;
+      }
     } else {
       monitor.addObserver(obs);
     }
   }
 
+  /**
+   * Replace the cached configuration with the live one in the background.
+   *
+   * The cluster may be unreachable or still warming up when a client starts
+   * from its cache, so the attempt is retried with an exponential backoff
+   * until it succeeds or the provider releases its monitors.
+   *
+   * @param bucketName the name of the bucket.
+   * @param obs the observer of the subscribed reconfigurable.
+   */
+  private void reconcileLater(final String bucketName,
+    final ReconfigurableObserver obs) {
+    final int subscription = subscriptions;
+    BOOTSTRAP_EXECUTOR.execute(new Runnable() {
+      @Override
+      public void run() {
+        long backoff = MIN_RECONCILE_BACKOFF;
+        while (true) {
+          try {
+            if (reconcile(bucketName, obs, subscription)) {
+              return;
+            }
+          } catch (RuntimeException ex) {
+            getLogger().warn("Could not load the live configuration for "
+              + "bucket " + bucketName + ", retrying in " + backoff + "ms.",
+              ex);
+          }
+          try {
+            Thread.sleep(backoff);
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+          backoff = Math.min(backoff * 2, MAX_RECONCILE_BACKOFF);
+        }
+      }
+    });
+  }
+
+  /**
+   * Load the live configuration and start streaming updates for a bucket
+   * which has been loaded from the cache.
+   *
+   * @param bucketName the name of the bucket.
+   * @param obs the observer of the subscribed reconfigurable.
+   * @param subscription the subscription this attempt belongs to.
+   * @return true if done, false if it needs to be retried.
+   */
+  private boolean reconcile(String bucketName, ReconfigurableObserver obs,
+    int subscription) {
+    synchronized (this) {
+      if (subscription != subscriptions) {
+        return true;
+      }
+    }
+    readPools(bucketName);
+    Bucket bucket = this.buckets.get(bucketName);
+    if (!isWarmedUp(bucket)) {
+      getLogger().info("Cluster is currently warming up, waiting for "
+        + "vBuckets of bucket " + bucketName + " to show up.");
+      return false;
+    }
+
+    BucketMonitor monitor;
+    boolean shared;
+    synchronized (this) {
+      if (subscription != subscriptions) {
+        return true;
+      }
+      String key = registryKey(bucketName);
+      monitor = ClusterConfigRegistry.acquire(key);
+      shared = monitor != null;
+      if (!shared) {
+        monitor = ClusterConfigRegistry.register(key, new BucketMonitor(
+          this.loadedBaseUri.resolve(bucket.getStreamingURI()), this.restUsr,
+          this.restPwd, configurationParser, this));
+      }
+      this.monitors.put(bucketName, monitor);
+      monitor.attach(this);
+      monitor.addObserver(obs);
+    }
+
+    try {
+      monitor.startMonitor();
+    } catch (RuntimeException ex) {
+      synchronized (this) {
+        if (this.monitors.get(bucketName) == monitor) {
+          this.monitors.remove(bucketName);
+          monitor.deleteObserver(obs);
+          monitor.detach(this);
+          ClusterConfigRegistry.release(monitor);
+        }
+      }
+      throw ex;
+    }
+    if (shared) {
+      // A running monitor only notifies about the next change.
+      obs.update(monitor, monitor.getCurrentBucket());
+    }
+    return true;
+  }
+
   /**
    * Unsubscribe from updates on a given bucket and given reconfigurable.
    *
@@ -365,12 +693,35 @@ public class ConfigurationProviderHTTP extends SpyObject implements
   }
 
   /**
-   * Shutdowns a monitor connections to the REST service.
+   * Releases the monitor connections to the REST service.
+   *
+   * Monitors are shared with other providers for the same bucket, so the
+   * streaming connection is only closed once the last one is released.
    */
-  public void shutdown() {
+  public synchronized void shutdown() {
+    releaseMonitors();
+  }
+
+  private void releaseMonitors() {
+    subscriptions++;
     for (BucketMonitor monitor : this.monitors.values()) {
-      monitor.shutdown();
+      if (reSubRec != null) {
+        monitor.deleteObserver(new ReconfigurableObserver(reSubRec));
+      }
+      monitor.detach(this);
+      ClusterConfigRegistry.release(monitor);
     }
+    this.monitors.clear();
+  }
+
+  /**
+   * Returns the key of the given bucket in the {@link ClusterConfigRegistry}.
+   *
+   * @param bucketname the name of the bucket.
+   * @return the registry key.
+   */
+  private String registryKey(String bucketname) {
+    return ClusterConfigRegistry.key(baseList, bucketname, restUsr, restPwd);
   }
 
   /**
@@ -462,6 +813,27 @@ public class ConfigurationProviderHTTP extends SpyObject implements
     return result;
   }
 
+  /**
+   * The default pool as returned by one of the nodes in the baselist.
+   */
+  private static final class SeedResponse {
+    private final URI baseUri;
+    private final Pool pool;
+
+    SeedResponse(URI baseUri, Pool pool) {
+      this.baseUri = baseUri;
+      this.pool = pool;
+    }
+
+    URI getBaseUri() {
+      return baseUri;
+    }
+
+    Pool getPool() {
+      return pool;
+    }
+  }
+
   /**
    * Override the old baseList with new values.
    *
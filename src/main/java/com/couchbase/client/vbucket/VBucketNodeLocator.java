@@ -26,10 +26,13 @@ import com.couchbase.client.vbucket.config.Config;
 import com.couchbase.client.vbucket.config.ConfigDifference;
 
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -70,7 +73,6 @@ public class VBucketNodeLocator extends SpyObject implements NodeLocator {
   public MemcachedNode getPrimary(String k) {
     TotalConfig totConfig = fullConfig.get();
     Config config = totConfig.getConfig();
-    Map<String, MemcachedNode> nodesMap = totConfig.getNodesMap();
     int vbucket = config.getVbucketByKey(k);
     int serverNumber = config.getMaster(vbucket);
 
@@ -85,8 +87,9 @@ public class VBucketNodeLocator extends SpyObject implements NodeLocator {
 
     String server = config.getServer(serverNumber);
     // choose appropriate MemcachedNode according to config data
-    MemcachedNode pNode = nodesMap.get(server);
+    MemcachedNode pNode = totConfig.getNode(server, vbucket);
     if (pNode == null) {
+      Map<String, MemcachedNode[]> nodesMap = totConfig.getNodesMap();
       getLogger().error("The node locator does not have a primary for key"
         + " %s.  Wanted vbucket %s which should be on server %s.", k,
         vbucket, server);
@@ -95,11 +98,10 @@ public class VBucketNodeLocator extends SpyObject implements NodeLocator {
       Iterator<String> iterator = keySet.iterator();
       while (iterator.hasNext()) {
         String anode = iterator.next();
-        getLogger().error("MemcachedNode for %s is %s", anode,
-          nodesMap.get(anode));
+        getLogger().error("MemcachedNodes for %s are %s", anode,
+          Arrays.toString(nodesMap.get(anode)));
       }
-      Collection<MemcachedNode> nodes = nodesMap.values();
-      for (MemcachedNode node : nodes) {
+      for (MemcachedNode node : totConfig.getAllNodes()) {
         getLogger().error(node);
       }
     }
@@ -123,7 +125,6 @@ public class VBucketNodeLocator extends SpyObject implements NodeLocator {
   public MemcachedNode getReplica(String key, int index) {
     TotalConfig totConfig = fullConfig.get();
     Config config = totConfig.getConfig();
-    Map<String, MemcachedNode> nodesMap = totConfig.getNodesMap();
     int vbucket = config.getVbucketByKey(key);
     int serverNumber = config.getReplica(vbucket, index);
 
@@ -137,18 +138,61 @@ public class VBucketNodeLocator extends SpyObject implements NodeLocator {
     }
 
     String server = config.getServer(serverNumber);
-    MemcachedNode pNode = nodesMap.get(server);
-    return pNode;
+    return totConfig.getNode(server, vbucket);
   }
 
+  /**
+   * Returns the node for the server at the given index of the server list.
+   *
+   * If more than one connection per server is used, the first one is
+   * returned.
+   *
+   * @param k the index of the server.
+   * @return the node or null if there is none for this server.
+   */
   public MemcachedNode getServerByIndex(int k) {
     TotalConfig totConfig = fullConfig.get();
     Config config = totConfig.getConfig();
-    Map<String, MemcachedNode> nodesMap = totConfig.getNodesMap();
 
     String server = config.getServer(k);
     // choose appropriate MemcachedNode according to config data
-    return nodesMap.get(server);
+    return totConfig.getNode(server, 0);
+  }
+
+  /**
+   * Returns the vbuckets for which the given node is the master.
+   *
+   * If more than one connection per server is used, only the vbuckets
+   * served through this connection are returned.
+   *
+   * @param node the node.
+   * @return the vbucket indexes, in ascending order.
+   */
+  public short[] getMasterVBuckets(MemcachedNode node) {
+    TotalConfig totConfig = fullConfig.get();
+    Config config = totConfig.getConfig();
+    short[] vbuckets = new short[config.getVbucketsCount()];
+    int count = 0;
+    for (int i = 0; i < vbuckets.length; i++) {
+      int master = config.getMaster(i);
+      if (master >= 0
+        && totConfig.getNode(config.getServer(master), i) == node) {
+        vbuckets[count++] = (short) i;
+      }
+    }
+    return Arrays.copyOf(vbuckets, count);
+  }
+
+  /**
+   * Returns the number of servers which have at least one node.
+   *
+   * This is different from the size of {@link #getAll()} if more than one
+   * connection per server is used.
+   *
+   * @return the number of servers.
+   */
+  public int getServerCount() {
+    return fullConfig.get().getNodesMap().size();
   }
   /**
    * {@inheritDoc}
@@ -163,8 +207,7 @@ public class VBucketNodeLocator extends SpyObject implements NodeLocator {
    */
   @Override
   public Collection<MemcachedNode> getAll() {
-    Map<String, MemcachedNode> nodesMap = fullConfig.get().getNodesMap();
-    return nodesMap.values();
+    return fullConfig.get().getAllNodes();
   }
 
   /**
@@ -186,7 +229,7 @@ public class VBucketNodeLocator extends SpyObject implements NodeLocator {
 
     ConfigDifference compareTo = current.compareTo(newconf);
 
-    if (compareTo.isSequenceChanged() || compareTo.getVbucketsChanges() > 0
+    if (compareTo.hasChanges()
       || current.getCouchServers().size() != newconf.getCouchServers().size()) {
       getLogger().debug("Updating configuration, received updated configuration"
         + " with significant changes.");
@@ -198,6 +241,50 @@ public class VBucketNodeLocator extends SpyObject implements NodeLocator {
     }
   }
 
+  /**
+   * Replace the nodes while keeping the current configuration.
+   *
+   * @param nodes the nodes of all servers in the current configuration.
+   */
+  public void updateNodes(final Collection<MemcachedNode> nodes) {
+    Config current = fullConfig.get().getConfig();
+    fullConfig.set(new TotalConfig(current, fillNodesEntries(current, nodes)));
+  }
+
+  /**
+   * Apply a new configuration if only its vbucket map changed.
+   *
+   * If the list of servers is the same as in the current configuration, the
+   * already resolved nodes are kept and only the vbucket map is swapped, so
+   * no addresses need to be resolved and compared. Otherwise nothing is
+   * changed and the caller needs to go through
+   * {@link #updateLocator(Collection, Config)} with the new list of nodes.
+   *
+   * @param newconf the new configuration.
+   * @return true if the configuration has been applied (or was identical).
+   */
+  public boolean updateVBucketMap(final Config newconf) {
+    TotalConfig current = fullConfig.get();
+    ConfigDifference difference = current.getConfig().compareTo(newconf);
+    if (difference.isSequenceChanged()
+      || difference.getChangedVbuckets() == null
+      || current.getNodesMap().size() != newconf.getServersCount()) {
+      return false;
+    }
+
+    int[] changed = difference.getChangedVbuckets();
+    if (changed.length > 0 || current.getConfig().getCouchServers().size()
+      != newconf.getCouchServers().size()) {
+      getLogger().debug("Applying updated configuration with %d changed "
+        + "vbuckets.", changed.length);
+      fullConfig.set(new TotalConfig(newconf, current.getNodesMap()));
+    } else {
+      getLogger().debug("Received updated configuration with insignificant "
+        + "changes.");
+    }
+    return true;
+  }
+
   /**
    * Returns a vbucket index for the given key.
    *
@@ -209,13 +296,20 @@ public class VBucketNodeLocator extends SpyObject implements NodeLocator {
     return config.getVbucketByKey(key);
   }
 
-  private Map<String, MemcachedNode> fillNodesEntries(
+  /**
+   * Map every server of the configuration to its nodes.
+   *
+   * If more than one connection per server is used, the nodes for one server
+   * are kept in the order of the given collection, so that a vbucket always
+   * maps to the same connection.
+   */
+  private Map<String, MemcachedNode[]> fillNodesEntries(
       Config newConfig, final Collection<MemcachedNode> nodes) {
-    HashMap<String, MemcachedNode> vbnodesMap =
-        new HashMap<String, MemcachedNode>();
+    HashMap<String, List<MemcachedNode>> vbnodesMap =
+        new HashMap<String, List<MemcachedNode>>();
     getLogger().debug("Updating nodesMap in VBucketNodeLocator.");
     for (String server : newConfig.getServers()) {
-      vbnodesMap.put(server, null);
+      vbnodesMap.put(server, new ArrayList<MemcachedNode>(1));
     }
 
     for (MemcachedNode node : nodes) {
@@ -225,51 +319,62 @@ public class VBucketNodeLocator extends SpyObject implements NodeLocator {
         + addr.getPort();
 
       if (vbnodesMap.containsKey(address)) {
-        vbnodesMap.put(address, node);
+        vbnodesMap.get(address).add(node);
         getLogger().debug("Adding node with address %s.",
           address);
         getLogger().debug("Node added is %s.", node);
       } else if (vbnodesMap.containsKey(hostname)) {
-        vbnodesMap.put(hostname, node);
+        vbnodesMap.get(hostname).add(node);
         getLogger().debug("Adding node with hostname %s.",
           hostname);
         getLogger().debug("Node added is %s.", node);
       }
     }
     // Iterate over the map and check for entries not populated
-    for (Map.Entry<String, MemcachedNode> entry : vbnodesMap.entrySet()) {
-      if (entry.getValue() == null) {
+    HashMap<String, MemcachedNode[]> nodePools =
+        new HashMap<String, MemcachedNode[]>();
+    for (Map.Entry<String, List<MemcachedNode>> entry
+      : vbnodesMap.entrySet()) {
+      if (entry.getValue().isEmpty()) {
         getLogger().error("Critical reconfiguration error: "
             + "Server list from Configuration and Nodes "
             + "are out of synch. causing %s to be removed",
                 entry.getKey());
-        vbnodesMap.remove(entry.getKey());
+      } else {
+        nodePools.put(entry.getKey(),
+          entry.getValue().toArray(new MemcachedNode[0]));
       }
     }
-    return Collections.unmodifiableMap(vbnodesMap);
+    return nodePools;
   }
 
   /**
    * Method returns the node that is not contained in the specified collection
    * of the failed nodes.
    *
+   * All connections to a server which rejected the key are excluded, not
+   * only the one that answered. From the connections of the chosen server
+   * the one serving the vbucket of the key is returned, so the order of
+   * operations on one key is kept on retries.
+   *
    * @param k the key
    * @param notMyVbucketNodes a collection of the nodes are excluded
    * @return The first MemcachedNode which meets requirements
    */
   public MemcachedNode getAlternative(String k,
       Collection<MemcachedNode> notMyVbucketNodes) {
-    // it's safe to only copy the map here, only removing references found to be
-    // incorrect, and trying remaining
-    Map<String, MemcachedNode> nodesMap =
-        new HashMap<String, MemcachedNode>(fullConfig.get().getNodesMap());
-    Collection<MemcachedNode> nodes = nodesMap.values();
-    nodes.removeAll(notMyVbucketNodes);
-    if (nodes.isEmpty()) {
-      return null;
-    } else {
-      return nodes.iterator().next();
+    TotalConfig totConfig = fullConfig.get();
+    Set<SocketAddress> rejected = new HashSet<SocketAddress>();
+    for (MemcachedNode node : notMyVbucketNodes) {
+      rejected.add(node.getSocketAddress());
+    }
+    int vbucket = totConfig.getConfig().getVbucketByKey(k);
+    for (MemcachedNode[] pool : totConfig.getNodesMap().values()) {
+      if (!rejected.contains(pool[0].getSocketAddress())) {
+        return pool[vbucket % pool.length];
+      }
     }
+    return null;
   }
 
   /**
@@ -312,20 +417,44 @@ public class VBucketNodeLocator extends SpyObject implements NodeLocator {
 
   private static class TotalConfig {
     private final Config config;
-    private final Map<String, MemcachedNode> nodesMap;
+    private final Map<String, MemcachedNode[]> nodesMap;
+    private final Collection<MemcachedNode> allNodes;
 
-    public TotalConfig(Config newConfig, Map<String, MemcachedNode> newMap) {
+    public TotalConfig(Config newConfig, Map<String, MemcachedNode[]> newMap) {
       config = newConfig;
       nodesMap = Collections.unmodifiableMap(newMap);
+      List<MemcachedNode> nodes = new ArrayList<MemcachedNode>();
+      for (MemcachedNode[] pool : newMap.values()) {
+        nodes.addAll(Arrays.asList(pool));
+      }
+      allNodes = Collections.unmodifiableList(nodes);
     }
 
     protected Config getConfig() {
       return config;
     }
 
-    protected Map<String, MemcachedNode> getNodesMap() {
+    protected Map<String, MemcachedNode[]> getNodesMap() {
       return nodesMap;
     }
+
+    protected Collection<MemcachedNode> getAllNodes() {
+      return allNodes;
+    }
+
+    /**
+     * Returns the node of the given server which serves the given vbucket.
+     *
+     * Spreading by vbucket keeps all operations on one key on the same
+     * connection, so their order is preserved.
+     */
+    protected MemcachedNode getNode(String server, int vbucket) {
+      MemcachedNode[] pool = nodesMap.get(server);
+      if (pool == null) {
+        return null;
+      }
+      return pool.length == 1 ? pool[0] : pool[vbucket % pool.length];
+    }
   }
 
   private static class NullIterator<E> implements Iterator<MemcachedNode> {
@@ -0,0 +1,426 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.vbucket.config;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import net.spy.memcached.HashAlgorithm;
+import net.spy.memcached.HashAlgorithmRegistry;
+import net.spy.memcached.compat.SpyObject;
+
+/**
+ * Reads a bucket configuration in a single pass over the raw JSON.
+ *
+ * Only the members needed to build a {@link Bucket} and its {@link Config}
+ * are kept, everything else (like the node statistics) is skipped without
+ * materializing it. The vBucket map is decoded straight into a primitive
+ * array; {@link VBucket} instances are only created for entries which
+ * differ from the previous configuration.
+ */
+final class BucketConfigReader extends SpyObject {
+
+  private static final int ROW_WIDTH = VBucket.MAX_REPLICAS + 1;
+
+  private String name;
+  private String streamingUri;
+  private boolean hasNodes;
+  private final List<NodeEntry> nodes = new ArrayList<NodeEntry>();
+
+  private boolean hasServerMap;
+  private String hashAlgorithm;
+  private int replicasCount = -1;
+  private List<String> servers;
+  private short[] vbucketMap;
+  private int vbucketsCount = -1;
+
+  private BucketConfigReader() {
+  }
+
+  /**
+   * Read a single bucket configuration.
+   *
+   * @param json the raw JSON object.
+   * @return the reader holding the decoded values.
+   * @throws ParseException if the JSON is malformed.
+   */
+  static BucketConfigReader read(String json) throws ParseException {
+    JSONPullParser parser = new JSONPullParser(json);
+    BucketConfigReader reader = readBucket(parser);
+    parser.endDocument();
+    return reader;
+  }
+
+  /**
+   * Read a JSON array of bucket configurations.
+   *
+   * @param json the raw JSON array.
+   * @return one reader per bucket.
+   * @throws ParseException if the JSON is malformed.
+   */
+  static List<BucketConfigReader> readAll(String json) throws ParseException {
+    JSONPullParser parser = new JSONPullParser(json);
+    List<BucketConfigReader> readers = new ArrayList<BucketConfigReader>();
+    parser.beginArray();
+    while (parser.hasNext()) {
+      readers.add(readBucket(parser));
+    }
+    parser.endArray();
+    parser.endDocument();
+    return readers;
+  }
+
+  private static BucketConfigReader readBucket(JSONPullParser parser)
+    throws ParseException {
+    BucketConfigReader reader = new BucketConfigReader();
+    parser.beginObject();
+    while (parser.hasNext()) {
+      String member = parser.nextName();
+      if ("name".equals(member)) {
+        reader.name = parser.nextString();
+      } else if ("streamingUri".equals(member)) {
+        reader.streamingUri = parser.nextString();
+      } else if ("nodes".equals(member)) {
+        reader.readNodes(parser);
+      } else if ("vBucketServerMap".equals(member)) {
+        reader.readServerMap(parser);
+      } else {
+        parser.skipValue();
+      }
+    }
+    parser.endObject();
+    return reader;
+  }
+
+  private void readNodes(JSONPullParser parser) throws ParseException {
+    hasNodes = true;
+    parser.beginArray();
+    while (parser.hasNext()) {
+      NodeEntry node = new NodeEntry();
+      parser.beginObject();
+      while (parser.hasNext()) {
+        String member = parser.nextName();
+        if ("hostname".equals(member)) {
+          node.hostname = parser.nextString();
+        } else if ("status".equals(member)) {
+          node.status = parser.nextString();
+        } else if ("couchApiBase".equals(member)) {
+          node.couchApiBase = parser.nextString();
+        } else if ("ports".equals(member)) {
+          node.ports = readPorts(parser);
+        } else {
+          parser.skipValue();
+        }
+      }
+      parser.endObject();
+      nodes.add(node);
+    }
+    parser.endArray();
+  }
+
+  private static Map<Port, String> readPorts(JSONPullParser parser)
+    throws ParseException {
+    Map<Port, String> ports = new EnumMap<Port, String>(Port.class);
+    parser.beginObject();
+    while (parser.hasNext()) {
+      String member = parser.nextName();
+      Port port = null;
+      for (Port candidate : Port.values()) {
+        if (candidate.name().equals(member)) {
+          port = candidate;
+          break;
+        }
+      }
+      if (port == null) {
+        parser.skipValue();
+      } else {
+        ports.put(port, parser.nextString());
+      }
+    }
+    parser.endObject();
+    return ports;
+  }
+
+  private void readServerMap(JSONPullParser parser) throws ParseException {
+    hasServerMap = true;
+    parser.beginObject();
+    while (parser.hasNext()) {
+      String member = parser.nextName();
+      if ("hashAlgorithm".equals(member)) {
+        hashAlgorithm = parser.nextString();
+      } else if ("numReplicas".equals(member)) {
+        replicasCount = parser.nextInt();
+      } else if ("serverList".equals(member)) {
+        servers = new ArrayList<String>();
+        parser.beginArray();
+        while (parser.hasNext()) {
+          servers.add(parser.nextString());
+        }
+        parser.endArray();
+      } else if ("vBucketMap".equals(member)) {
+        readVBucketMap(parser);
+      } else {
+        parser.skipValue();
+      }
+    }
+    parser.endObject();
+  }
+
+  /**
+   * Decodes the vBucket map into rows of master and replica indexes,
+   * padding missing replicas with {@link VBucket#REPLICA_NOT_USED}.
+   */
+  private void readVBucketMap(JSONPullParser parser) throws ParseException {
+    short[] map = new short[1024 * ROW_WIDTH];
+    int count = 0;
+    parser.beginArray();
+    while (parser.hasNext()) {
+      if ((count + 1) * ROW_WIDTH > map.length) {
+        map = Arrays.copyOf(map, map.length * 2);
+      }
+      int offset = count * ROW_WIDTH;
+      int column = 0;
+      parser.beginArray();
+      while (parser.hasNext()) {
+        if (column == ROW_WIDTH) {
+          throw new ConfigParsingException("Not more than "
+            + VBucket.MAX_REPLICAS + " replicas supported");
+        }
+        map[offset + column++] = (short) parser.nextInt();
+      }
+      parser.endArray();
+      if (column == 0) {
+        throw new ParseException("Empty row in vBucketMap at index " + count,
+          0);
+      }
+      for (; column < ROW_WIDTH; column++) {
+        map[offset + column] = VBucket.REPLICA_NOT_USED;
+      }
+      count++;
+    }
+    parser.endArray();
+    vbucketMap = map;
+    vbucketsCount = count;
+  }
+
+  /**
+   * Build the {@link Bucket} out of the values read.
+   *
+   * @param oldConfig an optional old config where vBuckets can be reused.
+   * @return the bucket.
+   * @throws ParseException if required members are missing or invalid.
+   */
+  Bucket toBucket(Config oldConfig) throws ParseException {
+    if (name == null) {
+      throw new ParseException("Bucket name is missing.", 0);
+    }
+    if (streamingUri == null) {
+      throw new ParseException("Bucket streamingUri is missing.", 0);
+    }
+    URI parsedStreamingUri;
+    try {
+      parsedStreamingUri = new URI(streamingUri);
+    } catch (URISyntaxException e) {
+      throw new ParseException(e.getMessage(), 0);
+    }
+    Config config = toConfig(oldConfig);
+
+    List<Node> bucketNodes = new ArrayList<Node>(nodes.size());
+    for (NodeEntry entry : nodes) {
+      if (entry.status == null || entry.hostname == null
+        || entry.ports == null) {
+        throw new ParseException("Node is missing its status, hostname or "
+          + "ports.", 0);
+      }
+      for (Port port : Port.values()) {
+        if (!entry.ports.containsKey(port)) {
+          throw new ParseException("Node " + entry.hostname + " is missing "
+            + "the " + port + " port.", 0);
+        }
+      }
+      bucketNodes.add(new Node(parseNodeStatus(entry.status), entry.hostname,
+        entry.ports));
+    }
+    return new Bucket(name, config, parsedStreamingUri, bucketNodes);
+  }
+
+  /**
+   * Build the {@link Config} out of the values read.
+   *
+   * @param oldConfig an optional old config where vBuckets can be reused.
+   * @return the config.
+   * @throws ConfigParsingException if the configuration is not valid.
+   */
+  Config toConfig(Config oldConfig) {
+    if (!hasNodes) {
+      throw new ConfigParsingException("The nodes list is missing.");
+    }
+    return hasServerMap ? toCouchbaseConfig(oldConfig) : toMemcacheConfig();
+  }
+
+  private Config toMemcacheConfig() {
+    int amountOfNodes = nodes.size();
+    if (amountOfNodes <= 0) {
+      throw new ConfigParsingException("Empty nodes list.");
+    }
+
+    CacheConfig config = new CacheConfig(amountOfNodes, restEndpoints());
+    List<String> serverNames = new ArrayList<String>(amountOfNodes);
+    for (NodeEntry node : nodes) {
+      String direct = node.ports == null ? null : node.ports.get(Port.direct);
+      if (node.hostname == null || direct == null) {
+        throw new ConfigParsingException("Node is missing its hostname or "
+          + "direct port.");
+      }
+      serverNames.add(node.hostname.split(":")[0] + ":" + direct);
+    }
+    config.setServers(serverNames);
+    return config;
+  }
+
+  private Config toCouchbaseConfig(Config oldConfig) {
+    if (hashAlgorithm == null) {
+      throw new ConfigParsingException("The hashAlgorithm is missing.");
+    }
+    HashAlgorithm algorithm =
+      HashAlgorithmRegistry.lookupHashAlgorithm(hashAlgorithm);
+    if (algorithm == null) {
+      throw new IllegalArgumentException("Unhandled hash algorithm type: "
+          + hashAlgorithm);
+    }
+
+    if (replicasCount < 0) {
+      throw new ConfigParsingException("The numReplicas is missing.");
+    }
+    if (replicasCount > VBucket.MAX_REPLICAS) {
+      throw new ConfigParsingException("Expected number <= "
+          + VBucket.MAX_REPLICAS + " for replicas.");
+    }
+
+    if (servers == null || servers.isEmpty()) {
+      throw new ConfigParsingException("Empty servers list.");
+    }
+    if (nodes.isEmpty()) {
+      throw new ConfigParsingException("Empty view servers list.");
+    }
+    if (vbucketsCount <= 0 || (vbucketsCount & (vbucketsCount - 1)) != 0) {
+      throw new ConfigParsingException("Number of vBuckets must be a power of "
+        + "two, > 0 and <= " + VBucket.MAX_BUCKETS + " (got "
+        + Math.max(vbucketsCount, 0) + ")");
+    }
+
+    List<URL> viewServers = new ArrayList<URL>(nodes.size());
+    for (NodeEntry node : nodes) {
+      if (node.couchApiBase != null) {
+        try {
+          viewServers.add(new URL(node.couchApiBase));
+        } catch (MalformedURLException e) {
+          throw new ConfigParsingException("Got bad couchApiBase URL from "
+            + "config", e);
+        }
+      }
+    }
+
+    return new DefaultConfig(algorithm, servers.size(), replicasCount,
+      vbucketsCount, servers, buildVBuckets(oldConfig), viewServers,
+      restEndpoints());
+  }
+
+  private List<String> restEndpoints() {
+    List<String> endpoints = new ArrayList<String>(nodes.size());
+    for (NodeEntry node : nodes) {
+      if (node.hostname != null) {
+        endpoints.add("http://" + node.hostname + "/pools");
+      }
+    }
+    return endpoints;
+  }
+
+  /**
+   * Create the list of {@link VBucket}s, reusing the instances of the old
+   * config where master and replicas did not change.
+   */
+  private List<VBucket> buildVBuckets(Config oldConfig) {
+    List<VBucket> oldVBuckets = null;
+    if (oldConfig != null && oldConfig.getConfigType() == ConfigType.COUCHBASE
+      && oldConfig.getVbuckets() != null
+      && oldConfig.getVbuckets().size() == vbucketsCount) {
+      oldVBuckets = oldConfig.getVbuckets();
+    }
+
+    List<VBucket> vbuckets = new ArrayList<VBucket>(vbucketsCount);
+    for (int i = 0; i < vbucketsCount; i++) {
+      int offset = i * ROW_WIDTH;
+      short master = vbucketMap[offset];
+      short replica1 = vbucketMap[offset + 1];
+      short replica2 = vbucketMap[offset + 2];
+      short replica3 = vbucketMap[offset + 3];
+      if (oldVBuckets != null) {
+        VBucket old = oldVBuckets.get(i);
+        if (old.getMaster() == master && old.getReplica(0) == replica1
+          && old.getReplica(1) == replica2 && old.getReplica(2) == replica3) {
+          vbuckets.add(old);
+          continue;
+        }
+      }
+      vbuckets.add(new VBucket(master, replica1, replica2, replica3));
+    }
+    return vbuckets;
+  }
+
+  private Status parseNodeStatus(String status) {
+    if (status.isEmpty()) {
+      return null;
+    }
+
+    try {
+      return Status.valueOf(status);
+    } catch (IllegalArgumentException e) {
+      getLogger().error("Unknown status value: " + status);
+      return null;
+    }
+  }
+
+  String getName() {
+    return name;
+  }
+
+  /**
+   * The members of a node entry which are needed.
+   */
+  private static final class NodeEntry {
+    private String hostname;
+    private String status;
+    private String couchApiBase;
+    private Map<Port, String> ports;
+  }
+}
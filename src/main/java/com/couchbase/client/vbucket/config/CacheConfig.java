@@ -116,18 +116,7 @@ public class CacheConfig implements Config {
     ConfigDifference difference = new ConfigDifference();
 
     // Verify the servers are equal in their positions
-    if (this.serversCount == config.getServersCount()) {
-      difference.setSequenceChanged(false);
-      for (int i = 0; i < this.serversCount; i++) {
-        if (!this.getServer(i).equals(config.getServer(i))) {
-          difference.setSequenceChanged(true);
-          break;
-        }
-      }
-    } else {
-      // Just say yes
-      difference.setSequenceChanged(true);
-    }
+    difference.compareServers(getServers(), config.getServers());
 
     // Count the number of vbucket differences
     if (this.vbucketsCount == config.getVbucketsCount()) {
@@ -22,10 +22,17 @@
 
 package com.couchbase.client.vbucket.config;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * A ConfigDifference.
+ *
+ * Describes the delta between two configurations: which servers were added
+ * or removed and which vbuckets were moved, so that only the changed parts
+ * need to be applied.
  */
 public class ConfigDifference {
 
@@ -44,6 +51,12 @@ public class ConfigDifference {
    */
   private int vbucketsChanges;
 
+  /**
+   * Indexes of the vbuckets where the master or a replica changed, null if
+   * the total number changed.
+   */
+  private int[] changedVbuckets;
+
   /**
    * True if the sequence of servers changed.
    */
@@ -73,6 +86,14 @@ public class ConfigDifference {
     this.vbucketsChanges = newVbucketsChanges;
   }
 
+  public int[] getChangedVbuckets() {
+    return changedVbuckets;
+  }
+
+  protected void setChangedVbuckets(int[] newChangedVbuckets) {
+    this.changedVbuckets = newChangedVbuckets;
+  }
+
   public boolean isSequenceChanged() {
     return sequenceChanged;
   }
@@ -80,4 +101,47 @@ public class ConfigDifference {
   protected void setSequenceChanged(boolean newSequenceChanged) {
     this.sequenceChanged = newSequenceChanged;
   }
+
+  /**
+   * Checks if the difference contains any changes to the servers or the
+   * vbucket map.
+   *
+   * @return true if anything needs to be applied.
+   */
+  public boolean hasChanges() {
+    return sequenceChanged || changedVbuckets == null
+      || changedVbuckets.length > 0;
+  }
+
+  /**
+   * Compares the two server lists and records the sequence change as well
+   * as the added and removed servers.
+   *
+   * @param current the current list of servers.
+   * @param updated the updated list of servers.
+   */
+  protected void compareServers(List<String> current, List<String> updated) {
+    if (current.equals(updated)) {
+      sequenceChanged = false;
+      serversAdded = new ArrayList<String>(0);
+      serversRemoved = new ArrayList<String>(0);
+      return;
+    }
+
+    sequenceChanged = true;
+    Set<String> currentSet = new HashSet<String>(current);
+    Set<String> updatedSet = new HashSet<String>(updated);
+    serversAdded = new ArrayList<String>();
+    for (String server : updated) {
+      if (!currentSet.contains(server)) {
+        serversAdded.add(server);
+      }
+    }
+    serversRemoved = new ArrayList<String>();
+    for (String server : current) {
+      if (!updatedSet.contains(server)) {
+        serversRemoved.add(server);
+      }
+    }
+  }
 }
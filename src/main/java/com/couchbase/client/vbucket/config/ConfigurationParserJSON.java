@@ -26,9 +26,7 @@ import com.couchbase.client.vbucket.ConnectionException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.ParseException;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import net.spy.memcached.compat.SpyObject;
@@ -40,12 +38,14 @@ import org.codehaus.jettison.json.JSONObject;
 /**
  * This {@link ConfigurationParser} takes JSON-based configuration information
  * and transforms it into a {@link Bucket}.
+ *
+ * Bucket configurations are read in a single pass through the
+ * {@link BucketConfigReader}, since they are large and arrive frequently
+ * during rebalances.
  */
 public class ConfigurationParserJSON extends SpyObject
   implements ConfigurationParser {
 
-  private final ConfigFactory configFactory = new DefaultConfigFactory();
-
   /**
    * Parses the /pools URI and returns a map of found pools.
    *
@@ -119,20 +119,12 @@ public class ConfigurationParserJSON extends SpyObject
    */
   public Map<String, Bucket> parseBuckets(final String bucketsJson)
     throws ParseException {
-    try {
-      Map<String, Bucket> bucketsMap = new HashMap<String, Bucket>();
-      JSONArray allBuckets = new JSONArray(bucketsJson);
-
-      for (int i = 0; i < allBuckets.length(); i++) {
-        JSONObject currentBucket = allBuckets.getJSONObject(i);
-        Bucket bucket = parseBucketFromJSON(currentBucket, null);
-        bucketsMap.put(bucket.getName(), bucket);
-      }
-
-      return bucketsMap;
-    } catch (JSONException e) {
-      throw new ParseException(e.getMessage(), 0);
+    Map<String, Bucket> bucketsMap = new HashMap<String, Bucket>();
+    for (BucketConfigReader reader : BucketConfigReader.readAll(bucketsJson)) {
+      Bucket bucket = reader.toBucket(null);
+      bucketsMap.put(bucket.getName(), bucket);
     }
+    return bucketsMap;
   }
 
   /**
@@ -143,11 +135,7 @@ public class ConfigurationParserJSON extends SpyObject
    * @throws ParseException if the JSON could not be parsed properly.
    */
   public Bucket parseBucket(String bucketJson) throws ParseException {
-    try {
-      return parseBucketFromJSON(new JSONObject(bucketJson), null);
-    } catch (JSONException e) {
-      throw new ParseException(e.getMessage(), 0);
-    }
+    return BucketConfigReader.read(bucketJson).toBucket(null);
   }
 
   /**
@@ -160,91 +148,11 @@ public class ConfigurationParserJSON extends SpyObject
    */
   public Bucket updateBucket(String bucketJson, Bucket currentBucket)
     throws ParseException {
-    try {
-      return parseBucketFromJSON(new JSONObject(bucketJson), currentBucket);
-    } catch (JSONException e) {
-      throw new ParseException(e.getMessage(), 0);
-    }
-  }
-
-  /**
-   * Helper method to create a {@link Bucket} config from JSON.
-   *
-   * Note that a new bucket is currently always returned, the optional bucket
-   * that can be passed in is used to reuse already existing {@link VBucket}
-   * to reduce GC pressure in rebalance phases.
-   *
-   * @param bucketJson the input as a {@link JSONObject}.
-   * @param current the optional current bucket.
-   * @return a parsed {@link Bucket} configuration.
-   * @throws ParseException if the JSON could not be parsed properly.
-   */
-  private Bucket parseBucketFromJSON(JSONObject bucketJson, Bucket current)
-    throws ParseException {
-    try {
-      String bucketName = bucketJson.getString("name");
-      URI streamingUri = new URI(bucketJson.getString("streamingUri"));
-      Config currentConfig = null;
-      if (current != null) {
-        currentConfig = current.getConfig();
-      }
-      Config config = configFactory.create(bucketJson, currentConfig);
-
-      List<Node> nodes = new ArrayList<Node>();
-      JSONArray allNodes = bucketJson.getJSONArray("nodes");
-      for (int i = 0; i < allNodes.length(); i++) {
-        JSONObject currentNode = allNodes.getJSONObject(i);
-        Status status = parseNodeStatus(currentNode.getString("status"));
-        String hostname = currentNode.getString("hostname");
-        Map<Port, String> ports = extractPorts(
-          currentNode.getJSONObject("ports"));
-        nodes.add(new Node(status, hostname, ports));
-      }
-      return new Bucket(bucketName, config, streamingUri, nodes);
-    } catch (JSONException e) {
-      throw new ParseException(e.getMessage(), 0);
-    } catch (URISyntaxException e) {
-      throw new ParseException(e.getMessage(), 0);
-    }
-  }
-
-  /**
-   * Helper method to parse a node {@link Status} out of the raw response.
-   *
-   * @param status the status to parse.
-   * @return the parsed status enum value.
-   */
-  private Status parseNodeStatus(String status) {
-    if (status == null || status.isEmpty()) {
-      return null;
-    }
-
-    try {
-      return Status.valueOf(status);
-    } catch (IllegalArgumentException e) {
-      getLogger().error("Unknown status value: " + status);
-      return null;
-    }
-  }
-
-  /**
-   * Helper method to extract a map of node ports from a {@link JSONObject}.
-   *
-   * @param portsJson the port information.
-   * @return the extracted port map.
-   * @throws JSONException if the JSON could not be parsed as expected.
-   */
-  private Map<Port, String> extractPorts(JSONObject portsJson)
-    throws JSONException {
-    Map<Port, String> ports = new HashMap<Port, String>();
-    for (Port port : Port.values()) {
-      String portValue = portsJson.getString(port.toString());
-      if (portValue == null || portValue.isEmpty()) {
-        continue;
-      }
-      ports.put(port, portValue);
+    Config currentConfig = null;
+    if (currentBucket != null) {
+      currentConfig = currentBucket.getConfig();
     }
-    return ports;
+    return BucketConfigReader.read(bucketJson).toBucket(currentConfig);
   }
 
 }
@@ -24,6 +24,7 @@ package com.couchbase.client.vbucket.config;
 
 import java.net.InetSocketAddress;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -170,32 +171,38 @@ public class DefaultConfig extends SpyObject implements Config {
    * because MEMCACHE buckets do not contain vBuckets. If COUCHBASE configs
    * are compared, also the vBucket changes are taken into account.
    *
+   * Since unchanged {@link VBucket} instances are reused when a new config
+   * is parsed, identical instances are skipped without comparing them.
+   *
    * @param config the new config to compare against.
    * @return the differences between the configurations.
    */
   @Override
   public ConfigDifference compareTo(Config config) {
     ConfigDifference difference = new ConfigDifference();
-
-    if (this.serversCount == config.getServersCount()) {
-      difference.setSequenceChanged(false);
-      for (int i = 0; i < this.serversCount; i++) {
-        if (!this.getServer(i).equals(config.getServer(i))) {
-          difference.setSequenceChanged(true);
-          break;
-        }
-      }
-    } else {
-      difference.setSequenceChanged(true);
-    }
+    difference.compareServers(servers, config.getServers());
 
     if (config.getConfigType().equals(ConfigType.COUCHBASE)
       && this.vbucketsCount == config.getVbucketsCount()) {
+      List<VBucket> other = config.getVbuckets();
       int vbucketsChanges = 0;
+      int[] changed = new int[vbucketsCount];
+      int changedCount = 0;
       for (int i = 0; i < this.vbucketsCount; i++) {
-        vbucketsChanges += (this.getMaster(i) == config.getMaster(i)) ? 0 : 1;
+        VBucket current = vbuckets.get(i);
+        VBucket updated = other.get(i);
+        if (current == updated) {
+          continue;
+        }
+        if (current.getMaster() != updated.getMaster()) {
+          vbucketsChanges++;
+          changed[changedCount++] = i;
+        } else if (!current.hasSameReplicas(updated)) {
+          changed[changedCount++] = i;
+        }
       }
       difference.setVbucketsChanges(vbucketsChanges);
+      difference.setChangedVbuckets(Arrays.copyOf(changed, changedCount));
     } else {
       difference.setVbucketsChanges(-1);
     }
@@ -29,6 +29,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -82,8 +83,8 @@ public class DefaultConfigFactory extends SpyObject implements ConfigFactory {
   @Override
   public Config create(final String source) {
     try {
-      return parseJSON(new JSONObject(source), null);
-    } catch (JSONException e) {
+      return BucketConfigReader.read(source).toConfig(null);
+    } catch (ParseException e) {
       throw new ConfigParsingException("Exception parsing JSON source: "
         + source, e);
     }
@@ -307,7 +308,8 @@ public class DefaultConfigFactory extends SpyObject implements ConfigFactory {
     List<VBucket> vBuckets = new ArrayList<VBucket>(numVBuckets);
 
     List<VBucket> oldvBuckets = null;
-    if (oldConfig != null) {
+    if (oldConfig != null && oldConfig.getVbuckets() != null
+      && oldConfig.getVbuckets().size() == numVBuckets) {
       oldvBuckets = oldConfig.getVbuckets();
     }
 
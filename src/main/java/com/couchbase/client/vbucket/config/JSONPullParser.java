@@ -0,0 +1,333 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.vbucket.config;
+
+import java.text.ParseException;
+
+/**
+ * A minimal pull parser for JSON documents.
+ *
+ * Values are read straight from the source string in document order, so no
+ * intermediate tree is built. Numbers can be read as primitives without
+ * allocating, which keeps large arrays like the vBucket map cheap to decode.
+ *
+ * Usage follows the structure of the document: {@link #beginObject()}, then
+ * {@link #hasNext()} / {@link #nextName()} and one of the value methods per
+ * member, finished by {@link #endObject()}. Arrays work the same way without
+ * the names. {@link #hasNext()} consumes the separating commas, so it needs
+ * to be called before every element. Members which are not needed are
+ * skipped with {@link #skipValue()}.
+ */
+final class JSONPullParser {
+
+  private final String source;
+  private final int length;
+  private int pos;
+
+  JSONPullParser(String source) {
+    this.source = source;
+    this.length = source.length();
+  }
+
+  void beginObject() throws ParseException {
+    consume('{');
+  }
+
+  void endObject() throws ParseException {
+    consume('}');
+  }
+
+  void beginArray() throws ParseException {
+    consume('[');
+  }
+
+  void endArray() throws ParseException {
+    consume(']');
+  }
+
+  /**
+   * Checks if the current object or array has more elements.
+   *
+   * A separating comma is consumed on the way.
+   *
+   * @return true if another element follows.
+   * @throws ParseException if the end of the input has been reached.
+   */
+  boolean hasNext() throws ParseException {
+    char c = peek();
+    if (c == ',') {
+      pos++;
+      c = peek();
+    }
+    return c != '}' && c != ']';
+  }
+
+  /**
+   * Checks if the next value is a JSON null.
+   *
+   * @return true if the next value is null.
+   * @throws ParseException if the end of the input has been reached.
+   */
+  boolean isNextNull() throws ParseException {
+    return peek() == 'n';
+  }
+
+  /**
+   * Reads the name of the next object member including the colon.
+   *
+   * @return the member name.
+   * @throws ParseException if no member name follows.
+   */
+  String nextName() throws ParseException {
+    if (peek() != '"') {
+      throw error("Expected member name");
+    }
+    String name = readString();
+    consume(':');
+    return name;
+  }
+
+  /**
+   * Reads the next value as a string.
+   *
+   * Numbers and booleans are returned in their textual form, null is
+   * returned as null.
+   *
+   * @return the value.
+   * @throws ParseException if the next value is an object or array.
+   */
+  String nextString() throws ParseException {
+    char c = peek();
+    if (c == '"') {
+      return readString();
+    }
+    if (c == '{' || c == '[') {
+      throw error("Expected a string value");
+    }
+    String literal = readLiteral();
+    return "null".equals(literal) ? null : literal;
+  }
+
+  /**
+   * Reads the next value as an int.
+   *
+   * Plain integers are decoded in place; strings and fractions are
+   * converted like the value would be converted by a regular JSON library.
+   *
+   * @return the value.
+   * @throws ParseException if the value is not numeric.
+   */
+  int nextInt() throws ParseException {
+    char c = peek();
+    int start = pos;
+    boolean negative = false;
+    if (c == '-') {
+      negative = true;
+      pos++;
+    }
+    long value = 0;
+    int digits = 0;
+    while (pos < length) {
+      c = source.charAt(pos);
+      if (c < '0' || c > '9') {
+        break;
+      }
+      value = value * 10 + (c - '0');
+      if (value > Integer.MAX_VALUE + 1L) {
+        throw error("Number out of int range");
+      }
+      digits++;
+      pos++;
+    }
+    if (digits > 0 && (pos == length || isDelimiter(source.charAt(pos)))) {
+      return (int) (negative ? -value : value);
+    }
+
+    pos = start;
+    String text = nextString();
+    try {
+      return (int) Double.parseDouble(text);
+    } catch (NumberFormatException ex) {
+      throw error("Expected a number but got " + text);
+    } catch (NullPointerException ex) {
+      throw error("Expected a number but got null");
+    }
+  }
+
+  /**
+   * Skips the next value including all of its children.
+   *
+   * @throws ParseException if the value is malformed.
+   */
+  void skipValue() throws ParseException {
+    char c = peek();
+    if (c == '"') {
+      skipString();
+    } else if (c == '{' || c == '[') {
+      int depth = 0;
+      do {
+        c = peek();
+        if (c == '"') {
+          skipString();
+          continue;
+        }
+        if (c == '{' || c == '[') {
+          depth++;
+        } else if (c == '}' || c == ']') {
+          depth--;
+        }
+        pos++;
+      } while (depth > 0);
+    } else {
+      readLiteral();
+    }
+  }
+
+  /**
+   * Makes sure that only whitespace follows the current position.
+   *
+   * @throws ParseException if there is trailing content.
+   */
+  void endDocument() throws ParseException {
+    skipWhitespace();
+    if (pos < length) {
+      throw error("Unexpected trailing content");
+    }
+  }
+
+  private void consume(char expected) throws ParseException {
+    if (peek() != expected) {
+      throw error("Expected '" + expected + "'");
+    }
+    pos++;
+  }
+
+  private char peek() throws ParseException {
+    skipWhitespace();
+    if (pos >= length) {
+      throw error("Unexpected end of input");
+    }
+    return source.charAt(pos);
+  }
+
+  private void skipWhitespace() {
+    while (pos < length) {
+      char c = source.charAt(pos);
+      if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+        return;
+      }
+      pos++;
+    }
+  }
+
+  private String readLiteral() throws ParseException {
+    int start = pos;
+    while (pos < length && !isDelimiter(source.charAt(pos))) {
+      pos++;
+    }
+    if (start == pos) {
+      throw error("Expected a value");
+    }
+    return source.substring(start, pos);
+  }
+
+  private static boolean isDelimiter(char c) {
+    return c == ',' || c == '}' || c == ']' || c == ':' || c == ' '
+      || c == '\n' || c == '\r' || c == '\t';
+  }
+
+  private String readString() throws ParseException {
+    int start = ++pos;
+    while (pos < length) {
+      char c = source.charAt(pos);
+      if (c == '"') {
+        return source.substring(start, pos++);
+      }
+      if (c == '\\') {
+        return readEscapedString(start);
+      }
+      pos++;
+    }
+    throw error("Unterminated string");
+  }
+
+  private String readEscapedString(int start) throws ParseException {
+    StringBuilder builder = new StringBuilder(pos - start + 16);
+    builder.append(source, start, pos);
+    while (pos < length) {
+      char c = source.charAt(pos++);
+      if (c == '"') {
+        return builder.toString();
+      }
+      if (c != '\\') {
+        builder.append(c);
+        continue;
+      }
+      if (pos >= length) {
+        break;
+      }
+      char escaped = source.charAt(pos++);
+      switch (escaped) {
+        case 'b': builder.append('\b'); break;
+        case 'f': builder.append('\f'); break;
+        case 'n': builder.append('\n'); break;
+        case 'r': builder.append('\r'); break;
+        case 't': builder.append('\t'); break;
+        case 'u':
+          if (pos + 4 > length) {
+            throw error("Invalid unicode escape");
+          }
+          try {
+            builder.append((char) Integer.parseInt(
+              source.substring(pos, pos + 4), 16));
+          } catch (NumberFormatException ex) {
+            throw error("Invalid unicode escape");
+          }
+          pos += 4;
+          break;
+        default:
+          builder.append(escaped);
+      }
+    }
+    throw error("Unterminated string");
+  }
+
+  private void skipString() throws ParseException {
+    pos++;
+    while (pos < length) {
+      char c = source.charAt(pos++);
+      if (c == '"') {
+        return;
+      }
+      if (c == '\\') {
+        pos++;
+      }
+    }
+    throw error("Unterminated string");
+  }
+
+  private ParseException error(String message) {
+    return new ParseException(message + " at position " + pos, pos);
+  }
+}
@@ -74,6 +74,17 @@ public class VBucket {
     master = rv;
   }
 
+  /**
+   * Checks if the given vbucket has the same replicas as this one.
+   *
+   * @param other the vbucket to compare with.
+   * @return true if all replicas are identical.
+   */
+  public boolean hasSameReplicas(VBucket other) {
+    return replica1 == other.replica1 && replica2 == other.replica2
+      && replica3 == other.replica3;
+  }
+
   @Override
   public String toString() {
     return "m: " + master + ", r: " + "[" + replica1 + ", " + replica2 + ", "
@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client;
+
+import com.couchbase.client.clustermanager.BucketType;
+import com.couchbase.client.clustermanager.FlushResponse;
+import com.couchbase.client.internal.ClusterManagerCompletionListener;
+import com.couchbase.client.internal.ClusterManagerFuture;
+import com.couchbase.client.mock.MockCluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the asynchronous {@link ClusterManager} against the {@link MockCluster}.
+ */
+public class AsyncClusterManagerTest {
+
+  private static final int BUCKETS = 12;
+
+  private MockCluster cluster;
+  private ClusterManager manager;
+
+  @Before
+  public void setUp() throws Exception {
+    cluster = new MockCluster(2, 16);
+    cluster.start();
+  }
+
+  @After
+  public void tearDown() {
+    if (manager != null) {
+      manager.shutdown();
+    }
+    cluster.stop();
+  }
+
+  @Test
+  public void shouldProvisionBucketsConcurrently() throws Exception {
+    manager = build(1000, 1000);
+    List<ClusterManagerFuture<Boolean>> futures =
+      new ArrayList<ClusterManagerFuture<Boolean>>();
+    for (int i = 0; i < BUCKETS; i++) {
+      futures.add(manager.asyncCreateNamedBucket(BucketType.COUCHBASE,
+        "bucket" + i, 100, 0, "", true));
+    }
+    for (ClusterManagerFuture<Boolean> future : futures) {
+      assertTrue(future.get(5, TimeUnit.SECONDS));
+    }
+    List<String> buckets = manager.listBuckets();
+    assertEquals(BUCKETS + 1, buckets.size());
+
+    futures.clear();
+    for (int i = 0; i < BUCKETS; i++) {
+      futures.add(manager.asyncDeleteBucket("bucket" + i));
+    }
+    for (ClusterManagerFuture<Boolean> future : futures) {
+      assertTrue(future.get(5, TimeUnit.SECONDS));
+    }
+    assertEquals(1, manager.listBuckets().size());
+  }
+
+  @Test
+  public void shouldReportErrorsOfTheCluster() throws Exception {
+    manager = build(1000, 1000);
+    manager.createNamedBucket(BucketType.COUCHBASE, "bucket", 100, 0, "",
+      true);
+    try {
+      manager.createNamedBucket(BucketType.COUCHBASE, "bucket", 100, 0, "",
+        true);
+      fail("The bucket must not be created twice");
+    } catch (RuntimeException e) {
+      assertEquals("Bucket with given name already exists", e.getMessage());
+    }
+    try {
+      manager.asyncDeleteBucket("missing").get();
+      fail("A missing bucket can not be deleted");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause().getMessage().startsWith("Http Error: 404"));
+    }
+    assertEquals(FlushResponse.OK,
+      manager.flushBucket(cluster.getBucketName()));
+  }
+
+  @Test
+  public void shouldMoveOnFromHangingNode() throws Exception {
+    cluster.getNode(0).setLatency(30, TimeUnit.SECONDS);
+    manager = build(200, 60000);
+
+    long start = System.nanoTime();
+    manager.createNamedBucket(BucketType.COUCHBASE, "bucket", 100, 0, "",
+      true);
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue("Took " + elapsed + "ms", elapsed < 5000);
+    assertTrue(manager.listBuckets().contains("bucket"));
+  }
+
+  @Test
+  public void shouldNotResendWritesToAnotherNode() throws Exception {
+    manager = build(300, 60000);
+    manager.createNamedBucket(BucketType.COUCHBASE, "bucket", 100, 0, "",
+      true);
+    cluster.getNode(0).setLatency(1, TimeUnit.SECONDS);
+
+    try {
+      manager.asyncDeleteBucket("bucket").get(5, TimeUnit.SECONDS);
+      fail("The slow node did not answer in time");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof TimeoutException);
+    }
+    try {
+      manager.flushBucket(cluster.getBucketName());
+      fail("The slow node did not answer in time");
+    } catch (RuntimeException e) {
+      assertTrue(e.getCause() instanceof TimeoutException);
+    }
+
+    // The slow node applies the write nevertheless.
+    cluster.getNode(0).clearLatency();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (manager.listBuckets().contains("bucket")) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(50);
+    }
+    for (String request : cluster.getNode(1).getRestRequests()) {
+      assertTrue(request, request.startsWith("GET "));
+    }
+  }
+
+  @Test
+  public void shouldHedgeReads() throws Exception {
+    cluster.getNode(0).setLatency(30, TimeUnit.SECONDS);
+    manager = build(60000, 20);
+
+    long start = System.nanoTime();
+    assertEquals(1, manager.listBuckets().size());
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue("Took " + elapsed + "ms", elapsed < 5000);
+  }
+
+  @Test
+  public void shouldFailIfNoNodeAnswers() throws Exception {
+    cluster.setLatency(30, TimeUnit.SECONDS);
+    manager = build(100, 0);
+
+    final CountDownLatch notified = new CountDownLatch(1);
+    ClusterManagerFuture<List<String>> future = manager.asyncListBuckets();
+    future.addListener(new ClusterManagerCompletionListener() {
+      @Override
+      public void onComplete(ClusterManagerFuture<?> f) {
+        notified.countDown();
+      }
+    });
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      fail("No node answered the request");
+    } catch (ExecutionException e) {
+      assertEquals("Unable to connect to cluster", e.getCause().getMessage());
+    }
+    assertTrue(notified.await(5, TimeUnit.SECONDS));
+    assertTrue(future.isDone());
+    assertFalse(future.isCancelled());
+  }
+
+  private ClusterManager build(int attemptTimeout, int hedgeDelay) {
+    return new ClusterManagerBuilder()
+      .setAttemptTimeout(attemptTimeout)
+      .setHedgeDelay(hedgeDelay)
+      .build(cluster.getBootstrapUris(), "Administrator", "password");
+  }
+
+}
@@ -24,13 +24,16 @@ package com.couchbase.client;
 
 import com.couchbase.client.clustermanager.AuthType;
 import com.couchbase.client.clustermanager.BucketType;
+import com.couchbase.client.internal.ClusterManagerFuture;
 
 import java.net.SocketAddress;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
 
 import net.spy.memcached.MemcachedClient;
 import net.spy.memcached.TestConfig;
@@ -71,9 +74,17 @@ public class BucketTool extends SpyObject {
     FunctionCallback callback = new FunctionCallback() {
       @Override
       public void callback() throws Exception {
-        List<String> buckets = manager.listBuckets();
-        for (int i = 0; i < buckets.size(); i++) {
-          manager.deleteBucket(buckets.get(i));
+        List<ClusterManagerFuture<Boolean>> deletions =
+          new ArrayList<ClusterManagerFuture<Boolean>>();
+        for (String bucket : manager.listBuckets()) {
+          deletions.add(manager.asyncDeleteBucket(bucket));
+        }
+        for (ClusterManagerFuture<Boolean> deletion : deletions) {
+          try {
+            deletion.get();
+          } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+          }
         }
       }
 
@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client;
+
+import com.couchbase.client.mock.MockCluster;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.TimedOutOperationStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that operations past their deadline are dropped on the write path
+ * and their callbacks are completed exactly once with a timed out status.
+ */
+public class CouchbaseConnectionDeadlineTest {
+
+  private static final long OPERATION_TIMEOUT = 500;
+
+  private MockCluster cluster;
+  private TestingCouchbaseClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    cluster = new MockCluster(1, 16);
+    cluster.start();
+    CouchbaseConnectionFactoryBuilder builder =
+      new CouchbaseConnectionFactoryBuilder();
+    builder.setOpTimeout(OPERATION_TIMEOUT);
+    client = new TestingCouchbaseClient(builder.buildCouchbaseConnection(
+      cluster.getBootstrapUris(), cluster.getBucketName(), ""));
+    assertTrue(client.set("key", 0, "value").get());
+  }
+
+  @After
+  public void tearDown() {
+    client.shutdown(5, TimeUnit.SECONDS);
+    cluster.stop();
+  }
+
+  @Test
+  public void shouldSendOperationsWithinDeadline() throws Exception {
+    RecordingCallback callback = new RecordingCallback();
+    Operation op = client.getOperationFactory().get("key", callback);
+    client.enqueueTestOperation("key", op);
+
+    assertTrue(callback.completed.await(5, TimeUnit.SECONDS));
+    assertTrue(callback.status.get().isSuccess());
+    assertFalse(op.isTimedOut());
+  }
+
+  @Test
+  public void shouldCompleteTimedOutOperationsOnce() throws Exception {
+    RecordingCallback callback = new RecordingCallback();
+    Operation op = client.getOperationFactory().get("key", callback);
+    op.timeOut();
+    long expired = getConnection().getExpiredOperations();
+    client.enqueueTestOperation("key", op);
+
+    assertDroppedOnce(callback, expired);
+  }
+
+  @Test
+  public void shouldCompleteOperationsPastTheirDeadlineOnce()
+    throws Exception {
+    RecordingCallback callback = new RecordingCallback();
+    Operation op = client.getOperationFactory().get("key", callback);
+    Thread.sleep(OPERATION_TIMEOUT + 100);
+    long expired = getConnection().getExpiredOperations();
+    client.enqueueTestOperation("key", op);
+
+    assertDroppedOnce(callback, expired);
+  }
+
+  @Test
+  public void shouldNotDropCancelledOperations() throws Exception {
+    RecordingCallback callback = new RecordingCallback();
+    Operation op = client.getOperationFactory().get("key", callback);
+    op.timeOut();
+    op.cancel();
+
+    assertFalse(getConnection().dropExpired(op));
+  }
+
+  private CouchbaseConnection getConnection() {
+    return (CouchbaseConnection) client.getConnection();
+  }
+
+  /**
+   * Asserts that the operation was dropped and its callback completed
+   * exactly once with a timed out status, without receiving a value.
+   */
+  private void assertDroppedOnce(RecordingCallback callback, long expired)
+    throws InterruptedException {
+    assertEquals(expired + 1, getConnection().getExpiredOperations());
+    // give a second completion the chance to show up
+    Thread.sleep(200);
+    assertEquals(1, callback.completions.get());
+    OperationStatus status = callback.status.get();
+    assertTrue(status instanceof TimedOutOperationStatus);
+    assertFalse(status.isSuccess());
+    assertEquals(0, callback.values.get());
+  }
+
+  private static class RecordingCallback implements GetOperation.Callback {
+    private final CountDownLatch completed = new CountDownLatch(1);
+    private final AtomicInteger completions = new AtomicInteger();
+    private final AtomicInteger values = new AtomicInteger();
+    private final AtomicReference<OperationStatus> status =
+      new AtomicReference<OperationStatus>();
+
+    @Override
+    public void gotData(String key, int flags, byte[] data) {
+      values.incrementAndGet();
+    }
+
+    @Override
+    public void receivedStatus(OperationStatus s) {
+      status.set(s);
+    }
+
+    @Override
+    public void complete() {
+      completions.incrementAndGet();
+      completed.countDown();
+    }
+  }
+
+}
@@ -22,14 +22,23 @@
  */
 package com.couchbase.client;
 
+import com.couchbase.client.tracing.LoggingTraceSink;
+import com.couchbase.client.tracing.TraceSink;
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import net.spy.memcached.TestConfig;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Test for basic things in the CouchbaseConnectionFactoryBuilder.
@@ -197,4 +206,162 @@ public class CouchbaseConnectionFactoryBuilderTest {
     assertEquals(connFact.getHashAlg(), directFact.getHashAlg());
   }
 
+  /**
+   * Test setting the replica read strategy and delay.
+   *
+   * @pre Instantiate the connection factory builder and set the
+   * active-first replica read strategy with a custom delay.
+   * @post Asserts that the built factory reports the same values.
+   *
+   * @throws IOException
+   */
+  @Test
+  public void testSetReplicaReadStrategy() throws IOException {
+    CouchbaseConnectionFactoryBuilder instance =
+      new CouchbaseConnectionFactoryBuilder();
+
+    assertEquals(CouchbaseConnectionFactory.DEFAULT_REPLICA_READ_STRATEGY,
+      instance.getReplicaReadStrategy());
+
+    instance.setReplicaReadStrategy(ReplicaReadStrategy.ACTIVE_FIRST);
+    instance.setReplicaReadDelay(250);
+
+    CouchbaseConnectionFactory connFact =
+      instance.buildCouchbaseConnection(uris, "default", "");
+
+    assertEquals(ReplicaReadStrategy.ACTIVE_FIRST,
+      connFact.getReplicaReadStrategy());
+    assertEquals(250, connFact.getReplicaReadDelay());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeReplicaReadDelay() {
+    new CouchbaseConnectionFactoryBuilder().setReplicaReadDelay(-1);
+  }
+
+  @Test
+  public void testSetConfigCacheDirectory() throws IOException {
+    CouchbaseConnectionFactoryBuilder instance =
+      new CouchbaseConnectionFactoryBuilder();
+    assertNull(instance.getConfigCacheDirectory());
+
+    File directory = new File(System.getProperty("java.io.tmpdir"));
+    instance.setConfigCacheDirectory(directory);
+    CouchbaseConnectionFactory connFact =
+      instance.buildCouchbaseConnection(uris, "default", "");
+    assertEquals(directory, connFact.getConfigCacheDirectory());
+  }
+
+  @Test
+  public void testSetKvConnsPerNode() throws IOException {
+    CouchbaseConnectionFactoryBuilder instance =
+      new CouchbaseConnectionFactoryBuilder();
+    assertEquals(CouchbaseConnectionFactory.DEFAULT_KV_CONNS_PER_NODE,
+      instance.getKvConnsPerNode());
+
+    instance.setKvConnsPerNode(4);
+    CouchbaseConnectionFactory connFact =
+      instance.buildCouchbaseConnection(uris, "default", "");
+    assertEquals(4, connFact.getKvConnsPerNode());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testKvConnsPerNodeMustBePositive() {
+    new CouchbaseConnectionFactoryBuilder().setKvConnsPerNode(0);
+  }
+
+  @Test
+  public void testSetIoThreads() throws IOException {
+    CouchbaseConnectionFactoryBuilder instance =
+      new CouchbaseConnectionFactoryBuilder();
+    assertEquals(CouchbaseConnectionFactory.DEFAULT_IO_THREADS,
+      instance.getIoThreads());
+
+    instance.setIoThreads(3);
+    CouchbaseConnectionFactory connFact =
+      instance.buildCouchbaseConnection(uris, "default", "");
+    assertEquals(3, connFact.getIoThreads());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIoThreadsMustBePositive() {
+    new CouchbaseConnectionFactoryBuilder().setIoThreads(0);
+  }
+
+  @Test
+  public void testSetWriteBatchDelay() throws IOException {
+    CouchbaseConnectionFactoryBuilder instance =
+      new CouchbaseConnectionFactoryBuilder();
+    assertEquals(CouchbaseConnectionFactory.DEFAULT_WRITE_BATCH_DELAY,
+      instance.getWriteBatchDelay());
+
+    instance.setWriteBatchDelay(50, TimeUnit.MICROSECONDS);
+    CouchbaseConnectionFactory connFact =
+      instance.buildCouchbaseConnection(uris, "default", "");
+    assertEquals(50, connFact.getWriteBatchDelay());
+  }
+
+  @Test
+  public void testOptimizationStaysDisabled() throws IOException {
+    CouchbaseConnectionFactoryBuilder instance =
+      new CouchbaseConnectionFactoryBuilder();
+    instance.setShouldOptimize(true);
+    assertFalse(instance.buildCouchbaseConnection(uris, "default", "")
+      .shouldOptimize());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWriteBatchDelayMustNotBeNegative() {
+    new CouchbaseConnectionFactoryBuilder().setWriteBatchDelay(-1,
+      TimeUnit.MICROSECONDS);
+  }
+
+  @Test
+  public void testSetEnableInstrumentation() throws IOException {
+    CouchbaseConnectionFactoryBuilder instance =
+      new CouchbaseConnectionFactoryBuilder();
+    assertEquals(CouchbaseConnectionFactory.DEFAULT_ENABLE_INSTRUMENTATION,
+      instance.isInstrumentationEnabled());
+    assertNull(instance.buildCouchbaseConnection(uris, "default", "")
+      .getMetrics());
+
+    instance.setEnableInstrumentation(true);
+    CouchbaseConnectionFactory connFact =
+      instance.buildCouchbaseConnection(uris, "default", "");
+    assertTrue(connFact.isInstrumentationEnabled());
+    assertNotNull(connFact.getMetrics());
+    assertSame(connFact.getMetrics(), connFact.getMetrics());
+  }
+
+  @Test
+  public void testSetTraceSink() throws IOException {
+    CouchbaseConnectionFactoryBuilder instance =
+      new CouchbaseConnectionFactoryBuilder();
+    assertNull(instance.getTraceSink());
+    assertEquals(CouchbaseConnectionFactory.DEFAULT_TRACE_SAMPLE_RATE,
+      instance.getTraceSampleRate(), 0);
+
+    TraceSink sink = new LoggingTraceSink();
+    instance.setTraceSink(sink).setTraceSampleRate(0.5);
+    CouchbaseConnectionFactory connFact =
+      instance.buildCouchbaseConnection(uris, "default", "");
+    assertSame(sink, connFact.getTraceSink());
+    assertEquals(0.5, connFact.getTraceSampleRate(), 0);
+    assertNotNull(connFact.getTracer());
+    assertSame(connFact.getListenerExecutorService(),
+      connFact.getListenerExecutorService());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTraceSampleRateMustBePositive() {
+    new CouchbaseConnectionFactoryBuilder().setTraceSampleRate(0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testConfigCacheDirectoryMustBeDirectory() throws IOException {
+    File file = File.createTempFile("config-cache", "");
+    file.deleteOnExit();
+    new CouchbaseConnectionFactoryBuilder().setConfigCacheDirectory(file);
+  }
+
 }
@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Verifies how connections are spread over the I/O threads.
+ */
+public class CouchbaseConnectionShardingTest {
+
+  private final InetSocketAddress a = new InetSocketAddress("127.0.0.1", 1);
+  private final InetSocketAddress b = new InetSocketAddress("127.0.0.1", 2);
+
+  @Test
+  public void shouldExpandAddressesWithOneThread() {
+    assertEquals(Arrays.asList(a, a, b, b),
+      CouchbaseConnection.shardAddresses(Arrays.asList(a, b), 2, 1, 0));
+  }
+
+  @Test
+  public void shouldServeEveryNodeOnEveryThread() {
+    for (int thread = 0; thread < 3; thread++) {
+      assertEquals(Arrays.asList(a, b),
+        CouchbaseConnection.shardAddresses(Arrays.asList(a, b), 3, 3, thread));
+    }
+  }
+
+  @Test
+  public void shouldDealConnectionsRoundRobin() {
+    assertEquals(Arrays.asList(a, a, a, b, b, b),
+      CouchbaseConnection.shardAddresses(Arrays.asList(a, b), 5, 2, 0));
+    assertEquals(Arrays.asList(a, a, b, b),
+      CouchbaseConnection.shardAddresses(Arrays.asList(a, b), 5, 2, 1));
+  }
+
+}
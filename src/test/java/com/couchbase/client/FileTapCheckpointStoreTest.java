@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the storing of tap checkpoints in files.
+ */
+public class FileTapCheckpointStoreTest {
+
+  private File directory;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = File.createTempFile("checkpoints", "");
+    assertTrue(directory.delete());
+    directory = new File(directory, "nested");
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+    directory.getParentFile().delete();
+  }
+
+  @Test
+  public void testLoadsNothingForUnknownStream() throws Exception {
+    FileTapCheckpointStore store = new FileTapCheckpointStore(directory);
+    assertTrue(store.load("export").isEmpty());
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    FileTapCheckpointStore store = new FileTapCheckpointStore(directory);
+    Map<Short, Long> checkpoints = new HashMap<Short, Long>();
+    checkpoints.put((short) 0, 12L);
+    checkpoints.put((short) 1023, 7L);
+    store.store("nightly/export", checkpoints);
+    assertEquals(checkpoints, store.load("nightly/export"));
+
+    checkpoints.put((short) 0, 13L);
+    store.store("nightly/export", checkpoints);
+    assertEquals(checkpoints,
+      new FileTapCheckpointStore(directory).load("nightly/export"));
+    assertEquals(1, directory.listFiles().length);
+  }
+
+  @Test(expected = IOException.class)
+  public void testRejectsMalformedFile() throws Exception {
+    assertTrue(directory.mkdirs());
+    FileWriter writer = new FileWriter(new File(directory,
+      "export.checkpoints"));
+    writer.write("0=abc\n");
+    writer.close();
+    new FileTapCheckpointStore(directory).load("export");
+  }
+
+}
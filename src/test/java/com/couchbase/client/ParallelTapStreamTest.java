@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.spy.memcached.tapmessage.ResponseMessage;
+import net.spy.memcached.tapmessage.TapStream;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the dispatching of tap messages to the workers of a
+ * ParallelTapStream.
+ */
+public class ParallelTapStreamTest {
+
+  @Test
+  public void testKeepsOrderPerVBucket() throws Exception {
+    final Map<Short, List<String>> received =
+      Collections.synchronizedMap(new HashMap<Short, List<String>>());
+    ParallelTapStream stream = new ParallelTapStream(new TapStream(),
+      new TapMessageHandler() {
+        @Override
+        public void handle(ResponseMessage message) {
+          List<String> keys = received.get(message.getVbucket());
+          synchronized (keys) {
+            keys.add(message.getKey());
+          }
+        }
+      }, 4, 8);
+
+    for (short vb = 0; vb < 16; vb++) {
+      received.put(vb, new ArrayList<String>());
+    }
+    for (int i = 0; i < 1000; i++) {
+      stream.dispatch(message((short) (i % 16), "key" + i));
+    }
+    assertFalse(stream.isDone());
+    stream.opCompleted();
+
+    assertTrue(stream.awaitTermination(5, TimeUnit.SECONDS));
+    assertEquals(1000, stream.getMessagesHandled());
+    for (short vb = 0; vb < 16; vb++) {
+      List<String> keys = received.get(vb);
+      assertEquals(63 - (vb > 7 ? 1 : 0), keys.size());
+      for (int i = 0; i < keys.size(); i++) {
+        assertEquals("key" + (i * 16 + vb), keys.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testAcksAfterPrecedingMessages() throws Exception {
+    final AtomicInteger handled = new AtomicInteger();
+    final List<Integer> handledAtAck = new ArrayList<Integer>();
+    ParallelTapStream stream = new ParallelTapStream(new TapStream(),
+      new TapMessageHandler() {
+        @Override
+        public void handle(ResponseMessage message) {
+          handled.incrementAndGet();
+        }
+      }, 3, 100);
+
+    for (int i = 0; i < 50; i++) {
+      stream.dispatch(message((short) i, "key" + i));
+    }
+    stream.dispatchAck(new Runnable() {
+      @Override
+      public void run() {
+        handledAtAck.add(handled.get());
+      }
+    });
+    stream.opCompleted();
+
+    assertTrue(stream.awaitTermination(5, TimeUnit.SECONDS));
+    assertEquals(Collections.singletonList(50), handledAtAck);
+  }
+
+  @Test
+  public void testCountsFailedMessages() throws Exception {
+    ParallelTapStream stream = new ParallelTapStream(new TapStream(),
+      new TapMessageHandler() {
+        @Override
+        public void handle(ResponseMessage message) {
+          throw new IllegalStateException("expected");
+        }
+      }, 1, 1);
+    stream.dispatch(message((short) 0, "key"));
+    stream.opCompleted();
+
+    assertTrue(stream.awaitTermination(5, TimeUnit.SECONDS));
+    assertEquals(0, stream.getMessagesHandled());
+    assertEquals(1, stream.getMessagesFailed());
+  }
+
+  /**
+   * Creates a tap mutation message with the given vbucket and key.
+   */
+  private static ResponseMessage message(short vbucket, String key) {
+    byte[] keyBytes = key.getBytes();
+    byte[] packet = new byte[24 + 16 + keyBytes.length];
+    packet[0] = (byte) 0x80;
+    packet[1] = (byte) 0x41;
+    packet[2] = (byte) (keyBytes.length >> 8);
+    packet[3] = (byte) keyBytes.length;
+    packet[4] = 16;
+    packet[6] = (byte) (vbucket >> 8);
+    packet[7] = (byte) vbucket;
+    int body = 16 + keyBytes.length;
+    packet[10] = (byte) (body >> 8);
+    packet[11] = (byte) body;
+    System.arraycopy(keyBytes, 0, packet, 40, keyBytes.length);
+    return new ResponseMessage(packet);
+  }
+
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client;
+
+import com.couchbase.client.vbucket.config.Bucket;
+import com.couchbase.client.vbucket.config.CacheConfig;
+import com.couchbase.client.vbucket.config.Node;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Verifies the preparation of reconfigurations for the I/O thread.
+ */
+public class PendingReconfigurationTest {
+
+  @Test
+  public void shouldResolveServers() {
+    Bucket bucket = bucketWithServers("127.0.0.1:11210", "localhost:11211");
+    PendingReconfiguration reconfiguration =
+      PendingReconfiguration.prepare(bucket);
+    assertSame(bucket, reconfiguration.getBucket());
+    assertEquals(Arrays.asList(new InetSocketAddress("127.0.0.1", 11210),
+      new InetSocketAddress("localhost", 11211)),
+      reconfiguration.getServers());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldFailOnInvalidServer() {
+    PendingReconfiguration.prepare(bucketWithServers("11210"));
+  }
+
+  private static Bucket bucketWithServers(String... servers) {
+    CacheConfig config = new CacheConfig(servers.length,
+      Collections.<String>emptyList());
+    config.setServers(Arrays.asList(servers));
+    return new Bucket("default", config, URI.create("/pools"),
+      Collections.<Node>emptyList());
+  }
+}
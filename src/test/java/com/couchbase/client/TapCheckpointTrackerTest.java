@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the tracking of completed tap checkpoints.
+ */
+public class TapCheckpointTrackerTest {
+
+  @Test
+  public void testResumesFromStoredCheckpoints() throws Exception {
+    MemoryStore store = new MemoryStore();
+    store.checkpoints.put((short) 1, 5L);
+    store.checkpoints.put((short) 3, 9L);
+    TapCheckpointTracker tracker = new TapCheckpointTracker("export", store);
+
+    Map<Short, Long> expected = new HashMap<Short, Long>();
+    expected.put((short) 1, 5L);
+    assertEquals(expected, tracker.getCheckpoints(new short[] {0, 1, 2}));
+  }
+
+  @Test
+  public void testPersistsReachedCheckpoints() throws Exception {
+    MemoryStore store = new MemoryStore();
+    store.checkpoints.put((short) 1, 5L);
+    TapCheckpointTracker tracker = new TapCheckpointTracker("export", store);
+    assertFalse(tracker.persist());
+    assertEquals(0, store.writes);
+
+    tracker.reached((short) 2, 3L);
+    tracker.reached((short) 2, 4L);
+    assertTrue(tracker.persist());
+    assertEquals(1, store.writes);
+    assertEquals(Long.valueOf(5L), store.checkpoints.get((short) 1));
+    assertEquals(Long.valueOf(4L), store.checkpoints.get((short) 2));
+    assertFalse(tracker.persist());
+  }
+
+  @Test
+  public void testRetriesFailedWrites() throws Exception {
+    MemoryStore store = new MemoryStore();
+    TapCheckpointTracker tracker = new TapCheckpointTracker("export", store);
+    tracker.reached((short) 0, 1L);
+    store.fail = true;
+    try {
+      tracker.persist();
+    } catch (IOException e) {
+      // expected
+    }
+    store.fail = false;
+    assertTrue(tracker.persist());
+    assertEquals(Long.valueOf(1L), store.checkpoints.get((short) 0));
+  }
+
+  /**
+   * Keeps the checkpoints of a single stream in memory.
+   */
+  static class MemoryStore implements TapCheckpointStore {
+    private Map<Short, Long> checkpoints = new HashMap<Short, Long>();
+    private int writes;
+    private boolean fail;
+
+    @Override
+    public Map<Short, Long> load(String id) {
+      return checkpoints;
+    }
+
+    @Override
+    public void store(String id, Map<Short, Long> updated)
+      throws IOException {
+      if (fail) {
+        throw new IOException("expected");
+      }
+      checkpoints = new HashMap<Short, Long>(updated);
+      writes++;
+    }
+  }
+
+}
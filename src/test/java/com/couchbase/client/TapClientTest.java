@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.spy.memcached.tapmessage.ResponseMessage;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Verifies the buffering of received messages in the TapClient.
+ */
+public class TapClientTest {
+
+  private static final List<URI> URIS =
+    Arrays.asList(URI.create("http://localhost:8091/pools"));
+
+  @Test
+  public void testBufferIsBounded() {
+    BufferingTapClient client = new BufferingTapClient(2);
+    assertEquals(2, client.remainingCapacity());
+    client.receive(message("key1"));
+    client.receive(message("key2"));
+    assertFalse(client.offer(message("key3")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsEmptyBuffer() {
+    new TapClient(URIS, "default", "", 0);
+  }
+
+  @Test
+  public void testDrainToHonorsMaximum() {
+    BufferingTapClient client = new BufferingTapClient(10);
+    ResponseMessage first = message("key1");
+    client.receive(first);
+    client.receive(message("key2"));
+    client.receive(message("key3"));
+
+    List<ResponseMessage> messages = new ArrayList<ResponseMessage>();
+    assertEquals(2, client.drainTo(messages, 2));
+    assertSame(first, messages.get(0));
+    assertEquals("key2", messages.get(1).getKey());
+    assertEquals(1, client.drainTo(messages, 10, 1, TimeUnit.SECONDS));
+    assertEquals("key3", messages.get(2).getKey());
+    assertEquals(0, client.drainTo(messages, 10));
+    assertEquals(0, client.drainTo(messages, 10, 10, TimeUnit.MILLISECONDS));
+  }
+
+  private static ResponseMessage message(String key) {
+    byte[] keyBytes = key.getBytes();
+    byte[] packet = new byte[24 + 16 + keyBytes.length];
+    packet[0] = (byte) 0x80;
+    packet[1] = (byte) 0x41;
+    packet[3] = (byte) keyBytes.length;
+    packet[4] = 16;
+    packet[11] = (byte) (16 + keyBytes.length);
+    System.arraycopy(keyBytes, 0, packet, 40, keyBytes.length);
+    return new ResponseMessage(packet);
+  }
+
+  /**
+   * A TapClient which allows to place messages into its buffer directly.
+   */
+  static class BufferingTapClient extends TapClient {
+    BufferingTapClient(int bufferSize) {
+      super(URIS, "default", "", bufferSize);
+    }
+
+    void receive(Object message) {
+      rqueue.add(message);
+    }
+
+    boolean offer(Object message) {
+      return rqueue.offer(message);
+    }
+
+    int remainingCapacity() {
+      return rqueue.remainingCapacity();
+    }
+  }
+
+}
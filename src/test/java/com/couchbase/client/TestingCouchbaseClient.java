@@ -24,6 +24,8 @@ package com.couchbase.client;
 
 import com.couchbase.client.vbucket.Reconfigurable;
 import java.io.IOException;
+import net.spy.memcached.MemcachedConnection;
+import net.spy.memcached.OperationFactory;
 import net.spy.memcached.ops.Operation;
 
 /**
@@ -41,4 +43,12 @@ public class TestingCouchbaseClient extends CouchbaseClient implements
     mconn.enqueueOperation(key, op);
   }
 
+  public MemcachedConnection getConnection() {
+    return mconn;
+  }
+
+  public OperationFactory getOperationFactory() {
+    return opFact;
+  }
+
 }
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.http;
+
+import com.couchbase.client.internal.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Verifies that responses are consumed through pooled buffers.
+ */
+public class PooledAsyncResponseConsumerTest {
+
+  @Test
+  public void testConsumesBodyLargerThanAnnounced() throws Exception {
+    BufferPool pool = new BufferPool(4);
+    PooledAsyncResponseConsumer consumer =
+      new PooledAsyncResponseConsumer(pool);
+    StringBuilder body = new StringBuilder();
+    for (int i = 0; i < 500; i++) {
+      body.append("{\"id\":").append(i).append("},");
+    }
+
+    HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200,
+      "OK");
+    BasicHttpEntity entity = new BasicHttpEntity();
+    entity.setContentType("application/json");
+    response.setEntity(entity);
+    consumer.responseReceived(response);
+    consumer.consumeContent(new ChunkedDecoder(body.toString().getBytes(
+      "UTF-8"), 700), null);
+    consumer.responseCompleted(new BasicHttpContext());
+
+    HttpResponse result = consumer.getResult();
+    assertEquals(body.toString(), EntityUtils.toString(result.getEntity()));
+    assertEquals("application/json",
+      result.getEntity().getContentType().getValue());
+    assertEquals(0, pool.getOutstanding());
+  }
+
+  /**
+   * Hands out the content in slices of a fixed size.
+   */
+  private static class ChunkedDecoder implements ContentDecoder {
+    private final ByteBuffer content;
+    private final int slice;
+
+    ChunkedDecoder(byte[] content, int slice) {
+      this.content = ByteBuffer.wrap(content);
+      this.slice = slice;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      if (!content.hasRemaining()) {
+        return -1;
+      }
+      int length = Math.min(slice, Math.min(dst.remaining(),
+        content.remaining()));
+      ByteBuffer chunk = content.slice();
+      chunk.limit(length);
+      dst.put(chunk);
+      content.position(content.position() + length);
+      return length;
+    }
+
+    @Override
+    public boolean isCompleted() {
+      return !content.hasRemaining();
+    }
+  }
+
+}
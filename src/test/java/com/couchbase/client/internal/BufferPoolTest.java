@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.internal;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the correct functionality of the BufferPool.
+ */
+public class BufferPoolTest {
+
+  @Test
+  public void testSizeClasses() {
+    assertEquals(0, BufferPool.sizeClass(1));
+    assertEquals(0, BufferPool.sizeClass(BufferPool.MIN_BUFFER_SIZE));
+    assertEquals(1, BufferPool.sizeClass(BufferPool.MIN_BUFFER_SIZE + 1));
+    assertEquals(3, BufferPool.sizeClass(4096));
+    assertEquals(9, BufferPool.sizeClass(BufferPool.MAX_BUFFER_SIZE));
+  }
+
+  @Test
+  public void testReusesReleasedBuffers() {
+    BufferPool pool = new BufferPool(1);
+    ByteBuffer buffer = pool.acquire(3000);
+    assertTrue(buffer.isDirect());
+    assertEquals(4096, buffer.capacity());
+    assertEquals(1, pool.getOutstanding());
+
+    buffer.putInt(42);
+    pool.release(buffer);
+    assertEquals(4096, pool.getIdleBytes());
+    ByteBuffer again = pool.acquire(4096);
+    assertSame(buffer, again);
+    assertEquals(0, again.position());
+    assertEquals(1, pool.getReused());
+    assertEquals(1, pool.getAllocated());
+    assertEquals(0, pool.getIdleBytes());
+  }
+
+  @Test
+  public void testKeepsLimitedIdleBuffers() {
+    BufferPool pool = new BufferPool(1);
+    ByteBuffer first = pool.acquire(1024);
+    ByteBuffer second = pool.acquire(1024);
+    pool.release(first);
+    pool.release(second);
+    assertEquals(1024, pool.getIdleBytes());
+    assertEquals(0, pool.getOutstanding());
+  }
+
+  @Test
+  public void testServesOversizedRequestsFromHeap() {
+    BufferPool pool = new BufferPool(1);
+    ByteBuffer buffer = pool.acquire(BufferPool.MAX_BUFFER_SIZE + 1);
+    assertFalse(buffer.isDirect());
+    assertEquals(1, pool.getUnpooled());
+    pool.release(buffer);
+    assertEquals(0, pool.getIdleBytes());
+  }
+
+}
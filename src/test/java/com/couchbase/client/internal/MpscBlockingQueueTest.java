@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the correct functionality of the MpscBlockingQueue.
+ */
+public class MpscBlockingQueueTest {
+
+  @Test
+  public void testKeepsInsertionOrder() {
+    MpscBlockingQueue<Integer> queue = new MpscBlockingQueue<Integer>();
+    assertTrue(queue.isEmpty());
+    assertNull(queue.poll());
+
+    queue.addAll(Arrays.asList(1, 2, 3));
+    assertEquals(3, queue.size());
+    assertEquals(Integer.valueOf(1), queue.peek());
+    assertEquals(Integer.valueOf(1), queue.poll());
+
+    List<Integer> drained = new ArrayList<Integer>();
+    assertEquals(1, queue.drainTo(drained, 1));
+    assertEquals(1, queue.drainTo(drained));
+    assertEquals(Arrays.asList(2, 3), drained);
+    assertTrue(queue.isEmpty());
+    assertEquals(0, queue.size());
+  }
+
+  @Test
+  public void testRespectsCapacity() throws Exception {
+    MpscBlockingQueue<Integer> queue = new MpscBlockingQueue<Integer>(2);
+    assertTrue(queue.offer(1));
+    assertTrue(queue.offer(2));
+    assertEquals(0, queue.remainingCapacity());
+    assertFalse(queue.offer(3));
+    assertFalse(queue.offer(3, 10, TimeUnit.MILLISECONDS));
+
+    assertEquals(Integer.valueOf(1), queue.take());
+    assertTrue(queue.offer(3));
+    assertEquals(Arrays.asList(2, 3), new ArrayList<Integer>(queue));
+    assertNull(new MpscBlockingQueue<Integer>().poll(10,
+      TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testRemovesElementsAnywhere() {
+    MpscBlockingQueue<Integer> queue = new MpscBlockingQueue<Integer>(5);
+    queue.addAll(Arrays.asList(1, 2, 3, 4, 5));
+
+    assertTrue(queue.remove(Integer.valueOf(3)));
+    assertFalse(queue.remove(Integer.valueOf(3)));
+    assertTrue(queue.remove(Integer.valueOf(5)));
+    assertEquals(3, queue.size());
+    assertTrue(queue.offer(6));
+    assertEquals(Arrays.asList(1, 2, 4, 6), new ArrayList<Integer>(queue));
+
+    assertTrue(queue.removeAll(Arrays.asList(1, 6)));
+    assertTrue(queue.retainAll(Arrays.asList(4)));
+    assertEquals(1, queue.size());
+    assertEquals(Integer.valueOf(4), queue.peek());
+    assertEquals(Integer.valueOf(4), queue.poll());
+    assertTrue(queue.isEmpty());
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void testIteratorDoesNotRemoveConsumedElements() {
+    MpscBlockingQueue<Integer> queue = new MpscBlockingQueue<Integer>();
+    queue.addAll(Arrays.asList(1, 2));
+    Iterator<Integer> it = queue.iterator();
+    assertEquals(Integer.valueOf(1), it.next());
+    assertEquals(Integer.valueOf(1), queue.poll());
+
+    it.remove();
+    assertEquals(1, queue.size());
+    assertEquals(Integer.valueOf(2), it.next());
+    it.remove();
+    assertEquals(0, queue.size());
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void testDeliversFromConcurrentProducers() throws Exception {
+    final int producers = 8;
+    final int perProducer = 10000;
+    final MpscBlockingQueue<Integer> queue = new MpscBlockingQueue<Integer>(64);
+    final CountDownLatch start = new CountDownLatch(1);
+    for (int p = 0; p < producers; p++) {
+      final int base = p * perProducer;
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int i = 0; i < perProducer; i++) {
+              queue.put(base + i);
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }).start();
+    }
+
+    start.countDown();
+    int[] last = new int[producers];
+    Arrays.fill(last, -1);
+    for (int received = 0; received < producers * perProducer; received++) {
+      Integer value = queue.poll(5, TimeUnit.SECONDS);
+      int producer = value / perProducer;
+      assertTrue(value % perProducer > last[producer]);
+      last[producer] = value % perProducer;
+    }
+    assertTrue(queue.isEmpty());
+  }
+
+}
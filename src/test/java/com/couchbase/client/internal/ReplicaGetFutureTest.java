@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.internal;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Verifies the correct functionality of ReplicaGetFutures.
+ */
+public class ReplicaGetFutureTest {
+
+  private final ExecutorService service = Executors.newCachedThreadPool();
+
+  @Test
+  public void testFirstResultWinsAndCancelsQueuedOps() throws Exception {
+    ReplicaGetFuture<String> future =
+      new ReplicaGetFuture<String>(1000, service);
+
+    Operation queued = mockOperation(OperationState.WRITE_QUEUED);
+    Operation reading = mockOperation(OperationState.READING);
+    future.addOperationToMonitor(queued);
+    future.addOperationToMonitor(reading);
+
+    assertFalse(future.isDone());
+    assertTrue(future.setCompleted(immediate("first")));
+    assertFalse(future.setCompleted(immediate("second")));
+
+    assertTrue(future.isDone());
+    assertEquals("first", future.get());
+    verify(queued).cancel();
+    verify(reading, never()).cancel();
+  }
+
+  @Test
+  public void testLateOperationIsCancelled() throws Exception {
+    ReplicaGetFuture<String> future =
+      new ReplicaGetFuture<String>(1000, service);
+    future.setCompleted(immediate("value"));
+
+    Operation late = mockOperation(OperationState.WRITE_QUEUED);
+    future.addOperationToMonitor(late);
+    verify(late).cancel();
+  }
+
+  @Test
+  public void testCancellation() throws Exception {
+    ReplicaGetFuture<String> future =
+      new ReplicaGetFuture<String>(1000, service);
+    Operation op = mockOperation(OperationState.READING);
+    future.addOperationToMonitor(op);
+
+    assertTrue(future.cancel(true));
+    assertTrue(future.isCancelled());
+    assertFalse(future.setCompleted(immediate("value")));
+    verify(op).cancel();
+
+    try {
+      future.get();
+      fail("Future did not throw ExecutionException");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof CancellationException);
+    }
+  }
+
+  @Test
+  public void testCancelAfterCompletionFails() throws Exception {
+    ReplicaGetFuture<String> future =
+      new ReplicaGetFuture<String>(1000, service);
+    assertTrue(future.setCompleted(immediate("value")));
+
+    assertFalse(future.cancel(true));
+    assertFalse(future.isCancelled());
+    assertEquals("value", future.get());
+  }
+
+  @Test
+  public void testCompletionAndCancellationRace() throws Exception {
+    for (int i = 0; i < 1000; i++) {
+      final ReplicaGetFuture<String> future =
+        new ReplicaGetFuture<String>(1000, service);
+      final CountDownLatch start = new CountDownLatch(1);
+      Future<Boolean> completion = service.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          start.await();
+          return future.setCompleted(immediate("value"));
+        }
+      });
+      Future<Boolean> cancellation = service.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          start.await();
+          return future.cancel(true);
+        }
+      });
+      start.countDown();
+
+      boolean completed = completion.get();
+      assertTrue(completed != cancellation.get());
+      assertEquals(!completed, future.isCancelled());
+      assertTrue(future.isDone());
+    }
+  }
+
+  @Test(expected = TimeoutException.class)
+  public void testTimeout() throws Exception {
+    ReplicaGetFuture<String> future =
+      new ReplicaGetFuture<String>(1000, service);
+    future.get(10, TimeUnit.MILLISECONDS);
+  }
+
+  private static Operation mockOperation(OperationState state) {
+    Operation op = mock(Operation.class);
+    when(op.getState()).thenReturn(state);
+    return op;
+  }
+
+  private static Future<String> immediate(String value) {
+    FutureTask<String> task = new FutureTask<String>(new Runnable() {
+      @Override
+      public void run() {
+      }
+    }, value);
+    task.run();
+    return task;
+  }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.internal;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Verifies the correct functionality of WarmupFutures.
+ */
+public class WarmupFutureTest {
+
+  private final ExecutorService service = Executors.newCachedThreadPool();
+
+  @Test
+  public void testCompletesOnceAllNodesReported() throws Exception {
+    WarmupFuture future = new WarmupFuture(2, 1000, service);
+    final CountDownLatch notified = new CountDownLatch(1);
+    future.addListener(new WarmupCompletionListener() {
+      @Override
+      public void onComplete(WarmupFuture f) {
+        notified.countDown();
+      }
+    });
+
+    future.nodeWarmedUp(true);
+    assertFalse(future.isDone());
+    assertEquals(-1, future.getWarmupTime());
+    try {
+      future.get(10, TimeUnit.MILLISECONDS);
+      fail("Future must not complete before all nodes reported.");
+    } catch (TimeoutException e) {
+      // expected
+    }
+
+    future.nodeWarmedUp(true);
+    assertTrue(future.isDone());
+    assertTrue(future.get());
+    assertTrue(future.getWarmupTime() >= 0);
+    assertTrue(notified.await(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testReportsFailedNodes() throws Exception {
+    WarmupFuture future = new WarmupFuture(2, 1000, service);
+    future.nodeWarmedUp(false);
+    future.nodeWarmedUp(true);
+    future.nodeWarmedUp(false);
+    assertFalse(future.get());
+    assertEquals(1, future.getFailedNodes());
+    assertFalse(future.cancel(true));
+  }
+
+  @Test
+  public void testCompletesWithoutNodes() throws Exception {
+    WarmupFuture future = new WarmupFuture(0, 1000, service);
+    assertTrue(future.isDone());
+    assertTrue(future.get());
+    assertEquals(0, future.getWarmupTime());
+  }
+}
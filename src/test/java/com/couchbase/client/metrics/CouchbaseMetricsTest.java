@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.metrics;
+
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.StoreOperation;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Verifies what the {@link CouchbaseMetrics} record and report.
+ */
+public class CouchbaseMetricsTest {
+
+  private final InetSocketAddress address =
+    new InetSocketAddress("127.0.0.1", 11210);
+
+  @Test
+  public void shouldRecordCompletedOperations() {
+    CouchbaseMetrics metrics = new CouchbaseMetrics("default");
+    BlockingQueue<Operation> queue = metrics.instrumentReadQueue(
+      new LinkedBlockingQueue<Operation>(), address);
+
+    Operation get = completed(GetOperation.class);
+    Operation set = completed(StoreOperation.class);
+    Operation cancelled = completed(GetOperation.class);
+    when(cancelled.isCancelled()).thenReturn(true);
+    Operation late = completed(GetOperation.class);
+    when(late.isTimedOut()).thenReturn(true);
+    queue.add(get);
+    queue.add(set);
+    queue.add(cancelled);
+    queue.add(late);
+
+    assertSame(get, queue.remove());
+    assertSame(set, queue.remove());
+    assertSame(cancelled, queue.remove());
+    assertSame(late, queue.remove());
+    assertEquals(2, metrics.getLatency(OperationType.GET).getCount());
+    assertEquals(1, metrics.getLatency(OperationType.SET).getCount());
+    assertEquals(3, metrics.getNodeLatency(address).getCount());
+    assertEquals(1, metrics.getLateResponseCount());
+    assertEquals(Long.valueOf(2),
+      metrics.getLatencySummary().get("get.count"));
+  }
+
+  @Test
+  public void shouldReportQueueDepthsPerAddress() {
+    CouchbaseMetrics metrics = new CouchbaseMetrics("default");
+    for (int i = 0; i < 2; i++) {
+      MemcachedNode node = mock(MemcachedNode.class);
+      when(node.getSocketAddress()).thenReturn(address);
+      BlockingQueue<Operation> input = new LinkedBlockingQueue<Operation>();
+      input.add(mock(Operation.class));
+      metrics.registerNode(node, input, new LinkedBlockingQueue<Operation>(),
+        new LinkedBlockingQueue<Operation>());
+    }
+
+    QueueDepth depth = metrics.getQueueDepths().get(address);
+    assertEquals(2, depth.getInput());
+    assertEquals(0, depth.getWrite());
+    assertEquals(2, depth.getTotal());
+    assertEquals(Integer.valueOf(2),
+      metrics.getQueueDepthSummary().get("127.0.0.1:11210"));
+  }
+
+  @Test
+  public void shouldReportHottestVBuckets() {
+    CouchbaseMetrics metrics = new CouchbaseMetrics("default");
+    for (int i = 0; i < 3; i++) {
+      metrics.recordVBucket(7);
+    }
+    metrics.recordVBucket(3);
+    metrics.recordVBucket(5);
+    metrics.recordVBucket(5);
+    metrics.recordVBucket(-1);
+
+    Map<Integer, Long> hottest = metrics.getHottestVBuckets(2);
+    assertEquals(2, hottest.size());
+    Iterator<Map.Entry<Integer, Long>> entries =
+      hottest.entrySet().iterator();
+    Map.Entry<Integer, Long> first = entries.next();
+    assertEquals(Integer.valueOf(7), first.getKey());
+    assertEquals(Long.valueOf(3), first.getValue());
+    assertEquals(Integer.valueOf(5), entries.next().getKey());
+  }
+
+  private static Operation completed(Class<? extends Operation> type) {
+    Operation op = mock(type);
+    when(op.getState()).thenReturn(OperationState.COMPLETE);
+    when(op.getWriteCompleteTimestamp()).thenReturn(System.nanoTime());
+    return op;
+  }
+
+}
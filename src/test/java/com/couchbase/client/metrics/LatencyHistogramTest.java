@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the bucketing and percentiles of the {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+  @Test
+  public void shouldBucketWithBoundedError() {
+    int last = -1;
+    for (long value = 0; value < 1L << 20; value += 1 + value / 100) {
+      int index = LatencyHistogram.bucketIndex(value);
+      assertTrue(index >= last);
+      last = index;
+      long high = LatencyHistogram.highestValue(index);
+      assertTrue(value <= high);
+      assertTrue(high - value <= Math.max(1, value / 32));
+    }
+    assertEquals(LatencyHistogram.bucketIndex(LatencyHistogram.MAX_VALUE),
+      LatencyHistogram.bucketIndex(LatencyHistogram.MAX_VALUE - 1));
+  }
+
+  @Test
+  public void shouldReportPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i);
+    }
+    assertEquals(1000, histogram.getCount());
+    assertEquals(1000, histogram.getMax());
+    assertEquals(500.5, histogram.getMean(), 0.001);
+    assertEquals(500, histogram.getValueAtPercentile(50), 16);
+    assertEquals(990, histogram.getValueAtPercentile(99), 32);
+    assertEquals(1000, histogram.getValueAtPercentile(100));
+    assertEquals(1, histogram.getValueAtPercentile(0));
+  }
+
+  @Test
+  public void shouldClampOutOfRangeValues() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getValueAtPercentile(99));
+    histogram.record(-5);
+    histogram.record(Long.MAX_VALUE);
+    assertEquals(2, histogram.getCount());
+    assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMax());
+    assertEquals(0, histogram.getValueAtPercentile(50));
+  }
+
+}
@@ -0,0 +1,588 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.mock;
+
+import com.couchbase.client.mock.MockBucket.Item;
+import com.couchbase.client.mock.MockBucket.Mode;
+import com.couchbase.client.mock.MockBucket.Result;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import net.spy.memcached.compat.SpyObject;
+
+/**
+ * Serves one memcached binary protocol connection of a {@link MockNode}.
+ *
+ * Requests are executed in the order they are read. The responses are
+ * handed to a writer thread which holds each one back until the injected
+ * latency has passed, so pipelined requests are delayed concurrently and
+ * the order of the responses is kept.
+ */
+final class BinaryProtocolHandler extends SpyObject implements Runnable {
+
+  private static final int HEADER_LENGTH = 24;
+  private static final byte REQUEST_MAGIC = (byte) 0x80;
+  private static final byte RESPONSE_MAGIC = (byte) 0x81;
+  private static final String VERSION = "2.5.0-mock";
+
+  private static final int GET = 0x00;
+  private static final int SET = 0x01;
+  private static final int ADD = 0x02;
+  private static final int REPLACE = 0x03;
+  private static final int DELETE = 0x04;
+  private static final int INCREMENT = 0x05;
+  private static final int DECREMENT = 0x06;
+  private static final int QUIT = 0x07;
+  private static final int FLUSH = 0x08;
+  private static final int GETQ = 0x09;
+  private static final int NOOP = 0x0a;
+  private static final int VERSION_CMD = 0x0b;
+  private static final int GETK = 0x0c;
+  private static final int GETKQ = 0x0d;
+  private static final int APPEND = 0x0e;
+  private static final int PREPEND = 0x0f;
+  private static final int STAT = 0x10;
+  private static final int SETQ = 0x11;
+  private static final int ADDQ = 0x12;
+  private static final int REPLACEQ = 0x13;
+  private static final int DELETEQ = 0x14;
+  private static final int INCREMENTQ = 0x15;
+  private static final int DECREMENTQ = 0x16;
+  private static final int QUITQ = 0x17;
+  private static final int FLUSHQ = 0x18;
+  private static final int APPENDQ = 0x19;
+  private static final int PREPENDQ = 0x1a;
+  private static final int TOUCH = 0x1c;
+  private static final int GAT = 0x1d;
+  private static final int GATQ = 0x1e;
+  private static final int SASL_LIST_MECHS = 0x20;
+  private static final int SASL_AUTH = 0x21;
+  private static final int SASL_STEP = 0x22;
+  private static final int GET_REPLICA = 0x83;
+  private static final int OBSERVE = 0x92;
+  private static final int GET_LOCKED = 0x94;
+  private static final int UNLOCK = 0x95;
+
+  private static final byte FOUND_PERSISTED = 0x01;
+  private static final byte NOT_FOUND_PERSISTED = (byte) 0x80;
+
+  private static final byte[] EMPTY = new byte[0];
+
+  /**
+   * Marks the end of the connection for the writer.
+   */
+  private static final Response CLOSE = new Response(0, EMPTY);
+
+  private final MockNode node;
+  private final MockCluster cluster;
+  private final MockBucket bucket;
+  private final Socket socket;
+  private final BlockingQueue<Response> responses =
+    new LinkedBlockingQueue<Response>();
+  private long lastDue;
+
+  BinaryProtocolHandler(MockNode node, Socket socket) {
+    this.node = node;
+    this.socket = socket;
+    cluster = node.getCluster();
+    bucket = cluster.getBucket();
+  }
+
+  @Override
+  public void run() {
+    cluster.execute(new Runnable() {
+      @Override
+      public void run() {
+        write();
+      }
+    });
+
+    try {
+      DataInputStream in = new DataInputStream(
+        new BufferedInputStream(socket.getInputStream()));
+      byte[] header = new byte[HEADER_LENGTH];
+      boolean open = true;
+      while (open) {
+        try {
+          in.readFully(header);
+        } catch (EOFException e) {
+          break;
+        }
+        if (header[0] != REQUEST_MAGIC) {
+          throw new IOException("Invalid magic " + header[0]);
+        }
+        ByteBuffer fields = ByteBuffer.wrap(header);
+        int keyLength = fields.getShort(2) & 0xffff;
+        int extrasLength = header[4] & 0xff;
+        byte[] body = new byte[fields.getInt(8)];
+        in.readFully(body);
+
+        Request request = new Request(header[1] & 0xff,
+          fields.getShort(6) & 0xffff, fields.getInt(12), fields.getLong(16),
+          body, extrasLength, keyLength);
+        open = handle(request);
+      }
+    } catch (IOException e) {
+      if (node.isRunning()) {
+        getLogger().debug("Closing memcached connection " + socket, e);
+      }
+    } finally {
+      responses.add(CLOSE);
+    }
+  }
+
+  /**
+   * Executes a request and queues its response.
+   *
+   * @return false if the connection should be closed.
+   */
+  private boolean handle(Request request) throws IOException {
+    switch (request.opcode) {
+      case GET:
+      case GETQ:
+      case GETK:
+      case GETKQ:
+      case GAT:
+      case GATQ:
+      case GET_LOCKED:
+      case GET_REPLICA:
+        get(request);
+        break;
+      case SET:
+      case SETQ:
+      case ADD:
+      case ADDQ:
+      case REPLACE:
+      case REPLACEQ:
+      case APPEND:
+      case APPENDQ:
+      case PREPEND:
+      case PREPENDQ:
+        store(request);
+        break;
+      case DELETE:
+      case DELETEQ:
+        if (ownsVBucket(request)) {
+          reply(request, bucket.delete(request.vbucket, request.key(),
+            request.cas), DELETEQ);
+        }
+        break;
+      case INCREMENT:
+      case INCREMENTQ:
+      case DECREMENT:
+      case DECREMENTQ:
+        arithmetic(request);
+        break;
+      case TOUCH:
+        if (ownsVBucket(request)) {
+          reply(request, bucket.touch(request.vbucket, request.key(),
+            request.extras().getInt(0)), -1);
+        }
+        break;
+      case UNLOCK:
+        if (ownsVBucket(request)) {
+          reply(request, bucket.unlock(request.vbucket, request.key(),
+            request.cas), -1);
+        }
+        break;
+      case OBSERVE:
+        observe(request);
+        break;
+      case FLUSH:
+      case FLUSHQ:
+        bucket.flush();
+        if (request.opcode == FLUSH) {
+          send(request, MockBucket.SUCCESS, 0, EMPTY, EMPTY, EMPTY);
+        }
+        break;
+      case NOOP:
+        send(request, MockBucket.SUCCESS, 0, EMPTY, EMPTY, EMPTY);
+        break;
+      case VERSION_CMD:
+        send(request, MockBucket.SUCCESS, 0, EMPTY, EMPTY, bytes(VERSION));
+        break;
+      case STAT:
+        stats(request);
+        break;
+      case SASL_LIST_MECHS:
+        send(request, MockBucket.SUCCESS, 0, EMPTY, EMPTY, bytes("PLAIN"));
+        break;
+      case SASL_AUTH:
+      case SASL_STEP:
+        send(request, MockBucket.SUCCESS, 0, EMPTY, EMPTY,
+          bytes("Authenticated"));
+        break;
+      case QUIT:
+        send(request, MockBucket.SUCCESS, 0, EMPTY, EMPTY, EMPTY);
+        return false;
+      case QUITQ:
+        return false;
+      default:
+        send(request, MockBucket.UNKNOWN_COMMAND, 0, EMPTY, EMPTY,
+          bytes("Unknown command"));
+    }
+    return true;
+  }
+
+  private void get(Request request) {
+    int opcode = request.opcode;
+    if (opcode == GET_REPLICA) {
+      if (!cluster.isReplica(request.vbucket, node)) {
+        notMyVBucket(request);
+        return;
+      }
+    } else if (!ownsVBucket(request)) {
+      return;
+    }
+
+    String key = request.key();
+    Result result;
+    if (opcode == GAT || opcode == GATQ) {
+      result = bucket.touch(request.vbucket, key, request.extras().getInt(0));
+    } else if (opcode == GET_LOCKED) {
+      result = bucket.getAndLock(request.vbucket, key,
+        request.extras().getInt(0));
+    } else {
+      Item item = bucket.get(request.vbucket, key);
+      result = new Result(item == null ? MockBucket.KEY_ENOENT
+        : MockBucket.SUCCESS, item);
+    }
+
+    boolean quiet = opcode == GETQ || opcode == GETKQ || opcode == GATQ;
+    if (result.getStatus() != MockBucket.SUCCESS) {
+      if (!quiet || result.getStatus() != MockBucket.KEY_ENOENT) {
+        error(request, result.getStatus());
+      }
+      return;
+    }
+    Item item = result.getItem();
+    byte[] flags = ByteBuffer.allocate(4).putInt(item.getFlags()).array();
+    boolean withKey = opcode == GETK || opcode == GETKQ;
+    send(request, MockBucket.SUCCESS, item.getCas(), flags,
+      withKey ? request.keyBytes() : EMPTY, item.getValue());
+  }
+
+  private void store(Request request) {
+    if (!ownsVBucket(request)) {
+      return;
+    }
+    Mode mode;
+    int quiet;
+    switch (request.opcode) {
+      case SET:
+      case SETQ:
+        mode = Mode.SET;
+        quiet = SETQ;
+        break;
+      case ADD:
+      case ADDQ:
+        mode = Mode.ADD;
+        quiet = ADDQ;
+        break;
+      case REPLACE:
+      case REPLACEQ:
+        mode = Mode.REPLACE;
+        quiet = REPLACEQ;
+        break;
+      case APPEND:
+      case APPENDQ:
+        mode = Mode.APPEND;
+        quiet = APPENDQ;
+        break;
+      default:
+        mode = Mode.PREPEND;
+        quiet = PREPENDQ;
+    }
+    int flags = 0;
+    int expiration = 0;
+    if (request.extrasLength >= 8) {
+      ByteBuffer extras = request.extras();
+      flags = extras.getInt(0);
+      expiration = extras.getInt(4);
+    }
+    reply(request, bucket.store(request.vbucket, request.key(), mode,
+      request.value(), flags, expiration, request.cas), quiet);
+  }
+
+  private void arithmetic(Request request) {
+    if (!ownsVBucket(request)) {
+      return;
+    }
+    ByteBuffer extras = request.extras();
+    boolean increment = request.opcode == INCREMENT
+      || request.opcode == INCREMENTQ;
+    Result result = bucket.arithmetic(request.vbucket, request.key(),
+      extras.getLong(0), extras.getLong(8), extras.getInt(16), increment);
+    if (result.getStatus() != MockBucket.SUCCESS) {
+      error(request, result.getStatus());
+      return;
+    }
+    if (request.opcode == INCREMENTQ || request.opcode == DECREMENTQ) {
+      return;
+    }
+    long value = Long.parseLong(new String(result.getItem().getValue()));
+    send(request, MockBucket.SUCCESS, result.getItem().getCas(), EMPTY,
+      EMPTY, ByteBuffer.allocate(8).putLong(value).array());
+  }
+
+  /**
+   * Answers an observe with the state of every key, documents are always
+   * reported as persisted.
+   */
+  private void observe(Request request) {
+    ByteBuffer keys = ByteBuffer.wrap(request.value());
+    ByteBuffer states = ByteBuffer.allocate(keys.remaining() * 2 + 64);
+    while (keys.remaining() >= 4) {
+      int vbucket = keys.getShort() & 0xffff;
+      byte[] key = new byte[keys.getShort() & 0xffff];
+      keys.get(key);
+      if (!cluster.isMaster(vbucket, node)
+        && !cluster.isReplica(vbucket, node)) {
+        notMyVBucket(request);
+        return;
+      }
+      Item item = bucket.get(vbucket, string(key));
+      if (states.remaining() < key.length + 13) {
+        ByteBuffer larger = ByteBuffer.allocate(states.capacity() * 2
+          + key.length + 13);
+        states.flip();
+        larger.put(states);
+        states = larger;
+      }
+      states.putShort((short) vbucket).putShort((short) key.length).put(key)
+        .put(item == null ? NOT_FOUND_PERSISTED : FOUND_PERSISTED)
+        .putLong(item == null ? 0 : item.getCas());
+    }
+    byte[] body = new byte[states.position()];
+    states.flip();
+    states.get(body);
+    send(request, MockBucket.SUCCESS, 0, EMPTY, EMPTY, body);
+  }
+
+  private void stats(Request request) {
+    String[][] stats = {
+      {"version", VERSION},
+      {"curr_items", Integer.toString(bucket.size())},
+      {"ep_warmup_thread", "complete"},
+    };
+    for (String[] stat : stats) {
+      send(request, MockBucket.SUCCESS, 0, EMPTY, bytes(stat[0]),
+        bytes(stat[1]));
+    }
+    send(request, MockBucket.SUCCESS, 0, EMPTY, EMPTY, EMPTY);
+  }
+
+  /**
+   * Checks if this node is the master of the vbucket of a request and
+   * answers with NOT_MY_VBUCKET if not.
+   */
+  private boolean ownsVBucket(Request request) {
+    if (cluster.isMaster(request.vbucket, node)) {
+      return true;
+    }
+    notMyVBucket(request);
+    return false;
+  }
+
+  private void notMyVBucket(Request request) {
+    error(request, MockBucket.NOT_MY_VBUCKET);
+  }
+
+  /**
+   * Answers with the result of a mutation.
+   *
+   * @param quietOpcode the opcode which suppresses a successful response,
+   *   or -1 if the command has no quiet variant.
+   */
+  private void reply(Request request, Result result, int quietOpcode) {
+    if (result.getStatus() != MockBucket.SUCCESS) {
+      error(request, result.getStatus());
+    } else if (request.opcode != quietOpcode) {
+      send(request, MockBucket.SUCCESS, result.getItem().getCas(), EMPTY,
+        EMPTY, EMPTY);
+    }
+  }
+
+  private void error(Request request, short status) {
+    String message;
+    switch (status) {
+      case MockBucket.KEY_ENOENT:
+        message = "Not found";
+        break;
+      case MockBucket.KEY_EEXISTS:
+        message = "Data exists for key";
+        break;
+      case MockBucket.NOT_STORED:
+        message = "Not stored";
+        break;
+      case MockBucket.DELTA_BADVAL:
+        message = "Non-numeric server-side value for incr or decr";
+        break;
+      case MockBucket.NOT_MY_VBUCKET:
+        message = "Not my vbucket";
+        break;
+      case MockBucket.TMPFAIL:
+        message = "Temporary failure";
+        break;
+      default:
+        message = "Error " + status;
+    }
+    send(request, status, 0, EMPTY, EMPTY, bytes(message));
+  }
+
+  /**
+   * Encodes a response and hands it to the writer.
+   */
+  private void send(Request request, short status, long cas, byte[] extras,
+    byte[] key, byte[] value) {
+    int bodyLength = extras.length + key.length + value.length;
+    ByteBuffer packet = ByteBuffer.allocate(HEADER_LENGTH + bodyLength);
+    packet.put(RESPONSE_MAGIC).put((byte) request.opcode)
+      .putShort((short) key.length).put((byte) extras.length).put((byte) 0)
+      .putShort(status).putInt(bodyLength).putInt(request.opaque)
+      .putLong(cas).put(extras).put(key).put(value);
+
+    long due = Math.max(System.nanoTime() + node.getLatencyNanos(), lastDue);
+    lastDue = due;
+    responses.add(new Response(due, packet.array()));
+  }
+
+  /**
+   * Writes the queued responses once they are due.
+   */
+  private void write() {
+    try {
+      OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+      while (true) {
+        Response response = responses.take();
+        if (response == CLOSE) {
+          out.flush();
+          break;
+        }
+        long wait = response.due - System.nanoTime();
+        if (wait > 0) {
+          out.flush();
+          TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        out.write(response.packet);
+        if (responses.isEmpty()) {
+          out.flush();
+        }
+      }
+    } catch (IOException e) {
+      if (node.isRunning()) {
+        getLogger().debug("Could not write to " + socket, e);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      node.closed(socket);
+    }
+  }
+
+  private static byte[] bytes(String value) {
+    try {
+      return value.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String string(byte[] value) {
+    try {
+      return new String(value, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * A decoded request.
+   */
+  private static final class Request {
+    private final int opcode;
+    private final int vbucket;
+    private final int opaque;
+    private final long cas;
+    private final byte[] body;
+    private final int extrasLength;
+    private final int keyLength;
+
+    Request(int opcode, int vbucket, int opaque, long cas, byte[] body,
+      int extrasLength, int keyLength) {
+      this.opcode = opcode;
+      this.vbucket = vbucket;
+      this.opaque = opaque;
+      this.cas = cas;
+      this.body = body;
+      this.extrasLength = extrasLength;
+      this.keyLength = keyLength;
+    }
+
+    ByteBuffer extras() {
+      return ByteBuffer.wrap(body, 0, extrasLength).slice();
+    }
+
+    byte[] keyBytes() {
+      byte[] key = new byte[keyLength];
+      System.arraycopy(body, extrasLength, key, 0, keyLength);
+      return key;
+    }
+
+    String key() {
+      return string(keyBytes());
+    }
+
+    byte[] value() {
+      int offset = extrasLength + keyLength;
+      byte[] value = new byte[body.length - offset];
+      System.arraycopy(body, offset, value, 0, value.length);
+      return value;
+    }
+  }
+
+  /**
+   * An encoded response and the time it may be written.
+   */
+  private static final class Response {
+    private final long due;
+    private final byte[] packet;
+
+    Response(long due, byte[] packet) {
+      this.due = due;
+      this.packet = packet;
+    }
+  }
+
+}
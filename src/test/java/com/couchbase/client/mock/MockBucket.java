@@ -0,0 +1,408 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The documents of a mocked bucket, partitioned by vbucket.
+ *
+ * Every node of the {@link MockCluster} works on the same storage, so moving
+ * a vbucket during failover or rebalance only changes which node answers
+ * for it. Each partition is guarded by its own lock.
+ */
+final class MockBucket {
+
+  static final short SUCCESS = 0x00;
+  static final short KEY_ENOENT = 0x01;
+  static final short KEY_EEXISTS = 0x02;
+  static final short NOT_STORED = 0x05;
+  static final short DELTA_BADVAL = 0x06;
+  static final short NOT_MY_VBUCKET = 0x07;
+  static final short UNKNOWN_COMMAND = 0x81;
+  static final short TMPFAIL = 0x86;
+
+  /**
+   * Expirations above 30 days are absolute unix timestamps.
+   */
+  private static final long RELATIVE_EXPIRATION_LIMIT = 60 * 60 * 24 * 30;
+
+  /**
+   * The maximum lock time of a get-and-lock in seconds.
+   */
+  private static final int MAX_LOCK_TIME = 30;
+
+  /**
+   * How a document is written by {@link #store}.
+   */
+  enum Mode {
+    SET, ADD, REPLACE, APPEND, PREPEND
+  }
+
+  /**
+   * A stored document.
+   */
+  static final class Item {
+    private final byte[] value;
+    private final int flags;
+    private final long expiresAt;
+    private final long cas;
+    private final long lockedUntil;
+
+    Item(byte[] value, int flags, long expiresAt, long cas,
+      long lockedUntil) {
+      this.value = value;
+      this.flags = flags;
+      this.expiresAt = expiresAt;
+      this.cas = cas;
+      this.lockedUntil = lockedUntil;
+    }
+
+    byte[] getValue() {
+      return value;
+    }
+
+    int getFlags() {
+      return flags;
+    }
+
+    long getCas() {
+      return cas;
+    }
+
+    boolean isExpired(long now) {
+      return expiresAt != 0 && expiresAt <= now;
+    }
+
+    boolean isLocked(long now) {
+      return lockedUntil > now;
+    }
+  }
+
+  /**
+   * The status of an operation and the document it left behind.
+   */
+  static final class Result {
+    private final short status;
+    private final Item item;
+
+    Result(short status, Item item) {
+      this.status = status;
+      this.item = item;
+    }
+
+    short getStatus() {
+      return status;
+    }
+
+    Item getItem() {
+      return item;
+    }
+  }
+
+  private final String name;
+  private final List<Map<String, Item>> partitions;
+  private final AtomicLong casCounter = new AtomicLong();
+
+  MockBucket(String name, int vbuckets) {
+    this.name = name;
+    partitions = new ArrayList<Map<String, Item>>(vbuckets);
+    for (int i = 0; i < vbuckets; i++) {
+      partitions.add(new TreeMap<String, Item>());
+    }
+  }
+
+  String getName() {
+    return name;
+  }
+
+  int getVBucketCount() {
+    return partitions.size();
+  }
+
+  /**
+   * Returns the document or null if it does not exist.
+   */
+  Item get(int vbucket, String key) {
+    Map<String, Item> partition = partitions.get(vbucket);
+    synchronized (partition) {
+      return live(partition, key, System.currentTimeMillis());
+    }
+  }
+
+  /**
+   * Returns the document and locks it for the given number of seconds.
+   */
+  Result getAndLock(int vbucket, String key, int seconds) {
+    if (seconds <= 0 || seconds > MAX_LOCK_TIME) {
+      seconds = MAX_LOCK_TIME;
+    }
+    Map<String, Item> partition = partitions.get(vbucket);
+    synchronized (partition) {
+      long now = System.currentTimeMillis();
+      Item item = live(partition, key, now);
+      if (item == null) {
+        return new Result(KEY_ENOENT, null);
+      }
+      if (item.isLocked(now)) {
+        return new Result(TMPFAIL, null);
+      }
+      Item locked = new Item(item.value, item.flags, item.expiresAt,
+        casCounter.incrementAndGet(), now + seconds * 1000L);
+      partition.put(key, locked);
+      return new Result(SUCCESS, locked);
+    }
+  }
+
+  /**
+   * Releases the lock of a document locked with {@link #getAndLock}.
+   */
+  Result unlock(int vbucket, String key, long cas) {
+    Map<String, Item> partition = partitions.get(vbucket);
+    synchronized (partition) {
+      long now = System.currentTimeMillis();
+      Item item = live(partition, key, now);
+      if (item == null) {
+        return new Result(KEY_ENOENT, null);
+      }
+      if (!item.isLocked(now) || item.cas != cas) {
+        return new Result(TMPFAIL, null);
+      }
+      Item unlocked = new Item(item.value, item.flags, item.expiresAt,
+        item.cas, 0);
+      partition.put(key, unlocked);
+      return new Result(SUCCESS, unlocked);
+    }
+  }
+
+  /**
+   * Writes a document.
+   *
+   * @param cas the expected cas value or 0 to write unconditionally.
+   */
+  Result store(int vbucket, String key, Mode mode, byte[] value, int flags,
+    int expiration, long cas) {
+    Map<String, Item> partition = partitions.get(vbucket);
+    synchronized (partition) {
+      long now = System.currentTimeMillis();
+      Item current = live(partition, key, now);
+      if (mode == Mode.ADD && current != null) {
+        return new Result(KEY_EEXISTS, null);
+      }
+      if (mode != Mode.SET && mode != Mode.ADD && current == null) {
+        return new Result(mode == Mode.REPLACE ? KEY_ENOENT : NOT_STORED,
+          null);
+      }
+      short conflict = checkCas(current, cas, now);
+      if (conflict != SUCCESS) {
+        return new Result(conflict, null);
+      }
+
+      Item stored;
+      if (mode == Mode.APPEND || mode == Mode.PREPEND) {
+        byte[] joined = new byte[current.value.length + value.length];
+        byte[] first = mode == Mode.APPEND ? current.value : value;
+        byte[] second = mode == Mode.APPEND ? value : current.value;
+        System.arraycopy(first, 0, joined, 0, first.length);
+        System.arraycopy(second, 0, joined, first.length, second.length);
+        stored = new Item(joined, current.flags, current.expiresAt,
+          casCounter.incrementAndGet(), 0);
+      } else {
+        stored = new Item(value, flags, expiresAt(expiration, now),
+          casCounter.incrementAndGet(), 0);
+      }
+      partition.put(key, stored);
+      return new Result(SUCCESS, stored);
+    }
+  }
+
+  /**
+   * Removes a document.
+   */
+  Result delete(int vbucket, String key, long cas) {
+    Map<String, Item> partition = partitions.get(vbucket);
+    synchronized (partition) {
+      long now = System.currentTimeMillis();
+      Item current = live(partition, key, now);
+      if (current == null) {
+        return new Result(KEY_ENOENT, null);
+      }
+      short conflict = checkCas(current, cas, now);
+      if (conflict != SUCCESS) {
+        return new Result(conflict, null);
+      }
+      partition.remove(key);
+      return new Result(SUCCESS, new Item(current.value, current.flags, 0,
+        casCounter.incrementAndGet(), 0));
+    }
+  }
+
+  /**
+   * Increments or decrements a counter stored as a decimal string.
+   *
+   * @param expiration the expiration of a created counter, or -1 to fail
+   *   when the counter does not exist.
+   */
+  Result arithmetic(int vbucket, String key, long delta, long initial,
+    int expiration, boolean increment) {
+    Map<String, Item> partition = partitions.get(vbucket);
+    synchronized (partition) {
+      long now = System.currentTimeMillis();
+      Item current = live(partition, key, now);
+      long value;
+      long expiresAt;
+      int flags = 0;
+      if (current == null) {
+        if (expiration == -1) {
+          return new Result(KEY_ENOENT, null);
+        }
+        value = initial;
+        expiresAt = expiresAt(expiration, now);
+      } else {
+        if (current.isLocked(now)) {
+          return new Result(KEY_EEXISTS, null);
+        }
+        try {
+          value = Long.parseLong(new String(current.value, "US-ASCII"));
+        } catch (Exception e) {
+          return new Result(DELTA_BADVAL, null);
+        }
+        if (increment) {
+          value += delta;
+        } else {
+          value = value < delta ? 0 : value - delta;
+        }
+        expiresAt = current.expiresAt;
+        flags = current.flags;
+      }
+      Item stored = new Item(Long.toString(value).getBytes(), flags,
+        expiresAt, casCounter.incrementAndGet(), 0);
+      partition.put(key, stored);
+      return new Result(SUCCESS, stored);
+    }
+  }
+
+  /**
+   * Changes the expiration of a document.
+   */
+  Result touch(int vbucket, String key, int expiration) {
+    Map<String, Item> partition = partitions.get(vbucket);
+    synchronized (partition) {
+      long now = System.currentTimeMillis();
+      Item current = live(partition, key, now);
+      if (current == null) {
+        return new Result(KEY_ENOENT, null);
+      }
+      if (current.isLocked(now)) {
+        return new Result(KEY_EEXISTS, null);
+      }
+      Item touched = new Item(current.value, current.flags,
+        expiresAt(expiration, now), casCounter.incrementAndGet(), 0);
+      partition.put(key, touched);
+      return new Result(SUCCESS, touched);
+    }
+  }
+
+  /**
+   * Removes all documents.
+   */
+  void flush() {
+    for (Map<String, Item> partition : partitions) {
+      synchronized (partition) {
+        partition.clear();
+      }
+    }
+  }
+
+  /**
+   * Returns a sorted snapshot of all documents across the vbuckets.
+   */
+  SortedMap<String, Item> documents() {
+    SortedMap<String, Item> documents = new TreeMap<String, Item>();
+    long now = System.currentTimeMillis();
+    for (Map<String, Item> partition : partitions) {
+      synchronized (partition) {
+        for (Map.Entry<String, Item> entry : partition.entrySet()) {
+          if (!entry.getValue().isExpired(now)) {
+            documents.put(entry.getKey(), entry.getValue());
+          }
+        }
+      }
+    }
+    return documents;
+  }
+
+  /**
+   * Returns the number of documents across the vbuckets.
+   */
+  int size() {
+    int size = 0;
+    for (Map<String, Item> partition : partitions) {
+      synchronized (partition) {
+        size += partition.size();
+      }
+    }
+    return size;
+  }
+
+  private static Item live(Map<String, Item> partition, String key,
+    long now) {
+    Item item = partition.get(key);
+    if (item != null && item.isExpired(now)) {
+      partition.remove(key);
+      return null;
+    }
+    return item;
+  }
+
+  private static short checkCas(Item current, long cas, long now) {
+    if (current == null) {
+      return cas == 0 ? SUCCESS : KEY_ENOENT;
+    }
+    if (current.isLocked(now) && current.cas != cas) {
+      return KEY_EEXISTS;
+    }
+    if (cas != 0 && current.cas != cas) {
+      return KEY_EEXISTS;
+    }
+    return SUCCESS;
+  }
+
+  private static long expiresAt(int expiration, long now) {
+    if (expiration == 0) {
+      return 0;
+    }
+    long seconds = expiration & 0xffffffffL;
+    if (seconds > RELATIVE_EXPIRATION_LIMIT) {
+      return seconds * 1000;
+    }
+    return now + seconds * 1000;
+  }
+
+}
@@ -0,0 +1,507 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.mock;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.spy.memcached.compat.SpyObject;
+
+/**
+ * An in-process stand-in for a Couchbase cluster.
+ *
+ * Every node listens on two loopback ports: one speaks the memcached binary
+ * protocol for the bucket and answers with NOT_MY_VBUCKET for vbuckets it
+ * does not own, the other serves the REST configuration (including the
+ * streaming bucket configuration the client subscribes to) and the view
+ * endpoints. Bootstrapping a client against {@link #getBootstrapUris()}
+ * works like against a real cluster.
+ *
+ * Latency can be injected for the whole cluster or per node, and nodes can
+ * be failed over, added and removed through a rebalance while clients are
+ * running. All nodes share the storage of the bucket, so no data is lost
+ * when vbuckets move.
+ *
+ * Views emit one row per document with the document ID as key and null as
+ * value, a view with a reduce function counts the rows.
+ */
+public class MockCluster extends SpyObject {
+
+  /**
+   * The default pause between the steps of a rebalance.
+   */
+  public static final long DEFAULT_REBALANCE_STEP_MILLIS = 50;
+
+  /**
+   * The number of steps vbuckets are moved in during a rebalance.
+   */
+  private static final int REBALANCE_STEPS = 8;
+
+  private static final String HOST = "127.0.0.1";
+
+  private final MockBucket bucket;
+  private final List<MockNode> members = new ArrayList<MockNode>();
+  private final List<MockNode> allNodes = new ArrayList<MockNode>();
+  private final ConcurrentMap<String, String> designDocs =
+    new ConcurrentHashMap<String, String>();
+  private final Set<String> managedBuckets =
+    new ConcurrentSkipListSet<String>();
+  private final AtomicInteger nodeIds = new AtomicInteger();
+  private final ExecutorService executor;
+  private final int initialNodes;
+
+  private volatile MockNode[][] vbucketMap;
+  private volatile String config;
+  private volatile long latencyNanos;
+  private volatile long rebalanceStepMillis = DEFAULT_REBALANCE_STEP_MILLIS;
+  private int revision;
+
+  /**
+   * Creates a cluster with the "default" bucket.
+   *
+   * @param nodes the number of nodes to start with.
+   * @param vbuckets the number of vbuckets.
+   */
+  public MockCluster(int nodes, int vbuckets) {
+    this("default", nodes, vbuckets);
+  }
+
+  /**
+   * Creates a cluster with a bucket of the given name.
+   *
+   * Buckets other than "default" are authenticated through SASL, the mock
+   * accepts every password.
+   *
+   * @param bucketName the name of the bucket.
+   * @param nodes the number of nodes to start with.
+   * @param vbuckets the number of vbuckets.
+   */
+  public MockCluster(String bucketName, int nodes, int vbuckets) {
+    if (nodes <= 0) {
+      throw new IllegalArgumentException("At least one node is needed.");
+    }
+    if (vbuckets <= 0 || (vbuckets & (vbuckets - 1)) != 0) {
+      throw new IllegalArgumentException("The number of vbuckets must be a "
+        + "power of two.");
+    }
+    bucket = new MockBucket(bucketName, vbuckets);
+    initialNodes = nodes;
+    vbucketMap = new MockNode[vbuckets][2];
+    executor = Executors.newCachedThreadPool(new ThreadFactory() {
+      private final AtomicInteger threads = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "MockCluster-"
+          + threads.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Starts the nodes and assigns the vbuckets round-robin.
+   *
+   * @throws IOException if a port could not be bound.
+   */
+  public synchronized void start() throws IOException {
+    if (!members.isEmpty()) {
+      throw new IllegalStateException("The cluster is already started.");
+    }
+    for (int i = 0; i < initialNodes; i++) {
+      members.add(startNode());
+    }
+    MockNode[][] map = new MockNode[vbucketMap.length][];
+    for (int i = 0; i < map.length; i++) {
+      map[i] = target(members, i);
+    }
+    vbucketMap = map;
+    publish(members);
+  }
+
+  /**
+   * Stops all nodes and closes every client connection.
+   */
+  public synchronized void stop() {
+    for (MockNode node : allNodes) {
+      node.stop();
+    }
+    members.clear();
+    executor.shutdownNow();
+  }
+
+  /**
+   * Returns the URIs a client bootstraps from, one per node in the cluster.
+   *
+   * @return the pools URIs of the nodes.
+   */
+  public synchronized List<URI> getBootstrapUris() {
+    List<URI> uris = new ArrayList<URI>(members.size());
+    for (MockNode node : members) {
+      uris.add(node.getBootstrapUri());
+    }
+    return uris;
+  }
+
+  /**
+   * Returns the nodes which are currently part of the cluster.
+   *
+   * @return the nodes in the order of the server list.
+   */
+  public synchronized List<MockNode> getNodes() {
+    return Collections.unmodifiableList(new ArrayList<MockNode>(members));
+  }
+
+  /**
+   * Returns a node which is currently part of the cluster.
+   *
+   * @param index the index in the server list.
+   * @return the node.
+   */
+  public synchronized MockNode getNode(int index) {
+    return members.get(index);
+  }
+
+  public String getBucketName() {
+    return bucket.getName();
+  }
+
+  public int getVBucketCount() {
+    return bucket.getVBucketCount();
+  }
+
+  /**
+   * Returns the number of documents stored in the bucket.
+   *
+   * @return the number of documents.
+   */
+  public int getDocumentCount() {
+    return bucket.size();
+  }
+
+  /**
+   * Returns the revision of the configuration, it is increased every time
+   * a new configuration is streamed to the clients.
+   *
+   * @return the revision.
+   */
+  public synchronized int getRevision() {
+    return revision;
+  }
+
+  /**
+   * Delays every response of every node.
+   *
+   * A latency set on a node through {@link MockNode#setLatency} takes
+   * precedence.
+   *
+   * @param latency the delay, 0 to disable.
+   * @param unit the unit of the delay.
+   */
+  public void setLatency(long latency, TimeUnit unit) {
+    if (latency < 0) {
+      throw new IllegalArgumentException("Latency must not be negative.");
+    }
+    latencyNanos = unit.toNanos(latency);
+  }
+
+  long getLatencyNanos() {
+    return latencyNanos;
+  }
+
+  /**
+   * Sets the pause between the steps of a rebalance. Moved vbuckets answer
+   * with NOT_MY_VBUCKET until the next configuration is streamed after the
+   * pause.
+   *
+   * @param delay the pause.
+   * @param unit the unit of the pause.
+   */
+  public void setRebalanceDelay(long delay, TimeUnit unit) {
+    if (delay < 0) {
+      throw new IllegalArgumentException("Delay must not be negative.");
+    }
+    rebalanceStepMillis = unit.toMillis(delay);
+  }
+
+  /**
+   * Stores a design document, like the client does through the view port.
+   *
+   * @param name the name of the design document.
+   * @param json the design document.
+   */
+  public void createDesignDoc(String name, String json) {
+    designDocs.put(name, json);
+  }
+
+  /**
+   * Fails over a node without a rebalance: its replicas become the masters
+   * of its vbuckets, the new configuration is streamed to the clients and
+   * the node is stopped. Vbuckets without a replica have no master
+   * afterwards.
+   *
+   * To simulate a crash, {@link MockNode#stop()} the node first. Clients
+   * streaming the configuration from it then have to find another node.
+   *
+   * @param node the node to fail over.
+   */
+  public synchronized void failover(MockNode node) {
+    List<MockNode> recipients = new ArrayList<MockNode>(members);
+    if (!members.remove(node)) {
+      throw new IllegalArgumentException(node + " is not part of the "
+        + "cluster.");
+    }
+    MockNode[][] map = new MockNode[vbucketMap.length][];
+    for (int i = 0; i < map.length; i++) {
+      MockNode master = vbucketMap[i][0];
+      MockNode replica = vbucketMap[i][1];
+      if (master == node) {
+        map[i] = new MockNode[] {replica, null};
+      } else if (replica == node) {
+        map[i] = new MockNode[] {master, null};
+      } else {
+        map[i] = vbucketMap[i];
+      }
+    }
+    vbucketMap = map;
+    publish(recipients);
+    node.stop();
+  }
+
+  /**
+   * Starts a new node and adds it to the configuration. It does not own
+   * vbuckets until {@link #rebalance()} is called.
+   *
+   * @return the new node.
+   * @throws IOException if a port could not be bound.
+   */
+  public synchronized MockNode addNode() throws IOException {
+    MockNode node = startNode();
+    members.add(node);
+    publish(members);
+    return node;
+  }
+
+  /**
+   * Removes a node through a rebalance and stops it once it does not own
+   * vbuckets anymore.
+   *
+   * @param node the node to remove.
+   * @throws InterruptedException if interrupted between the steps.
+   */
+  public synchronized void rebalanceOut(MockNode node)
+    throws InterruptedException {
+    if (members.size() < 2 || !members.contains(node)) {
+      throw new IllegalArgumentException(node + " can not be removed.");
+    }
+    List<MockNode> recipients = new ArrayList<MockNode>(members);
+    moveVBuckets(without(node));
+    members.remove(node);
+    publish(recipients);
+    node.stop();
+  }
+
+  /**
+   * Spreads the vbuckets evenly over all nodes of the cluster.
+   *
+   * The vbuckets are moved in steps. Each step hands the vbuckets over on
+   * the nodes first and streams the new configuration after the rebalance
+   * delay, so clients still using the old map are answered with
+   * NOT_MY_VBUCKET in between.
+   *
+   * @throws InterruptedException if interrupted between the steps.
+   */
+  public synchronized void rebalance() throws InterruptedException {
+    moveVBuckets(members);
+  }
+
+  boolean isMaster(int vbucket, MockNode node) {
+    MockNode[][] map = vbucketMap;
+    return vbucket >= 0 && vbucket < map.length && map[vbucket][0] == node;
+  }
+
+  boolean isReplica(int vbucket, MockNode node) {
+    MockNode[][] map = vbucketMap;
+    return vbucket >= 0 && vbucket < map.length && map[vbucket][1] == node;
+  }
+
+  MockBucket getBucket() {
+    return bucket;
+  }
+
+  ConcurrentMap<String, String> getDesignDocs() {
+    return designDocs;
+  }
+
+  /**
+   * Returns the buckets created over the REST API. They are only listed and
+   * do not serve any data.
+   */
+  Set<String> getManagedBuckets() {
+    return managedBuckets;
+  }
+
+  /**
+   * Returns the bucket configuration as streamed to the clients.
+   */
+  String getConfig() {
+    return config;
+  }
+
+  void execute(Runnable task) {
+    executor.execute(task);
+  }
+
+  /**
+   * Returns the default pool in the layout of /pools/default.
+   */
+  synchronized String getPool() {
+    StringBuilder json = new StringBuilder(256);
+    json.append("{\"name\":\"default\",\"nodes\":");
+    appendNodes(json);
+    json.append(",\"buckets\":{\"uri\":\"/pools/default/buckets\"}}");
+    return json.toString();
+  }
+
+  private MockNode startNode() throws IOException {
+    MockNode node = new MockNode(this, HOST, nodeIds.incrementAndGet());
+    node.start();
+    allNodes.add(node);
+    return node;
+  }
+
+  private List<MockNode> without(MockNode node) {
+    List<MockNode> remaining = new ArrayList<MockNode>(members);
+    remaining.remove(node);
+    return remaining;
+  }
+
+  private void moveVBuckets(List<MockNode> nodes) throws InterruptedException {
+    List<Integer> moves = new ArrayList<Integer>();
+    for (int i = 0; i < vbucketMap.length; i++) {
+      MockNode[] target = target(nodes, i);
+      if (vbucketMap[i][0] != target[0] || vbucketMap[i][1] != target[1]) {
+        moves.add(i);
+      }
+    }
+    getLogger().info("Rebalancing " + moves.size() + " vbuckets onto "
+      + nodes.size() + " nodes.");
+
+    int perStep = Math.max(1, (moves.size() + REBALANCE_STEPS - 1)
+      / REBALANCE_STEPS);
+    for (int start = 0; start < moves.size(); start += perStep) {
+      MockNode[][] map = vbucketMap.clone();
+      int end = Math.min(moves.size(), start + perStep);
+      for (int vbucket : moves.subList(start, end)) {
+        map[vbucket] = target(nodes, vbucket);
+      }
+      vbucketMap = map;
+      Thread.sleep(rebalanceStepMillis);
+      publish(members);
+    }
+  }
+
+  /**
+   * Returns the master and replica of a vbucket in a balanced cluster.
+   */
+  private static MockNode[] target(List<MockNode> nodes, int vbucket) {
+    MockNode master = nodes.get(vbucket % nodes.size());
+    MockNode replica = nodes.size() > 1
+      ? nodes.get((vbucket + 1) % nodes.size()) : null;
+    return new MockNode[] {master, replica};
+  }
+
+  /**
+   * Builds the configuration out of the current vbucket map and streams it
+   * to the clients subscribed through the given nodes.
+   */
+  private void publish(List<MockNode> recipients) {
+    revision++;
+    StringBuilder json = new StringBuilder(32 * 1024);
+    json.append("{\"rev\":").append(revision).append(",\"name\":\"")
+      .append(bucket.getName()).append("\",\"bucketType\":\"membase\",")
+      .append("\"uri\":\"/pools/default/buckets/").append(bucket.getName())
+      .append("\",\"streamingUri\":\"/pools/default/bucketsStreaming/")
+      .append(bucket.getName()).append("\",\"nodes\":");
+    appendNodes(json);
+    json.append(",\"vBucketServerMap\":{\"hashAlgorithm\":\"CRC\",")
+      .append("\"numReplicas\":1,\"serverList\":[");
+    for (int i = 0; i < members.size(); i++) {
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append('"').append(members.get(i).getMemcachedAddress())
+        .append('"');
+    }
+    json.append("],\"vBucketMap\":[");
+    MockNode[][] map = vbucketMap;
+    for (int i = 0; i < map.length; i++) {
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append('[').append(members.indexOf(map[i][0])).append(',')
+        .append(members.indexOf(map[i][1])).append(']');
+    }
+    json.append("]}}");
+    config = json.toString();
+
+    for (MockNode node : recipients) {
+      node.publish(config);
+    }
+  }
+
+  /**
+   * Appends the node list, there is no moxi so the proxy port is the
+   * memcached port as well.
+   */
+  private void appendNodes(StringBuilder json) {
+    json.append('[');
+    for (int i = 0; i < members.size(); i++) {
+      MockNode node = members.get(i);
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append("{\"status\":\"healthy\",\"hostname\":\"").append(HOST)
+        .append(':').append(node.getRestPort())
+        .append("\",\"couchApiBase\":\"http://").append(HOST).append(':')
+        .append(node.getRestPort()).append('/').append(bucket.getName())
+        .append("\",\"ports\":{\"proxy\":").append(node.getMemcachedPort())
+        .append(",\"direct\":").append(node.getMemcachedPort()).append("}}");
+    }
+    json.append(']');
+  }
+
+}
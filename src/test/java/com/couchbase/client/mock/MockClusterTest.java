@@ -0,0 +1,221 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.mock;
+
+import com.couchbase.client.CouchbaseClient;
+import com.couchbase.client.CouchbaseConnectionFactory;
+import com.couchbase.client.CouchbaseConnectionFactoryBuilder;
+import com.couchbase.client.protocol.views.ComplexKey;
+import com.couchbase.client.protocol.views.Query;
+import com.couchbase.client.protocol.views.View;
+import com.couchbase.client.protocol.views.ViewResponse;
+import com.couchbase.client.protocol.views.ViewRow;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import net.spy.memcached.MemcachedNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the client against the {@link MockCluster}.
+ */
+public class MockClusterTest {
+
+  private static final int DOCUMENTS = 200;
+
+  private MockCluster cluster;
+  private CouchbaseClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    cluster = new MockCluster(3, 64);
+    cluster.setRebalanceDelay(10, TimeUnit.MILLISECONDS);
+    cluster.start();
+    client = new CouchbaseClient(cluster.getBootstrapUris(),
+      cluster.getBucketName(), "");
+  }
+
+  @After
+  public void tearDown() {
+    client.shutdown(5, TimeUnit.SECONDS);
+    cluster.stop();
+  }
+
+  @Test
+  public void shouldStoreAndLoadDocuments() throws Exception {
+    store();
+    assertEquals(DOCUMENTS, cluster.getDocumentCount());
+    assertLoaded();
+    assertEquals(1L, client.incr("counter", 1, 1));
+    assertEquals(3L, client.incr("counter", 2));
+    assertTrue(client.delete("key-0").get());
+    assertEquals(null, client.get("key-0"));
+  }
+
+  @Test
+  public void shouldKeepDocumentsAvailableAfterFailover() throws Exception {
+    store();
+    cluster.failover(cluster.getNode(1));
+    awaitServers();
+    assertLoaded();
+  }
+
+  /**
+   * Operations against a crashed node make the client resubscribe before
+   * the node is failed over, the new subscription has to receive the
+   * failover configuration.
+   */
+  @Test
+  public void shouldFollowFailoverOfCrashedNode() throws Exception {
+    store();
+    cluster.getNode(2).stop();
+    long resubscribed = System.currentTimeMillis()
+      + CouchbaseConnectionFactory.DEFAULT_MIN_RECONNECT_INTERVAL * 2;
+    while (System.currentTimeMillis() < resubscribed) {
+      for (int i = 0; i < DOCUMENTS; i++) {
+        client.asyncGet("key-" + i);
+      }
+      Thread.sleep(50);
+    }
+    cluster.failover(cluster.getNode(2));
+    awaitServers();
+    assertLoaded();
+  }
+
+  @Test
+  public void shouldFollowVBucketsDuringRebalance() throws Exception {
+    store();
+    MockNode added = cluster.addNode();
+    cluster.rebalance();
+    cluster.rebalanceOut(cluster.getNode(0));
+    awaitServers();
+    assertTrue(added.isRunning());
+    assertLoaded();
+    for (int i = 0; i < DOCUMENTS; i++) {
+      assertTrue(client.set("key-" + i, 0, "updated-" + i).get());
+    }
+  }
+
+  @Test
+  public void shouldAttachNewNodesOnAllIoThreads() throws Exception {
+    CouchbaseClient sharded = new CouchbaseClient(
+      new CouchbaseConnectionFactoryBuilder().setIoThreads(3)
+        .buildCouchbaseConnection(cluster.getBootstrapUris(),
+          cluster.getBucketName(), ""));
+    try {
+      MockNode added = cluster.addNode();
+      cluster.rebalance();
+      long deadline = System.currentTimeMillis() + 5000;
+      int connections = 0;
+      while (connections < 3 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+        connections = 0;
+        for (MemcachedNode node : sharded.getNodeLocator().getAll()) {
+          if (((InetSocketAddress) node.getSocketAddress()).getPort()
+            == added.getMemcachedPort()) {
+            connections++;
+          }
+        }
+      }
+      assertEquals(3, connections);
+      for (int i = 0; i < DOCUMENTS; i++) {
+        assertTrue(sharded.set("key-" + i, 0, "value-" + i).get());
+      }
+      for (int i = 0; i < DOCUMENTS; i++) {
+        assertEquals("value-" + i, sharded.get("key-" + i));
+      }
+    } finally {
+      sharded.shutdown(5, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void shouldQueryViews() throws Exception {
+    store();
+    cluster.createDesignDoc("docs", "{\"views\":{\"all\":{\"map\":"
+      + "\"function(doc, meta) { emit(meta.id, null); }\"},\"count\":{"
+      + "\"map\":\"function(doc, meta) { emit(meta.id, null); }\","
+      + "\"reduce\":\"_count\"}}}");
+
+    View all = client.getView("docs", "all");
+    List<String> ids = new ArrayList<String>();
+    for (ViewRow row : client.query(all, new Query().setRange(
+      ComplexKey.of("key-100"), ComplexKey.of("key-109")))) {
+      ids.add(row.getId());
+    }
+    assertEquals(10, ids.size());
+    assertEquals("key-100", ids.get(0));
+    assertEquals("key-109", ids.get(9));
+
+    View count = client.getView("docs", "count");
+    ViewResponse reduced = client.query(count, new Query());
+    assertEquals(String.valueOf(DOCUMENTS),
+      reduced.iterator().next().getValue());
+  }
+
+  private void store() throws Exception {
+    for (int i = 0; i < DOCUMENTS; i++) {
+      assertTrue(client.set("key-" + i, 0, "value-" + i).get());
+    }
+  }
+
+  private void assertLoaded() {
+    for (int i = 0; i < DOCUMENTS; i++) {
+      assertEquals("value-" + i, client.get("key-" + i));
+    }
+  }
+
+  /**
+   * Waits until the client has applied the last streamed configuration.
+   */
+  private void awaitServers() throws InterruptedException {
+    Set<Integer> expected = new HashSet<Integer>();
+    for (MockNode node : cluster.getNodes()) {
+      expected.add(node.getMemcachedPort());
+    }
+    long deadline = System.currentTimeMillis() + 5000;
+    while (System.currentTimeMillis() < deadline) {
+      Set<Integer> ports = new HashSet<Integer>();
+      for (MemcachedNode node : client.getNodeLocator().getAll()) {
+        ports.add(((InetSocketAddress) node.getSocketAddress()).getPort());
+      }
+      if (ports.equals(expected)) {
+        return;
+      }
+      Thread.sleep(10);
+    }
+    fail("The client did not pick up the configuration.");
+  }
+
+}
@@ -0,0 +1,257 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.mock;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import net.spy.memcached.compat.SpyObject;
+
+/**
+ * A node of the {@link MockCluster}.
+ *
+ * It listens on a memcached port and a REST port on the loopback interface
+ * and serves every accepted connection from its own thread.
+ */
+public final class MockNode extends SpyObject {
+
+  private final MockCluster cluster;
+  private final String host;
+  private final int id;
+  private final Set<Socket> connections = new HashSet<Socket>();
+  private final Set<RestHandler> streams =
+    new CopyOnWriteArraySet<RestHandler>();
+
+  private volatile boolean running;
+  private final List<String> restRequests =
+    new CopyOnWriteArrayList<String>();
+  private volatile long latencyNanos = -1;
+  private ServerSocket memcachedSocket;
+  private ServerSocket restSocket;
+
+  MockNode(MockCluster cluster, String host, int id) {
+    this.cluster = cluster;
+    this.host = host;
+    this.id = id;
+  }
+
+  /**
+   * Binds both ports and starts accepting connections.
+   */
+  void start() throws IOException {
+    InetAddress address = InetAddress.getByName(host);
+    memcachedSocket = new ServerSocket();
+    memcachedSocket.bind(new InetSocketAddress(address, 0));
+    restSocket = new ServerSocket();
+    restSocket.bind(new InetSocketAddress(address, 0));
+    running = true;
+    accept(memcachedSocket, true);
+    accept(restSocket, false);
+  }
+
+  /**
+   * Stops the node like a crashed server: both ports are closed and all
+   * open connections are dropped. The configuration is not changed, use
+   * {@link MockCluster#failover(MockNode)} for that.
+   */
+  public void stop() {
+    running = false;
+    closeQuietly(memcachedSocket);
+    closeQuietly(restSocket);
+    List<Socket> open;
+    synchronized (connections) {
+      open = new ArrayList<Socket>(connections);
+      connections.clear();
+    }
+    for (Socket socket : open) {
+      closeQuietly(socket);
+    }
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * Delays every response of this node, independent of the latency of the
+   * cluster.
+   *
+   * @param latency the delay, 0 to disable.
+   * @param unit the unit of the delay.
+   */
+  public void setLatency(long latency, TimeUnit unit) {
+    if (latency < 0) {
+      throw new IllegalArgumentException("Latency must not be negative.");
+    }
+    latencyNanos = unit.toNanos(latency);
+  }
+
+  /**
+   * Removes the latency of this node, so the latency of the cluster
+   * applies again.
+   */
+  public void clearLatency() {
+    latencyNanos = -1;
+  }
+
+  long getLatencyNanos() {
+    long latency = latencyNanos;
+    return latency >= 0 ? latency : cluster.getLatencyNanos();
+  }
+
+  /**
+   * Returns the requests received on the REST port, as method and target.
+   */
+  public List<String> getRestRequests() {
+    return restRequests;
+  }
+
+  void restRequestReceived(String method, String target) {
+    restRequests.add(method + " " + target);
+  }
+
+  public int getMemcachedPort() {
+    return memcachedSocket.getLocalPort();
+  }
+
+  public int getRestPort() {
+    return restSocket.getLocalPort();
+  }
+
+  /**
+   * Returns the memcached address as listed in the server list.
+   *
+   * @return host and port of the memcached port.
+   */
+  public String getMemcachedAddress() {
+    return host + ":" + getMemcachedPort();
+  }
+
+  /**
+   * Returns the URI a client bootstraps from through this node.
+   *
+   * @return the pools URI of the REST port.
+   */
+  public URI getBootstrapUri() {
+    return URI.create("http://" + host + ":" + getRestPort() + "/pools");
+  }
+
+  MockCluster getCluster() {
+    return cluster;
+  }
+
+  /**
+   * Streams a new configuration to all clients subscribed through this
+   * node.
+   */
+  void publish(String config) {
+    for (RestHandler stream : streams) {
+      stream.push(config);
+    }
+  }
+
+  void addStream(RestHandler stream) {
+    streams.add(stream);
+  }
+
+  void removeStream(RestHandler stream) {
+    streams.remove(stream);
+  }
+
+  /**
+   * Called by the handlers once their connection is done.
+   */
+  void closed(Socket socket) {
+    synchronized (connections) {
+      connections.remove(socket);
+    }
+    closeQuietly(socket);
+  }
+
+  private void accept(final ServerSocket server, final boolean memcached) {
+    cluster.execute(new Runnable() {
+      @Override
+      public void run() {
+        while (running) {
+          Socket socket;
+          try {
+            socket = server.accept();
+            socket.setTcpNoDelay(true);
+          } catch (IOException e) {
+            if (running) {
+              getLogger().warn("Could not accept a connection on " + server,
+                e);
+            }
+            continue;
+          }
+          synchronized (connections) {
+            if (!running) {
+              closeQuietly(socket);
+              return;
+            }
+            connections.add(socket);
+          }
+          cluster.execute(memcached
+            ? new BinaryProtocolHandler(MockNode.this, socket)
+            : new RestHandler(MockNode.this, socket));
+        }
+      }
+    });
+  }
+
+  private static void closeQuietly(ServerSocket socket) {
+    if (socket != null) {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // Ignored, the node is stopping.
+      }
+    }
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // Ignored, the connection is dropped anyway.
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "MockNode{id=" + id + ", memcached=" + getMemcachedAddress()
+      + ", rest=" + getRestPort() + "}";
+  }
+
+}
@@ -0,0 +1,478 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.mock;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import net.spy.memcached.compat.SpyObject;
+
+/**
+ * Serves one HTTP connection to the REST port of a {@link MockNode}.
+ *
+ * It answers the configuration requests of the bootstrap, keeps streaming
+ * connections open to push new configurations, and serves design documents
+ * and view queries. Buckets can be created, deleted and flushed like over
+ * the admin API. Connections are kept alive between requests.
+ */
+final class RestHandler extends SpyObject implements Runnable {
+
+  private static final String POOLS = "/pools";
+  private static final String POOL = "/pools/default";
+  private static final String BUCKETS = "/pools/default/buckets";
+  private static final String BUCKET = "/pools/default/buckets/";
+  private static final String STREAMING = "/pools/default/bucketsStreaming/";
+  private static final String DESIGN = "/_design/";
+  private static final String VIEW = "/_view/";
+  private static final String FLUSH = "/controller/doFlush";
+  private static final String DELIMITER = "\n\n\n\n";
+  private static final String CRLF = "\r\n";
+
+  private final MockNode node;
+  private final MockCluster cluster;
+  private final Socket socket;
+  private InputStream in;
+  private OutputStream out;
+  private boolean streaming;
+
+  RestHandler(MockNode node, Socket socket) {
+    this.node = node;
+    this.socket = socket;
+    cluster = node.getCluster();
+  }
+
+  @Override
+  public void run() {
+    try {
+      in = new BufferedInputStream(socket.getInputStream());
+      out = new BufferedOutputStream(socket.getOutputStream());
+      boolean keepAlive = true;
+      while (keepAlive) {
+        String requestLine = readLine();
+        if (requestLine == null) {
+          break;
+        }
+        if (requestLine.length() == 0) {
+          continue;
+        }
+        String[] parts = requestLine.split(" ");
+        if (parts.length < 2) {
+          throw new IOException("Invalid request line " + requestLine);
+        }
+        Map<String, String> headers = readHeaders();
+        byte[] body = readBody(headers);
+        keepAlive = !"close".equalsIgnoreCase(headers.get("connection"));
+        node.restRequestReceived(parts[0], parts[1]);
+
+        long latency = node.getLatencyNanos();
+        if (latency > 0) {
+          TimeUnit.NANOSECONDS.sleep(latency);
+        }
+        handle(parts[0], parts[1], body);
+      }
+    } catch (IOException e) {
+      if (node.isRunning()) {
+        getLogger().debug("Closing REST connection " + socket, e);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      node.removeStream(this);
+      node.closed(socket);
+    }
+  }
+
+  /**
+   * Writes a configuration chunk if this connection is streaming.
+   */
+  synchronized void push(String config) {
+    if (!streaming) {
+      return;
+    }
+    try {
+      writeChunk(config);
+    } catch (IOException e) {
+      node.closed(socket);
+    }
+  }
+
+  private void handle(String method, String target, byte[] body)
+    throws IOException {
+    int query = target.indexOf('?');
+    String path = query < 0 ? target : target.substring(0, query);
+    if (path.length() > 1 && path.endsWith("/")) {
+      path = path.substring(0, path.length() - 1);
+    }
+    Map<String, String> params = query < 0
+      ? Collections.<String, String>emptyMap()
+      : parseQuery(target.substring(query + 1));
+    String bucketName = cluster.getBucketName();
+    String config = cluster.getConfig();
+
+    if (config == null) {
+      send(503, "{\"error\":\"not_ready\"}");
+    } else if (path.equals(POOLS)) {
+      send(200, "{\"pools\":[{\"name\":\"default\",\"uri\":\"" + POOL
+        + "\",\"streamingUri\":\"/poolsStreaming/default\"}]}");
+    } else if (path.equals(POOL)) {
+      send(200, cluster.getPool());
+    } else if (path.equals(BUCKETS) && "POST".equals(method)) {
+      createBucket(parseQuery(new String(body, "UTF-8")));
+    } else if (path.equals(BUCKETS)) {
+      listBuckets(config);
+    } else if (path.startsWith(BUCKET) && path.endsWith(FLUSH)) {
+      flushBucket(decode(path.substring(BUCKET.length(),
+        path.length() - FLUSH.length())));
+    } else if (path.startsWith(BUCKET) && "DELETE".equals(method)) {
+      deleteBucket(decode(path.substring(BUCKET.length())));
+    } else if (path.equals(BUCKET + bucketName)) {
+      send(200, config);
+    } else if (path.equals(STREAMING + bucketName)) {
+      stream();
+    } else if (path.startsWith("/" + bucketName + DESIGN)) {
+      String design = path.substring(bucketName.length() + DESIGN.length()
+        + 1);
+      int view = design.indexOf(VIEW);
+      if (view < 0) {
+        designDoc(method, decode(design), body);
+      } else {
+        query(decode(design.substring(0, view)),
+          decode(design.substring(view + VIEW.length())), params);
+      }
+    } else {
+      notFound("missing");
+    }
+  }
+
+  private void listBuckets(String config) throws IOException {
+    StringBuilder json = new StringBuilder(config.length() + 64);
+    json.append('[').append(config);
+    for (String name : cluster.getManagedBuckets()) {
+      json.append(",{\"name\":").append(JSONObject.quote(name)).append('}');
+    }
+    send(200, json.append(']').toString());
+  }
+
+  /**
+   * Accepts a new bucket like the cluster does, only its name is kept.
+   */
+  private void createBucket(Map<String, String> params) throws IOException {
+    String name = params.get("name");
+    if (name == null || name.length() == 0) {
+      badRequest("name", "Bucket name cannot be empty");
+    } else if (name.equals(cluster.getBucketName())
+      || !cluster.getManagedBuckets().add(name)) {
+      badRequest("name", "Bucket with given name already exists");
+    } else {
+      send(202, "");
+    }
+  }
+
+  private void deleteBucket(String name) throws IOException {
+    if (cluster.getManagedBuckets().remove(name)) {
+      send(200, "");
+    } else {
+      notFound("Bucket not found");
+    }
+  }
+
+  private void flushBucket(String name) throws IOException {
+    if (name.equals(cluster.getBucketName())) {
+      cluster.getBucket().flush();
+      send(200, "");
+    } else if (cluster.getManagedBuckets().contains(name)) {
+      send(200, "");
+    } else {
+      notFound("Bucket not found");
+    }
+  }
+
+  /**
+   * Keeps the connection open and streams the current and every following
+   * configuration, separated by four newlines like the cluster does.
+   */
+  private void stream() throws IOException {
+    node.addStream(this);
+    synchronized (this) {
+      write("HTTP/1.1 200 OK" + CRLF
+        + "Content-Type: application/json; charset=utf-8" + CRLF
+        + "Transfer-Encoding: chunked" + CRLF + CRLF);
+      writeChunk(cluster.getConfig());
+      streaming = true;
+    }
+    while (in.read() != -1) {
+      // Wait until the client closes the stream.
+    }
+    throw new IOException("Streaming connection closed by the client");
+  }
+
+  private void designDoc(String method, String name, byte[] body)
+    throws IOException {
+    Map<String, String> designDocs = cluster.getDesignDocs();
+    if ("PUT".equals(method)) {
+      designDocs.put(name, new String(body, "UTF-8"));
+      send(201, "{\"ok\":true,\"id\":\"_design/" + name + "\"}");
+    } else if ("DELETE".equals(method)) {
+      if (designDocs.remove(name) == null) {
+        notFound("deleted");
+      } else {
+        send(200, "{\"ok\":true,\"id\":\"_design/" + name + "\"}");
+      }
+    } else {
+      String json = designDocs.get(name);
+      if (json == null) {
+        notFound("missing");
+      } else {
+        send(200, json);
+      }
+    }
+  }
+
+  /**
+   * Runs a view query over all documents of the bucket.
+   */
+  private void query(String design, String viewName,
+    Map<String, String> params) throws IOException {
+    String json = cluster.getDesignDocs().get(design);
+    JSONObject view = null;
+    try {
+      if (json != null) {
+        JSONObject views = new JSONObject(json).optJSONObject("views");
+        view = views == null ? null : views.optJSONObject(viewName);
+      }
+    } catch (JSONException e) {
+      getLogger().warn("Design document " + design + " is invalid", e);
+    }
+    if (view == null) {
+      notFound("missing_named_view");
+      return;
+    }
+
+    List<String> ids = new ArrayList<String>(
+      cluster.getBucket().documents().keySet());
+    int total = ids.size();
+    boolean descending = "true".equals(params.get("descending"));
+    if (descending) {
+      Collections.reverse(ids);
+    }
+    int direction = descending ? -1 : 1;
+    String key = jsonString(params.get("key"));
+    String startKey = jsonString(params.get("startkey"));
+    String endKey = jsonString(params.get("endkey"));
+    boolean inclusiveEnd = !"false".equals(params.get("inclusive_end"));
+    List<String> rows = new ArrayList<String>();
+    for (String id : ids) {
+      if (key != null && !key.equals(id)
+        || startKey != null && id.compareTo(startKey) * direction < 0
+        || endKey != null && (id.compareTo(endKey) * direction > 0
+          || !inclusiveEnd && id.equals(endKey))) {
+        continue;
+      }
+      rows.add(id);
+    }
+
+    if (view.has("reduce") && !"false".equals(params.get("reduce"))) {
+      send(200, "{\"rows\":[{\"key\":null,\"value\":" + rows.size()
+        + "}]}");
+      return;
+    }
+
+    int skip = intParam(params, "skip", 0);
+    int limit = intParam(params, "limit", Integer.MAX_VALUE);
+    StringBuilder result = new StringBuilder(64 + rows.size() * 32);
+    result.append("{\"total_rows\":").append(total).append(",\"rows\":[");
+    int written = 0;
+    for (int i = skip; i < rows.size() && written < limit; i++) {
+      if (written++ > 0) {
+        result.append(',');
+      }
+      String id = JSONObject.quote(rows.get(i));
+      result.append("{\"id\":").append(id).append(",\"key\":").append(id)
+        .append(",\"value\":null}");
+    }
+    result.append("]}");
+    send(200, result.toString());
+  }
+
+  private void badRequest(String field, String reason) throws IOException {
+    send(400, "{\"errors\":{\"" + field + "\":" + JSONObject.quote(reason)
+      + "}}");
+  }
+
+  private void notFound(String reason) throws IOException {
+    send(404, "{\"error\":\"not_found\",\"reason\":\"" + reason + "\"}");
+  }
+
+  private void send(int status, String json) throws IOException {
+    byte[] body = json.getBytes("UTF-8");
+    synchronized (this) {
+      write("HTTP/1.1 " + status + " " + reason(status) + CRLF
+        + "Content-Type: application/json" + CRLF
+        + "Content-Length: " + body.length + CRLF + CRLF);
+      out.write(body);
+      out.flush();
+    }
+  }
+
+  private void writeChunk(String config) throws IOException {
+    byte[] chunk = config.getBytes("UTF-8");
+    write(Integer.toHexString(chunk.length) + CRLF);
+    out.write(chunk);
+    write(CRLF + Integer.toHexString(DELIMITER.length()) + CRLF + DELIMITER
+      + CRLF);
+    out.flush();
+  }
+
+  private void write(String value) throws IOException {
+    out.write(value.getBytes("ISO-8859-1"));
+  }
+
+  private String readLine() throws IOException {
+    StringBuilder line = new StringBuilder(128);
+    int c;
+    while ((c = in.read()) != -1) {
+      if (c == '\n') {
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') {
+          line.setLength(length - 1);
+        }
+        return line.toString();
+      }
+      line.append((char) c);
+    }
+    return line.length() == 0 ? null : line.toString();
+  }
+
+  private Map<String, String> readHeaders() throws IOException {
+    Map<String, String> headers = new HashMap<String, String>();
+    String line;
+    while ((line = readLine()) != null && line.length() > 0) {
+      int colon = line.indexOf(':');
+      if (colon > 0) {
+        headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+          line.substring(colon + 1).trim());
+      }
+    }
+    return headers;
+  }
+
+  private byte[] readBody(Map<String, String> headers) throws IOException {
+    String length = headers.get("content-length");
+    if (length == null) {
+      return new byte[0];
+    }
+    if ("100-continue".equalsIgnoreCase(headers.get("expect"))) {
+      write("HTTP/1.1 100 Continue" + CRLF + CRLF);
+      out.flush();
+    }
+    byte[] body = new byte[Integer.parseInt(length)];
+    int read = 0;
+    while (read < body.length) {
+      int count = in.read(body, read, body.length - read);
+      if (count < 0) {
+        throw new IOException("Connection closed while reading the body");
+      }
+      read += count;
+    }
+    return body;
+  }
+
+  private static Map<String, String> parseQuery(String query)
+    throws UnsupportedEncodingException {
+    Map<String, String> params = new HashMap<String, String>();
+    for (String param : query.split("&")) {
+      int equals = param.indexOf('=');
+      if (equals > 0) {
+        params.put(decode(param.substring(0, equals)),
+          decode(param.substring(equals + 1)));
+      }
+    }
+    return params;
+  }
+
+  private static String decode(String value)
+    throws UnsupportedEncodingException {
+    return URLDecoder.decode(value, "UTF-8");
+  }
+
+  /**
+   * Decodes a key given as JSON, the mock only compares string keys.
+   */
+  private static String jsonString(String value) {
+    if (value == null) {
+      return null;
+    }
+    try {
+      return new JSONArray("[" + value + "]").getString(0);
+    } catch (JSONException e) {
+      return value;
+    }
+  }
+
+  private static int intParam(Map<String, String> params, String name,
+    int defaultValue) {
+    String value = params.get(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  private static String reason(int status) {
+    switch (status) {
+      case 200:
+        return "OK";
+      case 201:
+        return "Created";
+      case 202:
+        return "Accepted";
+      case 400:
+        return "Bad Request";
+      case 404:
+        return "Object Not Found";
+      default:
+        return "Service Unavailable";
+    }
+  }
+
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.Operation;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Verifies how the {@link Tracer} samples and reports spans.
+ */
+public class TracerTest {
+
+  @Test
+  public void shouldSampleEveryNthRequest() {
+    Tracer tracer = new Tracer(new CollectingSink(), 0.25);
+    int sampled = 0;
+    for (int i = 0; i < 100; i++) {
+      if (tracer.start(mock(Operation.class), "key") != null) {
+        sampled++;
+      }
+    }
+    assertEquals(25, sampled);
+  }
+
+  @Test
+  public void shouldReportOperationOnceResponseIsRead() {
+    CollectingSink sink = new CollectingSink();
+    Tracer tracer = new Tracer(sink, 1);
+    Operation o = mock(GetOperation.class);
+    when(o.getWriteCompleteTimestamp()).thenReturn(System.nanoTime());
+
+    TraceSpan span = tracer.start(o, "key");
+    assertEquals("get", span.getName());
+    assertSame(span, tracer.start(o, "key"));
+    span.mark(TraceStage.QUEUED);
+    tracer.removed(o);
+
+    assertEquals(1, sink.spans.size());
+    assertSame(span, sink.spans.get(0));
+    assertTrue(span.getElapsed(TraceStage.CREATED, TraceStage.RECEIVED) >= 0);
+    assertTrue(span.getTimestamp(TraceStage.WRITTEN) != 0);
+    assertEquals(-1, span.getElapsed(TraceStage.RECEIVED,
+      TraceStage.DECODED));
+    assertNull(tracer.get(o));
+    tracer.removed(o);
+    assertEquals(1, sink.spans.size());
+  }
+
+  @Test
+  public void shouldExpireAbandonedRequests() {
+    CollectingSink sink = new CollectingSink();
+    Tracer tracer = new Tracer(sink, 1);
+    Operation cancelled = mock(Operation.class);
+    when(cancelled.isCancelled()).thenReturn(true);
+    tracer.start(cancelled, "key");
+    for (int i = 1; i < Tracer.MAX_IN_FLIGHT; i++) {
+      assertNotNull(tracer.start(mock(Operation.class), "key"));
+    }
+    assertEquals(0, sink.spans.size());
+
+    assertNotNull(tracer.start(mock(Operation.class), "key"));
+    assertEquals(1, sink.spans.size());
+    assertNull(tracer.start(mock(Operation.class), "key"));
+  }
+
+  @Test
+  public void shouldExpireOldRequests() throws Exception {
+    CollectingSink sink = new CollectingSink();
+    Tracer tracer = new Tracer(sink, 1, 500);
+    Operation[] ops = new Operation[Tracer.MAX_IN_FLIGHT + 1];
+    for (int i = 0; i < ops.length; i++) {
+      ops[i] = mock(Operation.class);
+    }
+    // Requests which left the queues without finishing their spans.
+    for (int i = 0; i < Tracer.MAX_IN_FLIGHT; i++) {
+      assertNotNull(tracer.start(ops[i], "key"));
+    }
+    assertNull(tracer.start(ops[Tracer.MAX_IN_FLIGHT], "key"));
+
+    Thread.sleep(600);
+    assertNotNull(tracer.start(mock(Operation.class), "key"));
+    assertEquals(Tracer.MAX_IN_FLIGHT, sink.spans.size());
+  }
+
+  @Test
+  public void shouldTraceListenerNotifications() throws Exception {
+    CollectingSink sink = new CollectingSink();
+    Tracer tracer = new Tracer(sink, 1);
+    ExecutorService executor =
+      tracer.traceListeners(Executors.newSingleThreadExecutor());
+    executor.submit(new Runnable() {
+      @Override
+      public void run() {
+      }
+    }).get();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+
+    assertEquals(1, sink.spans.size());
+    TraceSpan span = sink.spans.get(0);
+    assertEquals("listener", span.getName());
+    assertTrue(span.getElapsed(TraceStage.LISTENER_STARTED,
+      TraceStage.LISTENER_FINISHED) >= 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectInvalidSampleRate() {
+    new Tracer(new CollectingSink(), 0);
+  }
+
+  static class CollectingSink implements TraceSink {
+    private final List<TraceSpan> spans = new ArrayList<TraceSpan>();
+
+    @Override
+    public synchronized void report(TraceSpan span) {
+      spans.add(span);
+    }
+  }
+
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.transfer;
+
+import com.couchbase.client.CouchbaseClient;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import net.spy.memcached.PersistTo;
+import net.spy.memcached.ReplicateTo;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.transcoders.Transcoder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Verifies restoring dumps with a BulkTransfer.
+ */
+public class BulkTransferTest {
+
+  private final ExecutorService service = Executors.newCachedThreadPool();
+  private File file;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("bulk", ".dump");
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+    service.shutdown();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testRestoresDump() throws Exception {
+    DumpFileWriter writer = new DumpFileWriter(file);
+    for (int i = 0; i < 100; i++) {
+      writer.write(new DumpRecord("key" + i, i, 0, new byte[10]));
+    }
+    writer.write(new DumpRecord("fail", 0, 0, new byte[10]));
+    writer.close();
+
+    final List<String> stored =
+      Collections.synchronizedList(new ArrayList<String>());
+    CouchbaseClient client = mock(CouchbaseClient.class);
+    when(client.set(anyString(), anyInt(), any(DumpRecord.class),
+      any(Transcoder.class))).thenAnswer(
+      new Answer<OperationFuture<Boolean>>() {
+        @Override
+        public OperationFuture<Boolean> answer(InvocationOnMock invocation) {
+          String key = (String) invocation.getArguments()[0];
+          DumpRecord record = (DumpRecord) invocation.getArguments()[2];
+          Transcoder<DumpRecord> tc =
+            (Transcoder<DumpRecord>) invocation.getArguments()[3];
+          assertEquals(record.getFlags(), tc.encode(record).getFlags());
+          boolean success = !"fail".equals(key);
+          if (success) {
+            stored.add(key);
+          }
+          return completedFuture(key, success, service);
+        }
+      });
+
+    TransferStats stats = new BulkTransfer(1, 8, PersistTo.ZERO)
+      .restore(file, client);
+    assertEquals(100, stats.getDocuments());
+    assertEquals(1000, stats.getBytes());
+    assertEquals(1, stats.getFailures());
+    assertEquals(100, stored.size());
+    assertTrue(stats.getDocumentsPerSecond() > 0);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testObservesPersistenceOutsideListenerThreads()
+    throws Exception {
+    int window = 8;
+    DumpFileWriter writer = new DumpFileWriter(file);
+    for (int i = 0; i < 100; i++) {
+      writer.write(new DumpRecord("key" + i, i, 0, new byte[10]));
+    }
+    writer.close();
+
+    // A single listener thread, as if the client's listener pool was busy.
+    final ExecutorService listener = Executors.newSingleThreadExecutor();
+    final CountDownLatch windowObserved = new CountDownLatch(window);
+    CouchbaseClient client = mock(CouchbaseClient.class);
+    when(client.set(anyString(), anyInt(), any(DumpRecord.class),
+      any(Transcoder.class))).thenAnswer(
+      new Answer<OperationFuture<Boolean>>() {
+        @Override
+        public OperationFuture<Boolean> answer(InvocationOnMock invocation) {
+          return completedFuture((String) invocation.getArguments()[0], true,
+            listener);
+        }
+      });
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        // Only returns once a full window is being observed at once.
+        windowObserved.countDown();
+        assertTrue(windowObserved.await(10, TimeUnit.SECONDS));
+        return null;
+      }
+    }).when(client).observePoll(anyString(), anyLong(),
+      any(PersistTo.class), any(ReplicateTo.class), anyBoolean());
+
+    try {
+      TransferStats stats = new BulkTransfer(1, window, PersistTo.MASTER)
+        .restore(file, client);
+      assertEquals(100, stats.getDocuments());
+      assertEquals(0, stats.getFailures());
+    } finally {
+      listener.shutdown();
+    }
+  }
+
+  private static OperationFuture<Boolean> completedFuture(String key,
+    boolean success, ExecutorService listener) {
+    CountDownLatch latch = new CountDownLatch(1);
+    OperationFuture<Boolean> future =
+      new OperationFuture<Boolean>(key, latch, 1000, listener);
+    future.set(success, new OperationStatus(success, "done"));
+    future.setCas(1);
+    latch.countDown();
+    future.signalComplete();
+    return future;
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsEmptyWindow() {
+    new BulkTransfer(1, 0, PersistTo.ZERO);
+  }
+
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.transfer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Verifies the reading and writing of dump files.
+ */
+public class DumpFileTest {
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DumpFileWriter writer = new DumpFileWriter(bytes);
+    writer.write(new DumpRecord("key", 2, 0, "value".getBytes()));
+    writer.write(new DumpRecord("k\u00e9y", 0, 1234, new byte[0]));
+    assertEquals(2, writer.getRecords());
+    writer.close();
+
+    DumpFileReader reader = new DumpFileReader(
+      new ByteArrayInputStream(bytes.toByteArray()));
+    DumpRecord first = reader.read();
+    assertEquals("key", first.getKey());
+    assertEquals(2, first.getFlags());
+    assertEquals(0, first.getExpiry());
+    assertArrayEquals("value".getBytes(), first.getValue());
+    DumpRecord second = reader.read();
+    assertEquals("k\u00e9y", second.getKey());
+    assertEquals(1234, second.getExpiry());
+    assertEquals(0, second.getValue().length);
+    assertNull(reader.read());
+    assertNull(reader.read());
+    assertEquals(2, reader.getRecords());
+    reader.close();
+  }
+
+  @Test(expected = EOFException.class)
+  public void testDetectsTruncatedDump() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DumpFileWriter writer = new DumpFileWriter(bytes);
+    writer.write(new DumpRecord("key", 0, 0, "value".getBytes()));
+    writer.close();
+
+    byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 12);
+    DumpFileReader reader = new DumpFileReader(
+      new ByteArrayInputStream(truncated));
+    reader.read();
+    reader.read();
+  }
+
+  @Test(expected = EOFException.class)
+  public void testDetectsAbortedDump() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DumpFileWriter writer = new DumpFileWriter(bytes);
+    writer.write(new DumpRecord("key", 0, 0, "value".getBytes()));
+    writer.abort();
+    writer.close();
+
+    DumpFileReader reader = new DumpFileReader(
+      new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals("key", reader.read().getKey());
+    reader.read();
+  }
+
+  @Test(expected = IOException.class)
+  public void testRejectsOtherFiles() throws Exception {
+    new DumpFileReader(new ByteArrayInputStream("not a dump".getBytes()));
+  }
+
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.vbucket;
+
+import com.couchbase.client.vbucket.config.Bucket;
+import com.couchbase.client.vbucket.config.ConfigurationParserJSON;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that streamed configurations, including the first one, are
+ * applied in the order the server sends them.
+ */
+public class BucketMonitorStreamTest {
+
+  private static final String STREAMING =
+    "/pools/default/bucketsStreaming/default";
+
+  private HttpServer node;
+
+  private static String bucket(int vbuckets) {
+    StringBuilder map = new StringBuilder();
+    for (int i = 0; i < vbuckets; i++) {
+      map.append(i == 0 ? "[0]" : ",[0]");
+    }
+    return "{\"name\":\"default\","
+      + "\"streamingUri\":\"" + STREAMING + "\","
+      + "\"nodes\":[{\"hostname\":\"127.0.0.1:8091\",\"status\":\"healthy\","
+      + "\"couchApiBase\":\"http://127.0.0.1:8092/default\","
+      + "\"ports\":{\"proxy\":11211,\"direct\":11210}}],"
+      + "\"vBucketServerMap\":{\"hashAlgorithm\":\"CRC\",\"numReplicas\":0,"
+      + "\"serverList\":[\"127.0.0.1:11210\"],"
+      + "\"vBucketMap\":[" + map + "]}}";
+  }
+
+  @Before
+  public void startNode() throws IOException {
+    node = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    node.createContext(STREAMING, new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        // Send a newer configuration right behind the first one and keep
+        // the stream open.
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        out.write((bucket(4) + "\n\n\n\n" + bucket(8) + "\n\n\n\n")
+          .getBytes("UTF-8"));
+        out.flush();
+      }
+    });
+    node.start();
+  }
+
+  @After
+  public void stopNode() {
+    node.stop(0);
+  }
+
+  @Test
+  public void shouldApplyConfigurationsInStreamOrder() throws Exception {
+    URI uri = URI.create("http://127.0.0.1:" + node.getAddress().getPort()
+      + STREAMING);
+    BucketMonitor monitor = new BucketMonitor(uri, "default", "",
+      new ConfigurationParserJSON(), null);
+    final List<Integer> seen =
+      Collections.synchronizedList(new ArrayList<Integer>());
+    monitor.addObserver(new Observer() {
+      @Override
+      public void update(Observable o, Object arg) {
+        seen.add(((Bucket) arg).getConfig().getVbucketsCount());
+      }
+    });
+
+    try {
+      monitor.startMonitor();
+      assertNotNull(monitor.getCurrentBucket());
+      assertTrue(seen.size() >= 1);
+
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (seen.size() < 2 && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(2, seen.size());
+      assertEquals(Integer.valueOf(4), seen.get(0));
+      assertEquals(Integer.valueOf(8), seen.get(1));
+      assertEquals(8,
+        monitor.getCurrentBucket().getConfig().getVbucketsCount());
+    } finally {
+      monitor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.vbucket;
+
+import com.couchbase.client.vbucket.config.Bucket;
+import com.couchbase.client.vbucket.config.ConfigurationParserMock;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Verifies the reference counting of shared bucket monitors and how they
+ * talk to the providers sharing them.
+ */
+public class ClusterConfigRegistryTest {
+
+  private static final URI STREAM =
+    URI.create("http://localhost:8091/pools/default/bucketsStreaming/def");
+
+  @Test
+  public void testKeyIgnoresNodeOrder() {
+    List<URI> first = Arrays.asList(URI.create("http://a:8091/pools"),
+      URI.create("http://b:8091/pools"));
+    List<URI> second = Arrays.asList(URI.create("http://b:8091/pools"),
+      URI.create("http://a:8091/pools"));
+    assertEquals(ClusterConfigRegistry.key(first, "default", "default", ""),
+      ClusterConfigRegistry.key(second, "default", "default", ""));
+    assertFalse(ClusterConfigRegistry.key(first, "default", "default", "")
+      .equals(ClusterConfigRegistry.key(first, "other", "other", "")));
+  }
+
+  @Test
+  public void testKeyDoesNotContainPassword() {
+    List<URI> nodes = Arrays.asList(URI.create("http://a:8091/pools"));
+    String key = ClusterConfigRegistry.key(nodes, "default", "default",
+      "secret");
+    assertFalse(key.contains("secret"));
+    assertEquals(key, ClusterConfigRegistry.key(nodes, "default", "default",
+      "secret"));
+    assertFalse(key.equals(ClusterConfigRegistry.key(nodes, "default",
+      "default", "other")));
+  }
+
+  @Test
+  public void testSharesMonitorUntilLastRelease() {
+    String key = "testSharesMonitorUntilLastRelease";
+    BucketMonitor monitor = newMonitor();
+    int before = ClusterConfigRegistry.size();
+
+    assertNull(ClusterConfigRegistry.acquire(key));
+    assertSame(monitor, ClusterConfigRegistry.register(key, monitor));
+    assertSame(monitor, ClusterConfigRegistry.acquire(key));
+    assertSame(monitor, ClusterConfigRegistry.register(key, newMonitor()));
+    assertEquals(before + 1, ClusterConfigRegistry.size());
+
+    ClusterConfigRegistry.release(monitor);
+    ClusterConfigRegistry.release(monitor);
+    assertTrue(monitor.isUsable());
+    assertEquals(before + 1, ClusterConfigRegistry.size());
+
+    ClusterConfigRegistry.release(monitor);
+    assertFalse(monitor.isUsable());
+    assertEquals(before, ClusterConfigRegistry.size());
+    assertNull(ClusterConfigRegistry.acquire(key));
+  }
+
+  @Test
+  public void testReplacesUnusableMonitor() {
+    String key = "testReplacesUnusableMonitor";
+    BucketMonitor stale = newMonitor();
+    ClusterConfigRegistry.register(key, stale);
+    ClusterConfigRegistry.acquire(key);
+    stale.shutdown();
+
+    BucketMonitor fresh = newMonitor();
+    assertNull(ClusterConfigRegistry.acquire(key));
+    assertSame(fresh, ClusterConfigRegistry.register(key, fresh));
+
+    ClusterConfigRegistry.release(stale);
+    ClusterConfigRegistry.release(stale);
+    assertTrue(fresh.isUsable());
+    ClusterConfigRegistry.release(fresh);
+    assertNull(ClusterConfigRegistry.acquire(key));
+  }
+
+  @Test
+  public void testForwardsConfigsToAttachedProvidersOnly() {
+    ConfigurationProviderHTTP creator = mock(ConfigurationProviderHTTP.class);
+    ConfigurationProviderHTTP sharer = mock(ConfigurationProviderHTTP.class);
+    BucketMonitor monitor = new BucketMonitor(STREAM, "default", "",
+      new ConfigurationParserMock(), creator);
+    monitor.attach(sharer);
+    monitor.detach(creator);
+
+    monitor.replaceConfig("{}");
+    verify(sharer).configReceived(eq("{}"), any(Bucket.class));
+    verify(creator, never()).configReceived(anyString(), any(Bucket.class));
+  }
+
+  @Test
+  public void testLooksUpBucketOutsideOfRegistryLock() {
+    String key = "testLooksUpBucketOutsideOfRegistryLock";
+    final Bucket bucket = mock(Bucket.class);
+    ConfigurationProviderHTTP provider = mock(ConfigurationProviderHTTP.class);
+    when(provider.getBucket()).thenReturn("default");
+    when(provider.getBucketConfiguration("default")).thenAnswer(
+      new Answer<Bucket>() {
+        @Override
+        public Bucket answer(InvocationOnMock invocation) {
+          assertFalse(Thread.holdsLock(ClusterConfigRegistry.class));
+          return bucket;
+        }
+      });
+    BucketMonitor monitor = new BucketMonitor(STREAM, "default", "", null,
+      provider);
+    ClusterConfigRegistry.register(key, monitor);
+
+    assertSame(bucket, ClusterConfigRegistry.getCurrentBucket(key));
+    monitor.detach(provider);
+    assertNull(ClusterConfigRegistry.getCurrentBucket(key));
+    ClusterConfigRegistry.release(monitor);
+  }
+
+  private static BucketMonitor newMonitor() {
+    return new BucketMonitor(STREAM, "default", "", null, null);
+  }
+}
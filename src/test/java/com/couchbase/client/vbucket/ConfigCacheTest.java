@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.vbucket;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the local bucket configuration cache.
+ */
+public class ConfigCacheTest {
+
+  private static final List<URI> SEEDS = Arrays.asList(
+    URI.create("http://a:8091/pools"), URI.create("http://b:8091/pools"));
+
+  private File directory;
+
+  @Before
+  public void createDirectory() throws IOException {
+    directory = File.createTempFile("config-cache", "");
+    assertTrue(directory.delete());
+  }
+
+  @After
+  public void deleteDirectory() {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testStoreAndLoad() {
+    ConfigCache cache = new ConfigCache(directory, SEEDS, "default");
+    assertNull(cache.load());
+    assertTrue(cache.store("{\"name\":\"default\"}"));
+    assertTrue(cache.store("{\"name\":\"default\",\"rev\":2}"));
+    assertEquals(2, cache.getRevision());
+    assertFalse(new File(cache.getFile().getPath() + ".tmp").exists());
+
+    List<URI> reordered = Arrays.asList(SEEDS.get(1), SEEDS.get(0));
+    ConfigCache next = new ConfigCache(directory, reordered, "default");
+    assertEquals(cache.getFile(), next.getFile());
+    assertEquals("{\"name\":\"default\",\"rev\":2}", next.load());
+    assertEquals(2, next.getRevision());
+    assertTrue(next.store("{}"));
+    assertEquals(3, next.getRevision());
+  }
+
+  @Test
+  public void testStoresLatestConfigInBackground() throws Exception {
+    ConfigCache cache = new ConfigCache(directory, SEEDS, "default");
+    for (int i = 1; i <= 100; i++) {
+      cache.storeLater("{\"rev\":" + i + "}");
+    }
+    ConfigCache reader = new ConfigCache(directory, SEEDS, "default");
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!"{\"rev\":100}".equals(reader.load())) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+    assertTrue(cache.getRevision() <= 100);
+  }
+
+  @Test
+  public void testSeparatesBucketsAndClusters() {
+    ConfigCache cache = new ConfigCache(directory, SEEDS, "default");
+    ConfigCache otherBucket = new ConfigCache(directory, SEEDS, "other");
+    ConfigCache otherCluster = new ConfigCache(directory,
+      Arrays.asList(URI.create("http://c:8091/pools")), "default");
+    assertFalse(cache.getFile().equals(otherBucket.getFile()));
+    assertFalse(cache.getFile().equals(otherCluster.getFile()));
+  }
+
+  @Test
+  public void testIgnoresUnknownFormat() throws IOException {
+    ConfigCache cache = new ConfigCache(directory, SEEDS, "default");
+    assertTrue(directory.mkdirs());
+    FileOutputStream out = new FileOutputStream(cache.getFile());
+    out.write("{\"name\":\"default\"}".getBytes("UTF-8"));
+    out.close();
+    assertNull(cache.load());
+  }
+}
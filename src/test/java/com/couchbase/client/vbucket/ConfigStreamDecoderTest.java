@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.vbucket;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the incremental decoding of streaming configuration responses.
+ */
+public class ConfigStreamDecoderTest {
+
+  private static final String CHUNKED_RESPONSE = "HTTP/1.1 200 OK\r\n"
+    + "Transfer-Encoding: chunked\r\n"
+    + "Content-Type: application/json; charset=utf-8\r\n"
+    + "\r\n"
+    + "d\r\n{\"rev\":\"one\"}\r\n"
+    + "4\r\n\n\n\n\n\r\n"
+    + "7\r\n{\"rev\":\r\n"
+    + "a\r\n\"two\"}\n\n\n\n\r\n"
+    + "0\r\n\r\n";
+
+  @Test
+  public void testChunkedResponseInOnePiece() throws Exception {
+    Collector collector = new Collector();
+    ConfigStreamDecoder decoder = new ConfigStreamDecoder(collector);
+    decoder.decode(ByteBuffer.wrap(CHUNKED_RESPONSE.getBytes("UTF-8")));
+
+    assertEquals(200, decoder.getStatusCode());
+    assertTrue(decoder.isDone());
+    assertEquals(2, collector.configs.size());
+    assertEquals("{\"rev\":\"one\"}", collector.configs.get(0));
+    assertEquals("{\"rev\":\"two\"}", collector.configs.get(1));
+  }
+
+  @Test
+  public void testChunkedResponseByteByByte() throws Exception {
+    Collector collector = new Collector();
+    ConfigStreamDecoder decoder = new ConfigStreamDecoder(collector);
+    byte[] raw = CHUNKED_RESPONSE.getBytes("UTF-8");
+    for (byte b : raw) {
+      decoder.decode(ByteBuffer.wrap(new byte[] { b }));
+    }
+
+    assertEquals(2, collector.configs.size());
+    assertEquals("{\"rev\":\"one\"}", collector.configs.get(0));
+    assertEquals("{\"rev\":\"two\"}", collector.configs.get(1));
+  }
+
+  @Test
+  public void testIdentityBody() throws Exception {
+    Collector collector = new Collector();
+    ConfigStreamDecoder decoder = new ConfigStreamDecoder(collector);
+    String response = "HTTP/1.0 200 OK\r\n\r\n{\"a\":1}\n\n\n\n{\"a\":2}\n\n\n\n";
+    decoder.decode(ByteBuffer.wrap(response.getBytes("UTF-8")));
+
+    assertEquals(2, collector.configs.size());
+    assertEquals("{\"a\":2}", collector.configs.get(1));
+  }
+
+  @Test(expected = ConnectionException.class)
+  public void testFailsOnErrorStatus() throws Exception {
+    ConfigStreamDecoder decoder = new ConfigStreamDecoder(new Collector());
+    decoder.decode(ByteBuffer.wrap(
+      "HTTP/1.1 401 Unauthorized\r\n\r\n".getBytes("UTF-8")));
+  }
+
+  static class Collector implements ConfigStreamDecoder.Callback {
+    private final List<String> configs = new ArrayList<String>();
+
+    @Override
+    public void configReceived(String config) {
+      configs.add(config);
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.vbucket;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that streaming connections are driven by the shared selector.
+ */
+public class ConfigStreamSelectorTest {
+
+  @Test
+  public void testStreamsConfigsAndStopsWhenIdle() throws Exception {
+    final ServerSocket server = new ServerSocket(0);
+    final CountDownLatch release = new CountDownLatch(1);
+    Thread serverThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Socket socket = server.accept();
+          InputStream in = socket.getInputStream();
+          int matched = 0;
+          while (matched < 4) {
+            int b = in.read();
+            matched = (b == '\r' || b == '\n') ? matched + 1 : 0;
+          }
+          OutputStream out = socket.getOutputStream();
+          out.write(("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+            + "9\r\n{\"rev\":1}\r\n4\r\n\n\n\n\n\r\n").getBytes("UTF-8"));
+          out.flush();
+          release.await(5, TimeUnit.SECONDS);
+          socket.close();
+        } catch (Exception ex) {
+          // test will fail on the client side
+        }
+      }
+    });
+    serverThread.setDaemon(true);
+    serverThread.start();
+
+    final BlockingQueue<String> configs = new LinkedBlockingQueue<String>();
+    final CountDownLatch closed = new CountDownLatch(1);
+    ConfigStreamConnection conn = new ConfigStreamConnection(
+      new InetSocketAddress("127.0.0.1", server.getLocalPort()),
+      "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes("UTF-8"),
+      new ConfigStreamConnection.Listener() {
+        @Override
+        public void configReceived(String config) {
+          configs.add(config);
+        }
+
+        @Override
+        public void streamClosed(Throwable cause) {
+          closed.countDown();
+        }
+      });
+
+    ConfigStreamSelector.open(conn);
+    assertTrue(ConfigStreamSelector.isRunning());
+
+    String config = configs.poll(5, TimeUnit.SECONDS);
+    assertNotNull("No config received", config);
+    assertEquals("{\"rev\":1}", config);
+
+    release.countDown();
+    assertTrue(closed.await(5, TimeUnit.SECONDS));
+    assertTrue(conn.isClosed());
+
+    long deadline = System.currentTimeMillis() + 5000;
+    while (ConfigStreamSelector.isRunning()
+      && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertFalse(ConfigStreamSelector.isRunning());
+    server.close();
+  }
+}
@@ -0,0 +1,288 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.vbucket;
+
+import com.couchbase.client.vbucket.config.Bucket;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that the initial configuration is loaded from the fastest node
+ * in the list, without waiting for unresponsive ones, or from the cache,
+ * and how providers resubscribe to a shared monitor.
+ */
+public class ConfigurationProviderHTTPBootstrapTest {
+
+  private static final String POOLS = "{\"pools\":[{\"name\":\"default\","
+    + "\"uri\":\"/pools/default?uuid=1\",\"streamingUri\":"
+    + "\"/poolsStreaming/default?uuid=1\"}]}";
+
+  private static final String BUCKET = "{\"name\":\"default\","
+    + "\"streamingUri\":\"/pools/default/bucketsStreaming/default\","
+    + "\"nodes\":[{\"hostname\":\"127.0.0.1:8091\",\"status\":\"healthy\","
+    + "\"couchApiBase\":\"http://127.0.0.1:8092/default\","
+    + "\"ports\":{\"proxy\":11211,\"direct\":11210}}],"
+    + "\"vBucketServerMap\":{\"hashAlgorithm\":\"CRC\",\"numReplicas\":0,"
+    + "\"serverList\":[\"127.0.0.1:11210\"],"
+    + "\"vBucketMap\":[[0],[0],[0],[0]]}}";
+
+  private static final String STREAMING =
+    "/pools/default/bucketsStreaming/default";
+
+  private final List<String> requested = new CopyOnWriteArrayList<String>();
+  private ServerSocket silentNode;
+  private HttpServer node;
+
+  @Before
+  public void startNodes() throws IOException {
+    silentNode = new ServerSocket(0);
+    node = startNode(0);
+  }
+
+  private HttpServer startNode(int port) throws IOException {
+    HttpServer server = HttpServer.create(
+      new InetSocketAddress("127.0.0.1", port), 0);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        requested.add(path);
+        if (STREAMING.equals(path)) {
+          // Keep the stream open after the first configuration.
+          exchange.sendResponseHeaders(200, 0);
+          OutputStream out = exchange.getResponseBody();
+          out.write((BUCKET + "\n\n\n\n").getBytes("UTF-8"));
+          out.flush();
+          return;
+        }
+        String body = null;
+        if ("/pools".equals(path)) {
+          body = POOLS;
+        } else if ("/pools/default/buckets/default".equals(path)) {
+          body = BUCKET;
+        }
+        if (body == null) {
+          exchange.sendResponseHeaders(404, -1);
+        } else {
+          byte[] bytes = body.getBytes("UTF-8");
+          exchange.sendResponseHeaders(200, bytes.length);
+          OutputStream out = exchange.getResponseBody();
+          out.write(bytes);
+          out.close();
+        }
+        exchange.close();
+      }
+    });
+    server.start();
+    return server;
+  }
+
+  @After
+  public void stopNodes() throws IOException {
+    node.stop(0);
+    silentNode.close();
+  }
+
+  @Test
+  public void testLoadsBucketFromRespondingNode() {
+    List<URI> baseList = Arrays.asList(
+      URI.create("http://127.0.0.1:" + silentNode.getLocalPort() + "/pools"),
+      URI.create("http://127.0.0.1:" + node.getAddress().getPort()
+        + "/pools"));
+    ConfigurationProviderHTTP provider =
+      new ConfigurationProviderHTTP(baseList, "default", "");
+    assertEquals(-1, provider.getBootstrapTime());
+
+    Bucket bucket = provider.getBucketConfiguration("default");
+    assertNotNull(bucket);
+    assertEquals("default", bucket.getName());
+
+    // the silent node would hold a sequential bootstrap for the read timeout
+    assertTrue(provider.getBootstrapTime() >= 0);
+    assertTrue(provider.getBootstrapTime() < 4000);
+    assertEquals(Arrays.asList("/pools", "/pools/default/buckets/default"),
+      requested);
+  }
+
+  @Test
+  public void testLoadsBucketFromCacheWithoutCluster() throws Exception {
+    File directory = File.createTempFile("config-cache", "");
+    assertTrue(directory.delete());
+    List<URI> baseList = Arrays.asList(URI.create("http://127.0.0.1:"
+      + node.getAddress().getPort() + "/pools"));
+    try {
+      ConfigurationProviderHTTP provider =
+        new ConfigurationProviderHTTP(baseList, "default", "");
+      provider.setConfigCacheDirectory(directory);
+      assertNotNull(provider.getBucketConfiguration("default"));
+      awaitCacheFile(directory);
+
+      node.stop(0);
+      requested.clear();
+      ConfigurationProviderHTTP restarted =
+        new ConfigurationProviderHTTP(baseList, "default", "");
+      restarted.setConfigCacheDirectory(directory);
+      Bucket bucket = restarted.getBucketConfiguration("default");
+      assertEquals("default", bucket.getName());
+      assertEquals(4, bucket.getConfig().getVbucketsCount());
+      assertTrue(requested.isEmpty());
+    } finally {
+      deleteDirectory(directory);
+    }
+  }
+
+  @Test
+  public void testSubscribesFromCacheInBackground() throws Exception {
+    File directory = File.createTempFile("config-cache", "");
+    assertTrue(directory.delete());
+    int port = node.getAddress().getPort();
+    List<URI> baseList = Arrays.asList(URI.create("http://127.0.0.1:"
+      + port + "/pools"));
+    ConfigurationProviderHTTP restarted = null;
+    try {
+      ConfigurationProviderHTTP provider =
+        new ConfigurationProviderHTTP(baseList, "default", "");
+      provider.setConfigCacheDirectory(directory);
+      assertNotNull(provider.getBucketConfiguration("default"));
+      awaitCacheFile(directory);
+
+      node.stop(0);
+      requested.clear();
+      restarted = new ConfigurationProviderHTTP(baseList, "default", "");
+      restarted.setConfigCacheDirectory(directory);
+      final CountDownLatch reconfigured = new CountDownLatch(1);
+      long start = System.nanoTime();
+      restarted.subscribe("default", new Reconfigurable() {
+        @Override
+        public void reconfigure(Bucket bucket) {
+          reconfigured.countDown();
+        }
+      });
+      assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+        < 1000);
+      assertTrue(requested.isEmpty());
+
+      // The cluster comes back after the client started from its cache.
+      node = startNode(port);
+      assertTrue(reconfigured.await(10, TimeUnit.SECONDS));
+      assertTrue(requested.contains("/pools"));
+      assertTrue(requested.contains(STREAMING));
+    } finally {
+      if (restarted != null) {
+        restarted.shutdown();
+      }
+      deleteDirectory(directory);
+    }
+  }
+
+  @Test
+  public void testResubscribeKeepsObserverOfSharedMonitor() {
+    List<URI> baseList = Arrays.asList(URI.create("http://127.0.0.1:"
+      + node.getAddress().getPort() + "/pools"));
+    Reconfigurable rec = new Reconfigurable() {
+      @Override
+      public void reconfigure(Bucket bucket) {
+      }
+    };
+    // Another client keeps the monitor of the bucket shared.
+    ConfigurationProviderHTTP other =
+      new ConfigurationProviderHTTP(baseList, "default", "");
+    other.subscribe("default", new Reconfigurable() {
+      @Override
+      public void reconfigure(Bucket bucket) {
+      }
+    });
+    ConfigurationProviderHTTP old =
+      new ConfigurationProviderHTTP(baseList, "default", "");
+    old.subscribe("default", rec);
+
+    // Resubscribe the way the connection factory does.
+    old.shutdown();
+    ConfigurationProviderHTTP renewed =
+      new ConfigurationProviderHTTP(baseList, "default", "");
+    renewed.subscribe("default", rec);
+
+    String key = ClusterConfigRegistry.key(baseList, "default", "default",
+      "");
+    BucketMonitor monitor = ClusterConfigRegistry.acquire(key);
+    try {
+      assertEquals(2, monitor.countObservers());
+    } finally {
+      ClusterConfigRegistry.release(monitor);
+      renewed.shutdown();
+      other.shutdown();
+    }
+  }
+
+  private static void awaitCacheFile(File directory)
+    throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!hasCacheFile(directory)) {
+      assertTrue("No cache file written", System.nanoTime() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  private static boolean hasCacheFile(File directory) {
+    String[] names = directory.list();
+    if (names != null) {
+      for (String name : names) {
+        if (name.endsWith(".json")) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static void deleteDirectory(File directory) {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+}
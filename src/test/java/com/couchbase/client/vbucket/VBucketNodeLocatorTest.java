@@ -164,4 +164,130 @@ public class VBucketNodeLocatorTest extends TestCase {
 
     assertNull(locator.getPrimary("key1"));
   }
+
+  /**
+   * Tests that a config with the same servers only swaps the vbucket map.
+   *
+   * @pre Create three nodes and a locator for the default config, then
+   * move the first vbucket to the second node.
+   * @post The moved vbucket is served by the second node while a config
+   * with a different server list is not applied.
+   */
+  @Test
+  public void testUpdateVBucketMap() {
+    MemcachedNodeMockImpl node1 = new MemcachedNodeMockImpl();
+    MemcachedNodeMockImpl node2 = new MemcachedNodeMockImpl();
+    MemcachedNodeMockImpl node3 = new MemcachedNodeMockImpl();
+    node1.setSocketAddress(new InetSocketAddress("127.0.0.1", 11211));
+    node2.setSocketAddress(new InetSocketAddress("127.0.0.1", 11210));
+    node3.setSocketAddress(new InetSocketAddress("127.0.0.1", 11212));
+    ConfigFactory configFactory = new DefaultConfigFactory();
+    Config config = configFactory.create(CONFIG_IN_ENVELOPE);
+    VBucketNodeLocator locator = new VBucketNodeLocator(
+      Arrays.asList((MemcachedNode) node1, node2, node3), config);
+    assertEquals(node1, locator.getPrimary("key1"));
+
+    Config moved = configFactory.create(
+      CONFIG_IN_ENVELOPE.replace("[0, 1, 2]", "[1, 0, 2]"));
+    assertTrue(locator.updateVBucketMap(moved));
+    assertEquals(node2, locator.getPrimary("key1"));
+
+    Config otherServers = configFactory.create(NO_REPLICA_CONFIG_IN_ENVELOPE);
+    assertFalse(locator.updateVBucketMap(otherServers));
+    assertEquals(node2, locator.getPrimary("key1"));
+  }
+
+  /**
+   * Spread vbuckets across more than one connection per server.
+   *
+   * @pre Create two nodes for every server of the default config.
+   * @post Keys are routed to one connection of the responsible server,
+   * chosen by vbucket, and all connections are reported.
+   */
+  @Test
+  public void testGetMasterVBuckets() {
+    MemcachedNodeMockImpl node1 = new MemcachedNodeMockImpl();
+    MemcachedNodeMockImpl node2 = new MemcachedNodeMockImpl();
+    MemcachedNodeMockImpl node3 = new MemcachedNodeMockImpl();
+    node1.setSocketAddress(new InetSocketAddress("127.0.0.1", 11211));
+    node2.setSocketAddress(new InetSocketAddress("127.0.0.1", 11210));
+    node3.setSocketAddress(new InetSocketAddress("127.0.0.1", 11212));
+    Config config = new DefaultConfigFactory().create(CONFIG_IN_ENVELOPE);
+    VBucketNodeLocator locator = new VBucketNodeLocator(
+      Arrays.asList((MemcachedNode) node1, node2, node3), config);
+
+    assertTrue(Arrays.equals(new short[] {0},
+      locator.getMasterVBuckets(node1)));
+    assertTrue(Arrays.equals(new short[] {1, 3},
+      locator.getMasterVBuckets(node2)));
+    assertTrue(Arrays.equals(new short[] {2},
+      locator.getMasterVBuckets(node3)));
+  }
+
+  public void testSpreadsVBucketsAcrossConnections() {
+    MemcachedNode[] nodes = new MemcachedNode[6];
+    int[] ports = {11211, 11210, 11212};
+    for (int i = 0; i < nodes.length; i++) {
+      MemcachedNodeMockImpl node = new MemcachedNodeMockImpl();
+      node.setSocketAddress(new InetSocketAddress("127.0.0.1", ports[i / 2]));
+      nodes[i] = node;
+    }
+    ConfigFactory configFactory = new DefaultConfigFactory();
+    Config config = configFactory.create(CONFIG_IN_ENVELOPE);
+    VBucketNodeLocator locator =
+      new VBucketNodeLocator(Arrays.asList(nodes), config);
+
+    assertEquals(6, locator.getAll().size());
+    assertEquals(3, locator.getServerCount());
+    assertEquals(nodes[2], locator.getServerByIndex(1));
+
+    String vbucket0 = keyForVBucket(locator, 0);
+    String vbucket1 = keyForVBucket(locator, 1);
+    assertEquals(nodes[0], locator.getPrimary(vbucket0));
+    assertEquals(nodes[3], locator.getPrimary(vbucket1));
+    assertEquals(nodes[2], locator.getReplica(vbucket0, 0));
+    assertEquals(nodes[5], locator.getReplica(vbucket1, 0));
+  }
+
+  /**
+   * Skip every connection of a server which rejected the key.
+   *
+   * @pre Create two nodes for every server of the default config and let
+   * one connection of the master answer not my vbucket.
+   * @post The sibling connection of that server is never chosen and the
+   * connection of the alternative server is chosen by vbucket.
+   */
+  public void testGetAlternativeSkipsAllConnectionsOfServer() {
+    MemcachedNode[] nodes = new MemcachedNode[6];
+    int[] ports = {11211, 11210, 11212};
+    for (int i = 0; i < nodes.length; i++) {
+      MemcachedNodeMockImpl node = new MemcachedNodeMockImpl();
+      node.setSocketAddress(new InetSocketAddress("127.0.0.1", ports[i / 2]));
+      nodes[i] = node;
+    }
+    Config config = new DefaultConfigFactory().create(CONFIG_IN_ENVELOPE);
+    VBucketNodeLocator locator =
+      new VBucketNodeLocator(Arrays.asList(nodes), config);
+
+    String key = keyForVBucket(locator, 1);
+    assertEquals(nodes[3], locator.getPrimary(key));
+    MemcachedNode alternative =
+      locator.getAlternative(key, Arrays.asList(nodes[3]));
+    assertTrue(alternative == nodes[1] || alternative == nodes[5]);
+
+    assertEquals(nodes[5],
+      locator.getAlternative(key, Arrays.asList(nodes[3], nodes[0])));
+    assertNull(locator.getAlternative(key,
+      Arrays.asList(nodes[2], nodes[0], nodes[4])));
+  }
+
+  private static String keyForVBucket(VBucketNodeLocator locator,
+    int vbucket) {
+    for (int i = 0;; i++) {
+      String key = "key" + i;
+      if (locator.getVBucketIndex(key) == vbucket) {
+        return key;
+      }
+    }
+  }
 }
@@ -29,6 +29,7 @@ import org.junit.Test;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 
@@ -108,6 +109,38 @@ public class DefaultConfigFactoryTest {
     assertTrue(changedCounter > 0);
   }
 
+  /**
+   * Make sure that the single-pass parser creates the same config as the
+   * JSON object based one and reuses unchanged vbuckets.
+   */
+  @Test
+  public void shouldCreateSameConfigFromString() throws Exception {
+    final Config fromObject = factory.create(new JSONObject(rawConfig1));
+    final Config fromString = factory.create(rawConfig1);
+    assertEquals(fromObject.getServers(), fromString.getServers());
+    assertEquals(fromObject.getCouchServers(), fromString.getCouchServers());
+    assertEquals(fromObject.getRestEndpoints(), fromString.getRestEndpoints());
+    assertEquals(fromObject.getReplicasCount(), fromString.getReplicasCount());
+    assertEquals(fromObject.getVbucketsCount(), fromString.getVbucketsCount());
+    for (int i = 0; i < fromObject.getVbucketsCount(); i++) {
+      assertEquals(fromObject.getVbuckets().get(i).toString(),
+        fromString.getVbuckets().get(i).toString());
+    }
+
+    final Config updated = factory.create(new JSONObject(rawConfig2),
+      fromString);
+    final Config updatedFromString = BucketConfigReader.read(rawConfig2)
+      .toConfig(fromString);
+    for (int i = 0; i < updated.getVbucketsCount(); i++) {
+      VBucket expected = updated.getVbuckets().get(i);
+      VBucket actual = updatedFromString.getVbuckets().get(i);
+      assertEquals(expected.toString(), actual.toString());
+      if (expected == fromString.getVbuckets().get(i)) {
+        assertSame(expected, actual);
+      }
+    }
+  }
+
   /**
    * This is a 4-node config from a Couchbase Server 2.2 cluster.
    */
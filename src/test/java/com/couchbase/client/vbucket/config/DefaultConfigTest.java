@@ -32,6 +32,8 @@ import org.junit.Test;
 
 import net.spy.memcached.HashAlgorithm;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -70,4 +72,41 @@ public class DefaultConfigTest {
     assertFalse(config.nodeHasActiveVBuckets(new InetSocketAddress("node3", 8092)));
   }
 
+  /**
+   * Compares two configurations during a rebalance onto a new node.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void computesDifferenceToUpdatedConfig() throws Exception {
+    List<URL> couchServers = Arrays.asList(new URL("http://node1:8092/"));
+    List<String> endpoints = Arrays.asList("http://node1:8091/pools");
+
+    final int numVBuckets = 8;
+    List<VBucket> vbuckets = new ArrayList<VBucket>();
+    for (int i = 0; i < numVBuckets; i++) {
+      vbuckets.add(new VBucket((short) (i % 2), (short) ((i + 1) % 2)));
+    }
+    DefaultConfig current = new DefaultConfig(hashAlgorithm, 2, 1,
+      numVBuckets, Arrays.asList("node1", "node2"), vbuckets, couchServers,
+      endpoints);
+
+    List<VBucket> moved = new ArrayList<VBucket>(vbuckets);
+    moved.set(2, new VBucket((short) 2, (short) 1));
+    moved.set(5, new VBucket((short) 1, (short) 2));
+    DefaultConfig updated = new DefaultConfig(hashAlgorithm, 3, 1,
+      numVBuckets, Arrays.asList("node1", "node2", "node3"), moved,
+      couchServers, endpoints);
+
+    ConfigDifference difference = current.compareTo(updated);
+    assertTrue(difference.isSequenceChanged());
+    assertTrue(difference.hasChanges());
+    assertEquals(Arrays.asList("node3"), difference.getServersAdded());
+    assertTrue(difference.getServersRemoved().isEmpty());
+    assertEquals(1, difference.getVbucketsChanges());
+    assertArrayEquals(new int[] {2, 5}, difference.getChangedVbuckets());
+
+    assertFalse(updated.compareTo(updated).hasChanges());
+  }
+
 }
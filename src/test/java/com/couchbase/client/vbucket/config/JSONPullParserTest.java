@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package com.couchbase.client.vbucket.config;
+
+import java.text.ParseException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the pull parsing of JSON documents.
+ */
+public class JSONPullParserTest {
+
+  @Test
+  public void shouldReadMembersAndSkipValues() throws Exception {
+    JSONPullParser parser = new JSONPullParser("{ \"skip\": {\"a\": [1, "
+      + "\"]}\\\"\", {}]}, \"name\" : \"a\\\"b\\u0041\", \"count\": 12,"
+      + " \"neg\": -3, \"real\": 2.0, \"quoted\": \"7\", \"none\": null,"
+      + " \"map\": [[0, 1], [-1]] }");
+    parser.beginObject();
+    assertTrue(parser.hasNext());
+    assertEquals("skip", parser.nextName());
+    parser.skipValue();
+    assertTrue(parser.hasNext());
+    assertEquals("name", parser.nextName());
+    assertEquals("a\"bA", parser.nextString());
+    assertTrue(parser.hasNext());
+    assertEquals("count", parser.nextName());
+    assertEquals(12, parser.nextInt());
+    assertTrue(parser.hasNext());
+    assertEquals("neg", parser.nextName());
+    assertEquals(-3, parser.nextInt());
+    assertTrue(parser.hasNext());
+    assertEquals("real", parser.nextName());
+    assertEquals(2, parser.nextInt());
+    assertTrue(parser.hasNext());
+    assertEquals("quoted", parser.nextName());
+    assertEquals(7, parser.nextInt());
+    assertTrue(parser.hasNext());
+    assertEquals("none", parser.nextName());
+    assertTrue(parser.isNextNull());
+    assertNull(parser.nextString());
+    assertTrue(parser.hasNext());
+    assertEquals("map", parser.nextName());
+    parser.beginArray();
+    parser.beginArray();
+    assertTrue(parser.hasNext());
+    assertEquals(0, parser.nextInt());
+    assertTrue(parser.hasNext());
+    assertEquals(1, parser.nextInt());
+    assertFalse(parser.hasNext());
+    parser.endArray();
+    assertTrue(parser.hasNext());
+    parser.beginArray();
+    assertTrue(parser.hasNext());
+    assertEquals(-1, parser.nextInt());
+    parser.endArray();
+    assertFalse(parser.hasNext());
+    parser.endArray();
+    assertFalse(parser.hasNext());
+    parser.endObject();
+    parser.endDocument();
+  }
+
+  @Test(expected = ParseException.class)
+  public void shouldFailOnTruncatedInput() throws Exception {
+    JSONPullParser parser = new JSONPullParser("{\"name\": [1, 2");
+    parser.beginObject();
+    parser.nextName();
+    parser.skipValue();
+  }
+
+  @Test(expected = ParseException.class)
+  public void shouldFailOnNonNumericInt() throws Exception {
+    new JSONPullParser("\"abc\"").nextInt();
+  }
+}